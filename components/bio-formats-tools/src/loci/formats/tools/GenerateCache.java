@@ -34,8 +34,17 @@ package loci.formats.tools;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import loci.common.DataTools;
+import loci.formats.FormatException;
 import loci.formats.Memoizer;
 
 /**
@@ -43,85 +52,331 @@ import loci.formats.Memoizer;
  */
 public class GenerateCache {
 
+  // -- Fields --
+
+  /** Directory in which memo files are written. */
+  private final File cacheDir;
+
+  /** Number of files to initialize concurrently. */
+  private final int threads;
+
+  /** Whether to skip files whose memo file is already current. */
+  private final boolean incremental;
+
+  /** Whether to reopen each file from its new memo file to time the load. */
+  private final boolean timing;
+
+  /** Timing totals for each format, keyed by format name. */
+  private final Map<String, FormatSummary> summaries =
+    new TreeMap<String, FormatSummary>();
+
+  private final AtomicInteger current = new AtomicInteger();
+  private final AtomicInteger failed = new AtomicInteger();
+
+  // -- Constructor --
+
+  private GenerateCache(File cacheDir, int threads, boolean incremental,
+    boolean timing)
+  {
+    this.cacheDir = cacheDir;
+    this.threads = threads;
+    this.incremental = incremental;
+    this.timing = timing;
+  }
+
+  // -- Helper methods --
+
   /**
    * Use the given Memoizer to initialize the given file
    * and attempt to generate a memo file.
    * Prints a message if the memo file could not be saved.
+   * Any failure is reported and does not affect other files.
    */
-  private static void generateMemo(Memoizer reader, String path) {
-    boolean success = false;
+  private void generateMemo(Memoizer reader, String path) {
+    if (incremental && isMemoCurrent(reader, path)) {
+      current.incrementAndGet();
+      return;
+    }
+
+    String format = null;
+    boolean saved = false;
+    long initTime = System.nanoTime();
     try {
-      success = reader.generateMemo(path);
+      reader.setId(path);
+      format = reader.getFormat();
+      if (reader.isLoadedFromMemo()) {
+        current.incrementAndGet();
+        return;
+      }
+      saved = reader.isSavedToMemo();
+    }
+    catch (FormatException e) {
+      System.out.println("Could not initialize " + path + ": " +
+        e.getMessage());
     }
     catch (IOException e) {
       e.printStackTrace();
     }
-    if (!success) {
+    catch (RuntimeException e) {
+      e.printStackTrace();
+    }
+    finally {
+      initTime = System.nanoTime() - initTime;
+      closeQuietly(reader);
+    }
+
+    if (!saved) {
       System.out.println("Memo file not saved for " + path);
+      failed.incrementAndGet();
+      record(format, false, initTime, 0);
+      return;
+    }
+
+    if (!timing) {
+      record(format, true, initTime, 0);
+      return;
+    }
+
+    // time a load from the new memo file, to estimate the time saved
+    long loadTime = System.nanoTime();
+    boolean loaded = false;
+    try {
+      reader.setId(path);
+      loaded = reader.isLoadedFromMemo();
+    }
+    catch (FormatException | IOException | RuntimeException e) {
+      System.out.println("Could not reload " + path + " from memo file: " +
+        e.getMessage());
+    }
+    finally {
+      loadTime = System.nanoTime() - loadTime;
+      closeQuietly(reader);
+    }
+    if (!loaded) {
+      // the memo file was saved, but no time saved can be reported
+      System.out.println("Memo load time unavailable for " + path);
+      loadTime = initTime;
+    }
+    record(format, true, initTime, loadTime);
+  }
+
+  /**
+   * Returns true if the given file's memo file exists and is not older
+   * than the file itself, which is the same check used by
+   * {@link Memoizer#loadMemo()}.
+   */
+  private boolean isMemoCurrent(Memoizer reader, String path) {
+    File memo = reader.getMemoFile(path);
+    if (memo == null || !memo.exists() || memo.length() == 0) {
+      return false;
+    }
+    File file = new File(path);
+    return file.exists() && memo.lastModified() >= file.lastModified();
+  }
+
+  private static void closeQuietly(Memoizer reader) {
+    try {
+      reader.close();
+    }
+    catch (IOException e) {
+      e.printStackTrace();
     }
   }
 
   /**
-   * Recursively scan the given directory and generate a memo file
-   * for each found file.
-   * Delegates to #generateMemo(Memoizer, String) to perform the actual
-   * memo file generation.
+   * Adds a file's timings to the summary for its format.
+   * The load time is only used if timing is enabled.
    */
-  private static void processDirectory(Memoizer reader, File dir) {
+  private synchronized void record(String format, boolean saved,
+    long initTime, long loadTime)
+  {
+    if (format == null) {
+      format = "Unknown";
+    }
+    FormatSummary summary = summaries.get(format);
+    if (summary == null) {
+      summary = new FormatSummary();
+      summaries.put(format, summary);
+    }
+    if (!saved) {
+      summary.failed++;
+    }
+    else {
+      summary.saved++;
+      summary.initTime += initTime;
+      summary.loadTime += loadTime;
+    }
+  }
+
+  /**
+   * Recursively scan the given directory and add each found file
+   * to the given list.
+   */
+  private static void processDirectory(File dir, List<String> files) {
     String[] list = dir.list();
+    if (list == null) {
+      System.out.println("Could not list " + dir);
+      return;
+    }
     for (String f : list) {
       File file = new File(dir, f);
       if (file.isDirectory()) {
-        processDirectory(reader, file);
+        processDirectory(file, files);
       }
       else {
-        generateMemo(reader, file.getAbsolutePath());
+        files.add(file.getAbsolutePath());
+      }
+    }
+  }
+
+  /**
+   * Generates a memo file for each of the given files.
+   * Each worker thread uses its own Memoizer.
+   */
+  private void generateMemos(final List<String> files)
+    throws InterruptedException
+  {
+    if (threads <= 1) {
+      Memoizer reader = new Memoizer(0, cacheDir);
+      for (String f : files) {
+        generateMemo(reader, f);
       }
+      return;
     }
+
+    final AtomicInteger next = new AtomicInteger();
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    for (int t=0; t<threads; t++) {
+      pool.execute(new Runnable() {
+        @Override
+        public void run() {
+          Memoizer reader = new Memoizer(0, cacheDir);
+          int index = next.getAndIncrement();
+          while (index < files.size()) {
+            generateMemo(reader, files.get(index));
+            index = next.getAndIncrement();
+          }
+        }
+      });
+    }
+    pool.shutdown();
+    pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
   }
 
-  public static void main(String[] args) {
+  /** Prints the number of files processed and time saved per format. */
+  private void printSummary(int total, long elapsed) {
+    System.out.println();
+    System.out.println(String.format(
+      "%d file(s) in %.1f s: %d memo file(s) saved, %d already current, " +
+      "%d failed", total, elapsed / 1e9,
+      total - current.get() - failed.get(), current.get(), failed.get()));
+    if (summaries.isEmpty()) {
+      return;
+    }
+    if (!timing) {
+      System.out.println(String.format("%-30s %8s %8s %12s",
+        "Format", "Saved", "Failed", "Init (s)"));
+      for (Map.Entry<String, FormatSummary> entry : summaries.entrySet()) {
+        FormatSummary s = entry.getValue();
+        System.out.println(String.format("%-30s %8d %8d %12.2f",
+          entry.getKey(), s.saved, s.failed, s.initTime / 1e9));
+      }
+      return;
+    }
+    System.out.println(String.format("%-30s %8s %8s %12s %12s %12s",
+      "Format", "Saved", "Failed", "Init (s)", "Memo (s)", "Saved (s)"));
+    for (Map.Entry<String, FormatSummary> entry : summaries.entrySet()) {
+      FormatSummary s = entry.getValue();
+      System.out.println(String.format("%-30s %8d %8d %12.2f %12.2f %12.2f",
+        entry.getKey(), s.saved, s.failed, s.initTime / 1e9,
+        s.loadTime / 1e9, (s.initTime - s.loadTime) / 1e9));
+    }
+  }
+
+  public static void main(String[] args) throws InterruptedException {
     if (args.length < 2) {
       System.out.println("Usage:");
       System.out.println(
-        "cachegen [-list] fileOrDir cacheFileDir");
+        "cachegen [-list] [-threads N] [-incremental] [-timing] fileOrDir cacheFileDir");
       System.out.println();
       System.out.println("If '-list' is specified, then 'fileOrDir' is a text file with one file per line.");
+      System.out.println("If '-threads' is specified, then N files are initialized concurrently.");
+      System.out.println("If '-incremental' is specified, then files whose memo file is not older than the file are skipped.");
+      System.out.println("If '-timing' is specified, then each file is reopened from its new memo file to report the time saved.");
       return;
     }
 
     CommandLineTools.runUpgradeCheck(args);
 
-    boolean fileList = args.length >= 3 && args[0].equals("-list");
+    boolean fileList = false;
+    boolean incremental = false;
+    boolean timing = false;
+    int threads = 1;
+    for (int i=0; i<args.length - 2; i++) {
+      if (args[i].equals("-list")) {
+        fileList = true;
+      }
+      else if (args[i].equals("-incremental")) {
+        incremental = true;
+      }
+      else if (args[i].equals("-timing")) {
+        timing = true;
+      }
+      else if (args[i].equals("-threads") && i < args.length - 3) {
+        try {
+          threads = Integer.parseInt(args[++i]);
+        }
+        catch (NumberFormatException e) {
+          System.out.println("Invalid thread count: " + args[i]);
+          return;
+        }
+      }
+    }
     String input = args[args.length - 2];
     String outputDir = args[args.length - 1];
 
-    Memoizer reader = new Memoizer(0, new File(outputDir));
+    GenerateCache cache =
+      new GenerateCache(new File(outputDir), threads, incremental, timing);
     File inputFile = new File(input);
+    List<String> files = new ArrayList<String>();
 
     if (!inputFile.isDirectory()) {
       if (fileList) {
-        String[] files = null;
         try {
-          files = DataTools.readFile(inputFile.getAbsolutePath()).split("\n");
+          for (String f :
+            DataTools.readFile(inputFile.getAbsolutePath()).split("\n"))
+          {
+            if (f.trim().length() > 0) {
+              files.add(f.trim());
+            }
+          }
         }
         catch (IOException e) {
           System.out.println("Could not read file list from " + inputFile);
           e.printStackTrace();
         }
-        if (files != null) {
-          for (String f : files) {
-            generateMemo(reader, f);
-          }
-        }
       }
       else {
-        generateMemo(reader, inputFile.getAbsolutePath());
+        files.add(inputFile.getAbsolutePath());
       }
     }
     else {
-      processDirectory(reader, inputFile);
+      processDirectory(inputFile, files);
     }
+
+    long start = System.nanoTime();
+    cache.generateMemos(files);
+    cache.printSummary(files.size(), System.nanoTime() - start);
+  }
+
+  // -- Helper class --
+
+  /** Totals for the files of a single format. */
+  private static class FormatSummary {
+    int saved;
+    int failed;
+    long initTime;
+    long loadTime;
   }
 
 }
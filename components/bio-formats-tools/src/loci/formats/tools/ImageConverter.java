@@ -39,10 +39,22 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.InputStreamReader;
 import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
 import java.util.Iterator;
 import java.util.HashMap;
+import java.util.List;
 import java.util.TreeMap;
 import java.util.SortedMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import loci.common.Constants;
 import loci.common.DataTools;
@@ -69,6 +81,7 @@ import loci.formats.Memoizer;
 import loci.formats.MetadataTools;
 import loci.formats.MinMaxCalculator;
 import loci.formats.MissingLibraryException;
+import loci.formats.codec.ParallelDecoder;
 import loci.formats.gui.Index16ColorModel;
 import loci.formats.in.DynamicMetadataOptions;
 import loci.formats.meta.IMetadata;
@@ -121,6 +134,8 @@ public final class ImageConverter {
   private boolean zeroPadding = false;
   private boolean flat = true;
   private int pyramidScale = 1, pyramidResolutions = 1;
+  private PyramidBuilder pyramid;
+  private int threads = 1;
   private boolean useMemoizer = false;
   private String cacheDir = null;
   private boolean originalMetadata = true;
@@ -132,6 +147,15 @@ public final class ImageConverter {
   private boolean firstTile = true;
   private DynamicMetadataOptions options = new DynamicMetadataOptions();
 
+  /** Threads used to read and compress tiles when -threads is set. */
+  private ExecutorService tileExecutor;
+
+  /** Reader copies that are not currently used by a tile thread. */
+  private BlockingQueue<IFormatReader> idleReaders;
+
+  /** All reader copies opened for the tile threads. */
+  private List<IFormatReader> tileReaders;
+
   // -- Constructor --
 
   public ImageConverter() { }
@@ -243,6 +267,16 @@ public final class ImageConverter {
           }
           catch (NumberFormatException e) { }
         }
+        else if (args[i].equals("-threads")) {
+          try {
+            threads = Integer.parseInt(args[++i]);
+            if (threads <= 0) {
+              LOGGER.error("Invalid thread count: {}", threads);
+              return false;
+            }
+          }
+          catch (NumberFormatException e) { }
+        }
         else if (!args[i].equals(CommandLineTools.NO_UPGRADE_CHECK)) {
           LOGGER.error("Found unknown command flag: {}; exiting.", args[i]);
           return false;
@@ -318,7 +352,8 @@ public final class ImageConverter {
       "    [-nolookup] [-autoscale] [-version] [-no-upgrade] [-padded]",
       "    [-option key value] [-novalid] [-validate] [-tilex tileSizeX]", 
       "    [-tiley tileSizeY] [-pyramid-scale scale]", 
-      "    [-pyramid-resolutions numResolutionLevels] in_file out_file",
+      "    [-pyramid-resolutions numResolutionLevels] [-threads count]",
+      "    in_file out_file",
       "",
       "            -version: print the library version and exit",
       "         -no-upgrade: do not perform the upgrade check",
@@ -359,6 +394,8 @@ public final class ImageConverter {
       "              -tiley: image will be converted one tile at a time using the given tile height",
       "      -pyramid-scale: generates a pyramid image with each subsequent resolution level divided by scale",
       "-pyramid-resolutions: generates a pyramid image with the given number of resolution levels ",
+      "            -threads: read and compress tiles using the given number of threads",
+      "                      when writing TIFF tiles",
       "",
       "The extension of the output file specifies the file format to use",
       "for the conversion. The list of available formats and extensions is:",
@@ -455,9 +492,7 @@ public final class ImageConverter {
 
     long start = System.currentTimeMillis();
     LOGGER.info(in);
-    reader = new ImageReader();
     if (stitch) {
-      reader = new FileStitcher(reader);
       Location f = new Location(in);
       String pat = null;
       if (!f.exists()) {
@@ -468,28 +503,13 @@ public final class ImageConverter {
       }
       if (pat != null) in = pat;
     }
-    if (separate) reader = new ChannelSeparator(reader);
-    if (merge) reader = new ChannelMerger(reader);
-    if (fill) reader = new ChannelFiller(reader);
-    if (useMemoizer) {
-      if (cacheDir != null) {
-        reader = new Memoizer(reader, 0, new File(cacheDir));
-      }
-      else {
-        reader = new Memoizer(reader, 0);
-      }
-    }
+    reader = createReader();
     minMax = null;
     if (autoscale) {
       reader = new MinMaxCalculator(reader);
       minMax = (MinMaxCalculator) reader;
     }
 
-    reader.setMetadataOptions(options);
-    reader.setGroupFiles(group);
-    reader.setMetadataFiltered(true);
-    reader.setOriginalMetadataPopulated(originalMetadata);
-    reader.setFlattenedResolutions(flat);
     OMEXMLService service = null;
     try {
       ServiceFactory factory = new ServiceFactory();
@@ -623,130 +643,164 @@ public final class ImageConverter {
       new Object[] {reader.getFormat(), out, format});
     long mid = System.currentTimeMillis();
 
+    if (threads > 1) {
+      if (minMax != null) {
+        LOGGER.warn("Ignoring -threads, as -autoscale was specified");
+      }
+      else {
+        startTileThreads();
+      }
+    }
+
     int total = 0;
     int num = writer.canDoStacks() ? reader.getSeriesCount() : 1;
     long read = 0, write = 0;
     int first = series == -1 ? 0 : series;
     int last = series == -1 ? num : series + 1;
     long timeLastLogged = System.currentTimeMillis();
-    for (int q=first; q<last; q++) {
-      reader.setSeries(q);
-      // OutputIndex should be reset at the start of a new series
-      nextOutputIndex.clear();
-      boolean generatePyramid = pyramidResolutions > reader.getResolutionCount();
-      int resolutionCount = generatePyramid ? pyramidResolutions : reader.getResolutionCount();
-      for (int res=0; res<resolutionCount; res++) {
-        if (!generatePyramid) {
-          reader.setResolution(res);
+    try {
+      for (int q=first; q<last; q++) {
+        reader.setSeries(q);
+        // OutputIndex should be reset at the start of a new series
+        nextOutputIndex.clear();
+        boolean generatePyramid = pyramidResolutions > reader.getResolutionCount();
+        int resolutionCount = generatePyramid ? pyramidResolutions : reader.getResolutionCount();
+        if (pyramid != null) {
+          pyramid.close();
+          pyramid = null;
+        }
+        if (generatePyramid && reader.getResolutionCount() == 1 &&
+          !dimensionsSet)
+        {
+          // build each resolution from the one before it, so that the
+          // full resolution image is only read once
+          int type = reader.getPixelType();
+          pyramid = new PyramidBuilder(pyramidScale, resolutionCount,
+            reader.getSizeX(), reader.getSizeY(),
+            FormatTools.getBytesPerPixel(type), reader.getRGBChannelCount(),
+            reader.isInterleaved(), reader.getImageCount(),
+            Runtime.getRuntime().maxMemory() / 8);
         }
-        firstTile = true;
+        for (int res=0; res<resolutionCount; res++) {
+          if (!generatePyramid) {
+            reader.setResolution(res);
+          }
+          firstTile = true;
 
-        if (!dimensionsSet) {
-          width = reader.getSizeX();
-          height = reader.getSizeY();
+          if (!dimensionsSet) {
+            width = reader.getSizeX();
+            height = reader.getSizeY();
 
-          if (generatePyramid && res > 0) {
-            int scale = (int) Math.pow(pyramidScale, res);
-            width /= scale;
-            height /= scale;
+            if (generatePyramid && res > 0) {
+              int scale = (int) Math.pow(pyramidScale, res);
+              width /= scale;
+              height /= scale;
+            }
+          } else {
+            width = Math.min(reader.getSizeX(), width_crop);
+            height = Math.min(reader.getSizeY(), height_crop);
           }
-        } else {
-          width = Math.min(reader.getSizeX(), width_crop);
-          height = Math.min(reader.getSizeY(), height_crop);
-        }
-
-        int writerSeries = series == -1 ? q : 0;
-        writer.setSeries(writerSeries);
-        writer.setResolution(res);
-        writer.setInterleaved(reader.isInterleaved() && !autoscale);
-        writer.setValidBitsPerPixel(reader.getBitsPerPixel());
-        int numImages = writer.canDoStacks() ? reader.getImageCount() : 1;
 
-        int startPlane = (int) Math.max(0, firstPlane);
-        int endPlane = (int) Math.min(numImages, lastPlane);
-        numImages = endPlane - startPlane;
+          int writerSeries = series == -1 ? q : 0;
+          writer.setSeries(writerSeries);
+          writer.setResolution(res);
+          writer.setInterleaved(reader.isInterleaved() && !autoscale);
+          writer.setValidBitsPerPixel(reader.getBitsPerPixel());
+          int numImages = writer.canDoStacks() ? reader.getImageCount() : 1;
 
-        if (channel >= 0) {
-          numImages /= reader.getEffectiveSizeC();
-        }
-        if (zSection >= 0) {
-          numImages /= reader.getSizeZ();
-        }
-        if (timepoint >= 0) {
-          numImages /= reader.getSizeT();
-        }
+          int startPlane = (int) Math.max(0, firstPlane);
+          int endPlane = (int) Math.min(numImages, lastPlane);
+          numImages = endPlane - startPlane;
 
-        total += numImages;
+          if (channel >= 0) {
+            numImages /= reader.getEffectiveSizeC();
+          }
+          if (zSection >= 0) {
+            numImages /= reader.getSizeZ();
+          }
+          if (timepoint >= 0) {
+            numImages /= reader.getSizeT();
+          }
 
-        int count = 0;
-        for (int i=startPlane; i<endPlane; i++) {
-          int[] coords = reader.getZCTCoords(i);
+          total += numImages;
 
-          if ((zSection >= 0 && coords[0] != zSection) || (channel >= 0 &&
-            coords[1] != channel) || (timepoint >= 0 && coords[2] != timepoint))
-          {
-            continue;
-          }
+          int count = 0;
+          for (int i=startPlane; i<endPlane; i++) {
+            int[] coords = reader.getZCTCoords(i);
 
-          String outputName = FormatTools.getFilename(q, i, reader, out, zeroPadding);
-          if (outputName.equals(FormatTools.getTileFilename(0, 0, 0, outputName))) {
-            writer.setId(outputName);
-            if (compression != null) writer.setCompression(compression);
-          }
-          else {
-            int tileNum = outputName.indexOf(FormatTools.TILE_NUM);
-            int tileX = outputName.indexOf(FormatTools.TILE_X);
-            int tileY = outputName.indexOf(FormatTools.TILE_Y);
-            if (tileNum < 0 && (tileX < 0 || tileY < 0)) {
-              throw new FormatException("Invalid file name pattern; " +
-                FormatTools.TILE_NUM + " or both of " + FormatTools.TILE_X +
-                " and " + FormatTools.TILE_Y + " must be specified.");
+            if ((zSection >= 0 && coords[0] != zSection) || (channel >= 0 &&
+              coords[1] != channel) || (timepoint >= 0 && coords[2] != timepoint))
+            {
+              continue;
             }
-            if (saveTileWidth == 0 && saveTileHeight == 0) {
-              // Using tile output name but not tiled reading
-              writer.setId(FormatTools.getTileFilename(0, 0, 0, outputName));
+
+            String outputName = FormatTools.getFilename(q, i, reader, out, zeroPadding);
+            if (outputName.equals(FormatTools.getTileFilename(0, 0, 0, outputName))) {
+              writer.setId(outputName);
               if (compression != null) writer.setCompression(compression);
             }
-          }
+            else {
+              int tileNum = outputName.indexOf(FormatTools.TILE_NUM);
+              int tileX = outputName.indexOf(FormatTools.TILE_X);
+              int tileY = outputName.indexOf(FormatTools.TILE_Y);
+              if (tileNum < 0 && (tileX < 0 || tileY < 0)) {
+                throw new FormatException("Invalid file name pattern; " +
+                  FormatTools.TILE_NUM + " or both of " + FormatTools.TILE_X +
+                  " and " + FormatTools.TILE_Y + " must be specified.");
+              }
+              if (saveTileWidth == 0 && saveTileHeight == 0) {
+                // Using tile output name but not tiled reading
+                writer.setId(FormatTools.getTileFilename(0, 0, 0, outputName));
+                if (compression != null) writer.setCompression(compression);
+              }
+            }
 
-          int outputIndex = 0;
-          if (nextOutputIndex.containsKey(outputName)) {
-            outputIndex = nextOutputIndex.get(outputName);
-          }
+            int outputIndex = 0;
+            if (nextOutputIndex.containsKey(outputName)) {
+              outputIndex = nextOutputIndex.get(outputName);
+            }
 
-          long s = System.currentTimeMillis();
-          long m = convertPlane(writer, i, outputIndex, outputName);
-          long e = System.currentTimeMillis();
-          read += m - s;
-          write += e - m;
+            long s = System.currentTimeMillis();
+            long m = convertPlane(writer, i, outputIndex, outputName);
+            long e = System.currentTimeMillis();
+            read += m - s;
+            write += e - m;
 
-          nextOutputIndex.put(outputName, outputIndex + 1);
-          if (i == endPlane - 1) {
-            nextOutputIndex.remove(outputName);
-          }
+            nextOutputIndex.put(outputName, outputIndex + 1);
+            if (i == endPlane - 1) {
+              nextOutputIndex.remove(outputName);
+            }
 
-          // log number of planes processed every second or so
-          if (count == numImages - 1 || (e - timeLastLogged) / 1000 > 0) {
-            int current = (count - startPlane) + 1;
-            int percent = 100 * current / numImages;
-            StringBuilder sb = new StringBuilder();
-            sb.append("\t");
-            int numSeries = last - first;
-            if (numSeries > 1) {
-              sb.append("Series ");
-              sb.append(q);
-              sb.append(": converted ");
+            // log number of planes processed every second or so
+            if (count == numImages - 1 || (e - timeLastLogged) / 1000 > 0) {
+              int current = (count - startPlane) + 1;
+              int percent = 100 * current / numImages;
+              StringBuilder sb = new StringBuilder();
+              sb.append("\t");
+              int numSeries = last - first;
+              if (numSeries > 1) {
+                sb.append("Series ");
+                sb.append(q);
+                sb.append(": converted ");
+              }
+              else sb.append("Converted ");
+              LOGGER.info(sb.toString() + "{}/{} planes ({}%)",
+                new Object[] {current, numImages, percent});
+              timeLastLogged = e;
             }
-            else sb.append("Converted ");
-            LOGGER.info(sb.toString() + "{}/{} planes ({}%)",
-              new Object[] {current, numImages, percent});
-            timeLastLogged = e;
+            count++;
           }
-          count++;
         }
       }
+      if (pyramid != null) {
+        pyramid.close();
+        pyramid = null;
+      }
+      writer.close();
+    }
+    finally {
+      closeTileThreads();
     }
-    writer.close();
     long end = System.currentTimeMillis();
     LOGGER.info("[done]");
 
@@ -843,6 +897,24 @@ public final class ImageConverter {
     ifd.put(IFD.TILE_WIDTH, w);
     ifd.put(IFD.TILE_LENGTH, h);
 
+    TiffWriter tiffWriter = null;
+    if (writer instanceof TiffWriter) {
+      tiffWriter = (TiffWriter) writer;
+    }
+    else if (writer instanceof ImageWriter) {
+      IFormatWriter baseWriter = ((ImageWriter) writer).getWriter(out);
+      if (baseWriter instanceof TiffWriter) {
+        tiffWriter = (TiffWriter) baseWriter;
+      }
+    }
+    if (tileExecutor != null && tiffWriter != null &&
+      currentFile.equals(FormatTools.getTileFilename(0, 0, 0, currentFile)))
+    {
+      applyLUT(writer);
+      return convertTilesInParallel(tiffWriter, index, outputIndex, ifd,
+        w, h, nXTiles, nYTiles);
+    }
+
     Long m = null;
     for (int y=0; y<nYTiles; y++) {
       for (int x=0; x<nXTiles; x++) {
@@ -928,6 +1000,179 @@ public final class ImageConverter {
     return m;
   }
 
+  /**
+   * Convert the specified plane as a set of tiles, using the tile threads
+   * to read and compress each tile.  Tiles are written in order by the
+   * calling thread.  Besides the tile being written, at most two tiles per
+   * thread are queued, being converted or waiting to be written, so only
+   * those tiles and their compressed bytes are held in memory; the batch
+   * does not keep tiles that have been converted.
+   * @param writer the {@link loci.formats.out.TiffWriter} to use for writing
+   * @param index the index of the plane to convert in the input file
+   * @param outputIndex the index of the plane to convert in the output file
+   * @param ifd the IFD to use for writing the plane
+   * @param w the width of a tile
+   * @param h the height of a tile
+   * @param nXTiles the number of tiles in each row
+   * @param nYTiles the number of tiles in each column
+   * @return the time at which writing started, in milliseconds
+   * @throws FormatException
+   * @throws IOException
+   */
+  private long convertTilesInParallel(final TiffWriter writer,
+    final int index, final int outputIndex, IFD ifd, final int w, final int h,
+    final int nXTiles, final int nYTiles)
+    throws FormatException, IOException
+  {
+    final int currentSeries = reader.getSeries();
+    final int outputSeries = writer.getSeries();
+    final int resolution = writer.getResolution();
+    final IFD template = new IFD(ifd);
+    int tileCount = nXTiles * nYTiles;
+    Deque<Future<byte[]>> pending = new ArrayDeque<Future<byte[]>>();
+    ParallelDecoder.Batch batch = new ParallelDecoder.Batch(tileExecutor);
+    int next = 0;
+    Long m = null;
+    try {
+      for (int t=0; t<tileCount; t++) {
+        while (next < tileCount && pending.size() < threads * 2) {
+          final int x = next % nXTiles;
+          final int y = next / nXTiles;
+          pending.add(batch.submit(new Callable<byte[]>() {
+            @Override
+            public byte[] call() throws FormatException, IOException {
+              int tileWidth = x < nXTiles - 1 ? w : width - (w * x);
+              int tileHeight = y < nYTiles - 1 ? h : height - (h * y);
+              IFormatReader r = getTileReader();
+              try {
+                r.setSeries(currentSeries);
+                byte[] buf = getTile(r, resolution, index,
+                  xCoordinate + x * w, yCoordinate + y * h,
+                  tileWidth, tileHeight);
+                writer.compressBytes(outputSeries, resolution, outputIndex,
+                  buf, template, x * w, y * h, tileWidth, tileHeight);
+                return buf;
+              }
+              finally {
+                idleReaders.add(r);
+              }
+            }
+          }));
+          next++;
+        }
+
+        byte[] buf = ParallelDecoder.get(pending.remove());
+        int x = t % nXTiles;
+        int y = t / nXTiles;
+        int tileWidth = x < nXTiles - 1 ? w : width - (w * x);
+        int tileHeight = y < nYTiles - 1 ? h : height - (h * y);
+        if (m == null) {
+          m = System.currentTimeMillis();
+        }
+        writer.saveBytes(outputIndex, buf, ifd, x * w, y * h,
+          tileWidth, tileHeight);
+      }
+    }
+    finally {
+      // if a tile failed, wait for the other tiles to stop before the
+      // writer can be closed
+      batch.cancel();
+    }
+    return m;
+  }
+
+  /**
+   * Create a reader for the input file, with all of the requested wrappers
+   * and options except for autoscaling.
+   * @return the reader, which has not been initialized
+   * @throws FormatException
+   * @throws IOException
+   */
+  private IFormatReader createReader() throws FormatException, IOException {
+    IFormatReader r = new ImageReader();
+    if (stitch) r = new FileStitcher(r);
+    if (separate) r = new ChannelSeparator(r);
+    if (merge) r = new ChannelMerger(r);
+    if (fill) r = new ChannelFiller(r);
+    if (useMemoizer) {
+      if (cacheDir != null) {
+        r = new Memoizer(r, 0, new File(cacheDir));
+      }
+      else {
+        r = new Memoizer(r, 0);
+      }
+    }
+
+    r.setMetadataOptions(options);
+    r.setGroupFiles(group);
+    r.setMetadataFiltered(true);
+    r.setOriginalMetadataPopulated(originalMetadata);
+    r.setFlattenedResolutions(flat);
+    return r;
+  }
+
+  /** Start the threads used to read and compress tiles. */
+  private void startTileThreads() {
+    LOGGER.info("Using {} threads", threads);
+    idleReaders = new LinkedBlockingQueue<IFormatReader>();
+    tileReaders = new ArrayList<IFormatReader>();
+    tileExecutor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, "ImageConverter");
+        t.setDaemon(true);
+        return t;
+      }
+    });
+  }
+
+  /**
+   * Get a reader that is not in use by another tile thread, opening a new
+   * copy of the input file if necessary.  The reader must be returned to
+   * {@link #idleReaders} when the tile has been read.
+   * @return an initialized reader
+   * @throws FormatException
+   * @throws IOException
+   */
+  private IFormatReader getTileReader() throws FormatException, IOException {
+    IFormatReader r = idleReaders.poll();
+    if (r == null) {
+      r = createReader();
+      synchronized (tileReaders) {
+        tileReaders.add(r);
+      }
+      r.setId(in);
+    }
+    return r;
+  }
+
+  /**
+   * Stop the tile threads and close their readers, once every tile
+   * thread has finished.
+   */
+  private void closeTileThreads() throws IOException {
+    if (tileExecutor == null) {
+      return;
+    }
+    ExecutorService executor = tileExecutor;
+    tileExecutor = null;
+    executor.shutdown();
+    try {
+      executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while stopping tile threads", e);
+    }
+    synchronized (tileReaders) {
+      for (IFormatReader r : tileReaders) {
+        r.close();
+      }
+      tileReaders.clear();
+    }
+    idleReaders.clear();
+  }
+
   /**
    * Calculate the number of vertical tiles represented by the given file name pattern.
    * @param outputName the output file name pattern
@@ -1073,7 +1318,18 @@ public final class ImageConverter {
   {
     if (resolution < reader.getResolutionCount()) {
       reader.setResolution(resolution);
-      return reader.openBytes(no, x, y, w, h);
+      byte[] tile = reader.openBytes(no, x, y, w, h);
+      if (pyramid != null) {
+        pyramid.addTile(resolution, no, x, y, w, h, tile);
+      }
+      return tile;
+    }
+    if (pyramid != null) {
+      byte[] tile = pyramid.getTile(resolution, no, x, y, w, h);
+      if (tile != null) {
+        pyramid.addTile(resolution, no, x, y, w, h, tile);
+        return tile;
+      }
     }
     reader.setResolution(0);
     IImageScaler scaler = new SimpleImageScaler();
@@ -0,0 +1,408 @@
+/*
+ * #%L
+ * Bio-Formats command line tools for reading and converting files
+ * %%
+ * Copyright (C) 2005 - 2017 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package loci.formats.tools;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Generates the sub-resolutions of a pyramid one level at a time.
+ *
+ * Every tile written at one resolution is passed to
+ * {@link #addTile(int, int, int, int, int, int, byte[])}, which copies the
+ * pixels that belong to the next resolution into a buffer for that
+ * resolution.  Tiles of the next resolution are then read back from the
+ * buffer with {@link #getTile(int, int, int, int, int, int)}, so the
+ * full resolution image is only read once no matter how many levels are
+ * generated.
+ *
+ * Pixel (x, y) of resolution r + 1 is pixel (x * scale, y * scale) of
+ * resolution r, which matches what
+ * {@link loci.common.image.SimpleImageScaler} produces when downsampling
+ * a block whose size is a multiple of the scale.
+ *
+ * Each buffer holds all planes of one resolution.  Buffers are kept in
+ * memory up to a limit, and in a temporary file beyond that or if a single
+ * plane does not fit in an array.  Rows are written to and read from a
+ * temporary file through a small cache of pages, rather than one row at
+ * a time.  Only the
+ * buffers for the resolution being read and the resolution being filled
+ * are kept.  All methods are synchronized, so that tiles can be added and
+ * read from several threads.
+ */
+class PyramidBuilder implements Closeable {
+
+  // -- Constants --
+
+  private static final Logger LOGGER =
+    LoggerFactory.getLogger(PyramidBuilder.class);
+
+  /** Largest plane that can be buffered in a single array. */
+  private static final long MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+
+  /** Size of each page of a temporary file that is cached in memory. */
+  private static final int PAGE_SIZE = 1024 * 1024;
+
+  /** Number of pages of a temporary file that are cached in memory. */
+  private static final int MAX_PAGES = 16;
+
+  // -- Fields --
+
+  private final int scale;
+  private final int bytesPerPixel;
+  private final int channels;
+  private final boolean interleaved;
+  private final int planeCount;
+  private final long memoryLimit;
+
+  /** Width and height of each resolution. */
+  private final int[] widths, heights;
+
+  /** Buffers indexed by resolution; resolution 0 is never buffered. */
+  private final Level[] levels;
+
+  // -- Constructor --
+
+  /**
+   * Create a builder for a single series.
+   *
+   * @param scale the scale factor between consecutive resolutions
+   * @param resolutionCount the total number of resolutions to write
+   * @param sizeX the width of the full resolution image
+   * @param sizeY the height of the full resolution image
+   * @param bytesPerPixel the number of bytes in a single sample
+   * @param channels the number of samples per pixel
+   * @param interleaved true if samples of a pixel are stored together
+   * @param planeCount the number of planes in the series
+   * @param memoryLimit the maximum size of a buffer kept in memory
+   */
+  public PyramidBuilder(int scale, int resolutionCount, int sizeX, int sizeY,
+    int bytesPerPixel, int channels, boolean interleaved, int planeCount,
+    long memoryLimit)
+  {
+    this.scale = scale;
+    this.bytesPerPixel = bytesPerPixel;
+    this.channels = channels;
+    this.interleaved = interleaved;
+    this.planeCount = planeCount;
+    this.memoryLimit = memoryLimit;
+    widths = new int[resolutionCount];
+    heights = new int[resolutionCount];
+    levels = new Level[resolutionCount];
+    widths[0] = sizeX;
+    heights[0] = sizeY;
+    for (int r=1; r<resolutionCount; r++) {
+      widths[r] = widths[r - 1] / scale;
+      heights[r] = heights[r - 1] / scale;
+    }
+  }
+
+  // -- PyramidBuilder API methods --
+
+  /**
+   * Record a tile that was written at the given resolution, so that the
+   * matching part of the next resolution can be generated.
+   */
+  public synchronized void addTile(int resolution, int no, int x, int y,
+    int w, int h, byte[] tile)
+    throws IOException
+  {
+    discardBelow(resolution);
+    int next = resolution + 1;
+    if (next >= levels.length) {
+      return;
+    }
+    if (levels[next] == null) {
+      levels[next] = new Level(widths[next], heights[next]);
+    }
+    Level level = levels[next];
+
+    // range of pixels in the next resolution that come from this tile
+    int firstX = (x + scale - 1) / scale;
+    int firstY = (y + scale - 1) / scale;
+    int lastX = Math.min((x + w - 1) / scale, level.width - 1);
+    int lastY = Math.min((y + h - 1) / scale, level.height - 1);
+    if (firstX > lastX || firstY > lastY) {
+      return;
+    }
+
+    int pixel = getPixelSize();
+    int outWidth = lastX - firstX + 1;
+    byte[] row = new byte[outWidth * pixel];
+    for (int p=0; p<getComponentCount(); p++) {
+      int component = p * w * h * pixel;
+      for (int outY=firstY; outY<=lastY; outY++) {
+        int src = component + (outY * scale - y) * w * pixel;
+        for (int outX=0; outX<outWidth; outX++) {
+          int srcX = (firstX + outX) * scale - x;
+          System.arraycopy(tile, src + srcX * pixel, row, outX * pixel, pixel);
+        }
+        level.write(no, p, firstX, outY, row);
+      }
+    }
+  }
+
+  /**
+   * Read a tile of a generated resolution.
+   *
+   * @return the tile, or null if the resolution has not been generated
+   */
+  public synchronized byte[] getTile(int resolution, int no, int x, int y,
+    int w, int h)
+    throws IOException
+  {
+    discardBelow(resolution);
+    if (resolution >= levels.length || levels[resolution] == null) {
+      return null;
+    }
+    Level level = levels[resolution];
+    int pixel = getPixelSize();
+    byte[] tile = new byte[w * h * pixel * getComponentCount()];
+    for (int p=0; p<getComponentCount(); p++) {
+      for (int row=0; row<h; row++) {
+        level.read(no, p, x, y + row, tile, (p * h + row) * w * pixel, w);
+      }
+    }
+    return tile;
+  }
+
+  /** Discard all buffers and delete any temporary files. */
+  @Override
+  public synchronized void close() throws IOException {
+    discardBelow(levels.length);
+  }
+
+  // -- Helper methods --
+
+  /** Number of bytes in each pixel of one stored component. */
+  private int getPixelSize() {
+    return interleaved ? bytesPerPixel * channels : bytesPerPixel;
+  }
+
+  /** Number of separately stored components in each plane. */
+  private int getComponentCount() {
+    return interleaved ? 1 : channels;
+  }
+
+  /** Discard buffers that are no longer needed. */
+  private void discardBelow(int resolution) throws IOException {
+    for (int r=0; r<Math.min(resolution, levels.length); r++) {
+      if (levels[r] != null) {
+        levels[r].close();
+        levels[r] = null;
+      }
+    }
+  }
+
+  // -- Helper classes --
+
+  /** Buffer holding every plane of one resolution. */
+  private class Level implements Closeable {
+    final int width, height;
+
+    /** Size of one component of one plane, in bytes. */
+    final long componentSize;
+
+    /** Planes stored in memory, or null if a file is used. */
+    Map<Integer, byte[]> planes;
+
+    File file;
+    RandomAccessFile data;
+
+    /** Offsets of each plane stored in the file. */
+    Map<Integer, Long> offsets;
+
+    /** Cached pages of the file, in least recently used order. */
+    LinkedHashMap<Long, Page> pages;
+
+    Level(int width, int height) throws IOException {
+      this.width = width;
+      this.height = height;
+      componentSize = (long) width * height * getPixelSize();
+      long planeSize = componentSize * getComponentCount();
+      if (planeSize <= MAX_ARRAY_SIZE &&
+        planeSize * planeCount <= memoryLimit)
+      {
+        planes = new HashMap<Integer, byte[]>();
+      }
+      else {
+        file = File.createTempFile("pyramid", ".tmp");
+        file.deleteOnExit();
+        data = new RandomAccessFile(file, "rw");
+        offsets = new HashMap<Integer, Long>();
+        pages = new LinkedHashMap<Long, Page>(MAX_PAGES, 0.75f, true);
+        LOGGER.debug("Buffering {} x {} resolution in {}",
+          new Object[] {width, height, file});
+      }
+    }
+
+    /** Write one row of pixels, starting at (x, y). */
+    void write(int no, int component, int x, int y, byte[] row)
+      throws IOException
+    {
+      long offset = getOffset(component, x, y);
+      if (planes != null) {
+        byte[] plane = planes.get(no);
+        if (plane == null) {
+          plane = new byte[(int) (componentSize * getComponentCount())];
+          planes.put(no, plane);
+        }
+        System.arraycopy(row, 0, plane, (int) offset, row.length);
+      }
+      else {
+        Long start = offsets.get(no);
+        if (start == null) {
+          start = offsets.size() * componentSize * getComponentCount();
+          offsets.put(no, start);
+        }
+        writePages(start + offset, row, 0, row.length);
+      }
+    }
+
+    /** Read w pixels starting at (x, y) into buf. */
+    void read(int no, int component, int x, int y, byte[] buf, int bufOffset,
+      int w)
+      throws IOException
+    {
+      int len = w * getPixelSize();
+      long offset = getOffset(component, x, y);
+      if (planes != null) {
+        byte[] plane = planes.get(no);
+        if (plane != null) {
+          System.arraycopy(plane, (int) offset, buf, bufOffset, len);
+        }
+      }
+      else {
+        Long start = offsets.get(no);
+        if (start != null) {
+          readPages(start + offset, buf, bufOffset, len);
+        }
+      }
+    }
+
+    long getOffset(int component, int x, int y) {
+      return component * componentSize +
+        ((long) y * width + x) * getPixelSize();
+    }
+
+    /** Copy len bytes from buf into the file, starting at pos. */
+    void writePages(long pos, byte[] buf, int bufOffset, int len)
+      throws IOException
+    {
+      while (len > 0) {
+        Page page = getPage(pos / PAGE_SIZE);
+        int pageOffset = (int) (pos % PAGE_SIZE);
+        int n = Math.min(len, PAGE_SIZE - pageOffset);
+        System.arraycopy(buf, bufOffset, page.bytes, pageOffset, n);
+        page.dirty = true;
+        pos += n;
+        bufOffset += n;
+        len -= n;
+      }
+    }
+
+    /** Copy len bytes from the file into buf, starting at pos. */
+    void readPages(long pos, byte[] buf, int bufOffset, int len)
+      throws IOException
+    {
+      while (len > 0) {
+        Page page = getPage(pos / PAGE_SIZE);
+        int pageOffset = (int) (pos % PAGE_SIZE);
+        int n = Math.min(len, PAGE_SIZE - pageOffset);
+        System.arraycopy(page.bytes, pageOffset, buf, bufOffset, n);
+        pos += n;
+        bufOffset += n;
+        len -= n;
+      }
+    }
+
+    /**
+     * Get the given page of the file, reading it if it is not cached and
+     * writing back the least recently used page if too many are cached.
+     */
+    Page getPage(long index) throws IOException {
+      Page page = pages.get(index);
+      if (page != null) {
+        return page;
+      }
+      page = new Page();
+      long start = index * PAGE_SIZE;
+      long available = data.length() - start;
+      if (available > 0) {
+        data.seek(start);
+        data.readFully(page.bytes, 0, (int) Math.min(PAGE_SIZE, available));
+      }
+      pages.put(index, page);
+      if (pages.size() > MAX_PAGES) {
+        Iterator<Map.Entry<Long, Page>> eldest = pages.entrySet().iterator();
+        Map.Entry<Long, Page> entry = eldest.next();
+        eldest.remove();
+        if (entry.getValue().dirty) {
+          data.seek(entry.getKey() * PAGE_SIZE);
+          data.write(entry.getValue().bytes);
+        }
+      }
+      return page;
+    }
+
+    @Override
+    public void close() throws IOException {
+      planes = null;
+      pages = null;
+      if (data != null) {
+        data.close();
+        data = null;
+      }
+      if (file != null) {
+        file.delete();
+        file = null;
+      }
+    }
+  }
+
+  /** One cached page of a temporary file. */
+  private static class Page {
+    final byte[] bytes = new byte[PAGE_SIZE];
+    boolean dirty;
+  }
+
+}
@@ -0,0 +1,179 @@
+/*
+ * #%L
+ * Bio-Formats command line tools for reading and converting files
+ * %%
+ * Copyright (C) 2017 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package loci.formats.tools;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import loci.formats.Memoizer;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Tests the functionality of GenerateCache
+ */
+public class GenerateCacheTest {
+
+  private static final String[] FILES = {
+    "a&sizeX=64&sizeY=64.fake",
+    "b&sizeX=32&sizeY=32&sizeZ=4.fake",
+    "sub/c&sizeX=16&sizeY=16&sizeC=3.fake",
+    "sub/d&sizeX=128&sizeY=8.fake",
+  };
+
+  private Path tempDir;
+  private File inputDir;
+  private File cacheDir;
+  private final PrintStream oldOut = System.out;
+
+  @BeforeMethod
+  public void setUp() throws IOException {
+    tempDir = Files.createTempDirectory(this.getClass().getName());
+    tempDir.toFile().deleteOnExit();
+    inputDir = new File(tempDir.toFile(), "input");
+    cacheDir = new File(tempDir.toFile(), "cache");
+    cacheDir.mkdirs();
+    for (String f : FILES) {
+      File file = new File(inputDir, f);
+      file.getParentFile().mkdirs();
+      file.createNewFile();
+    }
+  }
+
+  @AfterMethod
+  public void tearDown() {
+    System.setOut(oldOut);
+  }
+
+  private String run(String... args) throws InterruptedException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    System.setOut(new PrintStream(out));
+    try {
+      GenerateCache.main(args);
+    }
+    finally {
+      System.setOut(oldOut);
+    }
+    return out.toString();
+  }
+
+  private void checkMemoFiles() {
+    Memoizer memoizer = new Memoizer(0, cacheDir);
+    for (String f : FILES) {
+      File memo = memoizer.getMemoFile(new File(inputDir, f).getAbsolutePath());
+      assertTrue(memo.exists(), memo.getAbsolutePath());
+    }
+  }
+
+  @Test
+  public void testSingleThread() throws InterruptedException {
+    String output = run(inputDir.getAbsolutePath(), cacheDir.getAbsolutePath());
+    assertTrue(output.contains("4 memo file(s) saved"), output);
+    assertTrue(!output.contains("Memo (s)"), output);
+    checkMemoFiles();
+  }
+
+  @Test
+  public void testTiming() throws InterruptedException {
+    String output = run("-threads", "2", "-timing",
+      inputDir.getAbsolutePath(), cacheDir.getAbsolutePath());
+    assertTrue(output.contains("4 memo file(s) saved"), output);
+    assertTrue(output.contains("Memo (s)"), output);
+    checkMemoFiles();
+  }
+
+  @Test
+  public void testThreads() throws InterruptedException {
+    String output = run("-threads", "3",
+      inputDir.getAbsolutePath(), cacheDir.getAbsolutePath());
+    assertTrue(output.contains("4 memo file(s) saved"), output);
+    assertTrue(output.contains("0 failed"), output);
+    checkMemoFiles();
+  }
+
+  @Test
+  public void testIncremental() throws InterruptedException {
+    run("-threads", "2", inputDir.getAbsolutePath(),
+      cacheDir.getAbsolutePath());
+    String output = run("-threads", "2", "-incremental",
+      inputDir.getAbsolutePath(), cacheDir.getAbsolutePath());
+    assertTrue(output.contains("0 memo file(s) saved"), output);
+    assertTrue(output.contains("4 already current"), output);
+
+    // an input newer than its memo file is initialized again
+    File updated = new File(inputDir, FILES[0]);
+    Memoizer memoizer = new Memoizer(0, cacheDir);
+    File memo = memoizer.getMemoFile(updated.getAbsolutePath());
+    assertTrue(updated.setLastModified(memo.lastModified() + 60000));
+    output = run("-incremental", inputDir.getAbsolutePath(),
+      cacheDir.getAbsolutePath());
+    assertTrue(output.contains("1 memo file(s) saved"), output);
+    assertTrue(output.contains("3 already current"), output);
+  }
+
+  @Test
+  public void testFailureIsolated() throws IOException, InterruptedException {
+    File bad = new File(inputDir, "bad&sizeX=0.fake");
+    bad.createNewFile();
+    String output = run("-threads", "2",
+      inputDir.getAbsolutePath(), cacheDir.getAbsolutePath());
+    assertTrue(output.contains("Memo file not saved for " +
+      bad.getAbsolutePath()), output);
+    assertTrue(output.contains("4 memo file(s) saved"), output);
+    assertTrue(output.contains("1 failed"), output);
+    checkMemoFiles();
+  }
+
+  @Test
+  public void testFileList() throws IOException, InterruptedException {
+    File list = new File(tempDir.toFile(), "files.txt");
+    StringBuilder sb = new StringBuilder();
+    for (String f : FILES) {
+      sb.append(new File(inputDir, f).getAbsolutePath()).append("\n");
+    }
+    Files.write(list.toPath(), sb.toString().getBytes("UTF-8"));
+    String output = run("-list", "-threads", "2",
+      list.getAbsolutePath(), cacheDir.getAbsolutePath());
+    assertEquals(output.contains("4 memo file(s) saved"), true, output);
+    checkMemoFiles();
+  }
+
+}
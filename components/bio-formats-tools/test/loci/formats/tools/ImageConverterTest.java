@@ -340,4 +340,86 @@ public class ImageConverterTest {
     resolutionCount = 2;
     assertConversion(args);
   }
+
+  @Test
+  public void testGeneratePyramid() throws FormatException, IOException {
+    outFile = tempDir.resolve("pyramid.ome.tiff").toFile();
+    String[] args = {
+      "-noflat", "-pyramid-resolutions", "3", "-pyramid-scale", "2",
+      "-tilex", "128", "-tiley", "128",
+      "test&sizeX=500&sizeY=300&sizeC=3&rgb=3&sizeZ=2.fake",
+      outFile.getAbsolutePath()
+    };
+    width = 500;
+    resolutionCount = 3;
+    assertConversion(args);
+
+    // every generated pixel is the top-left pixel of its block
+    IFormatReader r = new ImageReader();
+    r.setFlattenedResolutions(false);
+    r.setId(outFile.getAbsolutePath());
+    try {
+      assertEquals(r.isInterleaved(), false);
+      int channels = r.getRGBChannelCount();
+      for (int no=0; no<r.getImageCount(); no++) {
+        r.setResolution(0);
+        byte[] full = r.openBytes(no);
+        int fullWidth = r.getSizeX();
+        for (int res=1; res<r.getResolutionCount(); res++) {
+          r.setResolution(res);
+          assertEquals(r.getSizeX(), 500 >> res);
+          assertEquals(r.getSizeY(), 300 >> res);
+          byte[] plane = r.openBytes(no);
+          for (int y=0; y<r.getSizeY(); y++) {
+            for (int x=0; x<r.getSizeX(); x++) {
+              int src = (y << res) * fullWidth + (x << res);
+              int dest = y * r.getSizeX() + x;
+              for (int c=0; c<channels; c++) {
+                assertEquals(plane[c * plane.length / channels + dest],
+                  full[c * full.length / channels + src]);
+              }
+            }
+          }
+        }
+      }
+    }
+    finally {
+      r.close();
+    }
+  }
+
+  @Test
+  public void testThreads() throws FormatException, IOException {
+    String input = "test&sizeX=700&sizeY=500&sizeZ=2&series=2.fake";
+    File serial = tempDir.resolve("serial.ome.tiff").toFile();
+    assertConversion(new String[] {
+      "-compression", "LZW", "-tilex", "128", "-tiley", "128",
+      input, serial.getAbsolutePath()
+    }, serial.getAbsolutePath(), 700);
+    outFile = tempDir.resolve("threads.ome.tiff").toFile();
+    assertConversion(new String[] {
+      "-threads", "3", "-compression", "LZW", "-tilex", "128", "-tiley", "128",
+      input, outFile.getAbsolutePath()
+    }, outFile.getAbsolutePath(), 700);
+
+    IFormatReader expected = new ImageReader();
+    IFormatReader actual = new ImageReader();
+    try {
+      expected.setId(serial.getAbsolutePath());
+      actual.setId(outFile.getAbsolutePath());
+      assertEquals(actual.getSeriesCount(), expected.getSeriesCount());
+      for (int s=0; s<expected.getSeriesCount(); s++) {
+        expected.setSeries(s);
+        actual.setSeries(s);
+        for (int no=0; no<expected.getImageCount(); no++) {
+          assertTrue(Arrays.equals(actual.openBytes(no),
+            expected.openBytes(no)));
+        }
+      }
+    }
+    finally {
+      expected.close();
+      actual.close();
+    }
+  }
 }
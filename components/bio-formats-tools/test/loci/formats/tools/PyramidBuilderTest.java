@@ -0,0 +1,149 @@
+/*
+ * #%L
+ * Bio-Formats command line tools for reading and converting files
+ * %%
+ * Copyright (C) 2017 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package loci.formats.tools;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.testng.annotations.Test;
+import static org.testng.Assert.assertEquals;
+
+/**
+ * Tests the functionality of PyramidBuilder
+ */
+public class PyramidBuilderTest {
+
+  private static final int SIZE_X = 4096;
+  private static final int SIZE_Y = 2048;
+  private static final int TILE_SIZE = 256;
+  private static final int BYTES_PER_PIXEL = 2;
+  private static final int CHANNELS = 2;
+  private static final int PLANES = 3;
+  private static final int RESOLUTIONS = 3;
+  private static final int SCALE = 2;
+
+  @Test
+  public void testFileMatchesMemory() throws IOException {
+    // the temporary file for the second resolution is larger than the
+    // cached pages, so pages are written back and read again
+    List<byte[]> inMemory = buildPyramid(Long.MAX_VALUE);
+    List<byte[]> inFile = buildPyramid(0);
+    assertEquals(inFile.size(), inMemory.size());
+    for (int i=0; i<inMemory.size(); i++) {
+      assertEquals(inFile.get(i), inMemory.get(i));
+    }
+  }
+
+  @Test
+  public void testDownsampledPixels() throws IOException {
+    try (PyramidBuilder builder = createBuilder(0)) {
+      addFullResolution(builder);
+      int no = PLANES - 1;
+      int x = TILE_SIZE;
+      int y = TILE_SIZE * 2;
+      byte[] tile = builder.getTile(1, no, x, y, TILE_SIZE, TILE_SIZE);
+      int pixel = BYTES_PER_PIXEL;
+      for (int c=0; c<CHANNELS; c++) {
+        for (int row=0; row<TILE_SIZE; row++) {
+          for (int col=0; col<TILE_SIZE; col++) {
+            int index = ((c * TILE_SIZE + row) * TILE_SIZE + col) * pixel;
+            int srcX = (x + col) * SCALE;
+            int srcY = (y + row) * SCALE;
+            for (int b=0; b<pixel; b++) {
+              assertEquals(tile[index + b], getValue(no, c, srcX, srcY, b));
+            }
+          }
+        }
+      }
+    }
+  }
+
+  private PyramidBuilder createBuilder(long memoryLimit) {
+    return new PyramidBuilder(SCALE, RESOLUTIONS, SIZE_X, SIZE_Y,
+      BYTES_PER_PIXEL, CHANNELS, false, PLANES, memoryLimit);
+  }
+
+  /** Generate every resolution and return the tiles in reading order. */
+  private List<byte[]> buildPyramid(long memoryLimit) throws IOException {
+    List<byte[]> tiles = new ArrayList<byte[]>();
+    try (PyramidBuilder builder = createBuilder(memoryLimit)) {
+      addFullResolution(builder);
+      int width = SIZE_X;
+      int height = SIZE_Y;
+      for (int r=1; r<RESOLUTIONS; r++) {
+        width /= SCALE;
+        height /= SCALE;
+        for (int no=0; no<PLANES; no++) {
+          for (int y=0; y<height; y+=TILE_SIZE) {
+            for (int x=0; x<width; x+=TILE_SIZE) {
+              int w = Math.min(TILE_SIZE, width - x);
+              int h = Math.min(TILE_SIZE, height - y);
+              byte[] tile = builder.getTile(r, no, x, y, w, h);
+              tiles.add(tile);
+              builder.addTile(r, no, x, y, w, h, tile);
+            }
+          }
+        }
+      }
+    }
+    return tiles;
+  }
+
+  private void addFullResolution(PyramidBuilder builder) throws IOException {
+    int pixel = BYTES_PER_PIXEL;
+    for (int no=0; no<PLANES; no++) {
+      for (int y=0; y<SIZE_Y; y+=TILE_SIZE) {
+        for (int x=0; x<SIZE_X; x+=TILE_SIZE) {
+          byte[] tile = new byte[TILE_SIZE * TILE_SIZE * pixel * CHANNELS];
+          for (int c=0; c<CHANNELS; c++) {
+            for (int row=0; row<TILE_SIZE; row++) {
+              for (int col=0; col<TILE_SIZE; col++) {
+                int index = ((c * TILE_SIZE + row) * TILE_SIZE + col) * pixel;
+                for (int b=0; b<pixel; b++) {
+                  tile[index + b] = getValue(no, c, x + col, y + row, b);
+                }
+              }
+            }
+          }
+          builder.addTile(0, no, x, y, TILE_SIZE, TILE_SIZE, tile);
+        }
+      }
+    }
+  }
+
+  private static byte getValue(int no, int c, int x, int y, int b) {
+    return (byte) (x * 31 + y * 17 + no * 7 + c * 3 + b);
+  }
+
+}
@@ -143,7 +143,7 @@ public class CoreMetadata implements Cloneable {
   // -- Constructors --
 
   public CoreMetadata() {
-    seriesMetadata = new Hashtable<String, Object>();
+    seriesMetadata = new MetadataTable();
   }
 
   public CoreMetadata(IFormatReader r, int coreIndex) {
@@ -168,7 +168,7 @@ public class CoreMetadata implements Cloneable {
     indexed = r.isIndexed();
     falseColor = r.isFalseColor();
     metadataComplete = r.isMetadataComplete();
-    seriesMetadata = new Hashtable<String, Object>();
+    seriesMetadata = new MetadataTable();
     seriesMetadata.putAll(r.getSeriesMetadata());
     thumbnail = r.isThumbnailSeries();
     resolutionCount = r.getResolutionCount();
@@ -198,7 +198,7 @@ public class CoreMetadata implements Cloneable {
     indexed = c.indexed;
     falseColor = c.falseColor;
     metadataComplete = c.metadataComplete;
-    seriesMetadata = new Hashtable<String, Object>();
+    seriesMetadata = new MetadataTable();
     seriesMetadata.putAll(c.seriesMetadata);
     thumbnail = c.thumbnail;
     resolutionCount = c.resolutionCount;
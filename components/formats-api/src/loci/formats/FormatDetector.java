@@ -0,0 +1,459 @@
+/*
+ * #%L
+ * Top-level reader and writer APIs
+ * %%
+ * Copyright (C) 2005 - 2017 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package loci.formats;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import loci.common.Constants;
+import loci.common.RandomAccessInputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * FormatDetector picks the reader that should handle a given file from an
+ * ordered list of reader classes, such as the one used by
+ * {@link ImageReader}.
+ * <p>
+ * The result is always the same as asking each reader in turn whether
+ * {@link IFormatReader#isThisType(String, boolean)} is true, but the work
+ * is done differently:
+ * <ul>
+ * <li>the suffixes of every reader are collected into a single index, so
+ * that readers whose suffix is necessary but does not match are skipped
+ * without being called (or even instantiated)</li>
+ * <li>readers which rely on the default {@link FormatReader} suffix logic
+ * are checked against one shared stream with a small buffer, so the file
+ * is opened (and its header read) once instead of once per reader</li>
+ * <li>readers that provide their own
+ * {@link IFormatReader#isThisType(String, boolean)} are still called
+ * directly, in priority order</li>
+ * </ul>
+ * Reader instances are obtained from a {@link ReaderSource} only when a
+ * reader actually needs to be called, so the source may create them lazily.
+ * <p>
+ * The suffixes and suffix rules of each reader class are read once, from an
+ * instance created with its default constructor, and shared by every
+ * detector; see {@link ReaderType}.  A detector keeps no state between
+ * detections other than its settings, so concurrent detections are safe if
+ * its {@link ReaderSource} is.
+ */
+public class FormatDetector {
+
+  // -- Constants --
+
+  private static final Logger LOGGER =
+    LoggerFactory.getLogger(FormatDetector.class);
+
+  /** Buffer size used for the stream shared between content checks. */
+  public static final int HEADER_BUFFER_SIZE = 16384;
+
+  /**
+   * Type check properties of each reader class, or null if the class cannot
+   * be instantiated.  Values are released along with their class.
+   */
+  private static final ClassValue<ReaderType> READER_TYPES =
+    new ClassValue<ReaderType>() {
+      @Override
+      protected ReaderType computeValue(Class<?> c) {
+        try {
+          return new ReaderType((IFormatReader)
+            c.getDeclaredConstructor().newInstance());
+        }
+        catch (ReflectiveOperationException | ClassCastException exc) {
+          return null;
+        }
+      }
+    };
+
+  private static AtomicBoolean raisedException = new AtomicBoolean(false);
+
+  // -- Fields --
+
+  /** Reader classes in priority order. */
+  private Class<? extends IFormatReader>[] classes;
+
+  /** Type check properties of each reader class. */
+  private ReaderType[] types;
+
+  /** Source of reader instances. */
+  private ReaderSource source;
+
+  /** Maps each lower case suffix to the readers declaring it. */
+  private Map<String, BitSet> suffixIndex;
+
+  /** Whether or not the suffix index and shared stream are used. */
+  private volatile boolean indexed = true;
+
+  // -- Constructor --
+
+  /**
+   * Constructs a new detector over the given reader classes, in priority
+   * order.  Every class must have been accepted by
+   * {@link #getReaderType(Class)}.
+   *
+   * @param classes the reader classes, in priority order
+   * @param source provides the reader instance for a given class index
+   */
+  public FormatDetector(Class<? extends IFormatReader>[] classes,
+    ReaderSource source)
+  {
+    this.classes = classes;
+    this.source = source;
+    types = new ReaderType[classes.length];
+    suffixIndex = new HashMap<String, BitSet>();
+    for (int i=0; i<classes.length; i++) {
+      types[i] = getReaderType(classes[i]);
+      if (types[i] == null) {
+        throw new IllegalArgumentException(classes[i].getName() +
+          " cannot be instantiated.");
+      }
+      for (String suffix : types[i].suffixes) {
+        String key = suffix.toLowerCase();
+        BitSet set = suffixIndex.get(key);
+        if (set == null) {
+          set = new BitSet(classes.length);
+          suffixIndex.put(key, set);
+        }
+        set.set(i);
+      }
+    }
+  }
+
+  // -- Static utility methods --
+
+  /**
+   * Gets the type check properties of the given reader class, creating
+   * (and discarding) one instance of it the first time the class is seen.
+   *
+   * @return the properties, or null if the class cannot be instantiated
+   */
+  public static ReaderType getReaderType(Class<? extends IFormatReader> c) {
+    return READER_TYPES.get(c);
+  }
+
+  // -- FormatDetector API methods --
+
+  /**
+   * Toggles whether the suffix index and shared header stream are used.
+   * If false, each reader is asked in turn, exactly as
+   * {@link ImageReader} has historically done.
+   */
+  public void setIndexed(boolean indexed) {
+    this.indexed = indexed;
+  }
+
+  /** Returns whether the suffix index and shared header stream are used. */
+  public boolean isIndexed() {
+    return indexed;
+  }
+
+  /** Returns the reader class at the given index. */
+  public Class<? extends IFormatReader> getReaderClass(int index) {
+    return classes[index];
+  }
+
+  /** Returns the union of all reader suffixes, sorted. */
+  public String[] getSuffixes() {
+    Set<String> suffixSet = new HashSet<String>();
+    for (ReaderType type : types) {
+      suffixSet.addAll(Arrays.asList(type.suffixes));
+    }
+    String[] suffixes = suffixSet.toArray(new String[suffixSet.size()]);
+    Arrays.sort(suffixes);
+    return suffixes;
+  }
+
+  /**
+   * Finds the first reader that can handle the given file.
+   *
+   * @param id the file to check
+   * @param open whether or not the file may be opened
+   * @return the index of the matching reader, or -1 if no reader matches
+   */
+  public int getReaderIndex(String id, boolean open) {
+    return detect(id, open).getReaderIndex();
+  }
+
+  /**
+   * Finds the first reader that can handle the given file, and counts the
+   * readers that were asked to check it.
+   *
+   * @param id the file to check
+   * @param open whether or not the file may be opened
+   */
+  public Detection detect(String id, boolean open) {
+    int checks = 0;
+    if (!indexed) {
+      for (int i=0; i<classes.length; i++) {
+        checks++;
+        if (isThisType(source.getReader(i), id, open)) {
+          return new Detection(i, checks);
+        }
+      }
+      return new Detection(-1, checks);
+    }
+
+    BitSet suffixMatches = getSuffixMatches(id);
+    RandomAccessInputStream stream = null;
+    boolean streamFailed = false;
+    try {
+      for (int i=0; i<classes.length; i++) {
+        if (!types[i].defaultTypeCheck) {
+          checks++;
+          if (isThisType(source.getReader(i), id, open)) {
+            return new Detection(i, checks);
+          }
+          continue;
+        }
+
+        // replicates FormatReader.isThisType(String, boolean)
+        ReaderType type = types[i];
+        if (!type.suffixSufficient && !open) continue;
+        boolean suffixMatch = suffixMatches.get(i);
+        if (type.suffixNecessary && !suffixMatch) continue;
+        if (suffixMatch && type.suffixSufficient) {
+          return new Detection(i, checks);
+        }
+        if (!open || streamFailed) continue;
+
+        IFormatReader reader = source.getReader(i);
+        if (!type.matches(reader)) {
+          // the instance's suffix rules differ from its class's, so only
+          // the reader itself can decide
+          LOGGER.debug("{} changed its suffixes after construction", reader);
+          checks++;
+          if (isThisType(reader, id, open)) {
+            return new Detection(i, checks);
+          }
+          continue;
+        }
+
+        if (stream == null) {
+          try {
+            stream = new RandomAccessInputStream(id, HEADER_BUFFER_SIZE);
+          }
+          catch (IOException e) {
+            LOGGER.debug("", e);
+            streamFailed = true;
+            continue;
+          }
+        }
+        checks++;
+        if (isThisType(reader, stream)) {
+          return new Detection(i, checks);
+        }
+      }
+    }
+    finally {
+      if (stream != null) {
+        try {
+          stream.close();
+        }
+        catch (IOException e) {
+          LOGGER.debug("Could not close " + id, e);
+        }
+      }
+    }
+    return new Detection(-1, checks);
+  }
+
+  // -- Helper methods --
+
+  /**
+   * Returns the set of readers whose suffix list matches the given name,
+   * using the same rules as {@link FormatHandler#checkSuffix}.
+   */
+  private BitSet getSuffixMatches(String id) {
+    BitSet matches = new BitSet(classes.length);
+    String name = id.toLowerCase();
+    addSuffixMatches(name, matches);
+    for (String compression : FormatHandler.COMPRESSION_SUFFIXES) {
+      if (name.endsWith("." + compression)) {
+        addSuffixMatches(name.substring(0,
+          name.length() - compression.length() - 1), matches);
+      }
+    }
+    return matches;
+  }
+
+  private void addSuffixMatches(String name, BitSet matches) {
+    int dot = name.indexOf('.');
+    while (dot >= 0) {
+      BitSet set = suffixIndex.get(name.substring(dot + 1));
+      if (set != null) matches.or(set);
+      dot = name.indexOf('.', dot + 1);
+    }
+  }
+
+  private boolean isThisType(IFormatReader reader, String id, boolean open) {
+    try {
+      return reader.isThisType(id, open);
+    }
+    catch (Exception e) {
+      logIsThisTypeError(reader, e);
+      return false;
+    }
+  }
+
+  private boolean isThisType(IFormatReader reader,
+    RandomAccessInputStream stream)
+  {
+    try {
+      // reset anything a previous reader may have changed
+      stream.seek(0);
+      stream.order(false);
+      stream.setEncoding(Constants.ENCODING);
+      return reader.isThisType(stream);
+    }
+    catch (Exception e) {
+      logIsThisTypeError(reader, e);
+      return false;
+    }
+  }
+
+  private void logIsThisTypeError(IFormatReader reader, Exception e) {
+    LOGGER.debug("{} raised on isThisType", reader, e);
+    if (raisedException.compareAndSet(false, true)) {
+      LOGGER.error(" *** One or more readers is misbehaving." +
+                   " See the debug output for more information. e.g.:\n" +
+                   "     {} -> {}('{}') ***",
+        reader, e.getClass().getName(), e.getMessage());
+    }
+  }
+
+  // -- Helper classes --
+
+  /** Provides the reader instance for a given class index. */
+  public interface ReaderSource {
+    IFormatReader getReader(int index);
+  }
+
+  /** Result of {@link FormatDetector#detect(String, boolean)}. */
+  public static final class Detection {
+    private final int readerIndex;
+    private final int checkCount;
+
+    private Detection(int readerIndex, int checkCount) {
+      this.readerIndex = readerIndex;
+      this.checkCount = checkCount;
+    }
+
+    /** Gets the index of the matching reader, or -1 if none matched. */
+    public int getReaderIndex() {
+      return readerIndex;
+    }
+
+    /** Gets the number of readers that were asked to check the file. */
+    public int getCheckCount() {
+      return checkCount;
+    }
+  }
+
+  /**
+   * Properties of a reader class that determine how its type check works.
+   * Readers must set their suffixes and suffix rules in their constructor
+   * and not change them afterwards, so that the properties read from one
+   * instance apply to the whole class.  Before the shared header stream is
+   * given to a reader instance, the detector checks that the instance still
+   * has these properties; if not, the instance's own
+   * {@link IFormatReader#isThisType(String, boolean)} is used.  Readers
+   * skipped because of their suffix are not instantiated, so they are not
+   * checked.
+   */
+  public static final class ReaderType {
+    /** Suffixes declared by the reader. */
+    private final String[] suffixes;
+
+    /** Whether a suffix match is necessary. */
+    private final boolean suffixNecessary;
+
+    /** Whether a suffix match is sufficient. */
+    private final boolean suffixSufficient;
+
+    /**
+     * Whether the reader inherits FormatReader.isThisType(String, boolean),
+     * which the detector knows how to replicate.
+     */
+    private final boolean defaultTypeCheck;
+
+    private ReaderType(IFormatReader reader) {
+      String[] s = reader.getSuffixes();
+      if (reader instanceof FormatHandler) {
+        s = ((FormatHandler) reader).suffixes;
+      }
+      suffixes = s == null ? new String[0] : s;
+      if (reader instanceof FormatReader) {
+        FormatReader r = (FormatReader) reader;
+        suffixNecessary = r.suffixNecessary;
+        suffixSufficient = r.suffixSufficient;
+        defaultTypeCheck = inheritsTypeCheck(reader.getClass());
+      }
+      else {
+        suffixNecessary = true;
+        suffixSufficient = true;
+        defaultTypeCheck = false;
+      }
+    }
+
+    /** Returns whether the given instance has these properties. */
+    private boolean matches(IFormatReader reader) {
+      if (!(reader instanceof FormatReader)) {
+        return false;
+      }
+      FormatReader r = (FormatReader) reader;
+      String[] s = r.suffixes == null ? new String[0] : r.suffixes;
+      return r.suffixNecessary == suffixNecessary &&
+        r.suffixSufficient == suffixSufficient &&
+        Arrays.equals(s, suffixes);
+    }
+
+    private static boolean inheritsTypeCheck(Class<?> c) {
+      try {
+        return c.getMethod("isThisType", String.class,
+          boolean.class).getDeclaringClass() == FormatReader.class;
+      }
+      catch (NoSuchMethodException e) {
+        return false;
+      }
+    }
+  }
+
+}
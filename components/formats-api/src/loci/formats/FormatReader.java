@@ -189,6 +189,12 @@ public abstract class FormatReader extends FormatHandler
    */
   protected MetadataStore metadataStore = new DummyMetadata();
 
+  /**
+   * Original metadata recorded by {@link #deferMeta(Object)} that has not
+   * yet been added to the metadata tables, or null if there is none.
+   */
+  private volatile List<Object> deferredMeta;
+
   private ServiceFactory factory;
   private OMEXMLService service;
 
@@ -235,7 +241,8 @@ public abstract class FormatReader extends FormatHandler
     series = 0;
     close();
     currentId = id;
-    metadata = new Hashtable<String, Object>();
+    metadata = new MetadataTable();
+    deferredMeta = null;
 
     core = new ArrayList<CoreMetadata>();
     CoreMetadata core0 = new CoreMetadata();
@@ -260,6 +267,7 @@ public abstract class FormatReader extends FormatHandler
     ArrayList<String> optionsList = new ArrayList<String>();
     optionsList.add(DynamicMetadataOptions.METADATA_LEVEL_KEY);
     optionsList.add(DynamicMetadataOptions.READER_VALIDATE_KEY);
+    optionsList.add(DynamicMetadataOptions.METADATA_DEFERRED_KEY);
     return optionsList;
   }
   
@@ -306,28 +314,19 @@ public abstract class FormatReader extends FormatHandler
       if (string && val.length() > maxLen) return;
 
       // remove all non-printable characters
-      key = DataTools.sanitize(key);
-      if (string) val = DataTools.sanitize(val);
+      key = removeControlCharacters(key);
+      if (string) val = removeControlCharacters(val);
 
       // verify key contains at least one alphabetic character
-      if (!key.matches(".*[a-zA-Z].*")) return;
+      if (!hasLetter(key)) return;
 
       // remove &lt;, &gt; and &amp; to prevent XML parsing errors
-      String[] invalidSequences = new String[] {
-        "&lt;", "&gt;", "&amp;", "<", ">", "&"
-      };
-      for (int i=0; i<invalidSequences.length; i++) {
-        if (key.indexOf(invalidSequences[i]) >= 0) {
-          key = key.replaceAll(invalidSequences[i], "");
-        }
-        if (string && val.indexOf(invalidSequences[i]) >= 0) {
-          val = val.replaceAll(invalidSequences[i], "");
-        }
-      }
+      key = removeMarkup(key);
+      if (string) val = removeMarkup(val);
 
       // verify key & value are not empty
       if (key.length() == 0) return;
-      if (string && val.trim().length() == 0) return;
+      if (string && isBlank(val)) return;
 
       if (string) value = val;
     }
@@ -335,6 +334,81 @@ public abstract class FormatReader extends FormatHandler
     meta.put(key, val == null ? value : val);
   }
 
+  /**
+   * Removes ISO control characters other than tab and newline, as
+   * {@link DataTools#sanitize(String)} does.  The given string is returned
+   * unchanged if it does not contain any such characters.
+   */
+  private static String removeControlCharacters(String s) {
+    int length = s.length();
+    int first = 0;
+    while (first < length && !isRemovedControl(s.charAt(first))) {
+      first++;
+    }
+    if (first == length) {
+      return s;
+    }
+    StringBuilder sb = new StringBuilder(length - 1);
+    sb.append(s, 0, first);
+    for (int i=first+1; i<length; i++) {
+      char c = s.charAt(i);
+      if (!isRemovedControl(c)) {
+        sb.append(c);
+      }
+    }
+    return sb.toString();
+  }
+
+  private static boolean isRemovedControl(char c) {
+    return c != '\t' && c != '\n' && Character.isISOControl(c);
+  }
+
+  /**
+   * Returns true if the string contains an ASCII letter and no line
+   * terminators, i.e. if it matches <code>.*[a-zA-Z].*</code>.
+   */
+  private static boolean hasLetter(String s) {
+    boolean letter = false;
+    for (int i=0; i<s.length(); i++) {
+      char c = s.charAt(i);
+      if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')) {
+        letter = true;
+      }
+      else if (c == '\n' || c == '\r' || c == '\u0085' ||
+        c == '\u2028' || c == '\u2029')
+      {
+        return false;
+      }
+    }
+    return letter;
+  }
+
+  /**
+   * Removes "&amp;lt;", "&amp;gt;", "&amp;amp;", and then any remaining
+   * '&lt;', '&gt;' and '&amp;' characters.  The given string is returned
+   * unchanged if it does not contain any of these characters.
+   */
+  private static String removeMarkup(String s) {
+    for (int i=0; i<s.length(); i++) {
+      char c = s.charAt(i);
+      if (c == '<' || c == '>' || c == '&') {
+        return s.replace("&lt;", "").replace("&gt;", "").replace("&amp;", "")
+          .replace("<", "").replace(">", "").replace("&", "");
+      }
+    }
+    return s;
+  }
+
+  /** Returns true if the string only contains whitespace or control chars. */
+  private static boolean isBlank(String s) {
+    for (int i=0; i<s.length(); i++) {
+      if (s.charAt(i) > ' ') {
+        return false;
+      }
+    }
+    return true;
+  }
+
   /** Adds an entry to the global metadata table. */
   protected void addGlobalMeta(String key, Object value) {
     addMeta(key, value, metadata);
@@ -523,6 +597,79 @@ public abstract class FormatReader extends FormatHandler
     return getCurrentCore().seriesMetadata.get(key);
   }
 
+  /**
+   * Returns whether original metadata that is read from a single large
+   * block should be recorded with {@link #deferMeta(Object)} instead of
+   * being added to the metadata tables during initialization.
+   * @see DynamicMetadataOptions#METADATA_DEFERRED_KEY
+   */
+  protected boolean isMetadataDeferred() {
+    MetadataOptions options = getMetadataOptions();
+    if (options.getMetadataLevel() == MetadataLevel.MINIMUM) {
+      return false;
+    }
+    if (options instanceof DynamicMetadataOptions) {
+      return ((DynamicMetadataOptions) options).getBoolean(
+        DynamicMetadataOptions.METADATA_DEFERRED_KEY,
+        DynamicMetadataOptions.METADATA_DEFERRED_DEFAULT);
+    }
+    return DynamicMetadataOptions.METADATA_DEFERRED_DEFAULT;
+  }
+
+  /**
+   * Records original metadata that has already been read, such as a parsed
+   * INI list, so that it is only passed to {@link #addDeferredMeta(Object)}
+   * when the global or series metadata is first requested.  Readers that
+   * call this method must override {@link #addDeferredMeta(Object)}.
+   */
+  protected void deferMeta(Object block) {
+    List<Object> blocks = deferredMeta;
+    if (blocks == null) {
+      blocks = new ArrayList<Object>();
+    }
+    blocks.add(block);
+    deferredMeta = blocks;
+  }
+
+  /**
+   * Adds the entries of a block recorded by {@link #deferMeta(Object)} with
+   * the addGlobalMeta and addSeriesMeta methods.  The first series is
+   * selected when this is called.  The default implementation does nothing,
+   * as readers that do not call {@link #deferMeta(Object)} have nothing to
+   * add.
+   */
+  protected void addDeferredMeta(Object block)
+    throws FormatException, IOException
+  {
+  }
+
+  /** Adds any blocks of original metadata that have been deferred. */
+  private void addDeferredBlocks() {
+    if (deferredMeta == null) {
+      return;
+    }
+    synchronized (this) {
+      List<Object> blocks = deferredMeta;
+      if (blocks == null) {
+        return;
+      }
+      int index = getCoreIndex();
+      try {
+        setCoreIndex(0);
+        for (Object block : blocks) {
+          addDeferredMeta(block);
+        }
+      }
+      catch (FormatException | IOException e) {
+        LOGGER.warn("Could not add deferred metadata", e);
+      }
+      finally {
+        setCoreIndex(index);
+        deferredMeta = null;
+      }
+    }
+  }
+
   /** Reads a raw plane from disk. */
   protected byte[] readPlane(RandomAccessInputStream s, int x, int y,
     int w, int h, byte[] buf) throws IOException
@@ -627,7 +774,9 @@ public abstract class FormatReader extends FormatHandler
 
     // suffix matching was inconclusive; we need to analyze the file contents
     if (!open) return false; // not allowed to open any files
-    try (RandomAccessInputStream stream = new RandomAccessInputStream(name)) {
+    try (RandomAccessInputStream stream =
+      new RandomAccessInputStream(name, FormatDetector.HEADER_BUFFER_SIZE))
+    {
       return isThisType(stream);
     }
     catch (IOException exc) {
@@ -927,6 +1076,7 @@ public abstract class FormatReader extends FormatHandler
       currentId = null;
       resolution = 0;
       core = null;
+      deferredMeta = null;
     }
   }
 
@@ -1128,6 +1278,7 @@ public abstract class FormatReader extends FormatHandler
   @Override
   public Object getMetadataValue(String field) {
     FormatTools.assertId(currentId, true, 1);
+    addDeferredBlocks();
     flattenHashtables();
     return getGlobalMeta(field);
   }
@@ -1136,6 +1287,7 @@ public abstract class FormatReader extends FormatHandler
   @Override
   public Object getSeriesMetadataValue(String field) {
     FormatTools.assertId(currentId, true, 1);
+    addDeferredBlocks();
     flattenHashtables();
     return getSeriesMeta(field);
   }
@@ -1144,6 +1296,7 @@ public abstract class FormatReader extends FormatHandler
   @Override
   public Hashtable<String, Object> getGlobalMetadata() {
     FormatTools.assertId(currentId, true, 1);
+    addDeferredBlocks();
     flattenHashtables();
     return metadata;
   }
@@ -1152,6 +1305,7 @@ public abstract class FormatReader extends FormatHandler
   @Override
   public Hashtable<String, Object> getSeriesMetadata() {
     FormatTools.assertId(currentId, true, 1);
+    addDeferredBlocks();
     if (getCurrentCore().seriesMetadata.size() > 0) {
       flattenHashtables();
     }
@@ -1423,6 +1577,7 @@ public abstract class FormatReader extends FormatHandler
       MetadataStore store = getMetadataStore();
       if (saveOriginalMetadata) {
         if (store instanceof OMEXMLMetadata) {
+          addDeferredBlocks();
           setupService();
           Hashtable<String, Object> allMetadata =
             new Hashtable<>(metadata);
@@ -35,8 +35,6 @@ package loci.formats;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.List;
 import java.util.Set;
@@ -56,6 +54,9 @@ import org.slf4j.LoggerFactory;
  * ImageReader is the master file format reader for all supported formats.
  * It uses one instance of each reader subclass (specified in readers.txt,
  * or other class list source) to identify file formats and read data.
+ * Reader instances are created only when they are first needed, and the
+ * options set on the ImageReader are applied to each reader as it is
+ * created.
  *
  * @author Curtis Rueden ctrueden at wisc.edu
  */
@@ -90,9 +91,24 @@ public class ImageReader implements IFormatReader {
 
   // -- Fields --
 
-  /** List of supported file format readers. */
+  /** List of supported file format reader classes. */
+  private Class<? extends IFormatReader>[] readerClasses;
+
+  /**
+   * Supported file format readers, parallel to readerClasses.
+   * Each reader is created the first time it is needed.
+   */
   private IFormatReader[] readers;
 
+  /**
+   * Detector used to choose a reader for each file.
+   * Not serialized; recreated the first time it is needed.
+   */
+  private transient FormatDetector detector;
+
+  /** Whether or not the detector uses its suffix index. */
+  private boolean indexedDetection = true;
+
   /**
    * Valid suffixes for this file format.
    * Populated the first time getSuffixes() is called.
@@ -107,6 +123,17 @@ public class ImageReader implements IFormatReader {
 
   private boolean allowOpen = true;
 
+  /** Metadata options shared by all readers. */
+  private MetadataOptions metadataOptions = new DynamicMetadataOptions();
+
+  // options applied to each reader when it is created; null means default
+  private Boolean groupFiles;
+  private Boolean normalizeData;
+  private Boolean saveOriginalMetadata;
+  private Boolean filterMetadata;
+  private Boolean flattenedResolutions;
+  private MetadataStore metadataStore;
+
   private boolean isOmero(String id) {
     return id != null && id.toLowerCase().startsWith("omero:") &&
     id.indexOf("\n") > 0;
@@ -123,28 +150,22 @@ public class ImageReader implements IFormatReader {
   }
 
   /** Constructs a new ImageReader from the given list of reader classes. */
+  @SuppressWarnings("unchecked")
   public ImageReader(ClassList<IFormatReader> classList) {
-    // add readers to the list
-    List<IFormatReader> list = new ArrayList<IFormatReader>();
+    // add reader classes to the list; instances are created on demand
+    List<Class<? extends IFormatReader>> list =
+      new ArrayList<Class<? extends IFormatReader>>();
     Class<? extends IFormatReader>[] c = classList.getClasses();
-    // assign the same options instance to all readers
-    MetadataOptions opt = new DynamicMetadataOptions();
     for (int i=0; i<c.length; i++) {
-      IFormatReader reader = null;
-      try {
-        reader = c[i].newInstance();
-        reader.setMetadataOptions(opt);
-      }
-      catch (IllegalAccessException exc) { }
-      catch (InstantiationException exc) { }
-      if (reader == null) {
+      if (FormatDetector.getReaderType(c[i]) == null) {
         LOGGER.error("{} cannot be instantiated.", c[i].getName());
         continue;
       }
-      list.add(reader);
+      list.add(c[i]);
     }
-    readers = new IFormatReader[list.size()];
-    list.toArray(readers);
+    readerClasses = (Class<? extends IFormatReader>[])
+      list.toArray(new Class<?>[list.size()]);
+    readers = new IFormatReader[readerClasses.length];
   }
 
   // -- ImageReader API methods --
@@ -157,6 +178,31 @@ public class ImageReader implements IFormatReader {
     this.allowOpen = allowOpen;
   }
 
+  /**
+   * Toggles whether or not format detection uses the indexed
+   * {@link FormatDetector} search.  If false, every reader is asked in
+   * turn whether it can handle the file.  By default, the index is used.
+   */
+  public void setIndexedDetection(boolean indexed) {
+    indexedDetection = indexed;
+    if (detector != null) detector.setIndexed(indexed);
+  }
+
+  /** Gets the detector used to choose a reader for each file. */
+  public FormatDetector getFormatDetector() {
+    if (detector == null) {
+      detector = new FormatDetector(readerClasses,
+        new FormatDetector.ReaderSource() {
+          @Override
+          public IFormatReader getReader(int index) {
+            return getReaderInstance(index);
+          }
+        });
+      detector.setIndexed(indexedDetection);
+    }
+    return detector;
+  }
+
   /** Gets a string describing the file format for the given file. */
   public String getFormat(String id) throws FormatException, IOException {
     return getReader(id).getFormat();
@@ -189,13 +235,11 @@ public class ImageReader implements IFormatReader {
       // initialize file
       boolean success = false;
       if (!invalid) {
-        for (int i=0; i<readers.length; i++) {
-          if (isThisType(readers[i], id, allowOpen)) {
-            current = i;
-            currentId = id;
-            success = true;
-            break;
-          }
+        int index = getFormatDetector().getReaderIndex(id, allowOpen);
+        if (index >= 0) {
+          current = index;
+          currentId = id;
+          success = true;
         }
       }
       if (!success) {
@@ -208,21 +252,26 @@ public class ImageReader implements IFormatReader {
   /** Gets the reader used to open the current file. */
   public IFormatReader getReader() {
     FormatTools.assertId(currentId, true, 2);
-    return readers[current];
+    return getReaderInstance(current);
   }
 
   /** Gets the file format reader instance matching the given class. */
   public IFormatReader getReader(Class<? extends IFormatReader> c) {
-    for (int i=0; i<readers.length; i++) {
-      if (readers[i].getClass().equals(c)) return readers[i];
+    for (int i=0; i<readerClasses.length; i++) {
+      if (readerClasses[i].equals(c)) return getReaderInstance(i);
     }
     return null;
   }
 
-  /** Gets all constituent file format readers. */
+  /**
+   * Gets all constituent file format readers.
+   * Any reader which has not been needed yet is created by this call.
+   */
   public IFormatReader[] getReaders() {
     IFormatReader[] r = new IFormatReader[readers.length];
-    System.arraycopy(readers, 0, r, 0, readers.length);
+    for (int i=0; i<r.length; i++) {
+      r[i] = getReaderInstance(i);
+    }
     return r;
   }
 
@@ -231,13 +280,13 @@ public class ImageReader implements IFormatReader {
   /* @see loci.formats.IMetadataConfigurable#getSupportedMetadataLevels() */
   @Override
   public Set<MetadataLevel> getSupportedMetadataLevels() {
-    return getReaders()[0].getSupportedMetadataLevels();
+    return getReaderInstance(0).getSupportedMetadataLevels();
   }
 
   /* @see loci.formats.IMetadataConfigurable#getMetadataOptions() */
   @Override
   public MetadataOptions getMetadataOptions() {
-    return getReaders()[0].getMetadataOptions();
+    return metadataOptions;
   }
 
   /**
@@ -245,8 +294,9 @@ public class ImageReader implements IFormatReader {
    */
   @Override
   public void setMetadataOptions(MetadataOptions options) {
+    metadataOptions = options;
     for (IFormatReader reader : readers) {
-      reader.setMetadataOptions(options);
+      if (reader != null) reader.setMetadataOptions(options);
     }
   }
 
@@ -255,17 +305,14 @@ public class ImageReader implements IFormatReader {
   /* @see IFormatReader#isThisType(String, boolean) */
   @Override
   public boolean isThisType(String name, boolean open) {
-    for (int i=0; i<readers.length; i++) {
-      if (isThisType(readers[i], name, open)) return true;
-    }
-    return false;
+    return getFormatDetector().getReaderIndex(name, open) >= 0;
   }
 
   /* @see IFormatReader.isThisType(byte[]) */
   @Override
   public boolean isThisType(byte[] block) {
     for (int i=0; i<readers.length; i++) {
-      if (isThisType(readers[i], block)) return true;
+      if (isThisType(getReaderInstance(i), block)) return true;
     }
     return false;
   }
@@ -274,7 +321,7 @@ public class ImageReader implements IFormatReader {
   @Override
   public boolean isThisType(RandomAccessInputStream stream) throws IOException {
     for (int i=0; i<readers.length; i++) {
-      if (isThisType(readers[i], stream)) return true;
+      if (isThisType(getReaderInstance(i), stream)) return true;
     }
     return false;
   }
@@ -590,7 +637,9 @@ public class ImageReader implements IFormatReader {
   /* @see IFormatReader#close(boolean) */
   @Override
   public void close(boolean fileOnly) throws IOException {
-    for (int i=0; i<readers.length; i++) readers[i].close(fileOnly);
+    for (int i=0; i<readers.length; i++) {
+      if (readers[i] != null) readers[i].close(fileOnly);
+    }
     if (!fileOnly) currentId = null;
   }
 
@@ -598,14 +647,18 @@ public class ImageReader implements IFormatReader {
   @Override
   public void setGroupFiles(boolean group) {
     FormatTools.assertId(currentId, false, 2);
-    for (int i=0; i<readers.length; i++) readers[i].setGroupFiles(group);
+    groupFiles = group;
+    for (int i=0; i<readers.length; i++) {
+      if (readers[i] != null) readers[i].setGroupFiles(group);
+    }
   }
 
   /* @see IFormatReader#isGroupFiles() */
   @Override
   public boolean isGroupFiles() {
     // all readers should have same file grouping setting
-    return readers[0].isGroupFiles();
+    if (groupFiles != null) return groupFiles;
+    return getReaderInstance(0).isGroupFiles();
   }
 
   /* @see IFormatReader#fileGroupOption(String) */
@@ -624,29 +677,37 @@ public class ImageReader implements IFormatReader {
   @Override
   public void setNormalized(boolean normalize) {
     FormatTools.assertId(currentId, false, 2);
-    for (int i=0; i<readers.length; i++) readers[i].setNormalized(normalize);
+    normalizeData = normalize;
+    for (int i=0; i<readers.length; i++) {
+      if (readers[i] != null) readers[i].setNormalized(normalize);
+    }
   }
 
   /* @see IFormatReader#isNormalized() */
   @Override
   public boolean isNormalized() {
     // NB: all readers should have the same normalization setting
-    return readers[0].isNormalized();
+    if (normalizeData != null) return normalizeData;
+    return getReaderInstance(0).isNormalized();
   }
 
   /* @see IFormatReader#setOriginalMetadataPopulated(boolean) */
   @Override
   public void setOriginalMetadataPopulated(boolean populate) {
     FormatTools.assertId(currentId, false, 1);
+    saveOriginalMetadata = populate;
     for (int i=0; i<readers.length; i++) {
-      readers[i].setOriginalMetadataPopulated(populate);
+      if (readers[i] != null) {
+        readers[i].setOriginalMetadataPopulated(populate);
+      }
     }
   }
 
   /* @see IFormatReader#isOriginalMetadataPopulated() */
   @Override
   public boolean isOriginalMetadataPopulated() {
-    return readers[0].isOriginalMetadataPopulated();
+    if (saveOriginalMetadata != null) return saveOriginalMetadata;
+    return getReaderInstance(0).isOriginalMetadataPopulated();
   }
 
   /* @see IFormatReader#getCurrentFile() */
@@ -660,21 +721,28 @@ public class ImageReader implements IFormatReader {
   @Override
   public void setMetadataFiltered(boolean filter) {
     FormatTools.assertId(currentId, false, 2);
-    for (int i=0; i<readers.length; i++) readers[i].setMetadataFiltered(filter);
+    filterMetadata = filter;
+    for (int i=0; i<readers.length; i++) {
+      if (readers[i] != null) readers[i].setMetadataFiltered(filter);
+    }
   }
 
   /* @see IFormatReader#isMetadataFiltered() */
   @Override
   public boolean isMetadataFiltered() {
     // NB: all readers should have the same metadata filtering setting
-    return readers[0].isMetadataFiltered();
+    if (filterMetadata != null) return filterMetadata;
+    return getReaderInstance(0).isMetadataFiltered();
   }
 
   /* @see IFormatReader#setMetadataStore(MetadataStore) */
   @Override
   public void setMetadataStore(MetadataStore store) {
     FormatTools.assertId(currentId, false, 2);
-    for (int i=0; i<readers.length; i++) readers[i].setMetadataStore(store);
+    metadataStore = store;
+    for (int i=0; i<readers.length; i++) {
+      if (readers[i] != null) readers[i].setMetadataStore(store);
+    }
   }
 
   /* @see IFormatReader#getMetadataStore() */
@@ -791,14 +859,16 @@ public class ImageReader implements IFormatReader {
   @Override
   public boolean hasFlattenedResolutions() {
     // all readers should have the same flattened setting
-    return readers[0].hasFlattenedResolutions();
+    if (flattenedResolutions != null) return flattenedResolutions;
+    return getReaderInstance(0).hasFlattenedResolutions();
   }
 
   /* @see IFormatReader#setFlattenedResolutions(boolean) */
   @Override
   public void setFlattenedResolutions(boolean flattened) {
+    flattenedResolutions = flattened;
     for (IFormatReader reader : readers) {
-      reader.setFlattenedResolutions(flattened);
+      if (reader != null) reader.setFlattenedResolutions(flattened);
     }
   }
 
@@ -820,14 +890,7 @@ public class ImageReader implements IFormatReader {
   @Override
   public String[] getSuffixes() {
     if (suffixes == null) {
-      HashSet<String> suffixSet = new HashSet<String>();
-      for (int i=0; i<readers.length; i++) {
-        String[] suf = readers[i].getSuffixes();
-        for (int j=0; j<suf.length; j++) suffixSet.add(suf[j]);
-      }
-      suffixes = new String[suffixSet.size()];
-      suffixSet.toArray(suffixes);
-      Arrays.sort(suffixes);
+      suffixes = getFormatDetector().getSuffixes();
     }
     return suffixes;
   }
@@ -859,13 +922,33 @@ public class ImageReader implements IFormatReader {
   @Override
   public void close() throws IOException { close(false); }
 
-  private boolean isThisType(IFormatReader reader, String name, boolean allowOpen) {
-    try {
-      return reader.isThisType(name, allowOpen);
-    } catch (Exception e) {
-      logIsThisTypeError(reader, e);
-      return false;
+  /**
+   * Gets the reader at the given index, creating it and applying the
+   * current options if this is the first time it has been needed.
+   */
+  private IFormatReader getReaderInstance(int index) {
+    if (readers[index] == null) {
+      IFormatReader reader = null;
+      try {
+        reader = readerClasses[index].getDeclaredConstructor().newInstance();
+      }
+      catch (ReflectiveOperationException exc) {
+        throw new IllegalStateException(exc);
+      }
+      reader.setMetadataOptions(metadataOptions);
+      if (groupFiles != null) reader.setGroupFiles(groupFiles);
+      if (normalizeData != null) reader.setNormalized(normalizeData);
+      if (saveOriginalMetadata != null) {
+        reader.setOriginalMetadataPopulated(saveOriginalMetadata);
+      }
+      if (filterMetadata != null) reader.setMetadataFiltered(filterMetadata);
+      if (flattenedResolutions != null) {
+        reader.setFlattenedResolutions(flattenedResolutions);
+      }
+      if (metadataStore != null) reader.setMetadataStore(metadataStore);
+      readers[index] = reader;
     }
+    return readers[index];
   }
 
   private boolean isThisType(IFormatReader reader, byte[] block) {
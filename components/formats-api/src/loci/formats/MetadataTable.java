@@ -0,0 +1,279 @@
+/*
+ * #%L
+ * Top-level reader and writer APIs
+ * %%
+ * Copyright (C) 2005 - 2017 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package loci.formats;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * Hashtable used to store original metadata key/value pairs.
+ *
+ * Entries are kept in insertion order in an unsynchronized
+ * {@link LinkedHashMap}, avoiding the locking cost of {@link Hashtable}
+ * while remaining assignable to the Hashtable-typed metadata API.
+ * As with Hashtable, null keys and values are not permitted.
+ * Instances are not thread-safe.
+ */
+public class MetadataTable extends Hashtable<String, Object> {
+
+  // -- Fields --
+
+  private transient LinkedHashMap<String, Object> map;
+
+  // -- Constructors --
+
+  /** Constructs an empty table. */
+  public MetadataTable() {
+    super(0);
+    map = new LinkedHashMap<String, Object>();
+  }
+
+  /** Constructs a table containing the entries of the given map. */
+  public MetadataTable(Map<String, ?> m) {
+    this();
+    putAll(m);
+  }
+
+  // -- Map API methods --
+
+  @Override
+  public int size() {
+    return map.size();
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return map.isEmpty();
+  }
+
+  @Override
+  public Enumeration<String> keys() {
+    return Collections.enumeration(map.keySet());
+  }
+
+  @Override
+  public Enumeration<Object> elements() {
+    return Collections.enumeration(map.values());
+  }
+
+  @Override
+  public boolean contains(Object value) {
+    if (value == null) {
+      throw new NullPointerException();
+    }
+    return map.containsValue(value);
+  }
+
+  @Override
+  public boolean containsValue(Object value) {
+    return contains(value);
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return map.containsKey(key);
+  }
+
+  @Override
+  public Object get(Object key) {
+    return map.get(key);
+  }
+
+  @Override
+  public Object put(String key, Object value) {
+    if (key == null || value == null) {
+      throw new NullPointerException();
+    }
+    return map.put(key, value);
+  }
+
+  @Override
+  public Object remove(Object key) {
+    return map.remove(key);
+  }
+
+  @Override
+  public void putAll(Map<? extends String, ? extends Object> m) {
+    for (Map.Entry<? extends String, ? extends Object> e : m.entrySet()) {
+      put(e.getKey(), e.getValue());
+    }
+  }
+
+  @Override
+  public void clear() {
+    map.clear();
+  }
+
+  @Override
+  public Object clone() {
+    return new MetadataTable(map);
+  }
+
+  @Override
+  public String toString() {
+    return map.toString();
+  }
+
+  @Override
+  public Set<String> keySet() {
+    return map.keySet();
+  }
+
+  @Override
+  public Set<Map.Entry<String, Object>> entrySet() {
+    return map.entrySet();
+  }
+
+  @Override
+  public Collection<Object> values() {
+    return map.values();
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    return o == this || map.equals(o);
+  }
+
+  @Override
+  public int hashCode() {
+    return map.hashCode();
+  }
+
+  @Override
+  public Object getOrDefault(Object key, Object defaultValue) {
+    return map.getOrDefault(key, defaultValue);
+  }
+
+  @Override
+  public void forEach(BiConsumer<? super String, ? super Object> action) {
+    map.forEach(action);
+  }
+
+  @Override
+  public void replaceAll(
+    BiFunction<? super String, ? super Object, ? extends Object> function)
+  {
+    map.replaceAll(function);
+  }
+
+  @Override
+  public Object putIfAbsent(String key, Object value) {
+    if (key == null || value == null) {
+      throw new NullPointerException();
+    }
+    return map.putIfAbsent(key, value);
+  }
+
+  @Override
+  public boolean remove(Object key, Object value) {
+    return map.remove(key, value);
+  }
+
+  @Override
+  public boolean replace(String key, Object oldValue, Object newValue) {
+    if (newValue == null) {
+      throw new NullPointerException();
+    }
+    return map.replace(key, oldValue, newValue);
+  }
+
+  @Override
+  public Object replace(String key, Object value) {
+    if (value == null) {
+      throw new NullPointerException();
+    }
+    return map.replace(key, value);
+  }
+
+  @Override
+  public Object computeIfAbsent(String key,
+    Function<? super String, ? extends Object> mappingFunction)
+  {
+    return map.computeIfAbsent(key, mappingFunction);
+  }
+
+  @Override
+  public Object computeIfPresent(String key,
+    BiFunction<? super String, ? super Object, ? extends Object> function)
+  {
+    return map.computeIfPresent(key, function);
+  }
+
+  @Override
+  public Object compute(String key,
+    BiFunction<? super String, ? super Object, ? extends Object> function)
+  {
+    return map.compute(key, function);
+  }
+
+  @Override
+  public Object merge(String key, Object value,
+    BiFunction<? super Object, ? super Object, ? extends Object> function)
+  {
+    return map.merge(key, value, function);
+  }
+
+  // -- Hashtable API methods --
+
+  @Override
+  protected void rehash() {
+    // entries are not stored in the superclass
+  }
+
+  // -- Serialization --
+
+  private void writeObject(ObjectOutputStream out) throws IOException {
+    out.defaultWriteObject();
+    out.writeObject(new LinkedHashMap<String, Object>(map));
+  }
+
+  @SuppressWarnings("unchecked")
+  private void readObject(ObjectInputStream in)
+    throws IOException, ClassNotFoundException
+  {
+    in.defaultReadObject();
+    map = (LinkedHashMap<String, Object>) in.readObject();
+  }
+
+}
@@ -59,6 +59,14 @@ public class DynamicMetadataOptions implements MetadataOptions {
   public static final String READER_VALIDATE_KEY = "reader.validate.input";
   public static final boolean READER_VALIDATE_DEFAULT = false;
 
+  /**
+   * Whether readers that support it should keep the original metadata they
+   * read during initialization, and only add it to the global and series
+   * metadata tables when those tables are first requested.
+   */
+  public static final String METADATA_DEFERRED_KEY = "metadata.deferred";
+  public static final boolean METADATA_DEFERRED_DEFAULT = false;
+
   private Properties props;
 
   /**
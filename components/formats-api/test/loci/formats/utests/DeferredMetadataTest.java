@@ -0,0 +1,203 @@
+/*
+ * #%L
+ * Top-level reader and writer APIs
+ * %%
+ * Copyright (C) 2016 - 2017 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package loci.formats.utests;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Hashtable;
+
+import loci.formats.CoreMetadata;
+import loci.formats.FormatException;
+import loci.formats.FormatReader;
+import loci.formats.FormatTools;
+import loci.formats.in.DynamicMetadataOptions;
+import loci.formats.in.MetadataLevel;
+
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for original metadata that is only added when first
+ * requested; see {@link DynamicMetadataOptions#METADATA_DEFERRED_KEY}.
+ */
+public class DeferredMetadataTest {
+
+  private static final String BLOCK = "a=1\nb=2\nc=3";
+
+  @Test
+  public void testAddedDuringInit() throws Exception {
+    TestReader reader = new TestReader();
+    reader.setId("test.test");
+    assertEquals(reader.addCount, 0);
+    assertEquals(reader.getMetadata().size(), 3);
+    assertEquals(reader.getGlobalMetadata().get("b"), "2");
+    reader.close();
+  }
+
+  @Test
+  public void testDeferred() throws Exception {
+    TestReader reader = new TestReader();
+    reader.setMetadataOptions(deferred(MetadataLevel.ALL));
+    reader.setId("test.test");
+    reader.setSeries(1);
+
+    // core metadata is available, the original metadata is not yet added
+    assertEquals(reader.getSizeX(), 4);
+    assertEquals(reader.addCount, 0);
+    assertTrue(reader.getMetadata().isEmpty());
+
+    Hashtable<String, Object> meta = reader.getGlobalMetadata();
+    assertEquals(reader.addCount, 1);
+    assertEquals(meta.size(), 3);
+    assertEquals(meta.get("a"), "1");
+    assertEquals(meta.get("c"), "3");
+    assertEquals(reader.getSeries(), 1);
+    assertTrue(reader.getSeriesMetadata().isEmpty());
+    reader.setSeries(0);
+    assertEquals(reader.getSeriesMetadata().get("Line count"), 3);
+
+    // the block is only added once
+    assertEquals(reader.getMetadataValue("b"), "2");
+    assertEquals(reader.addCount, 1);
+    reader.close();
+  }
+
+  @Test
+  public void testDeferredSeriesMetadataFirst() throws Exception {
+    TestReader reader = new TestReader();
+    reader.setMetadataOptions(deferred(MetadataLevel.ALL));
+    reader.setId("test.test");
+    assertEquals(reader.getSeriesMetadataValue("Line count"), 3);
+    assertEquals(reader.getMetadata().size(), 3);
+    assertEquals(reader.addCount, 1);
+    reader.close();
+  }
+
+  @Test
+  public void testNotDeferredAtMinimumLevel() throws Exception {
+    TestReader reader = new TestReader();
+    reader.setMetadataOptions(deferred(MetadataLevel.MINIMUM));
+    reader.setId("test.test");
+    assertTrue(reader.getGlobalMetadata().isEmpty());
+    assertEquals(reader.addCount, 0);
+    reader.close();
+  }
+
+  @Test
+  public void testReinitialized() throws Exception {
+    TestReader reader = new TestReader();
+    reader.setMetadataOptions(deferred(MetadataLevel.ALL));
+    reader.setId("test.test");
+    reader.close();
+    reader.setId("test2.test");
+    assertEquals(reader.getGlobalMetadata().size(), 3);
+    assertEquals(reader.addCount, 1);
+    reader.close();
+  }
+
+  // -- Helper methods --
+
+  private static DynamicMetadataOptions deferred(MetadataLevel level) {
+    DynamicMetadataOptions options = new DynamicMetadataOptions(level);
+    options.setBoolean(DynamicMetadataOptions.METADATA_DEFERRED_KEY, true);
+    return options;
+  }
+
+  // -- Helper class --
+
+  /** Minimal two-series reader whose original metadata is one block. */
+  private static class TestReader extends FormatReader {
+
+    int addCount;
+
+    public TestReader() {
+      super("Test", "test");
+    }
+
+    public Hashtable<String, Object> getMetadata() {
+      return metadata;
+    }
+
+    @Override
+    public byte[] openBytes(int no, byte[] buf, int x, int y, int w, int h)
+      throws FormatException
+    {
+      return buf;
+    }
+
+    @Override
+    protected void initFile(String id) throws FormatException, IOException {
+      super.initFile(id);
+      addCount = 0;
+      core.clear();
+      for (int i=0; i<2; i++) {
+        CoreMetadata m = new CoreMetadata();
+        m.sizeX = 4;
+        m.sizeY = 4;
+        m.sizeZ = 1;
+        m.sizeC = 1;
+        m.sizeT = 1;
+        m.imageCount = 1;
+        m.pixelType = FormatTools.UINT8;
+        m.dimensionOrder = "XYZCT";
+        m.orderCertain = true;
+        core.add(m);
+      }
+
+      String[] lines = BLOCK.split("\n");
+      if (isMetadataDeferred()) {
+        deferMeta(lines);
+      }
+      else {
+        addLines(lines);
+      }
+    }
+
+    @Override
+    protected void addDeferredMeta(Object block) {
+      addCount++;
+      addLines((String[]) block);
+    }
+
+    private void addLines(String[] lines) {
+      for (String line : lines) {
+        int eq = line.indexOf('=');
+        addGlobalMeta(line.substring(0, eq), line.substring(eq + 1));
+      }
+      addSeriesMeta("Line count", lines.length);
+    }
+
+  }
+
+}
@@ -0,0 +1,180 @@
+/*
+ * #%L
+ * Top-level reader and writer APIs
+ * %%
+ * Copyright (C) 2016 - 2017 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package loci.formats.utests;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Hashtable;
+import java.util.List;
+
+import loci.formats.FormatException;
+import loci.formats.FormatReader;
+import loci.formats.MetadataTable;
+
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for {@link MetadataTable} and the filtering done by
+ * {@link FormatReader#addGlobalMeta(String, Object)}.
+ */
+public class MetadataTableTest {
+
+  @Test
+  public void testInsertionOrder() {
+    MetadataTable table = new MetadataTable();
+    List<String> keys = new ArrayList<String>();
+    for (int i=0; i<100; i++) {
+      String key = "key " + ((i * 37) % 100);
+      keys.add(key);
+      table.put(key, i);
+    }
+    assertEquals(new ArrayList<String>(table.keySet()), keys);
+    assertEquals(table.size(), 100);
+    assertEquals(table.get("key 37"), 1);
+  }
+
+  @Test(expectedExceptions = NullPointerException.class)
+  public void testNullKey() {
+    new MetadataTable().put(null, "value");
+  }
+
+  @Test(expectedExceptions = NullPointerException.class)
+  public void testNullValue() {
+    new MetadataTable().put("key", null);
+  }
+
+  @Test
+  public void testEqualsHashtable() {
+    MetadataTable table = new MetadataTable();
+    Hashtable<String, Object> expected = new Hashtable<String, Object>();
+    for (int i=0; i<10; i++) {
+      table.put("k" + i, i);
+      expected.put("k" + i, i);
+    }
+    assertTrue(table.equals(expected));
+    assertTrue(expected.equals(table));
+    assertEquals(table.hashCode(), expected.hashCode());
+    assertEquals(table.clone(), expected);
+    assertEquals(new Hashtable<String, Object>(table), expected);
+  }
+
+  @Test
+  public void testSerialization() throws Exception {
+    MetadataTable table = new MetadataTable();
+    table.put("b", "1");
+    table.put("a", 2);
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ObjectOutputStream out = new ObjectOutputStream(bytes);
+    out.writeObject(table);
+    out.close();
+    ObjectInputStream in = new ObjectInputStream(
+      new ByteArrayInputStream(bytes.toByteArray()));
+    MetadataTable copy = (MetadataTable) in.readObject();
+
+    assertEquals(copy, table);
+    assertEquals(new ArrayList<String>(copy.keySet()), Arrays.asList("b", "a"));
+  }
+
+  @Test
+  public void testFilteredMetadata() {
+    TestReader reader = new TestReader(true);
+    reader.add("Plain key", "plain value");
+    reader.add("Control\u0001 key", "va\u0002lue\ttab");
+    reader.add("12345", "no letters in key");
+    reader.add("line\nbreak", "rejected");
+    reader.add("A&lt;B&amp;C", "x<y>z&amp;");
+    reader.add("&lt;", "key is empty once markup is removed");
+    reader.add("blank", " \u0003 ");
+    reader.add("array", new int[] {1});
+    reader.add("number", 5);
+
+    Hashtable<String, Object> meta = reader.getMetadata();
+    assertTrue(meta instanceof MetadataTable);
+    assertEquals(new ArrayList<String>(meta.keySet()),
+      Arrays.asList("Plain key", "Control key", "ABC", "number"));
+    assertEquals(meta.get("Plain key"), "plain value");
+    assertEquals(meta.get("Control key"), "value\ttab");
+    assertEquals(meta.get("ABC"), "xyz");
+    assertEquals(meta.get("number"), 5);
+  }
+
+  @Test
+  public void testUnfilteredMetadata() {
+    TestReader reader = new TestReader(false);
+    reader.add(" 12345 ", "a<b");
+    int[] array = {1};
+    reader.add("array", array);
+
+    Hashtable<String, Object> meta = reader.getMetadata();
+    assertEquals(meta.size(), 2);
+    assertEquals(meta.get("12345"), "a<b");
+    assertTrue(meta.get("array") == array);
+    assertFalse(meta.containsKey(" 12345 "));
+  }
+
+  /** Minimal reader that exposes global metadata population. */
+  private static class TestReader extends FormatReader {
+
+    public TestReader(boolean filter) {
+      super("Test", "test");
+      metadata = new MetadataTable();
+      setMetadataFiltered(filter);
+    }
+
+    public void add(String key, Object value) {
+      addGlobalMeta(key, value);
+    }
+
+    public Hashtable<String, Object> getMetadata() {
+      return metadata;
+    }
+
+    @Override
+    public byte[] openBytes(int no, byte[] buf, int x, int y, int w, int h)
+      throws FormatException
+    {
+      return buf;
+    }
+
+  }
+
+}
@@ -36,7 +36,11 @@ import java.io.File;
 import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
 
@@ -441,6 +445,17 @@ public class FilePattern {
    */
   public static String findPattern(String name, String dir, String[] nameList,
     int[] excludeAxes)
+  {
+    return findPattern(name, dir, nameList, null, excludeAxes);
+  }
+
+  /**
+   * Identifies the group pattern from a given filename, directory and
+   * list of candidate filenames, optionally using a prebuilt index of
+   * the candidate filenames.
+   */
+  private static String findPattern(String name, String dir, String[] nameList,
+    NameIndex index, int[] excludeAxes)
   {
     if (excludeAxes == null) excludeAxes = new int[0];
 
@@ -498,7 +513,8 @@ public class FilePattern {
       String pre = name.substring(0, indexList[i]);
       String post = name.substring(endList[i]);
       NumberFilter filter = new NumberFilter(pre, post);
-      String[] list = matchFiles(nameList, filter);
+      String[] list = index == null ? null : index.match(pre, post);
+      if (list == null) list = matchFiles(nameList, filter);
       if (list == null || list.length == 0) return null;
       if (list.length == 1) {
         // false alarm; this number block is constant
@@ -543,7 +559,7 @@ public class FilePattern {
           else {
             // recursively split the block into variable prefix + const suffix
             while (j < width && !same[j]) j++;
-            String p = findPattern(name, nameList, jx, indexList[i] + j, "");
+            String p = findPattern(name, list, jx, indexList[i] + j, "");
             char c = indexList[i] > 0 ? name.charAt(indexList[i] - 1) : '.';
             // check if this block represents the series axis
             if (p == null && c != 'S' && c != 's' && c != 'E' && c != 'e') {
@@ -605,7 +621,9 @@ public class FilePattern {
   /**
    * Works like {@link #findSeriesPatterns(String, String, String[])},
    * but dir and nameList are inferred from the given file's absolute
-   * path.
+   * path.  The directory is listed with {@link Location#list(boolean)},
+   * so the listing is reused if {@link Location#cacheDirectoryListings}
+   * has been enabled.
    *
    * @param base The file basename to use as a template for the match.
    * @return an array containing all identified patterns.
@@ -649,9 +667,15 @@ public class FilePattern {
 
     ArrayList<String> patterns = new ArrayList<String>();
     int[] exclude = new int[] {AxisGuesser.S_AXIS};
+
+    // every name is matched against the same list, so index it once;
+    // names from the same pattern also share the same expanded file list
+    NameIndex index = new NameIndex(nameList);
+    Map<String, Set<String>> patternFiles = new HashMap<String, Set<String>>();
+
     for (String name : nameList) {
-      String pattern = findPattern(name, dir, nameList, exclude);
-      if (pattern == null) continue;
+      String pattern = findPattern(name, dir, nameList, index, exclude);
+      if (pattern == null || patterns.contains(pattern)) continue;
       int start = pattern.lastIndexOf(File.separator) + 1;
       if (start < 0) start = 0;
       String patternSuffix = pattern.substring(start);
@@ -659,19 +683,22 @@ public class FilePattern {
       if (dot < 0) patternSuffix = "";
       else patternSuffix = patternSuffix.substring(dot + 1);
 
-      String checkPattern = findPattern(name, dir, nameList);
-      String[] checkFiles = new FilePattern(checkPattern).getFiles();
-
-      // ensure that escaping is consistent with the base file
-      // this is needed to make sure that file grouping works correctly
-      // on Windows
-      for (int q=0; q<checkFiles.length; q++) {
-        checkFiles[q] = new Location(checkFiles[q]).getAbsolutePath();
+      String checkPattern = findPattern(name, dir, nameList, index, null);
+      Set<String> checkFiles = patternFiles.get(checkPattern);
+      if (checkFiles == null) {
+        checkFiles = new HashSet<String>();
+        // ensure that escaping is consistent with the base file
+        // this is needed to make sure that file grouping works correctly
+        // on Windows
+        for (String file : new FilePattern(checkPattern).getFiles()) {
+          checkFiles.add(new Location(file).getAbsolutePath());
+        }
+        patternFiles.put(checkPattern, checkFiles);
       }
 
-      if (!patterns.contains(pattern) && (!new Location(pattern).exists() ||
+      if ((!new Location(pattern).exists() ||
         absoluteBase.equals(pattern)) && patternSuffix.equals(baseSuffix) &&
-        DataTools.indexOf(checkFiles, absoluteBase) >= 0)
+        checkFiles.contains(absoluteBase))
       {
         patterns.add(pattern);
       }
@@ -856,6 +883,76 @@ public class FilePattern {
     return files.toArray(new String[files.size()]);
   }
 
+  // -- Helper classes --
+
+  /**
+   * Index of candidate filenames by the text surrounding each of their
+   * numerical blocks.  This finds the names accepted by a
+   * {@link NumberFilter} built from a block's boundaries without testing
+   * every name, which matters when many names are matched against the
+   * same large directory listing.
+   */
+  private static class NameIndex {
+    private final Map<String, List<String>> names =
+      new HashMap<String, List<String>>();
+
+    public NameIndex(String[] nameList) {
+      for (String name : nameList) {
+        int len = name.length();
+        int i = 0;
+        while (i < len) {
+          if (!isDigit(name.charAt(i))) {
+            i++;
+            continue;
+          }
+          int end = i + 1;
+          while (end < len && isDigit(name.charAt(end))) end++;
+          String key = getKey(name.substring(0, i), name.substring(end));
+          List<String> list = names.get(key);
+          if (list == null) {
+            list = new ArrayList<String>();
+            names.put(key, list);
+          }
+          list.add(name);
+          i = end;
+        }
+      }
+    }
+
+    /**
+     * Gets the names accepted by a {@link NumberFilter} with the given
+     * prefix and suffix, or null if the prefix and suffix do not lie
+     * on numerical block boundaries.
+     */
+    public String[] match(String pre, String post) {
+      if ((pre.length() > 0 && isDigit(pre.charAt(pre.length() - 1))) ||
+        (post.length() > 0 && isDigit(post.charAt(0))))
+      {
+        return null;
+      }
+      List<String> match = new ArrayList<String>();
+      add(match, getKey(pre, post));
+      // NumberFilter also accepts signed numbers
+      add(match, getKey(pre + "-", post));
+      add(match, getKey(pre + "+", post));
+      return match.toArray(new String[match.size()]);
+    }
+
+    private void add(List<String> match, String key) {
+      List<String> list = names.get(key);
+      if (list != null) match.addAll(list);
+    }
+
+    private static String getKey(String pre, String post) {
+      return pre + '\0' + post;
+    }
+
+    /** Matches the digits accepted by {@link java.math.BigInteger}. */
+    private static boolean isDigit(char c) {
+      return Character.digit(c, 10) >= 0;
+    }
+  }
+
   // -- Deprecated methods --
 
   /**
@@ -37,6 +37,7 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.LinkedHashSet;
 import java.util.Hashtable;
@@ -64,6 +65,9 @@ public class FileStitcher extends ReaderWrapper {
 
   private static final int MAX_READERS = 1000;
 
+  /** Maximum number of files kept open per pattern in template mode. */
+  private static final int MAX_TEMPLATE_READERS = 4;
+
   // -- Fields --
 
   /**
@@ -92,6 +96,12 @@ public class FileStitcher extends ReaderWrapper {
   private boolean noStitch;
   private boolean group = true;
 
+  /**
+   * Whether every file in a pattern is assumed to match the first file,
+   * so that a single reader of the first file's format serves all files.
+   */
+  private boolean useTemplate = false;
+
   private MetadataStore store;
 
   private ExternalSeries[] externals;
@@ -167,6 +177,32 @@ public class FileStitcher extends ReaderWrapper {
     return !doNotChangePattern;
   }
 
+  /**
+   * Sets whether the first file in each pattern should be used as a
+   * template for the remaining files.
+   *
+   * This mode reduces the memory used per file; it does not reduce the time
+   * taken to open each file.  The format of the first file is detected once,
+   * and a few readers of that format are shared by every file in the
+   * pattern, instead of one {@link ImageReader} per file.  Each file is still
+   * fully initialized with {@link #setId(String)} when it is read, as
+   * readers keep per-file state such as pixel offsets that cannot be copied
+   * from the first file.  Only the most recently used files are kept open,
+   * so a file that has been closed to make room for another is initialized
+   * again when it is next read.  Files whose header does not match the
+   * template format, or whose dimensions or pixel type differ from the
+   * first file, are read with an {@link ImageReader}.
+   *
+   * Must be called before {@link #setId(String)}.
+   */
+  public void setUsingTemplate(boolean useTemplate) {
+    FormatTools.assertId(getCurrentFile(), false, 2);
+    this.useTemplate = useTemplate;
+  }
+
+  /** Gets whether the first file in each pattern is used as a template. */
+  public boolean isUsingTemplate() { return useTemplate; }
+
   /** Gets the reader appropriate for use with the given image plane. */
   public IFormatReader getReader(int no) throws FormatException, IOException {
     if (noStitch) return reader;
@@ -480,7 +516,8 @@ public class FileStitcher extends ReaderWrapper {
 
     if (ino < r.getImageCount()) {
       byte[] b = r.openBytes(ino, buf, x, y, w, h);
-      if (!noStitch && ino == r.getImageCount() - 1) {
+      // in template mode, the most recently used files are kept open
+      if (!noStitch && !useTemplate && ino == r.getImageCount() - 1) {
         r.close();
       }
       return b;
@@ -723,23 +760,23 @@ public class FileStitcher extends ReaderWrapper {
         files.add(path);
       }
 
-      DimensionSwapper[] readers = s.getReaders();
-      for (int i=0; i<readers.length; i++) {
-        try {
-          readers[i].setId(f[i]);
-          String[] used = readers[i].getUsedFiles();
-          for (String file : used) {
-            String path = new Location(file).getAbsolutePath();
-            files.add(path);
+      if (useTemplate) {
+        // files matching a single-file template have no other used files
+        DimensionSwapper r = null;
+        for (int i=0; i<f.length; i++) {
+          if (s.getTemplateUsedFiles() > 1 || !s.matchesTemplate(i)) {
+            if (r == null) {
+              r = s.createReader();
+            }
+            addUsedFiles(r, f[i], files);
           }
-          readers[i].close();
-        }
-        catch (FormatException e) {
-          LOGGER.debug("", e);
-        }
-        catch (IOException e) {
-          LOGGER.debug("", e);
         }
+        continue;
+      }
+
+      DimensionSwapper[] readers = s.getReaders();
+      for (int i=0; i<readers.length; i++) {
+        addUsedFiles(readers[i], f[i], files);
       }
     }
     return files.toArray(new String[files.size()]);
@@ -1144,6 +1181,25 @@ public class FileStitcher extends ReaderWrapper {
 
   // -- Helper methods --
 
+  /** Adds the absolute paths of the files used by the given file. */
+  private void addUsedFiles(DimensionSwapper r, String id, Set<String> files) {
+    try {
+      r.setId(id);
+      String[] used = r.getUsedFiles();
+      for (String file : used) {
+        String path = new Location(file).getAbsolutePath();
+        files.add(path);
+      }
+      r.close();
+    }
+    catch (FormatException e) {
+      LOGGER.debug("", e);
+    }
+    catch (IOException e) {
+      LOGGER.debug("", e);
+    }
+  }
+
   private int getExternalSeries() {
     return getExternalSeries(getCoreIndex());
   }
@@ -1334,23 +1390,51 @@ public class FileStitcher extends ReaderWrapper {
     private AxisGuesser ag;
     private int imagesPerFile;
 
+    /** Format of the first file, in template mode. */
+    private Class<? extends IFormatReader> templateClass;
+    /** Reader used only to check file headers against the template format. */
+    private IFormatReader templateChecker;
+    /** Dimensions of the first file, which other files must match. */
+    private int[][] templateDimensions;
+    private int templateUsedFiles;
+    /** Files already compared against the template header, in template mode. */
+    private BitSet checked;
+    /** Files that do not match the template, in template mode. */
+    private BitSet mismatched;
+    /** When each reader was last used, in template mode. */
+    private long[] lastUsed;
+    private long useCount;
+
     public ExternalSeries(FilePattern pattern)
       throws FormatException, IOException
     {
       this.pattern = pattern;
       files = this.pattern.getFiles();
 
-      int nReaders = files.length > MAX_READERS ? 1 : files.length;
-      readers = new DimensionSwapper[nReaders];
-      for (int i=0; i<readers.length; i++) {
-        if (classList != null) {
-          readers[i] = new DimensionSwapper(new ImageReader(classList));
+      if (useTemplate) {
+        findTemplateFormat();
+        readers = new DimensionSwapper[
+          Math.min(files.length, MAX_TEMPLATE_READERS)];
+        for (int i=0; i<readers.length; i++) {
+          readers[i] = createTemplateReader();
+        }
+        lastUsed = new long[readers.length];
+        checked = new BitSet(files.length);
+        mismatched = new BitSet(files.length);
+      }
+      else {
+        int nReaders = files.length > MAX_READERS ? 1 : files.length;
+        readers = new DimensionSwapper[nReaders];
+        for (int i=0; i<readers.length; i++) {
+          readers[i] = createReader();
         }
-        else readers[i] = new DimensionSwapper();
-        readers[i].setMetadataOptions(getMetadataOptions());
-        readers[i].setGroupFiles(false);
       }
       readers[0].setId(files[0]);
+      if (useTemplate) {
+        templateUsedFiles = readers[0].getUsedFiles().length;
+        templateDimensions = getDimensions(readers[0]);
+        lastUsed[0] = ++useCount;
+      }
 
       ag = new AxisGuesser(this.pattern, readers[0].getDimensionOrder(),
         readers[0].getSizeZ(), readers[0].getSizeT(),
@@ -1364,12 +1448,20 @@ public class FileStitcher extends ReaderWrapper {
     }
 
     public DimensionSwapper getReader(int fno) {
+      if (useTemplate) {
+        return getOpenReader(fno);
+      }
       if (fno < readers.length) {
         return readers[fno];
       }
       return readers[0];
     }
 
+    /** Gets the number of files used by the template file. */
+    public int getTemplateUsedFiles() {
+      return templateUsedFiles;
+    }
+
     public DimensionSwapper[] getReaders() {
       return readers;
     }
@@ -1398,6 +1490,183 @@ public class FileStitcher extends ReaderWrapper {
       return imagesPerFile;
     }
 
+    private DimensionSwapper createReader() {
+      DimensionSwapper r = null;
+      if (classList != null) {
+        r = new DimensionSwapper(new ImageReader(classList));
+      }
+      else r = new DimensionSwapper();
+      r.setMetadataOptions(getMetadataOptions());
+      r.setGroupFiles(false);
+      return r;
+    }
+
+    /**
+     * Finds the format of the first file, which is used for every file
+     * that matches it.
+     */
+    private void findTemplateFormat() throws FormatException, IOException {
+      IFormatReader core = ((DimensionSwapper) reader).unwrap(files[0]);
+      if (core == null) {
+        return;
+      }
+      try {
+        templateChecker = core.getClass().getDeclaredConstructor().newInstance();
+        templateClass = core.getClass();
+      }
+      catch (ReflectiveOperationException e) {
+        LOGGER.debug("Could not create template reader", e);
+      }
+    }
+
+    /**
+     * Creates a reader for the detected format of the first file only,
+     * falling back to a full reader if the format cannot be instantiated.
+     */
+    private DimensionSwapper createTemplateReader() {
+      if (templateClass == null) {
+        return createReader();
+      }
+      IFormatReader template = null;
+      try {
+        template = templateClass.getDeclaredConstructor().newInstance();
+      }
+      catch (ReflectiveOperationException e) {
+        LOGGER.debug("Could not create template reader", e);
+        return createReader();
+      }
+      DimensionSwapper r = new DimensionSwapper(template);
+      r.setMetadataOptions(getMetadataOptions());
+      r.setGroupFiles(false);
+      return r;
+    }
+
+    private boolean isTemplateReader(DimensionSwapper r) {
+      return templateClass != null && templateClass.isInstance(r.getReader());
+    }
+
+    /**
+     * Gets the reader for the given file in template mode.  If the file is
+     * not already open, the least recently used reader is reused for it.
+     */
+    private DimensionSwapper getOpenReader(int fno) {
+      int index = -1;
+      for (int i=0; i<readers.length; i++) {
+        if (files[fno].equals(readers[i].getCurrentFile())) {
+          index = i;
+          break;
+        }
+      }
+      if (index < 0) {
+        index = 0;
+        for (int i=1; i<readers.length; i++) {
+          if (readers[index].getCurrentFile() == null) {
+            break;
+          }
+          if (readers[i].getCurrentFile() == null ||
+            lastUsed[i] < lastUsed[index])
+          {
+            index = i;
+          }
+        }
+        openFile(index, fno);
+      }
+      lastUsed[index] = ++useCount;
+      return readers[index];
+    }
+
+    /**
+     * Opens the given file with the template format if it matches the
+     * first file.  Otherwise the reader is replaced with a full reader,
+     * which is initialized by {@link FileStitcher#initReader(int, int)}.
+     */
+    private void openFile(int index, int fno) {
+      if (templateClass == null) {
+        return;
+      }
+      if (matchesTemplate(fno)) {
+        if (!isTemplateReader(readers[index])) {
+          replaceReader(index, createTemplateReader());
+        }
+        try {
+          readers[index].setId(files[fno]);
+          if (Arrays.deepEquals(getDimensions(readers[index]),
+            templateDimensions))
+          {
+            return;
+          }
+        }
+        catch (FormatException e) {
+          LOGGER.debug("", e);
+        }
+        catch (IOException e) {
+          LOGGER.debug("", e);
+        }
+        LOGGER.debug("{} does not match the template", files[fno]);
+        mismatched.set(fno);
+      }
+      if (isTemplateReader(readers[index])) {
+        replaceReader(index, createReader());
+      }
+    }
+
+    /**
+     * Checks whether the given file's header matches the template format.
+     * The header is only examined once per file.
+     */
+    private boolean matchesTemplate(int fno) {
+      if (fno == 0 || templateChecker == null) {
+        return true;
+      }
+      if (!checked.get(fno)) {
+        checked.set(fno);
+        if (!templateChecker.isThisType(files[fno], true)) {
+          LOGGER.debug("{} does not match the template format", files[fno]);
+          mismatched.set(fno);
+        }
+      }
+      return !mismatched.get(fno);
+    }
+
+    /** Closes the given reader and replaces it with one of another type. */
+    private void replaceReader(int index, DimensionSwapper r) {
+      DimensionSwapper old = readers[index];
+      r.setFlattenedResolutions(old.hasFlattenedResolutions());
+      r.setNormalized(old.isNormalized());
+      r.setOriginalMetadataPopulated(old.isOriginalMetadataPopulated());
+      try {
+        old.close();
+      }
+      catch (IOException e) {
+        LOGGER.debug("Close failed", e);
+      }
+      readers[index] = r;
+    }
+
+    /**
+     * Gets the width, height, pixel type, channel count and image count of
+     * each series and resolution in the file opened by the given reader,
+     * before any dimensions are swapped.
+     */
+    private int[][] getDimensions(DimensionSwapper r) {
+      IFormatReader core = r.getReader();
+      int series = core.getSeries();
+      int resolution = core.getResolution();
+      List<int[]> dimensions = new ArrayList<int[]>();
+      for (int s=0; s<core.getSeriesCount(); s++) {
+        core.setSeries(s);
+        for (int res=0; res<core.getResolutionCount(); res++) {
+          core.setResolution(res);
+          dimensions.add(new int[] {core.getSizeX(), core.getSizeY(),
+            core.getPixelType(), core.getSizeC(), core.getImageCount(),
+            core.isRGB() ? 1 : 0});
+        }
+      }
+      core.setSeries(series);
+      core.setResolution(resolution);
+      return dimensions.toArray(new int[dimensions.size()][]);
+    }
+
     public void close() {
       close(false);
     }
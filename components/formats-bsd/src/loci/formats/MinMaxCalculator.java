@@ -33,9 +33,22 @@
 package loci.formats;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
-import loci.common.DataTools;
 import loci.formats.meta.IMinMaxStore;
 
 /**
@@ -43,6 +56,14 @@ import loci.formats.meta.IMinMaxStore;
  */
 public class MinMaxCalculator extends ReaderWrapper {
 
+  // -- Constants --
+
+  /**
+   * Minimum number of bytes in a buffer before its min/max values are
+   * computed by more than one thread.
+   */
+  private static final int PARALLEL_THRESHOLD = 4 * 1024 * 1024;
+
   // -- Utility methods --
 
   /** Converts the given reader into a MinMaxCalculator, wrapping if needed. */
@@ -71,6 +92,11 @@ public class MinMaxCalculator extends ReaderWrapper {
   /** Consumer of channel global minima and maxima */
   protected IMinMaxStore minMaxStore;
 
+  /** Number of threads used to compute min/max values of large buffers. */
+  private int minMaxThreads = 1;
+
+  private ExecutorService minMaxExecutor;
+
   // -- Constructors --
 
   /** Constructs a MinMaxCalculator around a new image reader. */
@@ -97,6 +123,26 @@ public class MinMaxCalculator extends ReaderWrapper {
     return minMaxStore;
   }
 
+  /**
+   * Sets the number of threads used to compute min/max values of large
+   * planes.  The default is 1, i.e. the values are computed by the thread
+   * that reads the plane.
+   */
+  public synchronized void setMinMaxThreads(int threads) {
+    if (threads < 1) {
+      throw new IllegalArgumentException("Invalid thread count: " + threads);
+    }
+    if (threads != minMaxThreads) {
+      shutdownMinMaxThreads();
+    }
+    minMaxThreads = threads;
+  }
+
+  /** Gets the number of threads used to compute min/max values. */
+  public int getMinMaxThreads() {
+    return minMaxThreads;
+  }
+
   // -- MinMaxCalculator API methods --
 
   /**
@@ -268,7 +314,8 @@ public class MinMaxCalculator extends ReaderWrapper {
     FormatTools.assertId(getCurrentFile(), true, 2);
     super.openBytes(no, buf, x, y, w, h);
     
-    updateMinMax(no, buf, FormatTools.getBytesPerPixel(getPixelType()) * w * h);
+    int bpp = FormatTools.getBytesPerPixel(getPixelType());
+    updateMinMax(no, buf, bpp * getRGBChannelCount() * w * h);
     return buf;
   }
 
@@ -277,6 +324,9 @@ public class MinMaxCalculator extends ReaderWrapper {
   public void close(boolean fileOnly) throws IOException {
     reader.close(fileOnly);
     if (!fileOnly) {
+      synchronized (this) {
+        shutdownMinMaxThreads();
+      }
       chanMin = null;
       chanMax = null;
       planeMin = null;
@@ -312,7 +362,7 @@ public class MinMaxCalculator extends ReaderWrapper {
     int series = getCoreIndex();
     int pixelType = getPixelType();
     int bpp = FormatTools.getBytesPerPixel(pixelType);
-    int planeSize = getSizeX() * getSizeY() * bpp;
+    int planeSize = getSizeX() * getSizeY() * bpp * numRGB;
     // check whether min/max values have already been computed for this plane
     // and that the buffer requested is actually the entire plane
     if (len == planeSize
@@ -331,30 +381,16 @@ public class MinMaxCalculator extends ReaderWrapper {
       planeMax[series][pBase + c] = Double.NEGATIVE_INFINITY;
     }
 
-    boolean signed = FormatTools.isSigned(pixelType);
-
-    long threshold = (long) Math.pow(2, bpp * 8 - 1);
-    for (int i=0; i<pixels; i++) {
-      for (int c=0; c<numRGB; c++) {
-        int idx = bpp * (interleaved ? i * numRGB + c : c * pixels + i);
-        long bits = DataTools.bytesToLong(buf, idx, bpp, little);
-        if (signed) {
-          if (bits >= threshold) bits -= 2*threshold;
-        }
-        double v = bits;
-        if (pixelType == FormatTools.FLOAT) {
-          v = Float.intBitsToFloat((int) bits);
-        }
-        else if (pixelType == FormatTools.DOUBLE) {
-          v = Double.longBitsToDouble(bits);
-        }
-
-        if (v > chanMax[series][cBase + c]) {
-          chanMax[series][cBase + c] = v;
-        }
-        if (v < chanMin[series][cBase + c]) {
-          chanMin[series][cBase + c] = v;
-        }
+    double[] min = new double[numRGB];
+    double[] max = new double[numRGB];
+    findMinMax(buf, len, pixelType, little, interleaved, numRGB, pixels,
+      min, max);
+    for (int c=0; c<numRGB; c++) {
+      if (max[c] > chanMax[series][cBase + c]) {
+        chanMax[series][cBase + c] = max[c];
+      }
+      if (min[c] < chanMin[series][cBase + c]) {
+        chanMin[series][cBase + c] = min[c];
       }
     }
 
@@ -376,6 +412,240 @@ public class MinMaxCalculator extends ReaderWrapper {
     }
   }
 
+  /**
+   * Computes the min/max sample values of each channel in the given buffer,
+   * splitting large buffers across {@link #getMinMaxThreads()} threads.
+   * NaN values are ignored.
+   */
+  private void findMinMax(final byte[] buf, int len, final int pixelType,
+    final boolean little, final boolean interleaved, final int numRGB,
+    final int pixels, double[] min, double[] max)
+    throws FormatException, IOException
+  {
+    int threads = minMaxThreads;
+    if (threads == 1 || len < PARALLEL_THRESHOLD || pixels < threads) {
+      Arrays.fill(min, Double.POSITIVE_INFINITY);
+      Arrays.fill(max, Double.NEGATIVE_INFINITY);
+      scanSamples(buf, pixelType, little, interleaved, numRGB, pixels,
+        0, pixels, min, max);
+      return;
+    }
+
+    ExecutorService executor = getMinMaxExecutor();
+    List<Future<double[][]>> results = new ArrayList<Future<double[][]>>();
+    int chunk = (pixels + threads - 1) / threads;
+    for (int start=0; start<pixels; start+=chunk) {
+      final int first = start;
+      final int last = Math.min(pixels, start + chunk);
+      results.add(executor.submit(new Callable<double[][]>() {
+        @Override
+        public double[][] call() {
+          double[][] range = new double[2][numRGB];
+          Arrays.fill(range[0], Double.POSITIVE_INFINITY);
+          Arrays.fill(range[1], Double.NEGATIVE_INFINITY);
+          scanSamples(buf, pixelType, little, interleaved, numRGB, pixels,
+            first, last, range[0], range[1]);
+          return range;
+        }
+      }));
+    }
+
+    Arrays.fill(min, Double.POSITIVE_INFINITY);
+    Arrays.fill(max, Double.NEGATIVE_INFINITY);
+    for (Future<double[][]> result : results) {
+      double[][] range = null;
+      try {
+        range = result.get();
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException(e);
+      }
+      catch (ExecutionException e) {
+        throw new FormatException(e.getCause());
+      }
+      for (int c=0; c<numRGB; c++) {
+        if (range[0][c] < min[c]) min[c] = range[0][c];
+        if (range[1][c] > max[c]) max[c] = range[1][c];
+      }
+    }
+  }
+
+  private synchronized ExecutorService getMinMaxExecutor() {
+    if (minMaxExecutor == null) {
+      minMaxExecutor = Executors.newFixedThreadPool(minMaxThreads,
+        new ThreadFactory() {
+          @Override
+          public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "MinMaxCalculator");
+            t.setDaemon(true);
+            return t;
+          }
+        });
+    }
+    return minMaxExecutor;
+  }
+
+  private void shutdownMinMaxThreads() {
+    if (minMaxExecutor != null) {
+      minMaxExecutor.shutdown();
+      minMaxExecutor = null;
+    }
+  }
+
+  /**
+   * Updates min and max with the samples of pixels [start, end) of each
+   * channel.  Samples are read through a view of the buffer matching the
+   * pixel type, so that each type is handled by its own loop.
+   */
+  private static void scanSamples(byte[] buf, int pixelType, boolean little,
+    boolean interleaved, int numRGB, int pixels, int start, int end,
+    double[] min, double[] max)
+  {
+    if (end <= start) return;
+    ByteBuffer bytes = ByteBuffer.wrap(buf);
+    bytes.order(little ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+    int stride = interleaved ? numRGB : 1;
+
+    for (int c=0; c<numRGB; c++) {
+      int offset = interleaved ? c : c * pixels;
+      int first = offset + start * stride;
+      int last = offset + (end - 1) * stride;
+      switch (pixelType) {
+        case FormatTools.INT8:
+          scanInt8(buf, first, last, stride, c, min, max);
+          break;
+        case FormatTools.INT16:
+          scanInt16(bytes.asShortBuffer(), first, last, stride, c, min, max);
+          break;
+        case FormatTools.UINT16:
+          scanUint16(bytes.asShortBuffer(), first, last, stride, c, min, max);
+          break;
+        case FormatTools.INT32:
+          scanInt32(bytes.asIntBuffer(), first, last, stride, c, min, max);
+          break;
+        case FormatTools.UINT32:
+          scanUint32(bytes.asIntBuffer(), first, last, stride, c, min, max);
+          break;
+        case FormatTools.FLOAT:
+          scanFloat(bytes.asFloatBuffer(), first, last, stride, c, min, max);
+          break;
+        case FormatTools.DOUBLE:
+          scanDouble(bytes.asDoubleBuffer(), first, last, stride, c, min, max);
+          break;
+        default:
+          // UINT8 and BIT
+          scanUint8(buf, first, last, stride, c, min, max);
+      }
+    }
+  }
+
+  private static void scanUint8(byte[] buf, int first, int last, int stride,
+    int c, double[] min, double[] max)
+  {
+    int lo = 0xff, hi = 0;
+    for (int i=first; i<=last; i+=stride) {
+      int v = buf[i] & 0xff;
+      if (v < lo) lo = v;
+      if (v > hi) hi = v;
+    }
+    min[c] = Math.min(min[c], lo);
+    max[c] = Math.max(max[c], hi);
+  }
+
+  private static void scanInt8(byte[] buf, int first, int last, int stride,
+    int c, double[] min, double[] max)
+  {
+    int lo = Byte.MAX_VALUE, hi = Byte.MIN_VALUE;
+    for (int i=first; i<=last; i+=stride) {
+      int v = buf[i];
+      if (v < lo) lo = v;
+      if (v > hi) hi = v;
+    }
+    min[c] = Math.min(min[c], lo);
+    max[c] = Math.max(max[c], hi);
+  }
+
+  private static void scanUint16(ShortBuffer buf, int first, int last,
+    int stride, int c, double[] min, double[] max)
+  {
+    int lo = 0xffff, hi = 0;
+    for (int i=first; i<=last; i+=stride) {
+      int v = buf.get(i) & 0xffff;
+      if (v < lo) lo = v;
+      if (v > hi) hi = v;
+    }
+    min[c] = Math.min(min[c], lo);
+    max[c] = Math.max(max[c], hi);
+  }
+
+  private static void scanInt16(ShortBuffer buf, int first, int last,
+    int stride, int c, double[] min, double[] max)
+  {
+    int lo = Short.MAX_VALUE, hi = Short.MIN_VALUE;
+    for (int i=first; i<=last; i+=stride) {
+      int v = buf.get(i);
+      if (v < lo) lo = v;
+      if (v > hi) hi = v;
+    }
+    min[c] = Math.min(min[c], lo);
+    max[c] = Math.max(max[c], hi);
+  }
+
+  private static void scanUint32(IntBuffer buf, int first, int last,
+    int stride, int c, double[] min, double[] max)
+  {
+    long lo = 0xffffffffL, hi = 0;
+    for (int i=first; i<=last; i+=stride) {
+      long v = buf.get(i) & 0xffffffffL;
+      if (v < lo) lo = v;
+      if (v > hi) hi = v;
+    }
+    min[c] = Math.min(min[c], lo);
+    max[c] = Math.max(max[c], hi);
+  }
+
+  private static void scanInt32(IntBuffer buf, int first, int last,
+    int stride, int c, double[] min, double[] max)
+  {
+    int lo = Integer.MAX_VALUE, hi = Integer.MIN_VALUE;
+    for (int i=first; i<=last; i+=stride) {
+      int v = buf.get(i);
+      if (v < lo) lo = v;
+      if (v > hi) hi = v;
+    }
+    min[c] = Math.min(min[c], lo);
+    max[c] = Math.max(max[c], hi);
+  }
+
+  private static void scanFloat(FloatBuffer buf, int first, int last,
+    int stride, int c, double[] min, double[] max)
+  {
+    // comparisons are false for NaN, so NaN samples are skipped
+    float lo = Float.POSITIVE_INFINITY, hi = Float.NEGATIVE_INFINITY;
+    for (int i=first; i<=last; i+=stride) {
+      float v = buf.get(i);
+      if (v < lo) lo = v;
+      if (v > hi) hi = v;
+    }
+    if (lo < min[c]) min[c] = lo;
+    if (hi > max[c]) max[c] = hi;
+  }
+
+  private static void scanDouble(DoubleBuffer buf, int first, int last,
+    int stride, int c, double[] min, double[] max)
+  {
+    // comparisons are false for NaN, so NaN samples are skipped
+    double lo = Double.POSITIVE_INFINITY, hi = Double.NEGATIVE_INFINITY;
+    for (int i=first; i<=last; i+=stride) {
+      double v = buf.get(i);
+      if (v < lo) lo = v;
+      if (v > hi) hi = v;
+    }
+    if (lo < min[c]) min[c] = lo;
+    if (hi > max[c]) max[c] = hi;
+  }
+
   /**
    * Ensures internal min/max variables are initialized properly. 
    *
@@ -0,0 +1,568 @@
+/*
+ * #%L
+ * BSD implementations of Bio-Formats readers and writers
+ * %%
+ * Copyright (C) 2005 - 2017 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package loci.formats.cache;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import loci.formats.FormatTools;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link Cache} that holds at most a fixed number of bytes. Objects are
+ * loaded in the order given by the cache strategy's load list; when the
+ * budget is exhausted, objects which are no longer on the load list are
+ * dropped first (least recently used first), followed by the objects
+ * furthest from the current position. An object is never dropped to make
+ * room for an object of lower priority.
+ *
+ * When automatic updating is enabled, changing the position, strategy or
+ * source schedules a prefetch on a pool of background threads instead of
+ * loading planes on the calling thread. Calls to {@link #recache()} and
+ * {@link #recache(int)} still load synchronously.
+ *
+ * The same {@link CacheListener} events are fired as by {@link Cache}, so
+ * a BoundedCache can be used anywhere a Cache is expected. Events for
+ * loaded and dropped objects may be fired from a background thread.
+ */
+public class BoundedCache extends Cache {
+
+  // -- Constants --
+
+  private static final Logger LOGGER =
+    LoggerFactory.getLogger(BoundedCache.class);
+
+  private static final AtomicInteger POOL_COUNT = new AtomicInteger();
+
+  // -- Fields --
+
+  /** Maximum number of bytes to keep in the cache. */
+  private long maxBytes;
+
+  /** Number of threads used to prefetch objects. */
+  private int threads;
+
+  /** Whether to prefetch whenever a cache parameter changes. */
+  private boolean prefetch;
+
+  /** Cached objects, in least recently used order. */
+  private LinkedHashMap<Integer, Entry> entries;
+
+  /** Indices of the objects currently being loaded. */
+  private HashSet<Integer> loading;
+
+  /** Number of bytes currently held by the cache. */
+  private long usedBytes;
+
+  /** Load list priority of each rasterized position, or null if stale. */
+  private HashMap<Integer, Integer> ranks;
+
+  /** Rasterized load list for the current position, or null if stale. */
+  private int[] loadList;
+
+  /**
+   * Incremented whenever the position, source or strategy changes, so that
+   * loads which were scheduled for an earlier state can be abandoned.
+   */
+  private int generation;
+
+  /** Last generation whose load list did not fit in the budget. */
+  private int exhausted;
+
+  /** Highest load list priority that did not fit in that generation. */
+  private int exhaustedRank;
+
+  /** Threads used for prefetching; created on first use. */
+  private ExecutorService executor;
+
+  /** Marks the load list as stale when the strategy is modified. */
+  private CacheListener strategyListener;
+
+  // -- Constructors --
+
+  /**
+   * Constructs a cache with the given cache strategy, source and budget,
+   * which prefetches objects on a single background thread.
+   */
+  public BoundedCache(ICacheStrategy strategy, ICacheSource source,
+    boolean autoUpdate, long maxBytes) throws CacheException
+  {
+    this(strategy, source, autoUpdate, maxBytes, 1);
+  }
+
+  /**
+   * Constructs a cache with the given cache strategy, source and budget.
+   * If more than one thread is requested, the source's
+   * {@link ICacheSource#getObject(int)} will be called concurrently and so
+   * must be thread-safe; otherwise, calls to the source are serialized.
+   */
+  public BoundedCache(ICacheStrategy strategy, ICacheSource source,
+    boolean autoUpdate, long maxBytes, int threads) throws CacheException
+  {
+    super(strategy, source, false);
+    if (maxBytes <= 0) throw new CacheException("maxBytes must be positive");
+    if (threads < 1) throw new CacheException("threads must be positive");
+    this.maxBytes = maxBytes;
+    this.threads = threads;
+    this.prefetch = autoUpdate;
+    exhausted = -1;
+    strategyListener = new CacheListener() {
+      @Override
+      public void cacheUpdated(CacheEvent e) {
+        synchronized (BoundedCache.this) {
+          loadList = null;
+          ranks = null;
+          generation++;
+        }
+        if (prefetch) {
+          try {
+            prefetch();
+          }
+          catch (CacheException exc) {
+            LOGGER.info("", exc);
+          }
+        }
+      }
+    };
+    strategy.addCacheListener(strategyListener);
+    if (autoUpdate) prefetch();
+  }
+
+  // -- BoundedCache API methods --
+
+  /** Gets the maximum number of bytes that the cache will hold. */
+  public synchronized long getMaxBytes() { return maxBytes; }
+
+  /**
+   * Sets the maximum number of bytes that the cache will hold, dropping
+   * objects if the cache is now over budget.
+   */
+  public void setMaxBytes(long maxBytes) throws CacheException {
+    if (maxBytes <= 0) throw new CacheException("maxBytes must be positive");
+    List<Integer> dropped = new ArrayList<Integer>();
+    synchronized (this) {
+      this.maxBytes = maxBytes;
+      exhausted = -1;
+      // make room for an empty object with a higher priority than any other
+      makeRoom(-1, 0, dropped);
+    }
+    notifyDropped(dropped);
+    if (prefetch) prefetch();
+  }
+
+  /** Gets the number of bytes currently held by the cache. */
+  public synchronized long getCachedBytes() { return usedBytes; }
+
+  /** Gets the number of objects currently held by the cache. */
+  public synchronized int getCachedCount() { return entries.size(); }
+
+  /** Gets the number of threads used for prefetching. */
+  public int getThreads() { return threads; }
+
+  /**
+   * Schedules every object on the current load list that is not yet cached
+   * to be loaded in the background, in order of priority. Any loads
+   * scheduled by a previous call are abandoned if they have not started.
+   */
+  public void prefetch() throws CacheException {
+    final int gen;
+    int[] list;
+    synchronized (this) {
+      gen = ++generation;
+      list = getLoadList();
+    }
+    ExecutorService service = getExecutor();
+    for (int i=0; i<list.length; i++) {
+      final int index = list[i];
+      synchronized (this) {
+        if (entries.containsKey(index)) continue;
+      }
+      service.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            load(index, gen);
+          }
+          catch (CacheException e) {
+            LOGGER.info("", e);
+          }
+        }
+      });
+    }
+  }
+
+  /**
+   * Stops the prefetching threads and drops all cached objects.
+   * The cache can still be used afterwards, but will load synchronously
+   * until the next prefetch.
+   */
+  public void close() {
+    ExecutorService service;
+    synchronized (this) {
+      generation++;
+      service = executor;
+      executor = null;
+      entries.clear();
+      loading.clear();
+      usedBytes = 0;
+    }
+    if (service != null) service.shutdownNow();
+  }
+
+  // -- Cache API methods --
+
+  /* @see Cache#getObject(int[]) */
+  @Override
+  public Object getObject(int[] pos) throws CacheException {
+    int[] len = strategy.getLengths();
+    if (pos.length != len.length) {
+      throw new CacheException("Invalid number of axes; got " + pos.length +
+        "; expected " + len.length);
+    }
+    int ndx = FormatTools.positionToRaster(len, pos);
+    synchronized (this) {
+      Entry entry = entries.get(ndx);
+      return entry == null ? null : entry.value;
+    }
+  }
+
+  /* @see Cache#isInCache(int) */
+  @Override
+  public synchronized boolean isInCache(int pos) throws CacheException {
+    return entries.containsKey(pos);
+  }
+
+  /* @see Cache#reset() */
+  @Override
+  public void reset() throws CacheException {
+    // NB: called from the Cache constructor, before any fields are assigned
+    currentPos = new int[strategy.getLengths().length];
+    synchronized (this) {
+      entries = new LinkedHashMap<Integer, Entry>(16, 0.75f, true);
+      loading = new HashSet<Integer>();
+      usedBytes = 0;
+      loadList = null;
+      ranks = null;
+      generation++;
+    }
+  }
+
+  /* @see Cache#setStrategy(ICacheStrategy) */
+  @Override
+  public void setStrategy(ICacheStrategy strategy) throws CacheException {
+    ICacheStrategy old = this.strategy;
+    super.setStrategy(strategy);
+    old.removeCacheListener(strategyListener);
+    strategy.addCacheListener(strategyListener);
+    if (prefetch) prefetch();
+  }
+
+  /* @see Cache#setSource(ICacheSource) */
+  @Override
+  public void setSource(ICacheSource source) throws CacheException {
+    super.setSource(source);
+    if (prefetch) prefetch();
+  }
+
+  /* @see Cache#setCurrentPos(int[]) */
+  @Override
+  public void setCurrentPos(int[] pos) throws CacheException {
+    int ndx;
+    synchronized (this) {
+      ndx = updateCurrentPos(pos);
+      loadList = null;
+      ranks = null;
+      generation++;
+    }
+    // listeners are informed without holding this cache's lock, as in load()
+    notifyListeners(new CacheEvent(this, CacheEvent.POSITION_CHANGED, ndx));
+    if (prefetch) prefetch();
+  }
+
+  /* @see Cache#recache(int) */
+  @Override
+  public void recache(int n) throws CacheException {
+    int index;
+    int gen;
+    synchronized (this) {
+      index = getLoadList()[n];
+      gen = generation;
+    }
+    load(index, gen);
+  }
+
+  /* @see Cache#recache() */
+  @Override
+  public void recache() throws CacheException {
+    int[] list;
+    int gen;
+    synchronized (this) {
+      list = getLoadList();
+      gen = generation;
+    }
+    for (int i=0; i<list.length; i++) {
+      if (!load(list[i], gen)) break;
+    }
+  }
+
+  // -- Internal BoundedCache API methods --
+
+  /**
+   * Estimates the number of bytes used by the given cached object.
+   * Primitive arrays, arrays of arrays and {@link BufferedImage}s are
+   * measured directly; for other objects the plane size of the source's
+   * reader is used if known, otherwise each object counts as one byte.
+   */
+  protected long sizeOf(Object o) {
+    if (o == null) return 0;
+    if (o instanceof byte[]) return ((byte[]) o).length;
+    if (o instanceof short[]) return ((short[]) o).length * 2L;
+    if (o instanceof char[]) return ((char[]) o).length * 2L;
+    if (o instanceof int[]) return ((int[]) o).length * 4L;
+    if (o instanceof float[]) return ((float[]) o).length * 4L;
+    if (o instanceof long[]) return ((long[]) o).length * 8L;
+    if (o instanceof double[]) return ((double[]) o).length * 8L;
+    if (o instanceof Object[]) {
+      long size = 0;
+      for (Object item : (Object[]) o) {
+        size += sizeOf(item);
+      }
+      return size;
+    }
+    if (o instanceof BufferedImage) {
+      DataBuffer buffer = ((BufferedImage) o).getRaster().getDataBuffer();
+      return (long) buffer.getNumBanks() * buffer.getSize() *
+        DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
+    }
+    if (source instanceof CacheSource) {
+      CacheSource s = (CacheSource) source;
+      if (s.reader != null && s.reader.getCurrentFile() != null) {
+        return FormatTools.getPlaneSize(s.reader);
+      }
+    }
+    return 1;
+  }
+
+  // -- Helper methods --
+
+  /**
+   * Loads the object at the given rasterized position, unless it is already
+   * cached or the cache has changed since the given generation.
+   * @return false if the object did not fit in the budget
+   */
+  private boolean load(int index, int gen) throws CacheException {
+    synchronized (this) {
+      if (gen != generation) return false;
+      if (gen == exhausted && rank(index) >= exhaustedRank) return false;
+      if (entries.containsKey(index) || !loading.add(index)) return true;
+    }
+
+    Object value = null;
+    try {
+      if (threads > 1) value = source.getObject(index);
+      else {
+        synchronized (source) {
+          value = source.getObject(index);
+        }
+      }
+    }
+    finally {
+      synchronized (this) {
+        loading.remove(index);
+      }
+    }
+    long size = sizeOf(value);
+
+    List<Integer> dropped = new ArrayList<Integer>();
+    boolean stored;
+    synchronized (this) {
+      if (gen != generation) return false;
+      int rank = rank(index);
+      stored = makeRoom(rank, size, dropped);
+      if (stored) {
+        entries.put(index, new Entry(value, size));
+        usedBytes += size;
+      }
+      else if (exhausted != gen || rank < exhaustedRank) {
+        // objects with a lower priority will not fit either
+        exhausted = gen;
+        exhaustedRank = rank;
+      }
+    }
+    notifyDropped(dropped);
+    if (stored) {
+      notifyListeners(new CacheEvent(this, CacheEvent.OBJECT_LOADED, index));
+    }
+    return stored;
+  }
+
+  /**
+   * Drops enough objects to fit an object of the given size and load list
+   * priority, adding the indices of dropped objects to the given list.
+   * Nothing is dropped if the object cannot fit.
+   * @return true if the object now fits in the budget
+   */
+  private boolean makeRoom(int rank, long size, List<Integer> dropped) {
+    if (size > maxBytes) return false;
+    long needed = usedBytes + size - maxBytes;
+    if (needed <= 0) return true;
+
+    // objects that are no longer wanted, least recently used first
+    final Map<Integer, Integer> r = getRanks();
+    List<Integer> candidates = new ArrayList<Integer>();
+    List<Integer> wanted = new ArrayList<Integer>();
+    for (Integer key : entries.keySet()) {
+      Integer keyRank = r.get(key);
+      if (keyRank == null) candidates.add(key);
+      else if (keyRank > rank) wanted.add(key);
+    }
+
+    // then wanted objects of lower priority, furthest from the position
+    Collections.sort(wanted, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer a, Integer b) {
+        return r.get(b).compareTo(r.get(a));
+      }
+    });
+    candidates.addAll(wanted);
+
+    long available = 0;
+    int count = 0;
+    while (count < candidates.size() && available < needed) {
+      available += entries.get(candidates.get(count++)).size;
+    }
+    if (available < needed) return false;
+
+    for (int i=0; i<count; i++) {
+      Integer key = candidates.get(i);
+      usedBytes -= entries.remove(key).size;
+      dropped.add(key);
+    }
+    return true;
+  }
+
+  /** Gets the rasterized load list for the current position. */
+  private int[] getLoadList() throws CacheException {
+    if (loadList == null) {
+      int[][] positions = strategy.getLoadList(currentPos);
+      int[] len = strategy.getLengths();
+      HashMap<Integer, Integer> newRanks = new HashMap<Integer, Integer>();
+      int[] list = new int[positions.length];
+      int count = 0;
+      for (int i=0; i<positions.length; i++) {
+        int ndx = FormatTools.positionToRaster(len, positions[i]);
+        if (!newRanks.containsKey(ndx)) {
+          newRanks.put(ndx, count);
+          list[count++] = ndx;
+        }
+      }
+      loadList = count == list.length ? list : Arrays.copyOf(list, count);
+      ranks = newRanks;
+    }
+    return loadList;
+  }
+
+  /** Gets the load list priority of each rasterized position. */
+  private Map<Integer, Integer> getRanks() {
+    if (ranks == null) {
+      try {
+        getLoadList();
+      }
+      catch (CacheException e) {
+        LOGGER.info("", e);
+        return Collections.emptyMap();
+      }
+    }
+    return ranks;
+  }
+
+  /** Gets the load list priority of the given rasterized position. */
+  private int rank(int index) {
+    Integer rank = getRanks().get(index);
+    return rank == null ? Integer.MAX_VALUE : rank;
+  }
+
+  private void notifyDropped(List<Integer> dropped) {
+    for (Integer index : dropped) {
+      notifyListeners(new CacheEvent(this, CacheEvent.OBJECT_DROPPED, index));
+    }
+  }
+
+  private synchronized ExecutorService getExecutor() {
+    if (executor == null) {
+      final int pool = POOL_COUNT.incrementAndGet();
+      executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+        private int count = 0;
+
+        @Override
+        public Thread newThread(Runnable r) {
+          Thread t = new Thread(r,
+            "Bio-Formats-Cache-Prefetch-" + pool + "-" + (++count));
+          t.setDaemon(true);
+          t.setPriority(Thread.MIN_PRIORITY);
+          return t;
+        }
+      });
+    }
+    return executor;
+  }
+
+  // -- Helper classes --
+
+  /** A cached object and its estimated size in bytes. */
+  private static class Entry {
+    final Object value;
+    final long size;
+
+    Entry(Object value, long size) {
+      this.value = value;
+      this.size = size;
+    }
+  }
+
+}
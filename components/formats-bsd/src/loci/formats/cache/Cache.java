@@ -157,20 +157,7 @@ public class Cache implements CacheReporter {
 
   /** Sets the current dimensional position. */
   public void setCurrentPos(int[] pos) throws CacheException {
-    if (pos == null) throw new CacheException("pos is null");
-    if (pos.length != currentPos.length) {
-      throw new CacheException("pos length mismatch (is " +
-        pos.length + ", expected " + currentPos.length + ")");
-    }
-    int[] len = strategy.getLengths();
-    for (int i=0; i<pos.length; i++) {
-      if (pos[i] < 0 || pos[i] >= len[i]) {
-        throw new CacheException("invalid pos[" + i + "] (is " +
-          pos[i] + ", expected [0, " + (len[i] - 1) + "])");
-      }
-    }
-    System.arraycopy(pos, 0, currentPos, 0, pos.length);
-    int ndx = FormatTools.positionToRaster(len, pos);
+    int ndx = updateCurrentPos(pos);
     notifyListeners(new CacheEvent(this, CacheEvent.POSITION_CHANGED, ndx));
     if (autoUpdate) recache();
   }
@@ -180,15 +167,13 @@ public class Cache implements CacheReporter {
     int[][] indices = strategy.getLoadList(currentPos);
     int[] len = strategy.getLengths();
 
+    boolean[] keep = new boolean[inCache.length];
+    for (int j=0; j<indices.length; j++) {
+      keep[FormatTools.positionToRaster(len, indices[j])] = true;
+    }
+
     for (int i=0; i<inCache.length; i++) {
-      boolean found = false;
-      for (int j=0; j<indices.length; j++) {
-        if (i == FormatTools.positionToRaster(len, indices[j])) {
-          found = true;
-          break;
-        }
-      }
-      if (!found) {
+      if (!keep[i]) {
         inCache[i] = false;
         if (cache[i] != null) {
           cache[i] = null;
@@ -258,6 +243,28 @@ public class Cache implements CacheReporter {
 
   // -- Helper methods --
 
+  /**
+   * Checks and stores the given dimensional position, without informing
+   * listeners.
+   * @return the rasterized index of the position
+   */
+  protected int updateCurrentPos(int[] pos) throws CacheException {
+    if (pos == null) throw new CacheException("pos is null");
+    if (pos.length != currentPos.length) {
+      throw new CacheException("pos length mismatch (is " +
+        pos.length + ", expected " + currentPos.length + ")");
+    }
+    int[] len = strategy.getLengths();
+    for (int i=0; i<pos.length; i++) {
+      if (pos[i] < 0 || pos[i] >= len[i]) {
+        throw new CacheException("invalid pos[" + i + "] (is " +
+          pos[i] + ", expected [0, " + (len[i] - 1) + "])");
+      }
+    }
+    System.arraycopy(pos, 0, currentPos, 0, pos.length);
+    return FormatTools.positionToRaster(len, pos);
+  }
+
   /** Informs listeners of a cache update. */
   protected void notifyListeners(CacheEvent e) {
     synchronized (listeners) {
@@ -0,0 +1,155 @@
+/*
+ * #%L
+ * BSD implementations of Bio-Formats readers and writers
+ * %%
+ * Copyright (C) 2005 - 2017 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package loci.formats.codec;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * A thread-safe pool of byte arrays, used to avoid allocating a new array
+ * for every tile or block that is read and decoded.
+ *
+ * Arrays are pooled by exact length, since codecs and readers rely on
+ * array lengths; {@link #get(int)} returns an array whose contents are
+ * undefined.  The pool is meant for arrays of a few fixed lengths, such as
+ * decoded tiles, and not for arrays whose length varies with the data.
+ * The total size of the arrays held by the pool is bounded.  When an array
+ * would not fit, arrays of other lengths are discarded to make room, so
+ * that arrays left over from an earlier tile size are not kept.
+ */
+public class ByteArrayPool {
+
+  // -- Constants --
+
+  /** Default maximum number of bytes held by a pool. */
+  public static final long DEFAULT_MAX_BYTES = 64 * 1024 * 1024;
+
+  // -- Fields --
+
+  private final long maxBytes;
+
+  private final Map<Integer, ArrayDeque<byte[]>> arrays =
+    new HashMap<Integer, ArrayDeque<byte[]>>();
+
+  private long pooledBytes;
+
+  private long allocatedBytes;
+
+  // -- Constructors --
+
+  /** Constructs a pool that holds up to {@link #DEFAULT_MAX_BYTES}. */
+  public ByteArrayPool() {
+    this(DEFAULT_MAX_BYTES);
+  }
+
+  /** Constructs a pool that holds up to the given number of bytes. */
+  public ByteArrayPool(long maxBytes) {
+    this.maxBytes = maxBytes;
+  }
+
+  // -- ByteArrayPool API methods --
+
+  /**
+   * Returns an array of exactly the given length, reusing a released array
+   * if one is available.  The contents of the array are undefined.
+   */
+  public synchronized byte[] get(int length) {
+    ArrayDeque<byte[]> free = arrays.get(length);
+    if (free != null && !free.isEmpty()) {
+      pooledBytes -= length;
+      return free.pop();
+    }
+    allocatedBytes += length;
+    return new byte[length];
+  }
+
+  /**
+   * Returns an array to the pool.  The caller must not use the array
+   * afterwards.  Null arrays are ignored.
+   */
+  public synchronized void release(byte[] array) {
+    if (array == null || array.length == 0 || array.length > maxBytes) {
+      return;
+    }
+    if (pooledBytes + array.length > maxBytes) {
+      evictOtherLengths(array.length);
+      if (pooledBytes + array.length > maxBytes) {
+        return;
+      }
+    }
+    ArrayDeque<byte[]> free = arrays.get(array.length);
+    if (free == null) {
+      free = new ArrayDeque<byte[]>();
+      arrays.put(array.length, free);
+    }
+    free.push(array);
+    pooledBytes += array.length;
+  }
+
+  /** Discards all arrays held by the pool. */
+  public synchronized void clear() {
+    arrays.clear();
+    pooledBytes = 0;
+  }
+
+  /** Gets the number of bytes currently held by the pool. */
+  public synchronized long getPooledBytes() {
+    return pooledBytes;
+  }
+
+  /**
+   * Gets the total number of bytes allocated by {@link #get(int)} because
+   * no array of the requested length was available.
+   */
+  public synchronized long getAllocatedBytes() {
+    return allocatedBytes;
+  }
+
+  // -- Helper methods --
+
+  /** Discards every pooled array whose length is not the given length. */
+  private void evictOtherLengths(int length) {
+    Iterator<Map.Entry<Integer, ArrayDeque<byte[]>>> entries =
+      arrays.entrySet().iterator();
+    while (entries.hasNext()) {
+      Map.Entry<Integer, ArrayDeque<byte[]>> entry = entries.next();
+      if (entry.getKey() != length) {
+        pooledBytes -= (long) entry.getKey() * entry.getValue().size();
+        entries.remove();
+      }
+    }
+  }
+
+}
@@ -0,0 +1,219 @@
+/*
+ * #%L
+ * BSD implementations of Bio-Formats readers and writers
+ * %%
+ * Copyright (C) 2005 - 2017 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package loci.formats.codec;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Index of access points into a gzip stream, allowing decompression to
+ * start close to any uncompressed offset instead of at the beginning of
+ * the stream (in the style of zlib's zran example).
+ *
+ * Each access point records the position of a deflate block boundary in
+ * both the compressed and uncompressed streams, along with the 32 KB of
+ * uncompressed data preceding it. Access points are added by
+ * {@link IndexedGzipStream} as it decompresses, at most once every
+ * {@link #getSpacing()} uncompressed bytes. The stored windows are
+ * themselves compressed to keep the index small.
+ *
+ * The index contains only primitive data, so it can be kept with a
+ * reader's state (e.g. by {@link loci.formats.Memoizer}).
+ */
+public class GzipIndex {
+
+  // -- Constants --
+
+  /** Default distance between access points, in uncompressed bytes. */
+  public static final long DEFAULT_SPACING = 4 * 1024 * 1024;
+
+  /** Size of the deflate history window. */
+  static final int WINDOW_SIZE = 32768;
+
+  // -- Fields --
+
+  /** Minimum distance between access points, in uncompressed bytes. */
+  private long spacing;
+
+  /** Uncompressed offset of each access point. */
+  private List<Long> outOffsets = new ArrayList<Long>();
+
+  /** Bit offset of each access point in the compressed stream. */
+  private List<Long> inBits = new ArrayList<Long>();
+
+  /** Compressed history window for each access point. */
+  private List<byte[]> windows = new ArrayList<byte[]>();
+
+  /** Total uncompressed length, or -1 if the end has not been reached. */
+  private long length = -1;
+
+  // -- Constructors --
+
+  /** Constructs an empty index using the default spacing. */
+  public GzipIndex() {
+    this(DEFAULT_SPACING);
+  }
+
+  /** Constructs an empty index with the given access point spacing. */
+  public GzipIndex(long spacing) {
+    if (spacing < WINDOW_SIZE) {
+      throw new IllegalArgumentException("Spacing must be at least " +
+        WINDOW_SIZE + " bytes");
+    }
+    this.spacing = spacing;
+  }
+
+  // -- GzipIndex API methods --
+
+  /** Gets the minimum distance between access points. */
+  public long getSpacing() {
+    return spacing;
+  }
+
+  /** Gets the number of access points. */
+  public synchronized int size() {
+    return outOffsets.size();
+  }
+
+  /**
+   * Gets the total uncompressed length of the stream,
+   * or -1 if it has not yet been decompressed to the end.
+   */
+  public synchronized long getLength() {
+    return length;
+  }
+
+  /** Returns true if the whole stream has been indexed. */
+  public synchronized boolean isComplete() {
+    return length >= 0;
+  }
+
+  // -- Package-private methods --
+
+  synchronized void setLength(long length) {
+    this.length = length;
+  }
+
+  /** Returns true if an access point should be added at the given offset. */
+  synchronized boolean wantsPoint(long out) {
+    if (length >= 0) return false;
+    if (outOffsets.isEmpty()) return out >= spacing;
+    return out >= outOffsets.get(outOffsets.size() - 1) + spacing;
+  }
+
+  /**
+   * Adds an access point.
+   * @param out the uncompressed offset
+   * @param bits the bit offset into the compressed stream
+   * @param window the last {@link #WINDOW_SIZE} bytes of uncompressed data,
+   *               in order
+   */
+  synchronized void addPoint(long out, long bits, byte[] window) {
+    if (!wantsPoint(out)) return;
+    outOffsets.add(out);
+    inBits.add(bits);
+    windows.add(compress(window));
+  }
+
+  /**
+   * Finds the last access point at or before the given uncompressed offset.
+   * @return the access point's index, or -1 if there is none
+   */
+  synchronized int find(long out) {
+    int lo = 0, hi = outOffsets.size() - 1, found = -1;
+    while (lo <= hi) {
+      int mid = (lo + hi) >>> 1;
+      if (outOffsets.get(mid) <= out) {
+        found = mid;
+        lo = mid + 1;
+      }
+      else hi = mid - 1;
+    }
+    return found;
+  }
+
+  synchronized long getOutOffset(int point) {
+    return outOffsets.get(point);
+  }
+
+  synchronized long getInBits(int point) {
+    return inBits.get(point);
+  }
+
+  /** Gets the uncompressed history window of the given access point. */
+  synchronized byte[] getWindow(int point) throws DataFormatException {
+    Inflater inflater = new Inflater();
+    try {
+      inflater.setInput(windows.get(point));
+      byte[] window = new byte[WINDOW_SIZE];
+      int n = 0;
+      while (n < window.length && !inflater.finished()) {
+        int read = inflater.inflate(window, n, window.length - n);
+        if (read == 0 && inflater.needsInput()) break;
+        n += read;
+      }
+      if (n != window.length) {
+        throw new DataFormatException("Truncated access point window");
+      }
+      return window;
+    }
+    finally {
+      inflater.end();
+    }
+  }
+
+  // -- Helper methods --
+
+  private static byte[] compress(byte[] window) {
+    Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    try {
+      deflater.setInput(window);
+      deflater.finish();
+      ByteArrayOutputStream out = new ByteArrayOutputStream(window.length);
+      byte[] buf = new byte[8192];
+      while (!deflater.finished()) {
+        int n = deflater.deflate(buf);
+        out.write(buf, 0, n);
+      }
+      return out.toByteArray();
+    }
+    finally {
+      deflater.end();
+    }
+  }
+
+}
@@ -0,0 +1,721 @@
+/*
+ * #%L
+ * BSD implementations of Bio-Formats readers and writers
+ * %%
+ * Copyright (C) 2005 - 2017 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package loci.formats.codec;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.ZipException;
+
+import loci.common.RandomAccessInputStream;
+
+/**
+ * Input stream that decompresses gzip data and supports seeking to any
+ * uncompressed offset. Access points are recorded in a {@link GzipIndex}
+ * as data is decompressed, so that seeking backwards (or forwards past a
+ * previously decompressed region) costs at most one access point interval
+ * of decompression, rather than decompressing from the start of the stream.
+ *
+ * Concatenated gzip members are decompressed as a single stream.
+ * The CRC-32 and length in each member's trailer are verified whenever the
+ * whole member has been decompressed in order; they cannot be checked for
+ * a member that was entered by seeking to an access point.
+ */
+public class IndexedGzipStream extends InputStream {
+
+  // -- Constants --
+
+  private static final int MASK = GzipIndex.WINDOW_SIZE - 1;
+
+  private static final int BUFFER_SIZE = 65536;
+
+  /** Number of bits used for the primary Huffman lookup tables. */
+  private static final int TABLE_BITS = 10;
+
+  private static final int MEMBER = 0;
+  private static final int BLOCK = 1;
+  private static final int STORED = 2;
+  private static final int CODES = 3;
+  private static final int TRAILER = 4;
+  private static final int DONE = 5;
+
+  private static final int[] LENGTH_BASE = {
+    3, 4, 5, 6, 7, 8, 9, 10, 11, 13, 15, 17, 19, 23, 27, 31,
+    35, 43, 51, 59, 67, 83, 99, 115, 131, 163, 195, 227, 258};
+  private static final int[] LENGTH_EXTRA = {
+    0, 0, 0, 0, 0, 0, 0, 0, 1, 1, 1, 1, 2, 2, 2, 2,
+    3, 3, 3, 3, 4, 4, 4, 4, 5, 5, 5, 5, 0};
+  private static final int[] DIST_BASE = {
+    1, 2, 3, 4, 5, 7, 9, 13, 17, 25, 33, 49, 65, 97, 129, 193,
+    257, 385, 513, 769, 1025, 1537, 2049, 3073, 4097, 6145,
+    8193, 12289, 16385, 24577};
+  private static final int[] DIST_EXTRA = {
+    0, 0, 0, 0, 1, 1, 2, 2, 3, 3, 4, 4, 5, 5, 6, 6,
+    7, 7, 8, 8, 9, 9, 10, 10, 11, 11, 12, 12, 13, 13};
+  private static final int[] CODE_LENGTH_ORDER = {
+    16, 17, 18, 0, 8, 7, 9, 6, 10, 5, 11, 4, 12, 3, 13, 2, 14, 1, 15};
+
+  private static final Huffman FIXED_LENGTHS;
+  private static final Huffman FIXED_DISTANCES;
+
+  static {
+    int[] lengths = new int[288];
+    for (int i=0; i<lengths.length; i++) {
+      lengths[i] = i < 144 ? 8 : i < 256 ? 9 : i < 280 ? 7 : 8;
+    }
+    int[] distances = new int[30];
+    for (int i=0; i<distances.length; i++) {
+      distances[i] = 5;
+    }
+    try {
+      FIXED_LENGTHS = new Huffman(lengths, lengths.length);
+      FIXED_DISTANCES = new Huffman(distances, distances.length);
+    }
+    catch (ZipException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  // -- Fields --
+
+  private RandomAccessInputStream in;
+
+  /** Offset of the gzip stream within the input. */
+  private long start;
+
+  private GzipIndex index;
+
+  private byte[] buffer = new byte[BUFFER_SIZE];
+  private int bufferPos;
+  private int bufferLength;
+
+  /** Input offset of the byte after the end of the buffer. */
+  private long bufferEnd;
+
+  private long bitBuffer;
+  private int bitCount;
+
+  private byte[] window = new byte[GzipIndex.WINDOW_SIZE];
+
+  /** Current uncompressed offset. */
+  private long out;
+
+  private int mode;
+  private boolean lastBlock;
+  private int storedLeft;
+  private int copyLength;
+  private int copyDistance;
+  private Huffman lengths;
+  private Huffman distances;
+
+  /** Checksum of the current member's data decompressed so far. */
+  private CRC32 crc = new CRC32();
+
+  /**
+   * Whether the current member has been decompressed in order from its
+   * start, so that its trailer can be verified.
+   */
+  private boolean crcValid;
+
+  /** Uncompressed offset of the start of the current member. */
+  private long memberStart;
+
+  // -- Constructors --
+
+  /**
+   * Constructs a stream over gzip data starting at the current position of
+   * the given input, which will be closed along with this stream.
+   * @param in the compressed input
+   * @param index the index to use and update, or null to create a new one
+   * @throws IOException if the input does not begin with a gzip header
+   */
+  public IndexedGzipStream(RandomAccessInputStream in, GzipIndex index)
+    throws IOException
+  {
+    this.in = in;
+    this.start = in.getFilePointer();
+    this.index = index == null ? new GzipIndex() : index;
+    rewind();
+    if (!readMemberHeader()) throw new ZipException("Not in GZIP format");
+    mode = BLOCK;
+  }
+
+  // -- IndexedGzipStream API methods --
+
+  /** Gets the index used by this stream. */
+  public GzipIndex getIndex() {
+    return index;
+  }
+
+  /** Gets the current uncompressed offset. */
+  public long getFilePointer() {
+    return out;
+  }
+
+  /**
+   * Moves to the given uncompressed offset, resuming from the nearest
+   * access point if that is closer than the current position.
+   * @throws EOFException if the offset is beyond the end of the stream
+   */
+  public void seek(long pos) throws IOException {
+    if (pos < 0) throw new IOException("Negative seek offset: " + pos);
+    int point = index.find(pos);
+    long pointOffset = point < 0 ? 0 : index.getOutOffset(point);
+    if (pos < out || pointOffset > out) {
+      if (point < 0) {
+        rewind();
+        readMemberHeader();
+        mode = BLOCK;
+      }
+      else restore(point);
+    }
+    while (out < pos) {
+      long n = inflate(null, 0, (int) Math.min(pos - out, BUFFER_SIZE));
+      if (n < 0) throw new EOFException("Seek beyond end of gzip stream");
+    }
+  }
+
+  /**
+   * Decompresses the whole of the remaining stream, so that the index is
+   * complete and every offset can be reached quickly.
+   * @return the total uncompressed length
+   */
+  public long buildIndex() throws IOException {
+    while (inflate(null, 0, BUFFER_SIZE) >= 0);
+    return out;
+  }
+
+  // -- InputStream API methods --
+
+  @Override
+  public int read() throws IOException {
+    byte[] b = new byte[1];
+    return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    if (len == 0) return 0;
+    return inflate(b, off, len);
+  }
+
+  @Override
+  public long skip(long n) throws IOException {
+    if (n <= 0) return 0;
+    long end = index.getLength();
+    if (end >= 0) n = Math.min(n, end - out);
+    long target = out + n;
+    try {
+      seek(target);
+    }
+    catch (EOFException e) {
+      // stopped at the end of the stream
+    }
+    return n - (target - out);
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (in != null) in.close();
+    in = null;
+  }
+
+  // -- Helper methods: stream state --
+
+  /** Moves back to the start of the first gzip member. */
+  private void rewind() throws IOException {
+    in.seek(start);
+    bufferEnd = start;
+    bufferPos = 0;
+    bufferLength = 0;
+    bitBuffer = 0;
+    bitCount = 0;
+    out = 0;
+    copyLength = 0;
+    mode = MEMBER;
+  }
+
+  /** Resumes decompression from the given access point. */
+  private void restore(int point) throws IOException {
+    long bits = index.getInBits(point);
+    byte[] history;
+    try {
+      history = index.getWindow(point);
+    }
+    catch (DataFormatException e) {
+      throw new IOException(e);
+    }
+    long pos = bits >>> 3;
+    in.seek(pos);
+    bufferEnd = pos;
+    bufferPos = 0;
+    bufferLength = 0;
+    bitBuffer = 0;
+    bitCount = 0;
+    int skipBits = (int) (bits & 7);
+    if (skipBits > 0) {
+      need(skipBits);
+      drop(skipBits);
+    }
+    out = index.getOutOffset(point);
+    int offset = (int) (out & MASK);
+    System.arraycopy(history, 0, window, offset, window.length - offset);
+    System.arraycopy(history, window.length - offset, window, 0, offset);
+    copyLength = 0;
+    lastBlock = false;
+    crcValid = false;
+    mode = BLOCK;
+  }
+
+  /** Records an access point at the current block boundary. */
+  private void addPoint() {
+    long bits = bufferEnd * 8 - (bufferLength - bufferPos) * 8L - bitCount;
+    byte[] history = new byte[window.length];
+    int offset = (int) (out & MASK);
+    System.arraycopy(window, offset, history, 0, window.length - offset);
+    System.arraycopy(window, 0, history, window.length - offset, offset);
+    index.addPoint(out, bits, history);
+  }
+
+  // -- Helper methods: decompression --
+
+  /**
+   * Decompresses up to len bytes into the given array, or discards them
+   * if the array is null.
+   * @return the number of bytes decompressed, or -1 at the end of the stream
+   */
+  private int inflate(byte[] b, int off, int len) throws IOException {
+    int n = 0;
+    while (n < len) {
+      switch (mode) {
+        case MEMBER:
+          if (!readMemberHeader()) {
+            mode = DONE;
+            index.setLength(out);
+          }
+          else mode = BLOCK;
+          break;
+        case BLOCK:
+          if (index.wantsPoint(out)) addPoint();
+          readBlockHeader();
+          break;
+        case STORED:
+          n += copyStored(b, off + n, len - n);
+          break;
+        case CODES:
+          n += decodeCodes(b, off + n, len - n);
+          break;
+        case TRAILER:
+          readTrailer();
+          mode = MEMBER;
+          break;
+        default:
+          return n == 0 ? -1 : n;
+      }
+    }
+    return n;
+  }
+
+  /**
+   * Reads a gzip member header.
+   * @return false if there are no more members
+   */
+  private boolean readMemberHeader() throws IOException {
+    if (!fill(16) || (bitBuffer & 0xffff) != 0x8b1f) return false;
+    drop(16);
+    if (readByte() != 8) throw new ZipException("Unsupported compression");
+    int flags = readByte();
+    for (int i=0; i<6; i++) readByte();
+    if ((flags & 4) != 0) {
+      int extra = readByte() | (readByte() << 8);
+      for (int i=0; i<extra; i++) readByte();
+    }
+    if ((flags & 8) != 0) {
+      while (readByte() != 0);
+    }
+    if ((flags & 16) != 0) {
+      while (readByte() != 0);
+    }
+    if ((flags & 2) != 0) {
+      readByte();
+      readByte();
+    }
+    crc.reset();
+    crcValid = true;
+    memberStart = out;
+    return true;
+  }
+
+  /**
+   * Reads a gzip member trailer, checking the CRC-32 and length if the
+   * member was decompressed from its start.
+   */
+  private void readTrailer() throws IOException {
+    drop(bitCount & 7);
+    long expectedCrc = readInt();
+    long expectedLength = readInt();
+    if (crcValid) {
+      if (expectedCrc != crc.getValue()) {
+        throw new ZipException("Corrupt GZIP trailer: CRC-32 mismatch");
+      }
+      if (expectedLength != ((out - memberStart) & 0xffffffffL)) {
+        throw new ZipException("Corrupt GZIP trailer: length mismatch");
+      }
+    }
+  }
+
+  private void readBlockHeader() throws IOException {
+    need(3);
+    lastBlock = (bitBuffer & 1) != 0;
+    int type = (int) (bitBuffer >>> 1) & 3;
+    drop(3);
+    switch (type) {
+      case 0:
+        drop(bitCount & 7);
+        int length = readByte() | (readByte() << 8);
+        int complement = readByte() | (readByte() << 8);
+        if ((length ^ 0xffff) != complement) {
+          throw new ZipException("Invalid stored block length");
+        }
+        storedLeft = length;
+        mode = STORED;
+        break;
+      case 1:
+        lengths = FIXED_LENGTHS;
+        distances = FIXED_DISTANCES;
+        mode = CODES;
+        break;
+      case 2:
+        readDynamicTables();
+        mode = CODES;
+        break;
+      default:
+        throw new ZipException("Invalid block type");
+    }
+  }
+
+  private void readDynamicTables() throws IOException {
+    int literalCount = bits(5) + 257;
+    int distanceCount = bits(5) + 1;
+    int codeLengthCount = bits(4) + 4;
+    if (literalCount > 286 || distanceCount > 30) {
+      throw new ZipException("Too many length or distance symbols");
+    }
+
+    int[] codeLengths = new int[19];
+    for (int i=0; i<codeLengthCount; i++) {
+      codeLengths[CODE_LENGTH_ORDER[i]] = bits(3);
+    }
+    Huffman codeLengthCode = new Huffman(codeLengths, 19);
+
+    int[] all = new int[literalCount + distanceCount];
+    int i = 0;
+    while (i < all.length) {
+      int symbol = decode(codeLengthCode);
+      if (symbol < 16) {
+        all[i++] = symbol;
+        continue;
+      }
+      int value = 0;
+      int repeat;
+      if (symbol == 16) {
+        if (i == 0) throw new ZipException("Invalid bit length repeat");
+        value = all[i - 1];
+        repeat = 3 + bits(2);
+      }
+      else if (symbol == 17) repeat = 3 + bits(3);
+      else repeat = 11 + bits(7);
+      if (i + repeat > all.length) {
+        throw new ZipException("Invalid bit length repeat");
+      }
+      while (repeat-- > 0) all[i++] = value;
+    }
+    if (all[256] == 0) throw new ZipException("Missing end-of-block code");
+
+    lengths = new Huffman(all, literalCount);
+    int[] distanceLengths = new int[distanceCount];
+    System.arraycopy(all, literalCount, distanceLengths, 0, distanceCount);
+    distances = new Huffman(distanceLengths, distanceCount);
+  }
+
+  private int copyStored(byte[] b, int off, int len) throws IOException {
+    int n = Math.min(len, storedLeft);
+    int i = 0;
+    // drain whole bytes left in the bit buffer first
+    while (i < n && bitCount >= 8) {
+      if (b != null) b[off + i] = (byte) bitBuffer;
+      crc.update((int) bitBuffer & 0xff);
+      window[(int) (out++ & MASK)] = (byte) bitBuffer;
+      drop(8);
+      i++;
+    }
+    while (i < n) {
+      if (bufferPos == bufferLength && !refill()) {
+        throw new EOFException("Unexpected end of gzip stream");
+      }
+      int count = Math.min(n - i, bufferLength - bufferPos);
+      if (b != null) System.arraycopy(buffer, bufferPos, b, off + i, count);
+      crc.update(buffer, bufferPos, count);
+      copyToWindow(buffer, bufferPos, count);
+      bufferPos += count;
+      i += count;
+    }
+    storedLeft -= n;
+    if (storedLeft == 0) mode = lastBlock ? TRAILER : BLOCK;
+    return n;
+  }
+
+  private int decodeCodes(byte[] b, int off, int len) throws IOException {
+    // decode into the window only, then copy to the output array;
+    // at most half a window is decoded at once so nothing is overwritten
+    len = Math.min(len, window.length / 2);
+    long startOut = out;
+    int n = 0;
+    while (n < len) {
+      if (copyLength > 0) {
+        int count = Math.min(copyLength, len - n);
+        int from = (int) (out - copyDistance);
+        int to = (int) out;
+        for (int i=0; i<count; i++) {
+          window[(to + i) & MASK] = window[(from + i) & MASK];
+        }
+        out += count;
+        n += count;
+        copyLength -= count;
+        continue;
+      }
+
+      int symbol = decode(lengths);
+      if (symbol < 256) {
+        window[(int) (out++ & MASK)] = (byte) symbol;
+        n++;
+      }
+      else if (symbol == 256) {
+        mode = lastBlock ? TRAILER : BLOCK;
+        break;
+      }
+      else {
+        symbol -= 257;
+        if (symbol >= 29) throw new ZipException("Invalid length code");
+        copyLength = LENGTH_BASE[symbol] + bits(LENGTH_EXTRA[symbol]);
+        symbol = decode(distances);
+        if (symbol >= 30) throw new ZipException("Invalid distance code");
+        copyDistance = DIST_BASE[symbol] + bits(DIST_EXTRA[symbol]);
+        if (copyDistance > out) {
+          throw new ZipException("Invalid distance too far back");
+        }
+      }
+    }
+    updateCrc(startOut, n);
+    if (b != null) copyFromWindow(startOut, b, off, n);
+    return n;
+  }
+
+  /** Appends the given bytes to the window. */
+  private void copyToWindow(byte[] src, int off, int len) {
+    if (len >= window.length) {
+      off += len - window.length;
+      out += len - window.length;
+      len = window.length;
+    }
+    int pos = (int) (out & MASK);
+    int first = Math.min(len, window.length - pos);
+    System.arraycopy(src, off, window, pos, first);
+    System.arraycopy(src, off + first, window, 0, len - first);
+    out += len;
+  }
+
+  /** Adds recently decompressed bytes in the window to the checksum. */
+  private void updateCrc(long from, int len) {
+    int pos = (int) (from & MASK);
+    int first = Math.min(len, window.length - pos);
+    crc.update(window, pos, first);
+    crc.update(window, 0, len - first);
+  }
+
+  /** Copies recently decompressed bytes from the window. */
+  private void copyFromWindow(long from, byte[] dest, int off, int len) {
+    int pos = (int) (from & MASK);
+    int first = Math.min(len, window.length - pos);
+    System.arraycopy(window, pos, dest, off, first);
+    System.arraycopy(window, 0, dest, off + first, len - first);
+  }
+
+  /** Decodes one symbol using the given Huffman code. */
+  private int decode(Huffman h) throws IOException {
+    fill(15);
+    int entry = h.table[(int) bitBuffer & ((1 << TABLE_BITS) - 1)];
+    if (entry != 0) {
+      int length = entry >>> 16;
+      if (length > bitCount) {
+        throw new EOFException("Unexpected end of gzip stream");
+      }
+      drop(length);
+      return entry & 0xffff;
+    }
+
+    // codes longer than the lookup table, decoded one bit at a time
+    // starting from the state after the first TABLE_BITS bits
+    int code = Integer.reverse((int) bitBuffer) >>> (31 - TABLE_BITS) & ~1;
+    int first = h.first;
+    int index = h.index;
+    for (int length=TABLE_BITS+1; length<=15 && length<=bitCount; length++) {
+      code |= (int) (bitBuffer >>> (length - 1)) & 1;
+      int count = h.counts[length];
+      if (code - count < first) {
+        drop(length);
+        return h.symbols[index + code - first];
+      }
+      index += count;
+      first += count;
+      first <<= 1;
+      code <<= 1;
+    }
+    throw new ZipException("Invalid Huffman code");
+  }
+
+  // -- Helper methods: bit input --
+
+  private int bits(int n) throws IOException {
+    if (n == 0) return 0;
+    need(n);
+    int value = (int) (bitBuffer & ((1L << n) - 1));
+    drop(n);
+    return value;
+  }
+
+  private int readByte() throws IOException {
+    return bits(8);
+  }
+
+  /** Reads a little-endian unsigned 32-bit value. */
+  private long readInt() throws IOException {
+    long value = 0;
+    for (int i=0; i<4; i++) {
+      value |= (long) readByte() << (8 * i);
+    }
+    return value;
+  }
+
+  private void drop(int n) {
+    bitBuffer >>>= n;
+    bitCount -= n;
+  }
+
+  private void need(int n) throws IOException {
+    if (!fill(n)) throw new EOFException("Unexpected end of gzip stream");
+  }
+
+  /**
+   * Fills the bit buffer with at least n bits if possible.
+   * @return false if the end of the input was reached first
+   */
+  private boolean fill(int n) throws IOException {
+    if (bitCount >= n) return true;
+    while (bitCount <= 56 && bufferPos < bufferLength) {
+      bitBuffer |= (long) (buffer[bufferPos++] & 0xff) << bitCount;
+      bitCount += 8;
+    }
+    while (bitCount < n) {
+      if (bufferPos == bufferLength && !refill()) return false;
+      bitBuffer |= (long) (buffer[bufferPos++] & 0xff) << bitCount;
+      bitCount += 8;
+    }
+    return true;
+  }
+
+  private boolean refill() throws IOException {
+    int n = in.read(buffer, 0, buffer.length);
+    if (n <= 0) return false;
+    bufferPos = 0;
+    bufferLength = n;
+    bufferEnd += n;
+    return true;
+  }
+
+  // -- Helper classes --
+
+  /** Canonical Huffman code with a lookup table for short codes. */
+  private static class Huffman {
+    /** Code length and symbol for each TABLE_BITS bit prefix, or 0. */
+    final int[] table = new int[1 << TABLE_BITS];
+    final int[] counts = new int[16];
+    final int[] symbols;
+    /** First code and symbol index after TABLE_BITS bits, for long codes. */
+    int first;
+    int index;
+
+    Huffman(int[] lengths, int n) throws ZipException {
+      symbols = new int[n];
+      for (int i=0; i<n; i++) counts[lengths[i]]++;
+      counts[0] = 0;
+
+      int left = 1;
+      for (int len=1; len<=15; len++) {
+        left <<= 1;
+        left -= counts[len];
+        if (left < 0) throw new ZipException("Over-subscribed Huffman code");
+      }
+
+      int[] offsets = new int[16];
+      for (int len=1; len<15; len++) {
+        offsets[len + 1] = offsets[len] + counts[len];
+      }
+      for (int i=0; i<n; i++) {
+        if (lengths[i] != 0) symbols[offsets[lengths[i]]++] = i;
+      }
+
+      // assign canonical codes and fill the lookup table
+      int code = 0;
+      int next = 0;
+      for (int len=1; len<=TABLE_BITS; len++) {
+        for (int i=0; i<counts[len]; i++) {
+          int symbol = symbols[next++];
+          int reversed = Integer.reverse(code++) >>> (32 - len);
+          for (int j=reversed; j<table.length; j+=1 << len) {
+            table[j] = (len << 16) | symbol;
+          }
+        }
+        code <<= 1;
+      }
+      for (int len=1; len<=TABLE_BITS; len++) {
+        index += counts[len];
+        first += counts[len];
+        first <<= 1;
+      }
+    }
+  }
+
+}
@@ -0,0 +1,275 @@
+/*
+ * #%L
+ * BSD implementations of Bio-Formats readers and writers
+ * %%
+ * Copyright (C) 2005 - 2017 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package loci.formats.codec;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import loci.formats.FormatException;
+
+/**
+ * Manages the executor that a reader uses to decode the tiles or blocks
+ * of a plane in parallel.
+ *
+ * If the caller has not set an executor, {@link #getExecutor(int)} creates
+ * a pool of daemon threads, which is shut down by {@link #close()}.  An
+ * executor set with {@link #setExecutor(ExecutorService)} may be shared
+ * between readers, and is never shut down here.
+ *
+ * The tasks for one plane are submitted through a {@link Batch}, which
+ * can cancel them and wait for any that are running, so that no task
+ * writes to the caller's buffer after the plane has been returned.
+ */
+public class ParallelDecoder {
+
+  // -- Constants --
+
+  /** Maximum number of tasks in flight for a single plane. */
+  public static final int MAX_IN_FLIGHT = 64;
+
+  // -- Fields --
+
+  private final String threadName;
+
+  private ExecutorService executor;
+
+  /** Whether the executor was created by this decoder. */
+  private boolean ownsExecutor;
+
+  // -- Constructors --
+
+  /**
+   * Constructs a decoder whose own threads have the given name.
+   */
+  public ParallelDecoder(String threadName) {
+    this.threadName = threadName;
+  }
+
+  // -- ParallelDecoder API methods --
+
+  /**
+   * Sets the executor to use, shutting down any executor created by this
+   * decoder.  The given executor is not shut down by {@link #close()}.
+   *
+   * @param executor the executor to use, or null to create one on demand
+   */
+  public synchronized void setExecutor(ExecutorService executor) {
+    close();
+    this.executor = executor;
+  }
+
+  /**
+   * Returns the executor to use, creating a pool with the given number of
+   * threads if none has been set.
+   *
+   * @return the executor, or null if no executor has been set and
+   *         threads is less than 2, so decoding should be serial
+   */
+  public synchronized ExecutorService getExecutor(int threads) {
+    if (executor == null && threads > 1) {
+      executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+          Thread t = new Thread(r, threadName);
+          t.setDaemon(true);
+          return t;
+        }
+      });
+      ownsExecutor = true;
+    }
+    return executor;
+  }
+
+  /** Shuts down the executor if it was created by this decoder. */
+  public synchronized void close() {
+    if (ownsExecutor) {
+      executor.shutdown();
+      executor = null;
+      ownsExecutor = false;
+    }
+  }
+
+  /**
+   * Gets the number of tasks that may be queued ahead of the one being
+   * waited for: twice the executor's thread count, up to
+   * {@link #MAX_IN_FLIGHT}.
+   */
+  public static int getMaxInFlight(ExecutorService executor) {
+    if (executor instanceof ThreadPoolExecutor) {
+      int threads = ((ThreadPoolExecutor) executor).getMaximumPoolSize();
+      return (int) Math.max(2, Math.min(MAX_IN_FLIGHT, 2L * threads));
+    }
+    return MAX_IN_FLIGHT;
+  }
+
+  /**
+   * Waits for the given task to finish, rethrowing any exception that it
+   * threw.
+   *
+   * @return the task's result
+   */
+  public static <T> T get(Future<T> task) throws FormatException, IOException {
+    try {
+      return task.get();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while decoding", e);
+    }
+    catch (CancellationException e) {
+      throw new IOException("Decoding was cancelled", e);
+    }
+    catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof FormatException) throw (FormatException) cause;
+      if (cause instanceof IOException) throw (IOException) cause;
+      if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+      if (cause instanceof Error) throw (Error) cause;
+      throw new FormatException(cause);
+    }
+  }
+
+  // -- Helper classes --
+
+  /**
+   * Tasks submitted to decode one plane.  {@link #cancel()} should be
+   * called in a finally block once the plane has been read; it has no
+   * effect on tasks that have already finished.
+   *
+   * The batch only refers to tasks that have not finished, so the result
+   * of a finished task can be collected as soon as the caller drops its
+   * own reference to the task.
+   */
+  public static class Batch {
+    private final ExecutorService executor;
+
+    /** Tasks that have been submitted and have not finished. */
+    private final Set<Future<?>> pending = new HashSet<Future<?>>();
+
+    /** Number of tasks that are currently running. */
+    private int running;
+
+    private boolean cancelled;
+
+    public Batch(ExecutorService executor) {
+      this.executor = executor;
+    }
+
+    /** Submits a task to the executor. */
+    public <T> Future<T> submit(final Callable<T> task) {
+      FutureTask<T> future = new FutureTask<T>(new Callable<T>() {
+        @Override
+        public T call() throws Exception {
+          synchronized (Batch.this) {
+            if (cancelled) {
+              return null;
+            }
+            running++;
+          }
+          try {
+            return task.call();
+          }
+          finally {
+            synchronized (Batch.this) {
+              running--;
+              Batch.this.notifyAll();
+            }
+          }
+        }
+      }) {
+        @Override
+        protected void done() {
+          synchronized (Batch.this) {
+            pending.remove(this);
+          }
+        }
+      };
+      synchronized (this) {
+        pending.add(future);
+      }
+      try {
+        executor.execute(future);
+      }
+      catch (RejectedExecutionException e) {
+        synchronized (this) {
+          pending.remove(future);
+        }
+        throw e;
+      }
+      return future;
+    }
+
+    /**
+     * Cancels every task that has not finished, interrupting those that
+     * are running, and waits for the running tasks to stop.
+     */
+    public void cancel() {
+      List<Future<?>> tasks;
+      synchronized (this) {
+        cancelled = true;
+        tasks = new ArrayList<Future<?>>(pending);
+      }
+      for (Future<?> task : tasks) {
+        task.cancel(true);
+      }
+      boolean interrupted = false;
+      synchronized (this) {
+        while (running > 0) {
+          try {
+            wait();
+          }
+          catch (InterruptedException e) {
+            interrupted = true;
+          }
+        }
+      }
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+}
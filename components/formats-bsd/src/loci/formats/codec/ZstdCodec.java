@@ -0,0 +1,89 @@
+/*
+ * #%L
+ * BSD implementations of Bio-Formats readers and writers
+ * %%
+ * Copyright (C) 2005 - 2017 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package loci.formats.codec;
+
+import java.io.IOException;
+
+import loci.common.RandomAccessInputStream;
+import loci.formats.FormatException;
+
+/**
+ * This class implements Zstandard compression and decompression, as
+ * described in RFC 8878.  Both directions are implemented in Java, so no
+ * native library is needed.  Dictionaries are not supported.
+ */
+public class ZstdCodec extends BaseCodec {
+
+  // -- Codec API methods --
+
+  /* @see Codec#compress(byte[], CodecOptions) */
+  @Override
+  public byte[] compress(byte[] data, CodecOptions options)
+    throws FormatException
+  {
+    if (data == null || data.length == 0) {
+      throw new IllegalArgumentException("No data to compress.");
+    }
+    return new ZstdEncoder().encode(data);
+  }
+
+  /* @see Codec#decompress(RandomAccessInputStream, CodecOptions) */
+  @Override
+  public byte[] decompress(RandomAccessInputStream in, CodecOptions options)
+    throws FormatException, IOException
+  {
+    byte[] buf = new byte[(int) (in.length() - in.getFilePointer())];
+    in.readFully(buf);
+    return decompress(buf, options);
+  }
+
+  /**
+   * The CodecOptions parameter may have
+   * {@link CodecOptions#maxBytes maxBytes} set to the expected size of the
+   * decompressed data; this is only used to size the output buffer when
+   * the frame header does not record the size.
+   *
+   * @see Codec#decompress(byte[], CodecOptions)
+   */
+  @Override
+  public byte[] decompress(byte[] data, CodecOptions options)
+    throws FormatException
+  {
+    if (data == null || data.length == 0) {
+      throw new IllegalArgumentException("No data to decompress.");
+    }
+    int expected = options == null ? 0 : options.maxBytes;
+    return new ZstdDecoder().decode(data, expected);
+  }
+
+}
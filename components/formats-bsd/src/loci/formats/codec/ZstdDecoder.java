@@ -0,0 +1,873 @@
+/*
+ * #%L
+ * BSD implementations of Bio-Formats readers and writers
+ * %%
+ * Copyright (C) 2005 - 2017 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package loci.formats.codec;
+
+import java.util.Arrays;
+
+import loci.formats.FormatException;
+import loci.formats.UnsupportedCompressionException;
+
+/**
+ * Decoder for Zstandard frames, as described in RFC 8878.
+ * Every decoded byte is kept in a single output array, so matches are
+ * resolved without a separate window buffer.
+ *
+ * @see ZstdCodec
+ */
+class ZstdDecoder {
+
+  // -- Constants --
+
+  static final int MAGIC = 0xFD2FB528;
+  static final int SKIPPABLE_MAGIC = 0x184D2A50;
+  static final int MAX_BLOCK_SIZE = 1 << 17;
+
+  static final int LITERALS = 0;
+  static final int OFFSETS = 1;
+  static final int MATCHES = 2;
+
+  static final int[] LL_BASELINE = {
+    0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 18, 20, 22,
+    24, 28, 32, 40, 48, 64, 128, 256, 512, 1024, 2048, 4096, 8192, 16384,
+    32768, 65536
+  };
+  static final int[] LL_BITS = {
+    0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 1, 1, 1, 1,
+    2, 2, 3, 3, 4, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16
+  };
+  static final int[] ML_BASELINE = {
+    3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17, 18, 19, 20, 21, 22,
+    23, 24, 25, 26, 27, 28, 29, 30, 31, 32, 33, 34, 35, 37, 39, 41, 43, 47,
+    51, 59, 67, 83, 99, 131, 259, 515, 1027, 2051, 4099, 8195, 16387, 32771,
+    65539
+  };
+  static final int[] ML_BITS = {
+    0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,
+    0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 1, 1, 1, 1, 2, 2, 3, 3,
+    4, 4, 5, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16
+  };
+
+  /** Largest symbol and accuracy log for each kind of sequence code. */
+  static final int[] MAX_SYMBOL = {35, 31, 52};
+  static final int[] MAX_LOG = {9, 8, 9};
+
+  /** Distributions used by the "predefined" sequence compression mode. */
+  static final short[] LL_DEFAULT = {
+    4, 3, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 1, 1, 1, 2, 2, 2, 2,
+    2, 2, 2, 2, 2, 3, 2, 1, 1, 1, 1, 1, -1, -1, -1, -1
+  };
+  static final short[] OF_DEFAULT = {
+    1, 1, 1, 1, 1, 1, 2, 2, 2, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1,
+    1, 1, 1, 1, -1, -1, -1, -1, -1
+  };
+  static final short[] ML_DEFAULT = {
+    1, 4, 3, 2, 2, 2, 2, 2, 2, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1,
+    1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1,
+    1, 1, 1, 1, 1, 1, -1, -1, -1, -1, -1, -1, -1
+  };
+  static final int[] DEFAULT_LOG = {6, 5, 6};
+
+  private static final FSETable[] PREDEFINED = {
+    FSETable.build(LL_DEFAULT, LL_DEFAULT.length, DEFAULT_LOG[LITERALS]),
+    FSETable.build(OF_DEFAULT, OF_DEFAULT.length, DEFAULT_LOG[OFFSETS]),
+    FSETable.build(ML_DEFAULT, ML_DEFAULT.length, DEFAULT_LOG[MATCHES])
+  };
+
+  private static final int MAX_HUFFMAN_BITS = 11;
+  private static final int MAX_WEIGHT_LOG = 6;
+
+  // -- Fields --
+
+  private byte[] out;
+  private int outPos;
+
+  /** Decoded literals for the current block. */
+  private byte[] literals = new byte[MAX_BLOCK_SIZE];
+  private int literalsSize;
+
+  /** State carried from one block to the next within a frame. */
+  private final int[] repeatOffsets = new int[3];
+  private final FSETable[] tables = new FSETable[3];
+  private HuffmanTable huffman;
+
+  // -- ZstdDecoder API methods --
+
+  /**
+   * Decodes all of the frames in the given buffer.
+   *
+   * @param src the compressed data
+   * @param expectedSize initial size of the output buffer, used if the
+   *   frame header does not record the decompressed size
+   * @return the decompressed data
+   */
+  public byte[] decode(byte[] src, int expectedSize) throws FormatException {
+    out = new byte[Math.max(expectedSize, 0)];
+    outPos = 0;
+    try {
+      int pos = 0;
+      while (src.length - pos >= 4) {
+        int magic = readInt(src, pos);
+        if ((magic & 0xfffffff0) == SKIPPABLE_MAGIC) {
+          pos += 8 + readInt(src, pos + 4);
+          continue;
+        }
+        if (magic != MAGIC) {
+          if (pos == 0) {
+            throw new FormatException("Invalid Zstandard frame");
+          }
+          // ignore any padding after the last frame
+          break;
+        }
+        pos = decodeFrame(src, pos + 4);
+      }
+    }
+    catch (ArrayIndexOutOfBoundsException e) {
+      throw new FormatException("Truncated or corrupt Zstandard data", e);
+    }
+    return outPos == out.length ? out : Arrays.copyOf(out, outPos);
+  }
+
+  // -- Helper methods - frames and blocks --
+
+  private int decodeFrame(byte[] src, int pos) throws FormatException {
+    int descriptor = src[pos++] & 0xff;
+    int sizeFlag = descriptor >> 6;
+    boolean singleSegment = (descriptor & 0x20) != 0;
+    boolean checksum = (descriptor & 0x4) != 0;
+    int dictionaryFlag = descriptor & 0x3;
+    if ((descriptor & 0x8) != 0) {
+      throw new FormatException("Reserved Zstandard frame header bit is set");
+    }
+
+    if (!singleSegment) {
+      // window descriptor; the whole frame is kept in memory anyway
+      pos++;
+    }
+
+    int dictionarySize = dictionaryFlag == 3 ? 4 : dictionaryFlag;
+    if (readLong(src, pos, dictionarySize) != 0) {
+      throw new UnsupportedCompressionException(
+        "Zstandard dictionaries are not supported");
+    }
+    pos += dictionarySize;
+
+    int contentSizeBytes = sizeFlag == 0 ? (singleSegment ? 1 : 0) :
+      1 << sizeFlag;
+    if (contentSizeBytes > 0) {
+      long contentSize = readLong(src, pos, contentSizeBytes);
+      if (contentSizeBytes == 2) {
+        contentSize += 256;
+      }
+      if (contentSize < 0 || contentSize > Integer.MAX_VALUE - outPos) {
+        throw new UnsupportedCompressionException(
+          "Zstandard frame too large (" + contentSize + " bytes)");
+      }
+      ensureCapacity((int) contentSize);
+      pos += contentSizeBytes;
+    }
+
+    repeatOffsets[0] = 1;
+    repeatOffsets[1] = 4;
+    repeatOffsets[2] = 8;
+    Arrays.fill(tables, null);
+    huffman = null;
+
+    boolean last = false;
+    while (!last) {
+      int header = (src[pos] & 0xff) | ((src[pos + 1] & 0xff) << 8) |
+        ((src[pos + 2] & 0xff) << 16);
+      pos += 3;
+      last = (header & 1) != 0;
+      int blockSize = header >>> 3;
+      switch ((header >> 1) & 3) {
+        case 0:
+          checkBounds(src, pos, blockSize);
+          ensureCapacity(blockSize);
+          System.arraycopy(src, pos, out, outPos, blockSize);
+          outPos += blockSize;
+          pos += blockSize;
+          break;
+        case 1:
+          ensureCapacity(blockSize);
+          Arrays.fill(out, outPos, outPos + blockSize, src[pos]);
+          outPos += blockSize;
+          pos++;
+          break;
+        case 2:
+          if (blockSize > MAX_BLOCK_SIZE) {
+            throw new FormatException("Invalid Zstandard block size");
+          }
+          checkBounds(src, pos, blockSize);
+          decodeBlock(src, pos, pos + blockSize);
+          pos += blockSize;
+          break;
+        default:
+          throw new FormatException("Reserved Zstandard block type");
+      }
+    }
+
+    if (checksum) {
+      pos += 4;
+    }
+    return pos;
+  }
+
+  private void decodeBlock(byte[] src, int pos, int end)
+    throws FormatException
+  {
+    pos = decodeLiterals(src, pos, end);
+
+    int sequences = src[pos++] & 0xff;
+    if (sequences == 255) {
+      sequences = (src[pos] & 0xff) + ((src[pos + 1] & 0xff) << 8) + 0x7f00;
+      pos += 2;
+    }
+    else if (sequences >= 128) {
+      sequences = ((sequences - 128) << 8) + (src[pos++] & 0xff);
+    }
+
+    if (sequences > 0) {
+      int modes = src[pos++] & 0xff;
+      if ((modes & 3) != 0) {
+        throw new FormatException("Reserved Zstandard sequence mode bits");
+      }
+      pos = readTable(src, pos, end, (modes >> 6) & 3, LITERALS);
+      pos = readTable(src, pos, end, (modes >> 4) & 3, OFFSETS);
+      pos = readTable(src, pos, end, (modes >> 2) & 3, MATCHES);
+      if (pos > end) {
+        throw new FormatException("Truncated Zstandard sequences");
+      }
+    }
+    executeSequences(src, pos, end, sequences);
+  }
+
+  private void executeSequences(byte[] src, int pos, int end, int count)
+    throws FormatException
+  {
+    int literalPos = 0;
+    if (count > 0) {
+      FSETable ll = tables[LITERALS];
+      FSETable of = tables[OFFSETS];
+      FSETable ml = tables[MATCHES];
+
+      BitReader bits = new BitReader(src, pos, end);
+      int llState = bits.read(ll.log);
+      int ofState = bits.read(of.log);
+      int mlState = bits.read(ml.log);
+
+      for (int i=0; i<count; i++) {
+        int ofCode = of.symbols[ofState];
+        int llCode = ll.symbols[llState];
+        int mlCode = ml.symbols[mlState];
+        if (ofCode > 30) {
+          throw new UnsupportedCompressionException(
+            "Zstandard offset code " + ofCode + " is not supported");
+        }
+
+        int offsetValue = (1 << ofCode) + bits.read(ofCode);
+        int matchLength = ML_BASELINE[mlCode] + bits.read(ML_BITS[mlCode]);
+        int literalLength = LL_BASELINE[llCode] + bits.read(LL_BITS[llCode]);
+
+        int offset;
+        if (offsetValue > 3) {
+          offset = offsetValue - 3;
+          repeatOffsets[2] = repeatOffsets[1];
+          repeatOffsets[1] = repeatOffsets[0];
+          repeatOffsets[0] = offset;
+        }
+        else {
+          int index = offsetValue - 1;
+          if (literalLength == 0) {
+            index++;
+          }
+          if (index == 0) {
+            offset = repeatOffsets[0];
+          }
+          else {
+            offset = index == 3 ? repeatOffsets[0] - 1 : repeatOffsets[index];
+            if (index > 1) {
+              repeatOffsets[2] = repeatOffsets[1];
+            }
+            repeatOffsets[1] = repeatOffsets[0];
+            repeatOffsets[0] = offset;
+          }
+        }
+
+        if (i < count - 1) {
+          llState = ll.baselines[llState] + bits.read(ll.bits[llState]);
+          mlState = ml.baselines[mlState] + bits.read(ml.bits[mlState]);
+          ofState = of.baselines[ofState] + bits.read(of.bits[ofState]);
+        }
+
+        if (literalLength > literalsSize - literalPos) {
+          throw new FormatException("Invalid Zstandard literal length");
+        }
+        ensureCapacity(literalLength + matchLength);
+        System.arraycopy(literals, literalPos, out, outPos, literalLength);
+        literalPos += literalLength;
+        outPos += literalLength;
+
+        if (offset <= 0 || offset > outPos) {
+          throw new FormatException("Invalid Zstandard match offset");
+        }
+        int from = outPos - offset;
+        if (offset >= matchLength) {
+          System.arraycopy(out, from, out, outPos, matchLength);
+        }
+        else {
+          for (int b=0; b<matchLength; b++) {
+            out[outPos + b] = out[from + b];
+          }
+        }
+        outPos += matchLength;
+      }
+      if (bits.overflowed()) {
+        throw new FormatException("Corrupt Zstandard sequence bitstream");
+      }
+    }
+
+    int remaining = literalsSize - literalPos;
+    ensureCapacity(remaining);
+    System.arraycopy(literals, literalPos, out, outPos, remaining);
+    outPos += remaining;
+  }
+
+  private int readTable(byte[] src, int pos, int end, int mode, int kind)
+    throws FormatException
+  {
+    switch (mode) {
+      case 0:
+        tables[kind] = PREDEFINED[kind];
+        return pos;
+      case 1:
+        int symbol = src[pos] & 0xff;
+        if (symbol > MAX_SYMBOL[kind]) {
+          throw new FormatException("Invalid Zstandard RLE symbol");
+        }
+        tables[kind] = FSETable.rle(symbol);
+        return pos + 1;
+      case 2:
+        FSETable table = new FSETable();
+        pos = readFSETable(table, src, pos, end, MAX_SYMBOL[kind],
+          MAX_LOG[kind]);
+        tables[kind] = table;
+        return pos;
+      default:
+        if (tables[kind] == null) {
+          throw new FormatException("Missing Zstandard table to repeat");
+        }
+        return pos;
+    }
+  }
+
+  // -- Helper methods - literals --
+
+  private int decodeLiterals(byte[] src, int pos, int end)
+    throws FormatException
+  {
+    int b0 = src[pos] & 0xff;
+    int type = b0 & 3;
+    int sizeFormat = (b0 >> 2) & 3;
+
+    if (type < 2) {
+      int size;
+      if ((sizeFormat & 1) == 0) {
+        size = b0 >> 3;
+        pos++;
+      }
+      else if (sizeFormat == 1) {
+        size = (b0 >> 4) + ((src[pos + 1] & 0xff) << 4);
+        pos += 2;
+      }
+      else {
+        size = (b0 >> 4) + ((src[pos + 1] & 0xff) << 4) +
+          ((src[pos + 2] & 0xff) << 12);
+        pos += 3;
+      }
+      if (size > MAX_BLOCK_SIZE) {
+        throw new FormatException("Invalid Zstandard literals size");
+      }
+      if (type == 0) {
+        checkBounds(src, pos, size);
+        System.arraycopy(src, pos, literals, 0, size);
+        pos += size;
+      }
+      else {
+        Arrays.fill(literals, 0, size, src[pos++]);
+      }
+      literalsSize = size;
+      return pos;
+    }
+
+    int size, compressedSize;
+    if (sizeFormat < 2) {
+      int v = b0 | ((src[pos + 1] & 0xff) << 8) | ((src[pos + 2] & 0xff) << 16);
+      size = (v >> 4) & 0x3ff;
+      compressedSize = (v >> 14) & 0x3ff;
+      pos += 3;
+    }
+    else if (sizeFormat == 2) {
+      int v = readInt(src, pos);
+      size = (v >> 4) & 0x3fff;
+      compressedSize = (v >>> 18) & 0x3fff;
+      pos += 4;
+    }
+    else {
+      long v = readLong(src, pos, 5);
+      size = (int) ((v >> 4) & 0x3ffff);
+      compressedSize = (int) ((v >> 22) & 0x3ffff);
+      pos += 5;
+    }
+    if (size > MAX_BLOCK_SIZE || pos + compressedSize > end) {
+      throw new FormatException("Invalid Zstandard literals size");
+    }
+    int literalsEnd = pos + compressedSize;
+
+    if (type == 2) {
+      pos = readHuffmanTable(src, pos, literalsEnd);
+    }
+    else if (huffman == null) {
+      throw new FormatException("Missing Zstandard Huffman table");
+    }
+
+    if (sizeFormat == 0) {
+      decodeHuffmanStream(src, pos, literalsEnd, 0, size);
+    }
+    else {
+      if (pos + 6 > literalsEnd) {
+        throw new FormatException("Truncated Zstandard literals");
+      }
+      int start2 = pos + 6 + readShort(src, pos);
+      int start3 = start2 + readShort(src, pos + 2);
+      int start4 = start3 + readShort(src, pos + 4);
+      int segment = (size + 3) / 4;
+      if (start4 > literalsEnd || size < 3 * segment) {
+        throw new FormatException("Invalid Zstandard literal streams");
+      }
+      decodeHuffmanStream(src, pos + 6, start2, 0, segment);
+      decodeHuffmanStream(src, start2, start3, segment, segment);
+      decodeHuffmanStream(src, start3, start4, 2 * segment, segment);
+      decodeHuffmanStream(src, start4, literalsEnd, 3 * segment,
+        size - 3 * segment);
+    }
+    literalsSize = size;
+    return literalsEnd;
+  }
+
+  private void decodeHuffmanStream(byte[] src, int start, int end,
+    int offset, int count) throws FormatException
+  {
+    BitReader bits = new BitReader(src, start, end);
+    int log = huffman.log;
+    byte[] symbols = huffman.symbols;
+    byte[] lengths = huffman.bits;
+    for (int i=offset; i<offset+count; i++) {
+      int index = bits.peek(log);
+      literals[i] = symbols[index];
+      bits.skip(lengths[index]);
+    }
+    if (bits.overflowed()) {
+      throw new FormatException("Corrupt Zstandard literals");
+    }
+  }
+
+  private int readHuffmanTable(byte[] src, int pos, int end)
+    throws FormatException
+  {
+    int header = src[pos++] & 0xff;
+    // room for 255 decoded weights, the implied weight and an overrun
+    byte[] weights = new byte[260];
+    int count;
+    if (header >= 128) {
+      count = header - 127;
+      checkBounds(src, pos, (count + 1) / 2);
+      for (int i=0; i<count; i++) {
+        int b = src[pos + i / 2] & 0xff;
+        weights[i] = (byte) ((i & 1) == 0 ? b >> 4 : b & 0xf);
+      }
+      pos += (count + 1) / 2;
+    }
+    else {
+      int weightsEnd = pos + header;
+      if (weightsEnd > end) {
+        throw new FormatException("Truncated Zstandard Huffman table");
+      }
+      FSETable table = new FSETable();
+      int p = readFSETable(table, src, pos, weightsEnd, 255, MAX_WEIGHT_LOG);
+      count = decodeWeights(table, src, p, weightsEnd, weights);
+      pos = weightsEnd;
+    }
+
+    // the weight of the last symbol is implied by the others
+    int total = 0;
+    for (int i=0; i<count; i++) {
+      if (weights[i] > MAX_HUFFMAN_BITS) {
+        throw new FormatException("Invalid Zstandard Huffman weight");
+      }
+      if (weights[i] > 0) {
+        total += 1 << (weights[i] - 1);
+      }
+    }
+    if (total == 0 || count > 255) {
+      throw new FormatException("Invalid Zstandard Huffman table");
+    }
+    int log = highBit(total) + 1;
+    int left = (1 << log) - total;
+    if (log > MAX_HUFFMAN_BITS || (left & (left - 1)) != 0) {
+      throw new FormatException("Invalid Zstandard Huffman table");
+    }
+    weights[count++] = (byte) (highBit(left) + 1);
+
+    int[] rankStart = new int[log + 2];
+    for (int i=0; i<count; i++) {
+      rankStart[weights[i]]++;
+    }
+    int next = 0;
+    for (int w=1; w<=log; w++) {
+      int current = next;
+      next += rankStart[w] << (w - 1);
+      rankStart[w] = current;
+    }
+
+    HuffmanTable table = new HuffmanTable();
+    table.log = log;
+    table.symbols = new byte[1 << log];
+    table.bits = new byte[1 << log];
+    for (int s=0; s<count; s++) {
+      int w = weights[s];
+      if (w == 0) {
+        continue;
+      }
+      int length = 1 << (w - 1);
+      int start = rankStart[w];
+      Arrays.fill(table.symbols, start, start + length, (byte) s);
+      Arrays.fill(table.bits, start, start + length, (byte) (log + 1 - w));
+      rankStart[w] += length;
+    }
+    huffman = table;
+    return pos;
+  }
+
+  /**
+   * Decodes FSE-compressed Huffman weights, which use two interleaved
+   * states and end when the bitstream is exhausted.
+   */
+  private int decodeWeights(FSETable table, byte[] src, int start, int end,
+    byte[] weights) throws FormatException
+  {
+    BitReader bits = new BitReader(src, start, end);
+    int state1 = bits.read(table.log);
+    int state2 = bits.read(table.log);
+    int count = 0;
+    while (true) {
+      if (count > 255) {
+        throw new FormatException("Too many Zstandard Huffman weights");
+      }
+      weights[count++] = (byte) table.symbols[state1];
+      state1 = table.baselines[state1] + bits.read(table.bits[state1]);
+      if (bits.overflowed()) {
+        weights[count++] = (byte) table.symbols[state2];
+        break;
+      }
+      weights[count++] = (byte) table.symbols[state2];
+      state2 = table.baselines[state2] + bits.read(table.bits[state2]);
+      if (bits.overflowed()) {
+        weights[count++] = (byte) table.symbols[state1];
+        break;
+      }
+    }
+    return count;
+  }
+
+  // -- Helper methods - FSE tables --
+
+  /**
+   * Reads an FSE table description starting at the given position.
+   * @return the position of the first byte after the description
+   */
+  static int readFSETable(FSETable table, byte[] src, int pos, int end,
+    int maxSymbol, int maxLog) throws FormatException
+  {
+    long bitPos = (long) pos * 8;
+    long bitEnd = (long) end * 8;
+    int log = (int) readBits(src, bitPos, 4) + 5;
+    bitPos += 4;
+    if (log > maxLog) {
+      throw new FormatException("Invalid Zstandard accuracy log " + log);
+    }
+
+    short[] counts = new short[maxSymbol + 1];
+    int remaining = 1 << log;
+    int symbol = 0;
+    while (remaining > 0 && symbol <= maxSymbol) {
+      int n = highBit(remaining + 1) + 1;
+      int value = (int) readBits(src, bitPos, n);
+      int lowerMask = (1 << (n - 1)) - 1;
+      int threshold = (1 << n) - 1 - (remaining + 1);
+      if ((value & lowerMask) < threshold) {
+        value &= lowerMask;
+        bitPos += n - 1;
+      }
+      else {
+        if (value > lowerMask) {
+          value -= threshold;
+        }
+        bitPos += n;
+      }
+      int probability = value - 1;
+      remaining -= Math.abs(probability);
+      counts[symbol++] = (short) probability;
+
+      if (probability == 0) {
+        int repeat;
+        do {
+          repeat = (int) readBits(src, bitPos, 2);
+          bitPos += 2;
+          for (int i=0; i<repeat && symbol<=maxSymbol; i++) {
+            counts[symbol++] = 0;
+          }
+        }
+        while (repeat == 3);
+      }
+      if (bitPos > bitEnd) {
+        throw new FormatException("Truncated Zstandard FSE table");
+      }
+    }
+    if (remaining != 0) {
+      throw new FormatException("Invalid Zstandard FSE table");
+    }
+    table.init(counts, symbol, log);
+    return (int) ((bitPos + 7) / 8);
+  }
+
+  /** Reads up to 32 bits, least significant first, from a byte array. */
+  private static long readBits(byte[] src, long bitPos, int count) {
+    int index = (int) (bitPos >> 3);
+    int shift = (int) (bitPos & 7);
+    long v = 0;
+    for (int i=0; i<5 && index + i < src.length; i++) {
+      v |= (long) (src[index + i] & 0xff) << (8 * i);
+    }
+    return (v >>> shift) & ((1L << count) - 1);
+  }
+
+  // -- Helper methods - utility --
+
+  private void ensureCapacity(int count) {
+    if (outPos + count > out.length) {
+      long size = Math.max((long) outPos + count, 2L * out.length);
+      out = Arrays.copyOf(out, (int) Math.min(size, Integer.MAX_VALUE - 8));
+    }
+  }
+
+  private static void checkBounds(byte[] src, int pos, int count)
+    throws FormatException
+  {
+    if (count < 0 || pos + count > src.length) {
+      throw new FormatException("Truncated Zstandard data");
+    }
+  }
+
+  static int highBit(int v) {
+    return 31 - Integer.numberOfLeadingZeros(v);
+  }
+
+  private static int readShort(byte[] src, int pos) {
+    return (src[pos] & 0xff) | ((src[pos + 1] & 0xff) << 8);
+  }
+
+  private static int readInt(byte[] src, int pos) {
+    return (int) readLong(src, pos, 4);
+  }
+
+  private static long readLong(byte[] src, int pos, int count) {
+    long v = 0;
+    for (int i=0; i<count; i++) {
+      v |= (long) (src[pos + i] & 0xff) << (8 * i);
+    }
+    return v;
+  }
+
+  // -- Helper classes --
+
+  /** Decoding table for one FSE distribution. */
+  static class FSETable {
+    public int log;
+    public short[] symbols;
+    public byte[] bits;
+    public int[] baselines;
+
+    static FSETable build(short[] counts, int symbolCount, int log) {
+      FSETable table = new FSETable();
+      table.init(counts, symbolCount, log);
+      return table;
+    }
+
+    static FSETable rle(int symbol) {
+      FSETable table = new FSETable();
+      table.log = 0;
+      table.symbols = new short[] {(short) symbol};
+      table.bits = new byte[1];
+      table.baselines = new int[1];
+      return table;
+    }
+
+    void init(short[] counts, int symbolCount, int log) {
+      int size = 1 << log;
+      this.log = log;
+      symbols = spread(counts, symbolCount, log);
+      bits = new byte[size];
+      baselines = new int[size];
+
+      int[] next = new int[symbolCount];
+      for (int s=0; s<symbolCount; s++) {
+        next[s] = counts[s] == -1 ? 1 : counts[s];
+      }
+      for (int u=0; u<size; u++) {
+        int state = next[symbols[u]]++;
+        int n = log - highBit(state);
+        bits[u] = (byte) n;
+        baselines[u] = (state << n) - size;
+      }
+    }
+
+    /**
+     * Assigns a symbol to each state, using the same layout as the
+     * Zstandard reference implementation.
+     */
+    static short[] spread(short[] counts, int symbolCount, int log) {
+      int size = 1 << log;
+      short[] symbols = new short[size];
+      int high = size - 1;
+      for (int s=0; s<symbolCount; s++) {
+        if (counts[s] == -1) {
+          symbols[high--] = (short) s;
+        }
+      }
+      int step = (size >> 1) + (size >> 3) + 3;
+      int mask = size - 1;
+      int position = 0;
+      for (int s=0; s<symbolCount; s++) {
+        for (int i=0; i<counts[s]; i++) {
+          symbols[position] = (short) s;
+          do {
+            position = (position + step) & mask;
+          }
+          while (position > high);
+        }
+      }
+      return symbols;
+    }
+  }
+
+  /** Decoding table for Huffman-coded literals. */
+  static class HuffmanTable {
+    public int log;
+    public byte[] symbols;
+    public byte[] bits;
+  }
+
+  /**
+   * Reads a bitstream backwards from its last byte, as used for Huffman
+   * and FSE coded data.  Reading past the start of the stream returns zeros
+   * and marks the stream as overflowed.
+   */
+  static class BitReader {
+    private final byte[] src;
+    private final int start;
+    private final int end;
+    private long position;
+
+    /** Up to 64 bits of the stream, starting at bit cacheBase. */
+    private long cache;
+    private long cacheBase = -1;
+    private int cacheBits;
+
+    BitReader(byte[] src, int start, int end) throws FormatException {
+      if (end <= start || src[end - 1] == 0) {
+        throw new FormatException("Invalid Zstandard bitstream");
+      }
+      this.src = src;
+      this.start = start;
+      this.end = end;
+      position = (long) (end - start - 1) * 8 + highBit(src[end - 1] & 0xff);
+    }
+
+    int read(int count) {
+      int v = peek(count);
+      position -= count;
+      return v;
+    }
+
+    int peek(int count) {
+      if (count == 0) {
+        return 0;
+      }
+      long p = position - count;
+      if (p >= 0) {
+        if (p < cacheBase || p + count > cacheBase + cacheBits) {
+          fill(position);
+        }
+        return (int) ((cache >>> (p - cacheBase)) & ((1L << count) - 1));
+      }
+      if (position <= 0) {
+        return 0;
+      }
+      fill(position);
+      long v = cache & ((1L << position) - 1);
+      return (int) (v << -p);
+    }
+
+    void skip(int count) {
+      position -= count;
+    }
+
+    boolean overflowed() {
+      return position < 0;
+    }
+
+    /** Loads the 8 bytes that end with the given bit. */
+    private void fill(long top) {
+      long first = Math.max(0, ((top + 7) >> 3) - 8);
+      int index = start + (int) first;
+      int count = Math.min(8, end - index);
+      cache = 0;
+      for (int i=count-1; i>=0; i--) {
+        cache = (cache << 8) | (src[index + i] & 0xff);
+      }
+      cacheBase = first * 8;
+      cacheBits = count * 8;
+    }
+  }
+
+}
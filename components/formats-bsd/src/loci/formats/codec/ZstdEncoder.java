@@ -0,0 +1,863 @@
+/*
+ * #%L
+ * BSD implementations of Bio-Formats readers and writers
+ * %%
+ * Copyright (C) 2005 - 2017 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package loci.formats.codec;
+
+import java.util.Arrays;
+
+/**
+ * Encoder for single Zstandard frames, as described in RFC 8878.
+ * Matches are found with a single hash table lookup per position, literals
+ * are Huffman coded when that is smaller, and sequences always use the
+ * predefined FSE distributions.  This is much simpler than the reference
+ * encoder, but produces valid frames that any Zstandard decoder can read.
+ *
+ * @see ZstdCodec
+ */
+class ZstdEncoder {
+
+  // -- Constants --
+
+  private static final int HASH_LOG = 16;
+  private static final int MIN_MATCH = 4;
+  private static final int MAX_OFFSET_VALUE = (1 << 29) - 1;
+  private static final int MIN_HUFFMAN_LITERALS = 64;
+  private static final int MAX_HUFFMAN_BITS = 11;
+  private static final int WEIGHT_LOG = 6;
+
+  private static final FSEEncoder[] PREDEFINED = {
+    new FSEEncoder(ZstdDecoder.LL_DEFAULT,
+      ZstdDecoder.DEFAULT_LOG[ZstdDecoder.LITERALS]),
+    new FSEEncoder(ZstdDecoder.OF_DEFAULT,
+      ZstdDecoder.DEFAULT_LOG[ZstdDecoder.OFFSETS]),
+    new FSEEncoder(ZstdDecoder.ML_DEFAULT,
+      ZstdDecoder.DEFAULT_LOG[ZstdDecoder.MATCHES])
+  };
+
+  // -- Fields --
+
+  private byte[] src;
+  private final int[] hashTable = new int[1 << HASH_LOG];
+  private final int[] repeatOffsets = new int[3];
+
+  /** Sequences for the current block. */
+  private int sequenceCount;
+  private int[] literalLengths = new int[16];
+  private int[] matchLengths = new int[16];
+  private int[] offsetValues = new int[16];
+  private byte[] literals = new byte[ZstdDecoder.MAX_BLOCK_SIZE];
+  private int literalCount;
+
+  // -- ZstdEncoder API methods --
+
+  /** Compresses the given data into a single frame. */
+  public byte[] encode(byte[] data) {
+    src = data;
+    int blocks = Math.max(1, (data.length + ZstdDecoder.MAX_BLOCK_SIZE - 1) /
+      ZstdDecoder.MAX_BLOCK_SIZE);
+    byte[] out = new byte[data.length + 3 * blocks + 18];
+    int pos = writeFrameHeader(out, data.length);
+
+    Arrays.fill(hashTable, 0);
+    repeatOffsets[0] = 1;
+    repeatOffsets[1] = 4;
+    repeatOffsets[2] = 8;
+
+    byte[] block = new byte[ZstdDecoder.MAX_BLOCK_SIZE];
+    int start = 0;
+    do {
+      int end = Math.min(start + ZstdDecoder.MAX_BLOCK_SIZE, data.length);
+      int last = end == data.length ? 1 : 0;
+      int size = end - start;
+
+      int[] savedOffsets = repeatOffsets.clone();
+      int compressed = isRun(start, end) ? -1 : encodeBlock(start, end, block);
+      if (size > 1 && compressed < 0) {
+        writeBlockHeader(out, pos, last | (1 << 1) | (size << 3));
+        out[pos + 3] = data[start];
+        pos += 4;
+      }
+      else if (compressed > 0 && compressed < size) {
+        writeBlockHeader(out, pos, last | (2 << 1) | (compressed << 3));
+        System.arraycopy(block, 0, out, pos + 3, compressed);
+        pos += 3 + compressed;
+      }
+      else {
+        // the decoder never sees these sequences, so forget their offsets
+        System.arraycopy(savedOffsets, 0, repeatOffsets, 0, 3);
+        writeBlockHeader(out, pos, last | (size << 3));
+        System.arraycopy(data, start, out, pos + 3, size);
+        pos += 3 + size;
+      }
+      start = end;
+    }
+    while (start < data.length);
+
+    src = null;
+    return Arrays.copyOf(out, pos);
+  }
+
+  // -- Helper methods - frames and blocks --
+
+  private int writeFrameHeader(byte[] out, int size) {
+    writeInt(out, 0, ZstdDecoder.MAGIC);
+    // single segment, so the window is the whole frame; no checksum
+    int pos = 5;
+    if (size < 256) {
+      out[4] = 0x20;
+      out[pos++] = (byte) size;
+    }
+    else if (size < 65536 + 256) {
+      out[4] = 0x60;
+      out[pos++] = (byte) (size - 256);
+      out[pos++] = (byte) ((size - 256) >> 8);
+    }
+    else {
+      out[4] = (byte) 0xa0;
+      writeInt(out, pos, size);
+      pos += 4;
+    }
+    return pos;
+  }
+
+  private boolean isRun(int start, int end) {
+    for (int i=start+1; i<end; i++) {
+      if (src[i] != src[start]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Encodes one block as a compressed block.
+   * @return the number of bytes written to the given buffer, or 0 if the
+   *   block could not be made smaller than its raw size
+   */
+  private int encodeBlock(int start, int end, byte[] block) {
+    findSequences(start, end);
+
+    int pos = encodeLiterals(block, end - start);
+    if (pos < 0 || pos + 4 >= end - start) {
+      return 0;
+    }
+
+    int count = sequenceCount;
+    if (count < 128) {
+      block[pos++] = (byte) count;
+    }
+    else if (count < 0x7f00) {
+      block[pos++] = (byte) ((count >> 8) + 128);
+      block[pos++] = (byte) count;
+    }
+    else {
+      block[pos++] = (byte) 255;
+      block[pos++] = (byte) (count - 0x7f00);
+      block[pos++] = (byte) ((count - 0x7f00) >> 8);
+    }
+    if (count == 0) {
+      return pos;
+    }
+
+    // predefined distributions for all three codes
+    block[pos++] = 0;
+
+    BitWriter bits = new BitWriter(block, pos, end - start);
+    FSEEncoder ll = PREDEFINED[ZstdDecoder.LITERALS];
+    FSEEncoder of = PREDEFINED[ZstdDecoder.OFFSETS];
+    FSEEncoder ml = PREDEFINED[ZstdDecoder.MATCHES];
+
+    int n = count - 1;
+    int llCode = getLiteralLengthCode(literalLengths[n]);
+    int mlCode = getMatchLengthCode(matchLengths[n]);
+    int ofCode = ZstdDecoder.highBit(offsetValues[n]);
+    int mlState = ml.init(mlCode);
+    int ofState = of.init(ofCode);
+    int llState = ll.init(llCode);
+    writeExtraBits(bits, n, llCode, mlCode, ofCode);
+    for (n=count-2; n>=0; n--) {
+      llCode = getLiteralLengthCode(literalLengths[n]);
+      mlCode = getMatchLengthCode(matchLengths[n]);
+      ofCode = ZstdDecoder.highBit(offsetValues[n]);
+      ofState = of.encode(bits, ofState, ofCode);
+      mlState = ml.encode(bits, mlState, mlCode);
+      llState = ll.encode(bits, llState, llCode);
+      writeExtraBits(bits, n, llCode, mlCode, ofCode);
+    }
+    ml.flush(bits, mlState);
+    of.flush(bits, ofState);
+    ll.flush(bits, llState);
+    return Math.max(bits.close(), 0);
+  }
+
+  private void writeExtraBits(BitWriter bits, int n, int llCode, int mlCode,
+    int ofCode)
+  {
+    bits.write(literalLengths[n] - ZstdDecoder.LL_BASELINE[llCode],
+      ZstdDecoder.LL_BITS[llCode]);
+    bits.write(matchLengths[n] - ZstdDecoder.ML_BASELINE[mlCode],
+      ZstdDecoder.ML_BITS[mlCode]);
+    bits.write(offsetValues[n] - (1 << ofCode), ofCode);
+  }
+
+  // -- Helper methods - match finding --
+
+  /** Greedily splits the block into literals and matches. */
+  private void findSequences(int start, int end) {
+    sequenceCount = 0;
+    literalCount = 0;
+    int anchor = start;
+    int ip = start;
+    while (ip + MIN_MATCH <= end) {
+      int value = readInt(src, ip);
+      int hash = hash(value);
+      int candidate = hashTable[hash] - 1;
+      hashTable[hash] = ip + 1;
+      if (candidate < 0 || readInt(src, candidate) != value ||
+        ip - candidate + 3 > MAX_OFFSET_VALUE)
+      {
+        ip += 1 + ((ip - anchor) >> 6);
+        continue;
+      }
+
+      int length = MIN_MATCH;
+      while (ip + length < end && src[candidate + length] == src[ip + length]) {
+        length++;
+      }
+      while (ip > anchor && candidate > 0 &&
+        src[ip - 1] == src[candidate - 1])
+      {
+        ip--;
+        candidate--;
+        length++;
+      }
+      addSequence(anchor, ip - anchor, ip - candidate, length);
+      ip += length;
+      anchor = ip;
+      if (ip + 2 <= end) {
+        hashTable[hash(readInt(src, ip - 2))] = ip - 1;
+      }
+    }
+    System.arraycopy(src, anchor, literals, literalCount, end - anchor);
+    literalCount += end - anchor;
+  }
+
+  private void addSequence(int anchor, int literalLength, int offset,
+    int matchLength)
+  {
+    if (sequenceCount == literalLengths.length) {
+      int size = sequenceCount * 2;
+      literalLengths = Arrays.copyOf(literalLengths, size);
+      matchLengths = Arrays.copyOf(matchLengths, size);
+      offsetValues = Arrays.copyOf(offsetValues, size);
+    }
+    System.arraycopy(src, anchor, literals, literalCount, literalLength);
+    literalCount += literalLength;
+
+    int offsetValue;
+    if (literalLength > 0 && offset == repeatOffsets[0]) {
+      offsetValue = 1;
+    }
+    else {
+      offsetValue = offset + 3;
+      repeatOffsets[2] = repeatOffsets[1];
+      repeatOffsets[1] = repeatOffsets[0];
+      repeatOffsets[0] = offset;
+    }
+    literalLengths[sequenceCount] = literalLength;
+    matchLengths[sequenceCount] = matchLength;
+    offsetValues[sequenceCount] = offsetValue;
+    sequenceCount++;
+  }
+
+  private static int hash(int value) {
+    return (value * 0x9e3779b1) >>> (32 - HASH_LOG);
+  }
+
+  private static int getLiteralLengthCode(int length) {
+    if (length < 16) {
+      return length;
+    }
+    if (length >= 64) {
+      return ZstdDecoder.highBit(length) + 19;
+    }
+    return getCode(ZstdDecoder.LL_BASELINE, 16, 25, length);
+  }
+
+  private static int getMatchLengthCode(int length) {
+    if (length < 35) {
+      return length - 3;
+    }
+    if (length >= 131) {
+      return ZstdDecoder.highBit(length - 3) + 36;
+    }
+    return getCode(ZstdDecoder.ML_BASELINE, 32, 43, length);
+  }
+
+  /** Returns the largest code in [first, last) whose baseline fits. */
+  private static int getCode(int[] baselines, int first, int last,
+    int length)
+  {
+    int code = first;
+    while (code + 1 < last && baselines[code + 1] <= length) {
+      code++;
+    }
+    return code;
+  }
+
+  // -- Helper methods - literals --
+
+  /**
+   * Writes the literals section of a block.
+   * @return the number of bytes written, or -1 if the block would not be
+   *   smaller than its raw size
+   */
+  private int encodeLiterals(byte[] block, int blockSize) {
+    int size = literalCount;
+    int rawSize = (size < 32 ? 1 : size < 4096 ? 2 : 3) + size;
+    if (rawSize >= blockSize) {
+      return -1;
+    }
+
+    if (size >= MIN_HUFFMAN_LITERALS) {
+      int compressed = encodeHuffmanLiterals(block, size);
+      if (compressed > 0 && compressed < rawSize) {
+        return compressed;
+      }
+    }
+
+    int pos = writeLiteralsHeader(block, 0, size);
+    System.arraycopy(literals, 0, block, pos, size);
+    return pos + size;
+  }
+
+  private static int writeLiteralsHeader(byte[] block, int type, int size) {
+    if (size < 32) {
+      block[0] = (byte) (type | (size << 3));
+      return 1;
+    }
+    if (size < 4096) {
+      block[0] = (byte) (type | (1 << 2) | ((size & 0xf) << 4));
+      block[1] = (byte) (size >> 4);
+      return 2;
+    }
+    block[0] = (byte) (type | (3 << 2) | ((size & 0xf) << 4));
+    block[1] = (byte) (size >> 4);
+    block[2] = (byte) (size >> 12);
+    return 3;
+  }
+
+  /**
+   * Writes Huffman-compressed literals.
+   * @return the number of bytes written, or -1 if the literals cannot be
+   *   Huffman coded
+   */
+  private int encodeHuffmanLiterals(byte[] block, int size) {
+    int[] counts = new int[256];
+    for (int i=0; i<size; i++) {
+      counts[literals[i] & 0xff]++;
+    }
+    int[] lengths = HuffmanBuilder.getLengths(counts, MAX_HUFFMAN_BITS);
+    if (lengths == null) {
+      return -1;
+    }
+
+    int maxLength = 0;
+    int lastSymbol = 0;
+    for (int s=0; s<256; s++) {
+      if (lengths[s] > 0) {
+        maxLength = Math.max(maxLength, lengths[s]);
+        lastSymbol = s;
+      }
+    }
+    byte[] weights = new byte[lastSymbol];
+    for (int s=0; s<lastSymbol; s++) {
+      weights[s] = (byte) (lengths[s] == 0 ? 0 : maxLength + 1 - lengths[s]);
+    }
+
+    // canonical codes, in the order that the decoder builds its table
+    int[] codes = new int[256];
+    int[] rankStart = new int[maxLength + 2];
+    for (int s=0; s<=lastSymbol; s++) {
+      if (lengths[s] > 0) {
+        rankStart[maxLength + 1 - lengths[s]]++;
+      }
+    }
+    int next = 0;
+    for (int w=1; w<=maxLength; w++) {
+      int current = next;
+      next += rankStart[w] << (w - 1);
+      rankStart[w] = current;
+    }
+    for (int s=0; s<=lastSymbol; s++) {
+      if (lengths[s] > 0) {
+        int w = maxLength + 1 - lengths[s];
+        codes[s] = rankStart[w] >> (w - 1);
+        rankStart[w] += 1 << (w - 1);
+      }
+    }
+
+    boolean single = size < 1024;
+    int headerSize = single ? 3 : size < 16384 ? 4 : 5;
+    int pos = headerSize;
+    pos = writeWeights(block, pos, weights, maxLength);
+    if (pos < 0) {
+      return -1;
+    }
+
+    int limit = size + headerSize;
+    if (single) {
+      pos = writeHuffmanStream(block, pos, limit, 0, size, codes, lengths);
+    }
+    else {
+      int jumpTable = pos;
+      pos += 6;
+      int segment = (size + 3) / 4;
+      for (int i=0; i<4 && pos >= 0; i++) {
+        int first = i * segment;
+        int count = i < 3 ? segment : size - 3 * segment;
+        int streamStart = pos;
+        pos = writeHuffmanStream(
+          block, pos, limit, first, count, codes, lengths);
+        if (i < 3 && pos >= 0) {
+          int streamSize = pos - streamStart;
+          block[jumpTable + 2 * i] = (byte) streamSize;
+          block[jumpTable + 2 * i + 1] = (byte) (streamSize >> 8);
+        }
+      }
+    }
+    if (pos < 0) {
+      return -1;
+    }
+
+    int compressed = pos - headerSize;
+    if (headerSize == 3) {
+      if (compressed >= 1024) {
+        return -1;
+      }
+      int v = 2 | ((single ? 0 : 1) << 2) | (size << 4) | (compressed << 14);
+      block[0] = (byte) v;
+      block[1] = (byte) (v >> 8);
+      block[2] = (byte) (v >> 16);
+    }
+    else if (headerSize == 4) {
+      if (compressed >= 16384) {
+        return -1;
+      }
+      int v = 2 | (2 << 2) | (size << 4) | (compressed << 18);
+      writeInt(block, 0, v);
+    }
+    else {
+      long v = 2 | (3 << 2) | ((long) size << 4) | ((long) compressed << 22);
+      for (int i=0; i<5; i++) {
+        block[i] = (byte) (v >> (8 * i));
+      }
+    }
+    return pos;
+  }
+
+  private int writeHuffmanStream(byte[] block, int pos, int limit, int first,
+    int count, int[] codes, int[] lengths)
+  {
+    BitWriter bits = new BitWriter(block, pos, limit);
+    for (int i=first+count-1; i>=first; i--) {
+      int symbol = literals[i] & 0xff;
+      bits.write(codes[symbol], lengths[symbol]);
+      if (bits.isFull()) {
+        return -1;
+      }
+    }
+    return bits.close();
+  }
+
+  /**
+   * Writes the Huffman weights, either directly as 4-bit values or FSE
+   * compressed.
+   * @return the position after the weights, or -1 if they cannot be written
+   */
+  private static int writeWeights(byte[] block, int pos, byte[] weights,
+    int maxLength)
+  {
+    int[] counts = new int[maxLength + 1];
+    int distinct = 0;
+    for (byte w : weights) {
+      if (counts[w]++ == 0) {
+        distinct++;
+      }
+    }
+
+    if (weights.length >= 2 && distinct > 1) {
+      int size = writeCompressedWeights(block, pos + 1, weights, counts);
+      if (size > 0 && size < 128 &&
+        (weights.length > 128 || size < (weights.length + 1) / 2))
+      {
+        block[pos] = (byte) size;
+        return pos + 1 + size;
+      }
+    }
+    if (weights.length > 128) {
+      return -1;
+    }
+    block[pos++] = (byte) (127 + weights.length);
+    for (int i=0; i<weights.length; i+=2) {
+      int high = weights[i];
+      int low = i + 1 < weights.length ? weights[i + 1] : 0;
+      block[pos++] = (byte) ((high << 4) | low);
+    }
+    return pos;
+  }
+
+  private static int writeCompressedWeights(byte[] block, int pos,
+    byte[] weights, int[] counts)
+  {
+    short[] norm = normalize(counts, weights.length, WEIGHT_LOG);
+    if (norm == null) {
+      return -1;
+    }
+    BitWriter bits = new BitWriter(block, pos, pos + 128);
+    writeFSETable(bits, norm, WEIGHT_LOG);
+    int tableEnd = bits.align();
+    if (tableEnd < 0) {
+      return -1;
+    }
+
+    FSEEncoder encoder = new FSEEncoder(norm, WEIGHT_LOG);
+    bits = new BitWriter(block, tableEnd, pos + 128);
+    int i = weights.length;
+    int state1, state2;
+    if ((i & 1) != 0) {
+      state1 = encoder.init(weights[--i]);
+      state2 = encoder.init(weights[--i]);
+      state1 = encoder.encode(bits, state1, weights[--i]);
+    }
+    else {
+      state2 = encoder.init(weights[--i]);
+      state1 = encoder.init(weights[--i]);
+    }
+    while (i > 0) {
+      state2 = encoder.encode(bits, state2, weights[--i]);
+      state1 = encoder.encode(bits, state1, weights[--i]);
+    }
+    encoder.flush(bits, state2);
+    encoder.flush(bits, state1);
+    int end = bits.close();
+    return end < 0 ? -1 : end - pos;
+  }
+
+  /**
+   * Scales the given counts so that they sum to 1 &lt;&lt; log, keeping
+   * every used symbol at a probability of at least 1.
+   */
+  private static short[] normalize(int[] counts, int total, int log) {
+    short[] norm = new short[counts.length];
+    int sum = 0;
+    int largest = 0;
+    for (int s=0; s<counts.length; s++) {
+      if (counts[s] > 0) {
+        norm[s] = (short) Math.max(1, ((long) counts[s] << log) / total);
+        sum += norm[s];
+        if (counts[s] > counts[largest]) {
+          largest = s;
+        }
+      }
+    }
+    norm[largest] += (1 << log) - sum;
+    return norm[largest] > 0 ? norm : null;
+  }
+
+  /** Writes an FSE table description; the inverse of the decoder. */
+  private static void writeFSETable(BitWriter bits, short[] norm, int log) {
+    bits.write(log - 5, 4);
+    int remaining = 1 << log;
+    int s = 0;
+    while (remaining > 0) {
+      int probability = norm[s++];
+      int n = ZstdDecoder.highBit(remaining + 1) + 1;
+      int lowerMask = (1 << (n - 1)) - 1;
+      int threshold = (1 << n) - 1 - (remaining + 1);
+      int value = probability + 1;
+      if (value < threshold) {
+        bits.write(value, n - 1);
+      }
+      else if (value <= lowerMask) {
+        bits.write(value, n);
+      }
+      else {
+        bits.write(value + threshold, n);
+      }
+      remaining -= Math.abs(probability);
+
+      if (probability == 0) {
+        int zeros = 0;
+        while (norm[s + zeros] == 0) {
+          zeros++;
+        }
+        s += zeros;
+        while (zeros >= 3) {
+          bits.write(3, 2);
+          zeros -= 3;
+        }
+        bits.write(zeros, 2);
+      }
+    }
+  }
+
+  // -- Helper methods - utility --
+
+  private static void writeBlockHeader(byte[] out, int pos, int header) {
+    out[pos] = (byte) header;
+    out[pos + 1] = (byte) (header >> 8);
+    out[pos + 2] = (byte) (header >> 16);
+  }
+
+  private static int readInt(byte[] src, int pos) {
+    return (src[pos] & 0xff) | ((src[pos + 1] & 0xff) << 8) |
+      ((src[pos + 2] & 0xff) << 16) | ((src[pos + 3] & 0xff) << 24);
+  }
+
+  private static void writeInt(byte[] out, int pos, int v) {
+    out[pos] = (byte) v;
+    out[pos + 1] = (byte) (v >> 8);
+    out[pos + 2] = (byte) (v >> 16);
+    out[pos + 3] = (byte) (v >> 24);
+  }
+
+  // -- Helper classes --
+
+  /** Encoding table for one FSE distribution. */
+  static class FSEEncoder {
+    private final int log;
+    private final int[] stateTable;
+    private final int[] deltaBits;
+    private final int[] deltaState;
+
+    FSEEncoder(short[] norm, int log) {
+      int size = 1 << log;
+      this.log = log;
+      short[] symbols = ZstdDecoder.FSETable.spread(norm, norm.length, log);
+
+      int[] cumulative = new int[norm.length + 1];
+      for (int s=0; s<norm.length; s++) {
+        cumulative[s + 1] = cumulative[s] + (norm[s] == -1 ? 1 : norm[s]);
+      }
+      stateTable = new int[size];
+      int[] next = cumulative.clone();
+      for (int u=0; u<size; u++) {
+        stateTable[next[symbols[u]]++] = size + u;
+      }
+
+      deltaBits = new int[norm.length];
+      deltaState = new int[norm.length];
+      for (int s=0; s<norm.length; s++) {
+        int count = norm[s];
+        if (count == 0) {
+          deltaBits[s] = ((log + 1) << 16) - size;
+        }
+        else if (count == -1 || count == 1) {
+          deltaBits[s] = (log << 16) - size;
+          deltaState[s] = cumulative[s] - 1;
+        }
+        else {
+          int maxBits = log - ZstdDecoder.highBit(count - 1);
+          deltaBits[s] = (maxBits << 16) - (count << maxBits);
+          deltaState[s] = cumulative[s] - count;
+        }
+      }
+    }
+
+    /** Returns the initial state for the given symbol. */
+    int init(int symbol) {
+      int n = (deltaBits[symbol] + (1 << 15)) >> 16;
+      int value = (n << 16) - deltaBits[symbol];
+      return stateTable[(value >> n) + deltaState[symbol]];
+    }
+
+    int encode(BitWriter bits, int state, int symbol) {
+      int n = (state + deltaBits[symbol]) >> 16;
+      bits.write(state, n);
+      return stateTable[(state >> n) + deltaState[symbol]];
+    }
+
+    void flush(BitWriter bits, int state) {
+      bits.write(state, log);
+    }
+  }
+
+  /** Writes a bitstream, least significant bit first. */
+  static class BitWriter {
+    private final byte[] buf;
+    private final int limit;
+    private int pos;
+    private long container;
+    private int count;
+
+    BitWriter(byte[] buf, int pos, int limit) {
+      this.buf = buf;
+      this.pos = pos;
+      this.limit = Math.min(limit, buf.length);
+    }
+
+    void write(int value, int bits) {
+      container |= (value & ((1L << bits) - 1)) << count;
+      count += bits;
+      if (count >= 32) {
+        if (pos + 4 <= limit) {
+          writeInt(buf, pos, (int) container);
+        }
+        pos += 4;
+        container >>>= 32;
+        count -= 32;
+      }
+    }
+
+    boolean isFull() {
+      return pos > limit;
+    }
+
+    /**
+     * Writes any remaining bits, padding the last byte with zeros.
+     * @return the position after the last byte, or -1 if the limit was
+     *   exceeded
+     */
+    int align() {
+      while (count > 0) {
+        if (pos < limit) {
+          buf[pos] = (byte) container;
+        }
+        pos++;
+        container >>>= 8;
+        count -= 8;
+      }
+      count = 0;
+      return pos > limit ? -1 : pos;
+    }
+
+    /**
+     * Ends a stream that is read backwards, by writing the marker bit that
+     * the decoder uses to find the last bit written.
+     */
+    int close() {
+      write(1, 1);
+      return align();
+    }
+  }
+
+  /** Computes length-limited Huffman code lengths. */
+  static class HuffmanBuilder {
+
+    /**
+     * @return the code length for each symbol, or null if fewer than two
+     *   symbols are used
+     */
+    static int[] getLengths(int[] counts, int maxLength) {
+      int[] scaled = counts.clone();
+      while (true) {
+        int[] lengths = build(scaled);
+        if (lengths == null) {
+          return null;
+        }
+        int max = 0;
+        for (int length : lengths) {
+          max = Math.max(max, length);
+        }
+        if (max <= maxLength) {
+          return lengths;
+        }
+        // flatten the distribution until the longest code fits
+        for (int s=0; s<scaled.length; s++) {
+          if (scaled[s] > 0) {
+            scaled[s] = (scaled[s] + 1) >> 1;
+          }
+        }
+      }
+    }
+
+    private static int[] build(int[] counts) {
+      int used = 0;
+      for (int count : counts) {
+        if (count > 0) {
+          used++;
+        }
+      }
+      if (used < 2) {
+        return null;
+      }
+
+      // leaves sorted by count, followed by the internal nodes in the
+      // order in which they are created
+      long[] leaves = new long[used];
+      int n = 0;
+      for (int s=0; s<counts.length; s++) {
+        if (counts[s] > 0) {
+          leaves[n++] = ((long) counts[s] << 16) | s;
+        }
+      }
+      Arrays.sort(leaves);
+
+      int nodes = 2 * used - 1;
+      long[] weight = new long[nodes];
+      int[] parent = new int[nodes];
+      for (int i=0; i<used; i++) {
+        weight[i] = leaves[i] >>> 16;
+      }
+      int leaf = 0;
+      int internal = used;
+      for (int next=used; next<nodes; next++) {
+        int[] pick = new int[2];
+        for (int k=0; k<2; k++) {
+          if (leaf < used && (internal >= next ||
+            weight[leaf] <= weight[internal]))
+          {
+            pick[k] = leaf++;
+          }
+          else {
+            pick[k] = internal++;
+          }
+        }
+        weight[next] = weight[pick[0]] + weight[pick[1]];
+        parent[pick[0]] = next;
+        parent[pick[1]] = next;
+      }
+
+      int[] depth = new int[nodes];
+      for (int i=nodes-2; i>=0; i--) {
+        depth[i] = depth[parent[i]] + 1;
+      }
+      int[] lengths = new int[counts.length];
+      for (int i=0; i<used; i++) {
+        lengths[(int) (leaves[i] & 0xffff)] = depth[i];
+      }
+      return lengths;
+    }
+  }
+
+}
@@ -46,6 +46,7 @@ import loci.formats.MetadataTools;
 import loci.formats.meta.MetadataStore;
 import loci.formats.tiff.IFD;
 import loci.formats.tiff.IFDList;
+import loci.formats.tiff.LazyIFDList;
 import loci.formats.tiff.PhotoInterp;
 import loci.formats.tiff.TiffCompression;
 import loci.formats.tiff.TiffRational;
@@ -110,8 +111,14 @@ public abstract class BaseTiffReader extends MinimalTiffReader {
       return;
     }
 
+    // IFDs that are parsed on demand are not all parsed just to record
+    // their page names
+    LazyIFDList lazyIFDs =
+      ifds instanceof LazyIFDList ? (LazyIFDList) ifds : null;
     for (int i=0; i<ifds.size(); i++) {
-      put("PageName #" + i, ifds.get(i), IFD.PAGE_NAME);
+      if (lazyIFDs == null || lazyIFDs.isParsed(i)) {
+        put("PageName #" + i, ifds.get(i), IFD.PAGE_NAME);
+      }
     }
 
     IFD firstIFD = ifds.get(0);
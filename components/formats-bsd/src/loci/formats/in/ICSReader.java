@@ -50,6 +50,8 @@ import loci.formats.FormatException;
 import loci.formats.FormatReader;
 import loci.formats.FormatTools;
 import loci.formats.MetadataTools;
+import loci.formats.codec.GzipIndex;
+import loci.formats.codec.IndexedGzipStream;
 import loci.formats.meta.MetadataStore;
 
 import ome.xml.model.primitives.Timestamp;
@@ -76,6 +78,15 @@ public class ICSReader extends FormatReader {
   /** Newline characters. */
   public static final String NL = "\r\n";
 
+  /**
+   * Option key; if true, gzip-compressed pixel data is read through an
+   * index of access points, so that planes can be read in any order
+   * without decompressing from the start of the file. The index is fully
+   * built during initialization so that it is saved with a memo file.
+   */
+  public static final String GZIP_INDEX_KEY = "ics.gzip_index";
+  public static final boolean GZIP_INDEX_DEFAULT = false;
+
   public static final String[] DATE_FORMATS = {
     "EEEE, MMMM dd, yyyy HH:mm:ss",
     "EEE dd MMMM yyyy HH:mm:ss",
@@ -526,6 +537,12 @@ public class ICSReader extends FormatReader {
 
   private GZIPInputStream gzipStream;
 
+  /** Stream over the gzip-compressed pixel data, if it is indexed. */
+  private IndexedGzipStream indexedGzipStream;
+
+  /** Access points into the gzip-compressed pixel data. */
+  private GzipIndex gzipIndex;
+
   /** Whether or not the image is inverted along the Y axis. */
   private boolean invertY;
 
@@ -619,6 +636,37 @@ public class ICSReader extends FormatReader {
     if (!gzip) {
       in.seek(offset + no * (long) len);
     }
+    else if (isGzipIndexed()) {
+      long pos = no * (long) len;
+      if (!versionTwo) {
+        pos += offset;
+      }
+      if (indexedGzipStream == null) {
+        try {
+          indexedGzipStream = openGzipStream();
+        }
+        catch (IOException e) {
+          // the 'gzip' flag is set erroneously
+          gzip = false;
+          in.seek(offset + no * (long) len);
+        }
+      }
+
+      if (indexedGzipStream != null) {
+        // the index makes backwards seeks cheap, so the stream is reused
+        indexedGzipStream.seek(pos);
+
+        data = new byte[len * (storedRGB ? getSizeC() : 1)];
+        int toRead = data.length;
+        while (toRead > 0) {
+          int n = indexedGzipStream.read(data, data.length - toRead, toRead);
+          if (n < 0) {
+            throw new FormatException("Unexpected end of compressed data");
+          }
+          toRead -= n;
+        }
+      }
+    }
     else {
       long toSkip = (no - prevImage - 1) * (long) len;
       if (gzipStream == null || no <= prevImage) {
@@ -740,9 +788,28 @@ public class ICSReader extends FormatReader {
         gzipStream.close();
       }
       gzipStream = null;
+      if (indexedGzipStream != null) {
+        indexedGzipStream.close();
+      }
+      indexedGzipStream = null;
+      gzipIndex = null;
     }
   }
 
+  /**
+   * Returns true if gzip-compressed pixel data should be read through
+   * an index, which is built during initialization.
+   * @see #GZIP_INDEX_KEY
+   */
+  public boolean isGzipIndexed() {
+    MetadataOptions options = getMetadataOptions();
+    if (options instanceof DynamicMetadataOptions) {
+      return ((DynamicMetadataOptions) options).getBoolean(
+        GZIP_INDEX_KEY, GZIP_INDEX_DEFAULT);
+    }
+    return GZIP_INDEX_DEFAULT;
+  }
+
   /* @see loci.formats.IFormatReader#reopenFile() */
   @Override
   public void reopenFile() throws IOException {
@@ -760,6 +827,14 @@ public class ICSReader extends FormatReader {
 
   // -- Internal FormatReader API methods --
 
+  /* @see loci.formats.FormatReader#getAvailableOptions() */
+  @Override
+  protected ArrayList<String> getAvailableOptions() {
+    ArrayList<String> optionsList = super.getAvailableOptions();
+    optionsList.add(GZIP_INDEX_KEY);
+    return optionsList;
+  }
+
   /* @see loci.formats.FormatReader#initFile(String) */
   @Override
   protected void initFile(String id) throws FormatException, IOException {
@@ -1471,6 +1546,17 @@ public class ICSReader extends FormatReader {
     boolean fp = rFormat.equals("real");
     m.pixelType = FormatTools.pixelTypeFromBytes(bytes, signed, fp);
 
+    if (gzip && isGzipIndexed()) {
+      LOGGER.info("Indexing compressed pixel data");
+      try (IndexedGzipStream s = openGzipStream()) {
+        s.buildIndex();
+      }
+      catch (IOException e) {
+        LOGGER.debug("Could not index compressed pixel data", e);
+        gzipIndex = null;
+      }
+    }
+
     LOGGER.info("Populating OME metadata");
 
     MetadataStore store = makeFilterMetadata();
@@ -1753,6 +1839,28 @@ public class ICSReader extends FormatReader {
 
   // -- Helper methods --
 
+  /**
+   * Opens a new stream over the gzip-compressed pixel data, sharing
+   * access points with any previously opened stream.
+   */
+  private IndexedGzipStream openGzipStream() throws IOException {
+    RandomAccessInputStream s =
+      new RandomAccessInputStream(versionTwo ? currentIcsId : currentIdsId);
+    try {
+      if (versionTwo) {
+        s.seek(offset);
+      }
+      if (gzipIndex == null) {
+        gzipIndex = new GzipIndex();
+      }
+      return new IndexedGzipStream(s, gzipIndex);
+    }
+    catch (IOException e) {
+      s.close();
+      throw e;
+    }
+  }
+
   /*
    * String tokenizer for parsing metadata. Splits on any white-space
    * characters. Tabs and spaces are often used interchangeably in real-life ICS
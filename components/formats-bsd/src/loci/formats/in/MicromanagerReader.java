@@ -47,6 +47,7 @@ import loci.common.RandomAccessInputStream;
 import loci.common.xml.BaseHandler;
 import loci.common.xml.XMLTools;
 import loci.formats.CoreMetadata;
+import loci.formats.FormatDetector;
 import loci.formats.FormatException;
 import loci.formats.FormatReader;
 import loci.formats.FormatTools;
@@ -132,7 +133,9 @@ public class MicromanagerReader extends FormatReader {
       name.equals(XML) || name.endsWith(File.separator + XML) || name.endsWith("_" + METADATA))
     {
       final int blockSize = 1048576;
-      try (RandomAccessInputStream stream = new RandomAccessInputStream(name)) {
+      try (RandomAccessInputStream stream =
+        new RandomAccessInputStream(name, FormatDetector.HEADER_BUFFER_SIZE))
+      {
         long length = stream.length();
         String data = stream.readString((int) Math.min(blockSize, length));
         data = data.toLowerCase();
@@ -149,7 +152,9 @@ public class MicromanagerReader extends FormatReader {
       // is chosen
       return false;
     }
-    try (RandomAccessInputStream s = new RandomAccessInputStream(name)) {
+    try (RandomAccessInputStream s =
+      new RandomAccessInputStream(name, FormatDetector.HEADER_BUFFER_SIZE))
+    {
       Location thisFile = new Location(name).getAbsoluteFile();
       Location parent = thisFile.getParentFile();
       Location metaFile = new Location(parent, METADATA);
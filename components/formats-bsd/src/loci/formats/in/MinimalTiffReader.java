@@ -35,6 +35,7 @@ package loci.formats.in;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
 
 import loci.formats.CoreMetadata;
 import loci.formats.FormatException;
@@ -46,10 +47,13 @@ import org.slf4j.LoggerFactory;
 
 import loci.common.DataTools;
 import loci.common.RandomAccessInputStream;
+import loci.formats.codec.ByteArrayPool;
 import loci.formats.codec.JPEG2000CodecOptions;
+import loci.formats.codec.ParallelDecoder;
 import loci.formats.meta.MetadataStore;
 import loci.formats.tiff.IFD;
 import loci.formats.tiff.IFDList;
+import loci.formats.tiff.LazyIFDList;
 import loci.formats.tiff.PhotoInterp;
 import loci.formats.tiff.TiffCompression;
 import loci.formats.tiff.TiffParser;
@@ -68,6 +72,37 @@ public class MinimalTiffReader extends SubResolutionFormatReader {
   private static final Logger LOGGER =
     LoggerFactory.getLogger(MinimalTiffReader.class);
 
+  /**
+   * Number of threads used to decode compressed tiles in parallel.
+   * The default of 1 decodes tiles serially.
+   */
+  public static final String DECODE_THREADS_KEY = "tiff.decode_threads";
+  public static final int DECODE_THREADS_DEFAULT = 1;
+
+  /**
+   * Whether IFDs after the first should only be parsed when needed.
+   * This is only used for files whose first and last IFDs have the same
+   * dimensions and pixel type, and which are not JPEG 2000 compressed or
+   * indexed color.  The remaining IFDs are assumed to match when the file
+   * is initialized; each is checked when it is parsed, and reading a plane
+   * whose IFD is a thumbnail or differs in size or type throws a
+   * FormatException.  Page names are only recorded in the original
+   * metadata for IFDs that were parsed during initialization.
+   * @see LazyIFDList
+   */
+  public static final String LAZY_IFDS_KEY = "tiff.lazy_ifds";
+  public static final boolean LAZY_IFDS_DEFAULT = false;
+
+  /**
+   * Whether parsed IFDs should be stored in a compact form, which uses much
+   * less memory for files with many IFDs.  Large strip and tile offset
+   * arrays are then read from the file when needed instead of being kept
+   * in memory.
+   * @see TiffParser#setUseCompactIFDs(boolean)
+   */
+  public static final String COMPACT_IFDS_KEY = "tiff.compact_ifds";
+  public static final boolean COMPACT_IFDS_DEFAULT = false;
+
   // -- Fields --
 
   /** List of IFDs for the current TIFF. */
@@ -109,6 +144,13 @@ public class MinimalTiffReader extends SubResolutionFormatReader {
   /** Codec options to use when decoding JPEG 2000 data. */
   private JPEG2000CodecOptions j2kCodecOptions;
 
+  /** Executor used to decode tiles in parallel, if any. */
+  private transient ParallelDecoder decoder =
+    new ParallelDecoder("TiffDecoder");
+
+  /** Pool of scratch buffers used when reading tiles, if any. */
+  private transient ByteArrayPool bufferPool;
+
   // -- Constructors --
 
   /** Constructs a new MinimalTiffReader. */
@@ -130,6 +172,58 @@ public class MinimalTiffReader extends SubResolutionFormatReader {
 
   // -- MinimalTiffReader API methods --
 
+  /** Returns whether or not IFDs should be parsed when first needed. */
+  public boolean isLazyIFDs() {
+    MetadataOptions options = getMetadataOptions();
+    if (options instanceof DynamicMetadataOptions) {
+      return ((DynamicMetadataOptions) options).getBoolean(
+        LAZY_IFDS_KEY, LAZY_IFDS_DEFAULT);
+    }
+    return LAZY_IFDS_DEFAULT;
+  }
+
+  /** Returns whether or not parsed IFDs should be stored compactly. */
+  public boolean isCompactIFDs() {
+    MetadataOptions options = getMetadataOptions();
+    if (options instanceof DynamicMetadataOptions) {
+      return ((DynamicMetadataOptions) options).getBoolean(
+        COMPACT_IFDS_KEY, COMPACT_IFDS_DEFAULT);
+    }
+    return COMPACT_IFDS_DEFAULT;
+  }
+
+  /** Gets the number of threads to use when decoding compressed tiles. */
+  public int getDecodeThreads() {
+    MetadataOptions options = getMetadataOptions();
+    if (options instanceof DynamicMetadataOptions) {
+      return ((DynamicMetadataOptions) options).getInteger(
+        DECODE_THREADS_KEY, DECODE_THREADS_DEFAULT);
+    }
+    return DECODE_THREADS_DEFAULT;
+  }
+
+  /**
+   * Sets the executor used to decode compressed tiles in parallel,
+   * overriding {@link #DECODE_THREADS_KEY}.  The executor is not shut down
+   * when this reader is closed, so it can be shared between readers.
+   */
+  public void setDecodeExecutor(ExecutorService executor) {
+    decoder.setExecutor(executor);
+  }
+
+  /**
+   * Sets the pool from which scratch buffers are drawn when reading tiles.
+   * @see TiffParser#setBufferPool(ByteArrayPool)
+   */
+  public void setBufferPool(ByteArrayPool pool) {
+    bufferPool = pool;
+  }
+
+  /** Gets the pool used for scratch buffers, or null if there is none. */
+  public ByteArrayPool getBufferPool() {
+    return bufferPool;
+  }
+
   /** Gets the list of IFDs associated with the current TIFF's image planes. */
   public IFDList getIFDs() {
     return ifds;
@@ -293,7 +387,11 @@ public class MinimalTiffReader extends SubResolutionFormatReader {
     IFD ifd;
     if (seriesToIFD) {
       ifd = ifds.get(getSeries());
-    } else {
+    }
+    else if (ifds instanceof LazyIFDList) {
+      ifd = ((LazyIFDList) ifds).getIFD(no);
+    }
+    else {
       ifd = ifds.get(no);
     }
     if ((firstIFD.getCompression() == TiffCompression.JPEG_2000
@@ -309,6 +407,8 @@ public class MinimalTiffReader extends SubResolutionFormatReader {
       initTiffParser();
     }
 
+    tiffParser.setExecutor(decoder.getExecutor(getDecodeThreads()));
+    tiffParser.setBufferPool(bufferPool);
     tiffParser.getSamples(ifd, buf, x, y, w, h);
 
     boolean float16 = getPixelType() == FormatTools.FLOAT &&
@@ -374,7 +474,9 @@ public class MinimalTiffReader extends SubResolutionFormatReader {
     super.close(fileOnly);
     if (!fileOnly) {
       if (ifds != null) {
-        for (IFD ifd : ifds) {
+        List<IFD> loaded = ifds instanceof LazyIFDList ?
+          ((LazyIFDList) ifds).getParsedIFDs() : ifds;
+        for (IFD ifd : loaded) {
           try {
             if (ifd.getOnDemandStripOffsets() != null) {
               ifd.getOnDemandStripOffsets().close();
@@ -393,6 +495,7 @@ public class MinimalTiffReader extends SubResolutionFormatReader {
       resolutionLevels = null;
       j2kCodecOptions = null;
       seriesToIFD = false;
+      decoder.close();
     }
   }
 
@@ -439,6 +542,16 @@ public class MinimalTiffReader extends SubResolutionFormatReader {
 
   // -- Internal FormatReader API methods --
 
+  /* @see loci.formats.FormatReader#getAvailableOptions() */
+  @Override
+  protected ArrayList<String> getAvailableOptions() {
+    ArrayList<String> optionsList = super.getAvailableOptions();
+    optionsList.add(DECODE_THREADS_KEY);
+    optionsList.add(LAZY_IFDS_KEY);
+    optionsList.add(COMPACT_IFDS_KEY);
+    return optionsList;
+  }
+
   /* @see loci.formats.FormatReader#initFile(String) */
   @Override
   protected void initFile(String id) throws FormatException, IOException {
@@ -454,8 +567,16 @@ public class MinimalTiffReader extends SubResolutionFormatReader {
 
     LOGGER.info("Reading IFDs");
 
+    LazyIFDList lazyIFDs = null;
+    if (!mergeSubIFDs && isLazyIFDs()) {
+      lazyIFDs = getLazyIFDs();
+    }
+
     IFDList allIFDs = null;
-    if (!mergeSubIFDs) {
+    if (lazyIFDs != null) {
+      allIFDs = lazyIFDs;
+    }
+    else if (!mergeSubIFDs) {
       allIFDs = tiffParser.getMainIFDs();
     }
     else {
@@ -470,39 +591,16 @@ public class MinimalTiffReader extends SubResolutionFormatReader {
       throw new FormatException("No IFDs found");
     }
 
-    ifds = new IFDList();
+    ifds = lazyIFDs == null ? new IFDList() : lazyIFDs;
     thumbnailIFDs = new IFDList();
 
-    Integer x = null;
-    Integer y = null;
-    Integer type = null;
     boolean separateSeries = false;
 
     subResolutionIFDs = new ArrayList<IFDList>();
-    for (IFD ifd : allIFDs) {
-      tiffParser.fillInIFD(ifd);
-      Number subfile = (Number) ifd.getIFDValue(IFD.NEW_SUBFILE_TYPE);
-      int subfileType = subfile == null ? 0 : subfile.intValue();
-      if (subfileType != 1 || allIFDs.size() <= 1) {
-        ifds.add(ifd);
-
-        if (x == null && y == null && type == null) {
-          x = (int) ifd.getImageWidth();
-          y = (int) ifd.getImageLength();
-          type = ifd.getPixelType();
-        }
-        else {
-          if ((int) ifd.getImageWidth() != x ||
-            (int) ifd.getImageLength() != y ||
-            ifd.getPixelType() != type)
-          {
-            separateSeries = canSeparateSeries;
-          }
-        }
-      }
-      else if (subfileType == 1) {
-        thumbnailIFDs.add(ifd);
-      }
+    if (lazyIFDs == null) {
+      // lazily parsed IFDs are already checked to be a single series
+      // with no thumbnails
+      separateSeries = classifyIFDs(allIFDs);
     }
 
     LOGGER.info("Populating metadata");
@@ -524,77 +622,9 @@ public class MinimalTiffReader extends SubResolutionFormatReader {
     }
 
     tiffParser.setAssumeEqualStrips(equalStrips);
-    for (IFD ifd : ifds) {
-      if ((ifd.getCompression() == TiffCompression.JPEG_2000
-          || ifd.getCompression() == TiffCompression.JPEG_2000_LOSSY) &&
-          ifd.getImageWidth() == ifds.get(0).getImageWidth()) {
-        LOGGER.debug("Found IFD with JPEG 2000 compression");
-        long[] stripOffsets = ifd.getStripOffsets();
-        long[] stripByteCounts = ifd.getStripByteCounts();
-
-        if (stripOffsets.length > 0) {
-          long stripOffset = stripOffsets[0];
-          in.seek(stripOffset);
-          JPEG2000MetadataParser metadataParser =
-            new JPEG2000MetadataParser(in, stripOffset + stripByteCounts[0]);
-          resolutionLevels = metadataParser.getResolutionLevels();
-          if (resolutionLevels != null && !noSubresolutions) {
-            if (LOGGER.isDebugEnabled()) {
-              LOGGER.debug(String.format(
-                  "Original resolution IFD Levels %d %dx%d Tile %dx%d",
-                  resolutionLevels, ifd.getImageWidth(), ifd.getImageLength(),
-                  ifd.getTileWidth(), ifd.getTileLength()));
-            }
-            IFDList theseSubResolutionIFDs = new IFDList();
-            subResolutionIFDs.add(theseSubResolutionIFDs);
-            for (int level = 1; level <= resolutionLevels; level++) {
-              IFD newIFD = new IFD(ifd);
-              long imageWidth = ifd.getImageWidth();
-              long imageLength = ifd.getImageLength();
-              long tileWidth = ifd.getTileWidth();
-              long tileLength = ifd.getTileLength();
-              long factor = (long) Math.pow(2, level);
-              long newTileWidth = Math.round((double) tileWidth / factor);
-              newTileWidth = newTileWidth < 1? 1 : newTileWidth;
-              long newTileLength = Math.round((double) tileLength / factor);
-              newTileLength = newTileLength < 1? 1 : newTileLength;
-              long evenTilesPerRow = imageWidth / tileWidth;
-              long evenTilesPerColumn = imageLength / tileLength;
-              double remainingWidth =
-                  ((double) (imageWidth - (evenTilesPerRow * tileWidth))) /
-                  factor;
-              remainingWidth = remainingWidth < 1? Math.ceil(remainingWidth) :
-                  Math.round(remainingWidth);
-              double remainingLength =
-                  ((double) (imageLength - (evenTilesPerColumn * tileLength))) /
-                  factor;
-              remainingLength =
-                remainingLength < 1? Math.ceil(remainingLength) :
-                Math.round(remainingLength);
-              long newImageWidth = (long) ((evenTilesPerRow * newTileWidth) +
-                  remainingWidth);
-              long newImageLength =
-                (long) ((evenTilesPerColumn * newTileLength) + remainingLength);
-
-              int resolutionLevel = Math.abs(level - resolutionLevels);
-              newIFD.put(IFD.IMAGE_WIDTH, newImageWidth);
-              newIFD.put(IFD.IMAGE_LENGTH, newImageLength);
-              newIFD.put(IFD.TILE_WIDTH, newTileWidth);
-              newIFD.put(IFD.TILE_LENGTH, newTileLength);
-              if (LOGGER.isDebugEnabled()) {
-                LOGGER.debug(String.format(
-                    "Added JPEG 2000 sub-resolution IFD Level %d %dx%d " +
-                    "Tile %dx%d", resolutionLevel, newImageWidth,
-                    newImageLength, newTileWidth, newTileLength));
-              }
-              theseSubResolutionIFDs.add(newIFD);
-            }
-          }
-        }
-        else {
-          LOGGER.warn("IFD has no strip offsets!");
-        }
-      }
+    if (lazyIFDs == null) {
+      // lazily parsed IFDs are only used when the first is not JPEG 2000
+      addJPEG2000SubResolutions();
     }
 
     for (int i=0; i<core.size(); i++) {
@@ -703,6 +733,174 @@ public class MinimalTiffReader extends SubResolutionFormatReader {
     tiffParser = new TiffParser(in);
     tiffParser.setDoCaching(false);
     tiffParser.setUse64BitOffsets(use64Bit);
+    tiffParser.setUseCompactIFDs(isCompactIFDs());
+    if (ifds instanceof LazyIFDList) {
+      ((LazyIFDList) ifds).setParser(tiffParser);
+    }
+  }
+
+  /**
+   * Parses each of the given IFDs and sorts them into image planes and
+   * thumbnails.
+   *
+   * @return true if the planes differ in size or type and should be
+   *         split into separate series
+   */
+  private boolean classifyIFDs(IFDList allIFDs)
+    throws FormatException, IOException
+  {
+    Integer x = null;
+    Integer y = null;
+    Integer type = null;
+    boolean separateSeries = false;
+
+    for (IFD ifd : allIFDs) {
+      tiffParser.fillInIFD(ifd);
+      Number subfile = (Number) ifd.getIFDValue(IFD.NEW_SUBFILE_TYPE);
+      int subfileType = subfile == null ? 0 : subfile.intValue();
+      if (subfileType != 1 || allIFDs.size() <= 1) {
+        ifds.add(ifd);
+
+        if (x == null && y == null && type == null) {
+          x = (int) ifd.getImageWidth();
+          y = (int) ifd.getImageLength();
+          type = ifd.getPixelType();
+        }
+        else {
+          if ((int) ifd.getImageWidth() != x ||
+            (int) ifd.getImageLength() != y ||
+            ifd.getPixelType() != type)
+          {
+            separateSeries = canSeparateSeries;
+          }
+        }
+      }
+      else if (subfileType == 1) {
+        thumbnailIFDs.add(ifd);
+      }
+    }
+    return separateSeries;
+  }
+
+  /**
+   * Adds sub-resolution IFDs for each JPEG 2000 compressed plane, using the
+   * resolution levels recorded in its code stream.
+   */
+  private void addJPEG2000SubResolutions()
+    throws FormatException, IOException
+  {
+    for (IFD ifd : ifds) {
+      if ((ifd.getCompression() == TiffCompression.JPEG_2000
+          || ifd.getCompression() == TiffCompression.JPEG_2000_LOSSY) &&
+          ifd.getImageWidth() == ifds.get(0).getImageWidth()) {
+        LOGGER.debug("Found IFD with JPEG 2000 compression");
+        long[] stripOffsets = ifd.getStripOffsets();
+        long[] stripByteCounts = ifd.getStripByteCounts();
+
+        if (stripOffsets.length > 0) {
+          long stripOffset = stripOffsets[0];
+          in.seek(stripOffset);
+          JPEG2000MetadataParser metadataParser =
+            new JPEG2000MetadataParser(in, stripOffset + stripByteCounts[0]);
+          resolutionLevels = metadataParser.getResolutionLevels();
+          if (resolutionLevels != null && !noSubresolutions) {
+            if (LOGGER.isDebugEnabled()) {
+              LOGGER.debug(String.format(
+                  "Original resolution IFD Levels %d %dx%d Tile %dx%d",
+                  resolutionLevels, ifd.getImageWidth(), ifd.getImageLength(),
+                  ifd.getTileWidth(), ifd.getTileLength()));
+            }
+            IFDList theseSubResolutionIFDs = new IFDList();
+            subResolutionIFDs.add(theseSubResolutionIFDs);
+            for (int level = 1; level <= resolutionLevels; level++) {
+              IFD newIFD = new IFD(ifd);
+              long imageWidth = ifd.getImageWidth();
+              long imageLength = ifd.getImageLength();
+              long tileWidth = ifd.getTileWidth();
+              long tileLength = ifd.getTileLength();
+              long factor = (long) Math.pow(2, level);
+              long newTileWidth = Math.round((double) tileWidth / factor);
+              newTileWidth = newTileWidth < 1? 1 : newTileWidth;
+              long newTileLength = Math.round((double) tileLength / factor);
+              newTileLength = newTileLength < 1? 1 : newTileLength;
+              long evenTilesPerRow = imageWidth / tileWidth;
+              long evenTilesPerColumn = imageLength / tileLength;
+              double remainingWidth =
+                  ((double) (imageWidth - (evenTilesPerRow * tileWidth))) /
+                  factor;
+              remainingWidth = remainingWidth < 1? Math.ceil(remainingWidth) :
+                  Math.round(remainingWidth);
+              double remainingLength =
+                  ((double) (imageLength - (evenTilesPerColumn * tileLength))) /
+                  factor;
+              remainingLength =
+                remainingLength < 1? Math.ceil(remainingLength) :
+                Math.round(remainingLength);
+              long newImageWidth = (long) ((evenTilesPerRow * newTileWidth) +
+                  remainingWidth);
+              long newImageLength =
+                (long) ((evenTilesPerColumn * newTileLength) + remainingLength);
+
+              int resolutionLevel = Math.abs(level - resolutionLevels);
+              newIFD.put(IFD.IMAGE_WIDTH, newImageWidth);
+              newIFD.put(IFD.IMAGE_LENGTH, newImageLength);
+              newIFD.put(IFD.TILE_WIDTH, newTileWidth);
+              newIFD.put(IFD.TILE_LENGTH, newTileLength);
+              if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug(String.format(
+                    "Added JPEG 2000 sub-resolution IFD Level %d %dx%d " +
+                    "Tile %dx%d", resolutionLevel, newImageWidth,
+                    newImageLength, newTileWidth, newTileLength));
+              }
+              theseSubResolutionIFDs.add(newIFD);
+            }
+          }
+        }
+        else {
+          LOGGER.warn("IFD has no strip offsets!");
+        }
+      }
+    }
+  }
+
+  /**
+   * Reads the IFD offsets and the first IFD, and returns a list that parses
+   * the remaining IFDs on demand.  Returns null if the file does not look
+   * like a uniform stack of planes, in which case all IFDs must be parsed
+   * up front.
+   */
+  private LazyIFDList getLazyIFDs() throws FormatException, IOException {
+    LazyIFDList list =
+      tiffParser.getLazyIFDs(LazyIFDList.DEFAULT_CACHE_SIZE);
+    if (list.size() <= 1) {
+      return null;
+    }
+    IFD first = list.get(0);
+    if (first == null || !first.containsKey(IFD.IMAGE_WIDTH) ||
+      first.getIFDIntValue(IFD.NEW_SUBFILE_TYPE) == 1)
+    {
+      return null;
+    }
+    list.setTemplate(first);
+    try {
+      IFD last = list.getIFD(list.size() - 1);
+      if (last == null) {
+        return null;
+      }
+    }
+    catch (FormatException e) {
+      LOGGER.debug("Last IFD does not match the first", e);
+      return null;
+    }
+    TiffCompression compression = first.getCompression();
+    if (compression == TiffCompression.JPEG_2000 ||
+      compression == TiffCompression.JPEG_2000_LOSSY ||
+      first.getPhotometricInterpretation() == PhotoInterp.RGB_PALETTE)
+    {
+      return null;
+    }
+    LOGGER.debug("Parsing {} IFDs on demand", list.size());
+    return list;
   }
 
 }
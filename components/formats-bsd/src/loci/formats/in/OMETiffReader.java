@@ -40,7 +40,9 @@ import java.util.Enumeration;
 import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import loci.common.DataTools;
 import loci.common.Location;
@@ -88,6 +90,12 @@ public class OMETiffReader extends SubResolutionFormatReader {
   public static final String[] OME_TIFF_SUFFIXES =
     {"ome.tiff", "ome.tif", "ome.tf2", "ome.tf8", "ome.btf", "companion.ome"};
 
+  /** Maximum number of pixel files kept open between calls to openBytes. */
+  private static final int MAX_OPEN_FILES = 16;
+
+  /** Buffer size used for pixel files kept open between calls. */
+  private static final int PARSER_BUFFER_SIZE = 65536;
+
   // -- Fields --
 
   /** Mapping from series and plane numbers to files and IFD entries. */
@@ -105,6 +113,12 @@ public class OMETiffReader extends SubResolutionFormatReader {
 
   private String metadataFile;
 
+  /**
+   * Parsers for recently read pixel files, created on demand. The open
+   * streams are not carried over when the reader is serialized.
+   */
+  private transient ParserCache parsers;
+
   // -- Constructor --
 
   /** Constructs a new OME-TIFF reader. */
@@ -342,18 +356,21 @@ public class OMETiffReader extends SubResolutionFormatReader {
       return buf;
     }
     IFD ifd = ifdList.get(i);
-    try (RandomAccessInputStream s = new RandomAccessInputStream(info[series][no].id, 16)) {
-      TiffParser p = new TiffParser(s);
-      if (resolution > 0) {
-        IFDList subifds = p.getSubIFDs(ifd);
-        ifd = subifds.get(((OMETiffCoreMetadata)core.get(series, resolution)).subresolutionOffset);
-      }
-      p.getSamples(ifd, buf, x, y, w, h);
+    TiffParser p = getParser(info[series][no].id);
+    if (resolution > 0) {
+      IFDList subifds = p.getSubIFDs(ifd);
+      ifd = subifds.get(((OMETiffCoreMetadata)core.get(series, resolution)).subresolutionOffset);
     }
+    p.getSamples(ifd, buf, x, y, w, h);
 
     // reasonably safe to close the reader if the entire plane or
     // lower-right-most tile from a single plane file has been read
+    // closing the reader also closes any on-demand offset arrays, which
+    // now refer to the pooled stream, so the pooled parser must go too
     if (r.getImageCount() == 1 && w + x == getSizeX() && h + y == getSizeY()) {
+      if (parsers != null) {
+        closeParser(parsers.remove(info[series][no].id));
+      }
       r.close();
     }
     return buf;
@@ -398,6 +415,9 @@ public class OMETiffReader extends SubResolutionFormatReader {
   @Override
   public void close(boolean fileOnly) throws IOException {
     super.close(fileOnly);
+    if (parsers != null) {
+      parsers.clear();
+    }
     if (info != null) {
       for (OMETiffPlane[] dimension : info) {
         if (dimension == null) continue;
@@ -445,6 +465,14 @@ public class OMETiffReader extends SubResolutionFormatReader {
     return FormatTools.getRequiredDirectories(files);
   }
 
+  /* @see loci.formats.FormatReader#getAvailableOptions() */
+  @Override
+  protected ArrayList<String> getAvailableOptions() {
+    ArrayList<String> optionsList = super.getAvailableOptions();
+    optionsList.add(MinimalTiffReader.COMPACT_IFDS_KEY);
+    return optionsList;
+  }
+
   /* @see loci.formats.SubResolutionFormatReader#initFile(String) */
   @Override
   protected void initFile(String id) throws FormatException, IOException {
@@ -570,7 +598,7 @@ public class OMETiffReader extends SubResolutionFormatReader {
     // with the current file
 
     if (!isGroupFiles() && !isSingleFile(currentId)) {
-      IFormatReader reader = new MinimalTiffReader();
+      IFormatReader reader = createTiffReader();
       initializeReader(reader, currentId);
       core.set(0, 0, new OMETiffCoreMetadata(reader.getCoreMetadataList().get(0)));
       int ifdCount = reader.getImageCount();
@@ -940,7 +968,7 @@ public class OMETiffReader extends SubResolutionFormatReader {
         else filename = normalizeFilename(dir, filename);
         IFormatReader r = readers.get(filename);
         if (r == null) {
-          r = new MinimalTiffReader();
+          r = createTiffReader();
           readers.put(filename, r);
         }
 
@@ -1043,7 +1071,7 @@ public class OMETiffReader extends SubResolutionFormatReader {
           testFile = new RandomAccessInputStream(info[s][0].id, 16);
         }
         if (info[s][0].reader == null) {
-          info[s][0].reader = new MinimalTiffReader();
+          info[s][0].reader = createTiffReader();
         }
         String firstFile = info[s][0].id;
         if (firstFile == null ||
@@ -1419,6 +1447,24 @@ public class OMETiffReader extends SubResolutionFormatReader {
     return firstIFD;
   }
 
+  /**
+   * Creates a reader for one of the TIFF files in the dataset, passing on
+   * whether its IFDs should be stored compactly.
+   */
+  private MinimalTiffReader createTiffReader() {
+    MinimalTiffReader r = new MinimalTiffReader();
+    MetadataOptions options = getMetadataOptions();
+    if (options instanceof DynamicMetadataOptions) {
+      boolean compact = ((DynamicMetadataOptions) options).getBoolean(
+        MinimalTiffReader.COMPACT_IFDS_KEY,
+        MinimalTiffReader.COMPACT_IFDS_DEFAULT);
+      DynamicMetadataOptions tiffOptions = new DynamicMetadataOptions();
+      tiffOptions.setBoolean(MinimalTiffReader.COMPACT_IFDS_KEY, compact);
+      r.setMetadataOptions(tiffOptions);
+    }
+    return r;
+  }
+
   private void initializeReader(IFormatReader r, String file)
     throws FormatException, IOException
   {
@@ -1436,8 +1482,64 @@ public class OMETiffReader extends SubResolutionFormatReader {
     }
   }
 
+  /**
+   * Returns a parser for the given pixel file, reusing the open stream
+   * from a previous call where possible.
+   */
+  private TiffParser getParser(String file) throws IOException {
+    if (parsers == null) {
+      parsers = new ParserCache(MAX_OPEN_FILES);
+    }
+    TiffParser p = parsers.get(file);
+    if (p == null) {
+      p = new TiffParser(new RandomAccessInputStream(file, PARSER_BUFFER_SIZE));
+      parsers.put(file, p);
+    }
+    return p;
+  }
+
+  private static void closeParser(TiffParser p) {
+    if (p == null) return;
+    try {
+      p.getStream().close();
+    }
+    catch (IOException e) {
+      LOGGER.debug("Could not close " + p.getStream(), e);
+    }
+  }
+
   // -- Helper classes --
 
+  /**
+   * Map from file names to parsers, in least recently used order.
+   * The least recently used parser's stream is closed once more than
+   * the given number of files are open, and all streams are closed
+   * when the map is cleared.
+   */
+  static class ParserCache extends LinkedHashMap<String, TiffParser> {
+    private final int maxOpenFiles;
+
+    ParserCache(int maxOpenFiles) {
+      super(maxOpenFiles, 0.75f, true);
+      this.maxOpenFiles = maxOpenFiles;
+    }
+
+    @Override
+    public void clear() {
+      for (TiffParser p : values()) {
+        closeParser(p);
+      }
+      super.clear();
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, TiffParser> eldest) {
+      if (size() <= maxOpenFiles) return false;
+      closeParser(eldest.getValue());
+      return true;
+    }
+  }
+
   /** Structure containing details on where to find a particular image plane. */
   private class OMETiffPlane {
     /** Reader to use for accessing this plane. */
@@ -33,9 +33,15 @@
 package loci.formats.in;
 
 import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
 import java.util.ArrayList;
+import java.util.Base64;
 import java.util.List;
+import java.util.zip.InflaterInputStream;
 
 import loci.common.CBZip2InputStream;
 import loci.common.RandomAccessInputStream;
@@ -155,6 +161,37 @@ public class OMEXMLReader extends FormatReader {
     options.littleEndian = isLittleEndian();
     options.interleaved = isInterleaved();
 
+    if (!compress.equals("bzip2") && !compress.equals("J2K") &&
+      !compress.equals("JPEG"))
+    {
+      // decode uncompressed and zlib-compressed data directly into buf
+      InputStream pixels = Base64.getMimeDecoder().wrap(
+        new BinDataInputStream(in));
+      if (compress.equals("zlib")) {
+        pixels = new InflaterInputStream(pixels);
+      }
+      PushbackInputStream stream = new PushbackInputStream(pixels, 1);
+      int first = stream.read();
+      // return a blank plane if no pixel data was stored
+      if (first < 0) {
+        LOGGER.debug("No pixel data for plane #{}", no);
+        return buf;
+      }
+      stream.unread(first);
+
+      DataInputStream data = new DataInputStream(stream);
+      int rowLength = getSizeX() * depth;
+      skipFully(data, (long) y * rowLength);
+      for (int row=0; row<h; row++) {
+        skipFully(data, x * depth);
+        data.readFully(buf, row * w * depth, w * depth);
+        if (row < h - 1) {
+          skipFully(data, rowLength - (x + w) * depth);
+        }
+      }
+      return buf;
+    }
+
     String encoded = in.readString("<");
     encoded = encoded.trim();
     if (encoded.length() == 0 || encoded.equals("<")) {
@@ -330,6 +367,21 @@ public class OMEXMLReader extends FormatReader {
     MetadataTools.populatePixels(store, this, false, false);
   }
 
+  // -- Helper methods --
+
+  /** Skips exactly the given number of bytes. */
+  private static void skipFully(DataInputStream stream, long n)
+    throws IOException
+  {
+    while (n > 0) {
+      int skipped = stream.skipBytes((int) Math.min(n, Integer.MAX_VALUE));
+      if (skipped <= 0) {
+        throw new EOFException("Not enough pixel data");
+      }
+      n -= skipped;
+    }
+  }
+
   // -- Helper class --
 
   class OMEXMLHandler extends BaseHandler {
@@ -427,6 +479,68 @@ public class OMEXMLReader extends FormatReader {
     }
   }
 
+  /**
+   * Reads the text content of a BinData element from the current position
+   * of a RandomAccessInputStream, stopping at the next '&lt;'.
+   */
+  private static class BinDataInputStream extends InputStream {
+    private final RandomAccessInputStream stream;
+    private final byte[] chunk = new byte[8192];
+    private int position = 0;
+    private int length = 0;
+    private boolean done = false;
+
+    public BinDataInputStream(RandomAccessInputStream stream) {
+      this.stream = stream;
+    }
+
+    @Override
+    public int read() throws IOException {
+      if (!fill()) {
+        return -1;
+      }
+      return chunk[position++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      }
+      if (!fill()) {
+        return -1;
+      }
+      int n = Math.min(len, length - position);
+      System.arraycopy(chunk, position, b, off, n);
+      position += n;
+      return n;
+    }
+
+    /** Returns false if the end of the element has been reached. */
+    private boolean fill() throws IOException {
+      while (position == length) {
+        if (done) {
+          return false;
+        }
+        int n = stream.read(chunk, 0, chunk.length);
+        if (n <= 0) {
+          done = true;
+          return false;
+        }
+        position = 0;
+        length = n;
+        for (int i=0; i<n; i++) {
+          if (chunk[i] == '<') {
+            length = i;
+            done = true;
+            break;
+          }
+        }
+      }
+      return true;
+    }
+  }
+
   class BinData {
     private int row;
     private int column;
@@ -101,6 +101,10 @@ public class OMETiffWriter extends TiffWriter {
   public void close() throws IOException {
     try {
       if (currentId != null) {
+        // IFDs must be complete before the comment is written
+        if (tiffSaver != null) {
+          tiffSaver.flush();
+        }
         setupServiceAndMetadata();
 
         // remove any BinData and old TiffData elements from the OME-XML
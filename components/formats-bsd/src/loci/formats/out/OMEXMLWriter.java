@@ -32,11 +32,15 @@
 
 package loci.formats.out;
 
+import java.io.BufferedOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Base64;
 import java.util.List;
+import java.util.zip.DeflaterOutputStream;
 
-import loci.common.Constants;
 import loci.common.services.DependencyException;
 import loci.common.services.ServiceException;
 import loci.common.services.ServiceFactory;
@@ -180,11 +184,10 @@ public class OMEXMLWriter extends FormatWriter {
       "xmlns=\"http://www.openmicroscopy.org/Schemas/OME/" +
       service.getLatestVersion() + "\"";
 
-    for (int i=0; i<nChannels; i++) {
-      byte[] b = ImageTools.splitChannels(buf, i, nChannels, bytes, false,
-        interleaved);
-      byte[] encodedPix = compress(b);
+    boolean streaming = compression.equals("zlib") ||
+      compression.equals(CompressionType.UNCOMPRESSED.getCompression());
 
+    for (int i=0; i<nChannels; i++) {
       final StringBuilder plane = new StringBuilder("\n<BinData ");
       plane.append(namespace);
       plane.append(" Length=\"");
@@ -199,9 +202,25 @@ public class OMEXMLWriter extends FormatWriter {
         plane.append("\"");
       }
       plane.append(">");
-      plane.append(new String(encodedPix, Constants.ENCODING));
-      plane.append("</BinData>");
       out.writeBytes(plane.toString());
+
+      if (streaming) {
+        // encode the channel straight to the file, without building
+        // the compressed and Base64-encoded plane in memory
+        OutputStream encoded = Base64.getEncoder().wrap(
+          new BufferedOutputStream(new UnclosedOutputStream(out), 65536));
+        if (compression.equals("zlib")) {
+          encoded = new DeflaterOutputStream(encoded);
+        }
+        writeChannel(encoded, buf, i, nChannels, bytes);
+        encoded.close();
+      }
+      else {
+        byte[] b = ImageTools.splitChannels(buf, i, nChannels, bytes, false,
+          interleaved);
+        out.write(compress(b));
+      }
+      out.writeBytes("</BinData>");
     }
   }
 
@@ -220,6 +239,28 @@ public class OMEXMLWriter extends FormatWriter {
 
   // -- Helper methods --
 
+  /** Writes the samples of one channel of the given plane to a stream. */
+  private void writeChannel(OutputStream stream, byte[] buf, int channel,
+    int nChannels, int bytes)
+    throws IOException
+  {
+    int channelLength = buf.length / nChannels;
+    if (!interleaved || nChannels == 1) {
+      stream.write(buf, channel * channelLength, channelLength);
+      return;
+    }
+    byte[] chunk = new byte[Math.min(channelLength, 65536)];
+    int offset = channel * bytes;
+    int stride = nChannels * bytes;
+    for (int written=0; written<channelLength; written+=chunk.length) {
+      int n = Math.min(chunk.length, channelLength - written);
+      for (int i=0; i<n; i+=bytes, offset+=stride) {
+        System.arraycopy(buf, offset, chunk, i, bytes);
+      }
+      stream.write(chunk, 0, n);
+    }
+  }
+
   /**
    * Compress the given byte array using the current codec.
    * The compressed data is then base64-encoded.
@@ -258,7 +299,24 @@ public class OMEXMLWriter extends FormatWriter {
     return new Base64Codec().compress(b, options);
   }
 
-  // -- Helper class --
+  // -- Helper classes --
+
+  /** Stream that flushes, but does not close, the underlying stream. */
+  private static class UnclosedOutputStream extends FilterOutputStream {
+    public UnclosedOutputStream(OutputStream out) {
+      super(out);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+    }
+
+    @Override
+    public void close() throws IOException {
+      flush();
+    }
+  }
 
   class OMEHandler extends BaseHandler {
     @Override
@@ -33,6 +33,16 @@
 package loci.formats.out;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
 import loci.common.RandomAccessInputStream;
 import loci.common.Region;
 import loci.formats.FormatException;
@@ -40,11 +50,11 @@ import loci.formats.FormatTools;
 import loci.formats.FormatWriter;
 import loci.formats.ImageTools;
 import loci.formats.codec.CompressionType;
+import loci.formats.codec.ParallelDecoder;
 import loci.formats.gui.AWTImageTools;
 import loci.formats.meta.MetadataRetrieve;
 import loci.formats.tiff.IFD;
 import loci.formats.tiff.TiffCompression;
-import loci.formats.tiff.TiffParser;
 import loci.formats.tiff.TiffRational;
 import loci.formats.tiff.TiffSaver;
 import ome.units.quantity.Length;
@@ -69,6 +79,8 @@ public class TiffWriter extends FormatWriter {
     CompressionType.JPEG.getCompression();
   public static final String COMPRESSION_ZLIB =
     CompressionType.ZLIB.getCompression();
+  public static final String COMPRESSION_ZSTD =
+    CompressionType.ZSTD.getCompression();
 
   private static final String[] BIG_TIFF_SUFFIXES = {"tf2", "tf8", "btf"};
 
@@ -82,6 +94,9 @@ public class TiffWriter extends FormatWriter {
   /** TIFF tiles must be of a height and width divisible by 16. */
   private static final int TILE_GRANULARITY = 16;
 
+  /** Maximum number of tiles that compressBytes holds for saveBytes. */
+  private static final int MAX_COMPRESSED_TILES = 256;
+
   // -- Fields --
 
   /** Whether or not the output file is a BigTIFF file. */
@@ -99,6 +114,22 @@ public class TiffWriter extends FormatWriter {
   /** Whether or not to check the parameters passed to saveBytes. */
   protected boolean checkParams = true;
 
+  /**
+   * Tiles compressed by {@link #compressBytes}, waiting to be written by
+   * saveBytes.
+   */
+  private final Map<String, byte[][]> compressedTiles =
+    new ConcurrentHashMap<String, byte[][]>();
+
+  /** Key prefix of the plane most recently written by writeImage. */
+  private String lastTileKey;
+
+  /** Number of threads used to compress the tiles of one saveBytes call. */
+  private int compressionThreads = 1;
+
+  /** Threads used to compress tiles, created when first needed. */
+  private ExecutorService compressionExecutor;
+
   /** The tile width which will be used for writing. */
   protected int tileSizeX;
 
@@ -130,6 +161,9 @@ public class TiffWriter extends FormatWriter {
     else if (compression.equals(COMPRESSION_ZLIB)) {
       compressType = TiffCompression.DEFLATE;
     }
+    else if (compression.equals(COMPRESSION_ZSTD)) {
+      compressType = TiffCompression.ZSTD;
+    }
     Object v = ifd.get(new Integer(IFD.COMPRESSION));
     if (v == null)
       ifd.put(new Integer(IFD.COMPRESSION), compressType.getCode());
@@ -150,7 +184,8 @@ public class TiffWriter extends FormatWriter {
       COMPRESSION_J2K,
       COMPRESSION_J2K_LOSSY,
       COMPRESSION_JPEG,
-      COMPRESSION_ZLIB
+      COMPRESSION_ZLIB,
+      COMPRESSION_ZSTD
     };
     isBigTiff = false;
   }
@@ -160,6 +195,10 @@ public class TiffWriter extends FormatWriter {
   /* @see loci.formats.FormatWriter#setId(String) */
   @Override
   public void setId(String id) throws FormatException, IOException {
+    if (tiffSaver != null) {
+      // the output stream is about to be closed
+      tiffSaver.flush();
+    }
     super.setId(id);
 
     // if a BigTIFF extension is used, or we know that
@@ -240,34 +279,31 @@ public class TiffWriter extends FormatWriter {
       ifd.put(new Integer(IFD.TILE_LENGTH), new Long(currentTileSizeY));
     }
     if (usingTiling && (currentTileSizeX < w || currentTileSizeY < h)) {
-      int numTilesX = (w + (x % currentTileSizeX) + currentTileSizeX - 1) / currentTileSizeX;
-      int numTilesY = (h + (y % currentTileSizeY) + currentTileSizeY - 1) / currentTileSizeY;
-      for (int yTileIndex = 0; yTileIndex < numTilesY; yTileIndex++) {
-        for (int xTileIndex = 0; xTileIndex < numTilesX; xTileIndex++) {
-          Region tileParams = new Region();
-          tileParams.width = xTileIndex < numTilesX - 1 ? currentTileSizeX - (x % currentTileSizeX) : w - (currentTileSizeX * xTileIndex);
-          tileParams.height = yTileIndex < numTilesY - 1 ? currentTileSizeY - (y % currentTileSizeY) : h - (currentTileSizeY * yTileIndex);
-          tileParams.x = x + (xTileIndex * currentTileSizeX) - (xTileIndex > 0 ? (x % currentTileSizeX) : 0);
-          tileParams.y = y + (yTileIndex * currentTileSizeY) - (yTileIndex > 0 ? (y % currentTileSizeY) : 0);
-          byte [] tileBuf = getTile(buf, tileParams, new Region(x, y, w, h));
-
-          // This operation is synchronized
-          synchronized (this) {
-            // This operation is synchronized against the TIFF saver.
-            synchronized (tiffSaver) {
-              index = prepareToWriteImage(no, tileBuf, ifd, tileParams.x, tileParams.y, tileParams.width, tileParams.height);
-              if (index == -1) {
-                return;
-              }
+      List<Region> tiles = getTileRegions(x, y, w, h,
+        currentTileSizeX, currentTileSizeY);
+      if (compressionThreads > 1 && tiles.size() > 1) {
+        saveTilesInParallel(no, buf, ifd, x, y, w, h, tiles);
+        return;
+      }
+      for (Region tileParams : tiles) {
+        byte [] tileBuf = getTile(buf, tileParams, new Region(x, y, w, h));
+
+        // This operation is synchronized
+        synchronized (this) {
+          // This operation is synchronized against the TIFF saver.
+          synchronized (tiffSaver) {
+            index = prepareToWriteImage(no, tileBuf, ifd, tileParams.x, tileParams.y, tileParams.width, tileParams.height);
+            if (index == -1) {
+              return;
             }
           }
-
-          boolean lastPlane = no == getPlaneCount() - 1;
-          boolean lastSeries = getSeries() == retrieve.getImageCount() - 1;
-          boolean lastResolution = getResolution() == getResolutionCount() - 1;
-          tiffSaver.writeImage(tileBuf, ifd, index, type, tileParams.x, tileParams.y, tileParams.width, tileParams.height,
-            lastPlane && lastSeries && lastResolution);
         }
+
+        boolean lastPlane = no == getPlaneCount() - 1;
+        boolean lastSeries = getSeries() == retrieve.getImageCount() - 1;
+        boolean lastResolution = getResolution() == getResolutionCount() - 1;
+        writeImage(no, tileBuf, ifd, index, type, tileParams.x, tileParams.y, tileParams.width, tileParams.height,
+          lastPlane && lastSeries && lastResolution);
       }
     }
     else {
@@ -285,11 +321,81 @@ public class TiffWriter extends FormatWriter {
       boolean lastPlane = no == getPlaneCount() - 1;
       boolean lastSeries = getSeries() == retrieve.getImageCount() - 1;
       boolean lastResolution = getResolution() == getResolutionCount() - 1;
-      tiffSaver.writeImage(buf, ifd, index, type, x, y, w, h,
+      writeImage(no, buf, ifd, index, type, x, y, w, h,
         lastPlane && lastSeries && lastResolution);
     }
   }
 
+  /**
+   * Compresses the given image in advance, so that a later call to
+   * {@link #saveBytes(int, byte[], IFD, int, int, int, int)} with the same
+   * series, resolution, plane and rectangle only has to write the
+   * compressed data.
+   *
+   * Several threads may call this method at once, including while another
+   * thread is calling saveBytes; the calls to saveBytes must still be made
+   * in the usual order.  The given IFD is not modified, and should contain
+   * the same tags that will be passed to saveBytes.
+   *
+   * Nothing is compressed if the writer is not on the given series and
+   * resolution when this is called, or if too many compressed tiles are
+   * already waiting to be written; saveBytes then compresses the image
+   * itself.
+   */
+  public void compressBytes(int series, int resolution, int no, byte[] buf,
+    IFD ifd, int x, int y, int w, int h)
+    throws IOException, FormatException
+  {
+    if (checkParams) checkParams(no, buf, x, y, w, h);
+    if (compressedTiles.size() >= MAX_COMPRESSED_TILES) {
+      return;
+    }
+    List<Region> regions = new ArrayList<Region>();
+    List<byte[]> tiles = new ArrayList<byte[]>();
+    IFD template = ifd == null ? new IFD() : new IFD(ifd);
+    int type;
+    String key;
+    TiffSaver saver;
+    synchronized (this) {
+      if (series != getSeries() || resolution != getResolution()) {
+        return;
+      }
+      MetadataRetrieve retrieve = getMetadataRetrieve();
+      type = FormatTools.pixelTypeFromString(
+        retrieve.getPixelsType(series).toString());
+      int currentTileSizeX = getTileSizeX();
+      int currentTileSizeY = getTileSizeY();
+      boolean usingTiling = currentTileSizeX > 0 && currentTileSizeY > 0;
+      if (usingTiling) {
+        template.put(IFD.TILE_WIDTH, Long.valueOf(currentTileSizeX));
+        template.put(IFD.TILE_LENGTH, Long.valueOf(currentTileSizeY));
+      }
+      if (usingTiling && (currentTileSizeX < w || currentTileSizeY < h)) {
+        for (Region tileParams : getTileRegions(x, y, w, h,
+          currentTileSizeX, currentTileSizeY))
+        {
+          regions.add(tileParams);
+          tiles.add(getTile(buf, tileParams, new Region(x, y, w, h)));
+        }
+      }
+      else {
+        regions.add(new Region(x, y, w, h));
+        tiles.add(buf);
+      }
+      setupIFD(template);
+      key = getTileKey(series, resolution, no);
+      saver = tiffSaver;
+    }
+
+    for (int i=0; i<regions.size(); i++) {
+      Region r = regions.get(i);
+      IFD tileIFD = i < regions.size() - 1 ? new IFD(template) : template;
+      byte[][] strips =
+        saver.compressImage(tiles.get(i), tileIFD, type, r.width, r.height);
+      compressedTiles.put(key + r, strips);
+    }
+  }
+
   /**
    * Performs the preparation for work prior to the usage of the TIFF saver.
    * This method is factored out from <code>saveBytes()</code> in an attempt to
@@ -335,6 +441,55 @@ public class TiffWriter extends FormatWriter {
       c = buf.length / (w * h * bytesPerPixel);
     }
 
+    setupIFD(ifd);
+
+    int width = getSizeX();
+    int height = getSizeY();
+    if (!isBigTiff) {
+      isBigTiff = (out.length() + 2
+          * (width * height * c * bytesPerPixel)) >= 4294967296L;
+      if (isBigTiff) {
+        throw new FormatException("File is too large; call setBigTiff(true)");
+      }
+    }
+
+    // write the image
+    if (!ifd.containsKey(IFD.REUSE)) {
+      ifd.put(IFD.REUSE, out.length());
+      out.seek(out.length());
+    }
+    else {
+      out.seek((Long) ifd.get(IFD.REUSE));
+    }
+
+    int index = (no * getResolutionCount()) + getResolution();
+    int currentSeries = getSeries();
+    int currentResolution = getResolution();
+    for (int i=0; i<currentSeries; i++) {
+      setSeries(i);
+      index += (getPlaneCount() * getResolutionCount());
+    }
+    setSeries(currentSeries);
+    setResolution(currentResolution);
+    return index;
+  }
+
+  /**
+   * Adds the tags that describe the current series to the given IFD.
+   * This does not read from or write to the file.
+   */
+  private void setupIFD(IFD ifd) throws FormatException {
+    MetadataRetrieve retrieve = getMetadataRetrieve();
+    boolean littleEndian = false;
+    if (retrieve.getPixelsBigEndian(series) != null) {
+      littleEndian = !retrieve.getPixelsBigEndian(series).booleanValue();
+    }
+    else if (retrieve.getPixelsBinDataCount(series) == 0) {
+      littleEndian = !retrieve.getPixelsBinDataBigEndian(series, 0).booleanValue();
+    }
+    int type = FormatTools.pixelTypeFromString(
+      retrieve.getPixelsType(series).toString());
+
     formatCompression(ifd);
     byte[][] lut = AWTImageTools.get8BitLookupTable(cm);
     if (lut != null) {
@@ -384,23 +539,7 @@ public class TiffWriter extends FormatWriter {
     ifd.put(IFD.Y_RESOLUTION,
       new TiffRational((long) (physicalSizeY * 1000 * 10000), 1000));
 
-    if (!isBigTiff) {
-      isBigTiff = (out.length() + 2
-          * (width * height * c * bytesPerPixel)) >= 4294967296L;
-      if (isBigTiff) {
-        throw new FormatException("File is too large; call setBigTiff(true)");
-      }
-    }
-
-    // write the image
     ifd.put(new Integer(IFD.LITTLE_ENDIAN), new Boolean(littleEndian));
-    if (!ifd.containsKey(IFD.REUSE)) {
-      ifd.put(IFD.REUSE, out.length());
-      out.seek(out.length());
-    }
-    else {
-      out.seek((Long) ifd.get(IFD.REUSE));
-    }
 
     ifd.putIFDValue(IFD.PLANAR_CONFIGURATION,
       interleaved || getSamplesPerPixel() == 1 ? 1 : 2);
@@ -416,17 +555,6 @@ public class TiffWriter extends FormatWriter {
     ifd.putIFDValue(IFD.IMAGE_DESCRIPTION,
       "ImageJ=\nhyperstack=true\nimages=" + (channels * z * t) + "\nchannels=" +
       channels + "\nslices=" + z + "\nframes=" + t);
-
-    int index = (no * getResolutionCount()) + getResolution();
-    int currentSeries = getSeries();
-    int currentResolution = getResolution();
-    for (int i=0; i<currentSeries; i++) {
-      setSeries(i);
-      index += (getPlaneCount() * getResolutionCount());
-    }
-    setSeries(currentSeries);
-    setResolution(currentResolution);
-    return index;
   }
 
   // -- FormatWriter API methods --
@@ -436,7 +564,15 @@ public class TiffWriter extends FormatWriter {
    */
   @Override
   public void close() throws IOException {
+    if (tiffSaver != null) {
+      tiffSaver.flush();
+    }
     super.close();
+    compressedTiles.clear();
+    lastTileKey = null;
+    synchronized (this) {
+      shutdownCompressionThreads();
+    }
     if (in != null) {
       in.close();
     }
@@ -462,18 +598,12 @@ public class TiffWriter extends FormatWriter {
   {
     IFD ifd = new IFD();
     if (!sequential) {
-      try (RandomAccessInputStream stream = new RandomAccessInputStream(currentId)) {
-        TiffParser parser = new TiffParser(stream);
-        long[] ifdOffsets = parser.getIFDOffsets();
-        if (no < ifdOffsets.length) {
-          ifd = parser.getIFD(ifdOffsets[no]);
-        }
-        saveBytes(no, buf, ifd, x, y, w, h);
+      IFD written = tiffSaver.getWrittenIFD(no);
+      if (written != null) {
+        ifd = written;
       }
     }
-    else {
-      saveBytes(no, buf, ifd, x, y, w, h);
-    }
+    saveBytes(no, buf, ifd, x, y, w, h);
   }
 
   /* @see loci.formats.IFormatWriter#canDoStacks(String) */
@@ -499,6 +629,31 @@ public class TiffWriter extends FormatWriter {
 
   // -- TiffWriter API methods --
 
+  /**
+   * Sets the number of threads used to compress tiles when a block passed
+   * to saveBytes covers more than one tile.  With more than one thread,
+   * the block is split into tiles which are all compressed concurrently,
+   * and then written in order.  The default is 1, in which case each tile
+   * is compressed by the calling thread as it is written.
+   * This is not reset when close() is called.
+   */
+  public void setCompressionThreads(int threads) {
+    if (threads < 1) {
+      throw new IllegalArgumentException("Invalid thread count: " + threads);
+    }
+    synchronized (this) {
+      if (threads != compressionThreads) {
+        shutdownCompressionThreads();
+      }
+      compressionThreads = threads;
+    }
+  }
+
+  /** Gets the number of threads used to compress tiles. */
+  public int getCompressionThreads() {
+    return compressionThreads;
+  }
+
   /**
    * Sets whether or not BigTIFF files should be written.
    * This flag is not reset when close() is called.
@@ -586,6 +741,170 @@ public class TiffWriter extends FormatWriter {
     return tileSizeY;
   }
 
+  /**
+   * Writes one tile or strip, using the data compressed by
+   * {@link #compressBytes} if there is any.
+   */
+  private void writeImage(int no, byte[] buf, IFD ifd, int index, int type,
+    int x, int y, int w, int h, boolean last)
+    throws FormatException, IOException
+  {
+    String key;
+    synchronized (this) {
+      String prefix = getTileKey(getSeries(), getResolution(), no);
+      if (!prefix.equals(lastTileKey)) {
+        // tiles compressed for the previous plane that were not written
+        // with it are not expected again
+        if (lastTileKey != null && !compressedTiles.isEmpty()) {
+          String last = lastTileKey;
+          compressedTiles.keySet().removeIf(k -> k.startsWith(last));
+        }
+        lastTileKey = prefix;
+      }
+      key = prefix + new Region(x, y, w, h);
+    }
+    byte[][] strips =
+      compressedTiles.isEmpty() ? null : compressedTiles.remove(key);
+    if (strips != null) {
+      int channels = buf.length / (w * h * FormatTools.getBytesPerPixel(type));
+      tiffSaver.writeCompressedImage(strips, ifd, index, type, x, y, last,
+        channels);
+    }
+    else {
+      tiffSaver.writeImage(buf, ifd, index, type, x, y, w, h, last);
+    }
+  }
+
+  /**
+   * Compresses every tile of the given block using the compression threads,
+   * and then writes the compressed tiles in order.
+   */
+  private void saveTilesInParallel(int no, byte[] buf, IFD ifd,
+    int x, int y, int w, int h, List<Region> tiles)
+    throws FormatException, IOException
+  {
+    Region block = new Region(x, y, w, h);
+    List<byte[]> tileBufs = new ArrayList<byte[]>();
+    for (Region tile : tiles) {
+      tileBufs.add(getTile(buf, tile, block));
+    }
+
+    // everything that needs this writer's state is read here, so that the
+    // compression threads take no locks; the caller may already hold this
+    // writer's monitor
+    IFD template = new IFD(ifd);
+    final int type;
+    String key;
+    final TiffSaver saver;
+    ExecutorService executor;
+    synchronized (this) {
+      type = FormatTools.pixelTypeFromString(
+        getMetadataRetrieve().getPixelsType(series).toString());
+      setupIFD(template);
+      key = getTileKey(getSeries(), getResolution(), no);
+      saver = tiffSaver;
+      if (compressionExecutor == null) {
+        compressionExecutor = Executors.newFixedThreadPool(compressionThreads,
+          new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+              Thread t = new Thread(r, "TiffWriter");
+              t.setDaemon(true);
+              return t;
+            }
+          });
+      }
+      executor = compressionExecutor;
+    }
+
+    List<String> keys = new ArrayList<String>();
+    List<Future<byte[][]>> results = new ArrayList<Future<byte[][]>>();
+    try {
+      for (int i=0; i<tiles.size(); i++) {
+        final Region tile = tiles.get(i);
+        final byte[] tileBuf = tileBufs.get(i);
+        final IFD tileIFD = new IFD(template);
+        keys.add(key + tile);
+        results.add(executor.submit(new Callable<byte[][]>() {
+          @Override
+          public byte[][] call() throws FormatException, IOException {
+            return saver.compressImage(tileBuf, tileIFD, type, tile.width,
+              tile.height);
+          }
+        }));
+      }
+
+      // the compressed tiles are stored in the same way as by compressBytes,
+      // so that writeImage picks them up
+      MetadataRetrieve retrieve = getMetadataRetrieve();
+      synchronized (this) {
+        synchronized (tiffSaver) {
+          boolean lastPlane = no == getPlaneCount() - 1;
+          boolean lastSeries = getSeries() == retrieve.getImageCount() - 1;
+          boolean lastResolution = getResolution() == getResolutionCount() - 1;
+          for (int i=0; i<tiles.size(); i++) {
+            Region tile = tiles.get(i);
+            byte[] tileBuf = tileBufs.get(i);
+            compressedTiles.put(keys.get(i),
+              ParallelDecoder.get(results.get(i)));
+            int index = prepareToWriteImage(no, tileBuf, ifd, tile.x, tile.y,
+              tile.width, tile.height);
+            if (index == -1) {
+              return;
+            }
+            writeImage(no, tileBuf, ifd, index, type, tile.x, tile.y,
+              tile.width, tile.height,
+              lastPlane && lastSeries && lastResolution);
+          }
+        }
+      }
+    }
+    finally {
+      for (Future<byte[][]> result : results) {
+        result.cancel(true);
+      }
+      for (String k : keys) {
+        compressedTiles.remove(k);
+      }
+    }
+  }
+
+  /**
+   * Returns the prefix of the {@link #compressedTiles} keys for the given
+   * plane; the tile's region is appended to it.
+   */
+  private static String getTileKey(int series, int resolution, int no) {
+    return series + ":" + resolution + ":" + no + ":";
+  }
+
+  /** Stops the compression threads, if they have been started. */
+  private void shutdownCompressionThreads() {
+    if (compressionExecutor != null) {
+      compressionExecutor.shutdown();
+      compressionExecutor = null;
+    }
+  }
+
+  /** Splits the given rectangle along the output tile boundaries. */
+  private static List<Region> getTileRegions(int x, int y, int w, int h,
+    int tileSizeX, int tileSizeY)
+  {
+    List<Region> regions = new ArrayList<Region>();
+    int numTilesX = (w + (x % tileSizeX) + tileSizeX - 1) / tileSizeX;
+    int numTilesY = (h + (y % tileSizeY) + tileSizeY - 1) / tileSizeY;
+    for (int yTileIndex = 0; yTileIndex < numTilesY; yTileIndex++) {
+      for (int xTileIndex = 0; xTileIndex < numTilesX; xTileIndex++) {
+        Region tileParams = new Region();
+        tileParams.width = xTileIndex < numTilesX - 1 ? tileSizeX - (x % tileSizeX) : w - (tileSizeX * xTileIndex);
+        tileParams.height = yTileIndex < numTilesY - 1 ? tileSizeY - (y % tileSizeY) : h - (tileSizeY * yTileIndex);
+        tileParams.x = x + (xTileIndex * tileSizeX) - (xTileIndex > 0 ? (x % tileSizeX) : 0);
+        tileParams.y = y + (yTileIndex * tileSizeY) - (yTileIndex > 0 ? (y % tileSizeY) : 0);
+        regions.add(tileParams);
+      }
+    }
+    return regions;
+  }
+
   private byte[] getTile(byte[] buf, Region tileParams, Region srcParams) {
     MetadataRetrieve retrieve = getMetadataRetrieve();
     int type = FormatTools.pixelTypeFromString(retrieve.getPixelsType(series).toString());
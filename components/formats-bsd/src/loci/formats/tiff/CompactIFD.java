@@ -0,0 +1,960 @@
+/*
+ * #%L
+ * BSD implementations of Bio-Formats readers and writers
+ * %%
+ * Copyright (C) 2005 - 2017 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package loci.formats.tiff;
+
+import java.util.AbstractCollection;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * Memory-efficient {@link IFD} implementation.
+ *
+ * Directory entries are kept in a sorted array of tags, with scalar values
+ * (Boolean, Byte, Short, Integer, Long, Float and Double) stored unboxed in
+ * a parallel int array (with a second array for the upper 32 bits, only
+ * if a value needs it).  Other values, such as arrays and strings, are
+ * stored in a separate object array.  The HashMap inherited from
+ * {@link IFD} is never populated, so each IFD only needs a handful of small
+ * arrays instead of a hash table with a boxed key, boxed value and node per
+ * entry.  IFDs with the same structure can also share their tag arrays and
+ * common values; see {@link #shareWith(CompactIFD)}.
+ *
+ * All {@link java.util.Map} methods behave as they do for {@link IFD};
+ * scalar values are re-boxed when they are retrieved.
+ */
+public class CompactIFD extends IFD {
+
+  // -- Constants --
+
+  private static final int DEFAULT_CAPACITY = 16;
+
+  // value kinds
+  private static final byte OBJECT = 0;
+  private static final byte BOOLEAN = 1;
+  private static final byte BYTE = 2;
+  private static final byte SHORT = 3;
+  private static final byte INTEGER = 4;
+  private static final byte LONG = 5;
+  private static final byte FLOAT = 6;
+  private static final byte DOUBLE = 7;
+
+  private static final int[] EMPTY_TAGS = new int[0];
+
+  // -- Fields --
+
+  /** Sorted tags of the entries in this IFD. */
+  private int[] tags = EMPTY_TAGS;
+
+  /** Kind of value stored for each entry. */
+  private byte[] kinds;
+
+  /**
+   * Low 32 bits of each scalar value, or the index into objects of each
+   * object value (-1 for null).
+   */
+  private int[] values;
+
+  /**
+   * High 32 bits of each scalar value; only allocated once a value is
+   * stored that does not fit in a (sign-extended) int.
+   */
+  private int[] highs;
+
+  /** Object values, referenced by index from values. */
+  private Object[] objects;
+
+  /** Number of entries in this IFD. */
+  private int count;
+
+  /**
+   * Whether the tags and kinds arrays may be shared with another IFD,
+   * in which case they must be copied before they are modified.
+   */
+  private boolean sharedLayout;
+
+  /** Whether the objects array may be shared with another IFD. */
+  private boolean sharedObjects;
+
+  /** Number of structural modifications, for fail-fast iterators. */
+  private transient int modCount;
+
+  private transient Set<Map.Entry<Integer, Object>> entrySet;
+  private transient Set<Integer> keySet;
+  private transient Collection<Object> valueCollection;
+
+  // -- Constructors --
+
+  public CompactIFD() {
+    super();
+  }
+
+  public CompactIFD(IFD ifd) {
+    super();
+    putAll(ifd);
+    trimToSize();
+  }
+
+  // -- CompactIFD API methods --
+
+  /**
+   * Shares storage with the given IFD where possible.  If both IFDs have
+   * the same set of tags, the tag and value kind arrays are shared, and
+   * equal String and TiffRational values are replaced by the given IFD's
+   * instances.  Shared arrays are copied before either IFD changes them.
+   * Most multi-plane files repeat the same IFD structure for every plane,
+   * so this removes most of the remaining per-IFD overhead.
+   */
+  public void shareWith(CompactIFD ifd) {
+    if (ifd == null || ifd == this || count == 0 || ifd.count != count) {
+      return;
+    }
+    trimToSize();
+    ifd.trimToSize();
+    if (tags != ifd.tags && !Arrays.equals(tags, ifd.tags)) {
+      return;
+    }
+    tags = ifd.tags;
+    if (Arrays.equals(kinds, ifd.kinds)) {
+      kinds = ifd.kinds;
+    }
+    sharedLayout = true;
+    ifd.sharedLayout = true;
+
+    if (objects == null || ifd.objects == null) {
+      return;
+    }
+    boolean sameObjects = objects.length == ifd.objects.length;
+    for (int i=0; i<count; i++) {
+      if (kinds[i] != OBJECT) {
+        continue;
+      }
+      if (ifd.kinds[i] != OBJECT || values[i] != ifd.values[i]) {
+        sameObjects = false;
+        continue;
+      }
+      if (values[i] < 0) {
+        continue;
+      }
+      if (values[i] >= ifd.objects.length) {
+        sameObjects = false;
+        continue;
+      }
+      Object a = objects[values[i]];
+      Object b = ifd.objects[values[i]];
+      if (a != b && isSameValue(a, b)) {
+        unshareObjects();
+        objects[values[i]] = b;
+      }
+      else if (a != b) {
+        sameObjects = false;
+      }
+    }
+    if (sameObjects) {
+      objects = ifd.objects;
+      sharedObjects = true;
+      ifd.sharedObjects = true;
+    }
+  }
+
+  /** Releases any unused capacity in the underlying arrays. */
+  public void trimToSize() {
+    if (tags.length != count) {
+      tags = count == 0 ? EMPTY_TAGS : Arrays.copyOf(tags, count);
+      kinds = count == 0 ? null : Arrays.copyOf(kinds, count);
+      values = count == 0 ? null : Arrays.copyOf(values, count);
+      if (highs != null) {
+        highs = count == 0 ? null : Arrays.copyOf(highs, count);
+      }
+      sharedLayout = false;
+    }
+
+    // pack the object values into an array with no free slots
+    if (objects != null && !sharedObjects) {
+      int objectCount = 0;
+      for (int i=0; i<count; i++) {
+        if (kinds[i] == OBJECT && values[i] >= 0) {
+          objectCount++;
+        }
+      }
+      if (objectCount != objects.length) {
+        Object[] packed = objectCount == 0 ? null : new Object[objectCount];
+        int next = 0;
+        for (int i=0; i<count; i++) {
+          if (kinds[i] == OBJECT && values[i] >= 0) {
+            packed[next] = objects[values[i]];
+            values[i] = next++;
+          }
+        }
+        objects = packed;
+      }
+    }
+  }
+
+  // -- IFD API methods --
+
+  @Override
+  public Object getIFDValue(int tag) {
+    int index = indexOf(tag);
+    return index < 0 ? null : getValue(index);
+  }
+
+  @Override
+  public void putIFDValue(int tag, Object value) {
+    putValue(tag, value);
+  }
+
+  @Override
+  public void putIFDValue(int tag, short value) {
+    putScalar(tag, SHORT, value);
+  }
+
+  @Override
+  public void putIFDValue(int tag, int value) {
+    putScalar(tag, INTEGER, value);
+  }
+
+  @Override
+  public void putIFDValue(int tag, long value) {
+    putScalar(tag, LONG, value);
+  }
+
+  // -- Map API methods --
+
+  @Override
+  public int size() {
+    return count;
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return count == 0;
+  }
+
+  @Override
+  public Object get(Object key) {
+    int index = indexOf(key);
+    return index < 0 ? null : getValue(index);
+  }
+
+  @Override
+  public Object getOrDefault(Object key, Object defaultValue) {
+    int index = indexOf(key);
+    return index < 0 ? defaultValue : getValue(index);
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return indexOf(key) >= 0;
+  }
+
+  @Override
+  public boolean containsValue(Object value) {
+    for (int i=0; i<count; i++) {
+      Object v = getValue(i);
+      if (value == null ? v == null : value.equals(v)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public Object put(Integer key, Object value) {
+    if (key == null) {
+      throw new NullPointerException("IFD tags cannot be null");
+    }
+    return putValue(key.intValue(), value);
+  }
+
+  @Override
+  public void putAll(Map<? extends Integer, ? extends Object> m) {
+    for (Map.Entry<? extends Integer, ? extends Object> e : m.entrySet()) {
+      put(e.getKey(), e.getValue());
+    }
+  }
+
+  @Override
+  public Object putIfAbsent(Integer key, Object value) {
+    Object v = get(key);
+    if (v == null) {
+      v = put(key, value);
+    }
+    return v;
+  }
+
+  @Override
+  public Object remove(Object key) {
+    int index = indexOf(key);
+    if (index < 0) {
+      return null;
+    }
+    Object value = getValue(index);
+    removeAt(index);
+    return value;
+  }
+
+  @Override
+  public boolean remove(Object key, Object value) {
+    int index = indexOf(key);
+    if (index < 0) {
+      return false;
+    }
+    Object v = getValue(index);
+    if (value == null ? v != null : !value.equals(v)) {
+      return false;
+    }
+    removeAt(index);
+    return true;
+  }
+
+  @Override
+  public boolean replace(Integer key, Object oldValue, Object newValue) {
+    int index = indexOf(key);
+    if (index < 0) {
+      return false;
+    }
+    Object v = getValue(index);
+    if (oldValue == null ? v != null : !oldValue.equals(v)) {
+      return false;
+    }
+    setValue(index, newValue);
+    return true;
+  }
+
+  @Override
+  public Object replace(Integer key, Object value) {
+    int index = indexOf(key);
+    if (index < 0) {
+      return null;
+    }
+    Object v = getValue(index);
+    setValue(index, value);
+    return v;
+  }
+
+  @Override
+  public Object computeIfAbsent(Integer key,
+    Function<? super Integer, ? extends Object> mappingFunction)
+  {
+    Object v = get(key);
+    if (v == null) {
+      v = mappingFunction.apply(key);
+      if (v != null) {
+        put(key, v);
+      }
+    }
+    return v;
+  }
+
+  @Override
+  public Object computeIfPresent(Integer key,
+    BiFunction<? super Integer, ? super Object, ? extends Object> function)
+  {
+    Object v = get(key);
+    if (v != null) {
+      v = function.apply(key, v);
+      if (v == null) {
+        remove(key);
+      }
+      else {
+        put(key, v);
+      }
+    }
+    return v;
+  }
+
+  @Override
+  public Object compute(Integer key,
+    BiFunction<? super Integer, ? super Object, ? extends Object> function)
+  {
+    Object v = function.apply(key, get(key));
+    if (v == null) {
+      remove(key);
+    }
+    else {
+      put(key, v);
+    }
+    return v;
+  }
+
+  @Override
+  public Object merge(Integer key, Object value,
+    BiFunction<? super Object, ? super Object, ? extends Object> function)
+  {
+    if (value == null) {
+      throw new NullPointerException();
+    }
+    Object old = get(key);
+    Object v = old == null ? value : function.apply(old, value);
+    if (v == null) {
+      remove(key);
+    }
+    else {
+      put(key, v);
+    }
+    return v;
+  }
+
+  @Override
+  public void forEach(BiConsumer<? super Integer, ? super Object> action) {
+    int expected = modCount;
+    for (int i=0; i<count; i++) {
+      action.accept(tags[i], getValue(i));
+      if (modCount != expected) {
+        throw new ConcurrentModificationException();
+      }
+    }
+  }
+
+  @Override
+  public void replaceAll(
+    BiFunction<? super Integer, ? super Object, ? extends Object> function)
+  {
+    int expected = modCount;
+    for (int i=0; i<count; i++) {
+      setValue(i, function.apply(tags[i], getValue(i)));
+      if (modCount != expected) {
+        throw new ConcurrentModificationException();
+      }
+    }
+  }
+
+  @Override
+  public void clear() {
+    tags = EMPTY_TAGS;
+    kinds = null;
+    values = null;
+    highs = null;
+    objects = null;
+    count = 0;
+    sharedLayout = false;
+    sharedObjects = false;
+    modCount++;
+  }
+
+  @Override
+  public Set<Integer> keySet() {
+    if (keySet == null) {
+      keySet = new AbstractSet<Integer>() {
+        @Override
+        public Iterator<Integer> iterator() {
+          return new EntryIterator<Integer>() {
+            @Override
+            protected Integer next(int index) {
+              return tags[index];
+            }
+          };
+        }
+
+        @Override
+        public int size() {
+          return count;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+          return containsKey(o);
+        }
+
+        @Override
+        public boolean remove(Object o) {
+          int index = indexOf(o);
+          if (index < 0) {
+            return false;
+          }
+          removeAt(index);
+          return true;
+        }
+
+        @Override
+        public void clear() {
+          CompactIFD.this.clear();
+        }
+      };
+    }
+    return keySet;
+  }
+
+  @Override
+  public Collection<Object> values() {
+    if (valueCollection == null) {
+      valueCollection = new AbstractCollection<Object>() {
+        @Override
+        public Iterator<Object> iterator() {
+          return new EntryIterator<Object>() {
+            @Override
+            protected Object next(int index) {
+              return getValue(index);
+            }
+          };
+        }
+
+        @Override
+        public int size() {
+          return count;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+          return containsValue(o);
+        }
+
+        @Override
+        public void clear() {
+          CompactIFD.this.clear();
+        }
+      };
+    }
+    return valueCollection;
+  }
+
+  @Override
+  public Set<Map.Entry<Integer, Object>> entrySet() {
+    if (entrySet == null) {
+      entrySet = new AbstractSet<Map.Entry<Integer, Object>>() {
+        @Override
+        public Iterator<Map.Entry<Integer, Object>> iterator() {
+          return new EntryIterator<Map.Entry<Integer, Object>>() {
+            @Override
+            protected Map.Entry<Integer, Object> next(int index) {
+              return new Entry(tags[index]);
+            }
+          };
+        }
+
+        @Override
+        public int size() {
+          return count;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+          if (!(o instanceof Map.Entry)) {
+            return false;
+          }
+          Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+          int index = indexOf(e.getKey());
+          if (index < 0) {
+            return false;
+          }
+          Object v = getValue(index);
+          return e.getValue() == null ? v == null : e.getValue().equals(v);
+        }
+
+        @Override
+        public boolean remove(Object o) {
+          if (!(o instanceof Map.Entry)) {
+            return false;
+          }
+          Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+          return CompactIFD.this.remove(e.getKey(), e.getValue());
+        }
+
+        @Override
+        public void clear() {
+          CompactIFD.this.clear();
+        }
+      };
+    }
+    return entrySet;
+  }
+
+  // -- Object API methods --
+
+  /**
+   * Returns a shallow copy of this IFD.  HashMap.clone() is not used,
+   * as it would copy every entry into the (otherwise unused) hash table.
+   */
+  @Override
+  public Object clone() {
+    CompactIFD ifd = new CompactIFD();
+    ifd.tags = count == 0 ? EMPTY_TAGS : tags.clone();
+    ifd.kinds = kinds == null ? null : kinds.clone();
+    ifd.values = values == null ? null : values.clone();
+    ifd.highs = highs == null ? null : highs.clone();
+    ifd.objects = objects == null ? null : objects.clone();
+    ifd.count = count;
+    return ifd;
+  }
+
+  // -- Helper methods --
+
+  /**
+   * Whether two values can safely share a single instance.
+   * Only immutable (String) or effectively immutable (TiffRational)
+   * values are shared; arrays can be modified by callers.
+   */
+  private static boolean isSameValue(Object a, Object b) {
+    if (a instanceof String) {
+      return a.equals(b);
+    }
+    if (a instanceof TiffRational && b instanceof TiffRational) {
+      TiffRational ra = (TiffRational) a;
+      TiffRational rb = (TiffRational) b;
+      return ra.getNumerator() == rb.getNumerator() &&
+        ra.getDenominator() == rb.getDenominator();
+    }
+    return false;
+  }
+
+  /** Returns the index of the given key, or a negative value if absent. */
+  private int indexOf(Object key) {
+    if (!(key instanceof Integer)) {
+      return -1;
+    }
+    return indexOf(((Integer) key).intValue());
+  }
+
+  /**
+   * Returns the index of the given tag, or (-(insertion point) - 1)
+   * if the tag is absent.
+   */
+  private int indexOf(int tag) {
+    return Arrays.binarySearch(tags, 0, count, tag);
+  }
+
+  private long getScalar(int index) {
+    long low = values[index];
+    if (highs == null) {
+      return low;
+    }
+    return ((long) highs[index] << 32) | (low & 0xffffffffL);
+  }
+
+  private Object getValue(int index) {
+    switch (kinds[index]) {
+      case BOOLEAN:
+        return Boolean.valueOf(values[index] != 0);
+      case BYTE:
+        return Byte.valueOf((byte) values[index]);
+      case SHORT:
+        return Short.valueOf((short) values[index]);
+      case INTEGER:
+        return Integer.valueOf(values[index]);
+      case LONG:
+        return Long.valueOf(getScalar(index));
+      case FLOAT:
+        return Float.valueOf(Float.intBitsToFloat(values[index]));
+      case DOUBLE:
+        return Double.valueOf(Double.longBitsToDouble(getScalar(index)));
+      default:
+        return values[index] < 0 ? null : objects[values[index]];
+    }
+  }
+
+  /** Stores the given value at an existing index. */
+  private void setValue(int index, Object value) {
+    if (value instanceof Boolean) {
+      setScalar(index, BOOLEAN, ((Boolean) value).booleanValue() ? 1 : 0);
+    }
+    else if (value instanceof Byte) {
+      setScalar(index, BYTE, ((Byte) value).byteValue());
+    }
+    else if (value instanceof Short) {
+      setScalar(index, SHORT, ((Short) value).shortValue());
+    }
+    else if (value instanceof Integer) {
+      setScalar(index, INTEGER, ((Integer) value).intValue());
+    }
+    else if (value instanceof Long) {
+      setScalar(index, LONG, ((Long) value).longValue());
+    }
+    else if (value instanceof Float) {
+      setScalar(index, FLOAT,
+        Float.floatToRawIntBits(((Float) value).floatValue()));
+    }
+    else if (value instanceof Double) {
+      setScalar(index, DOUBLE,
+        Double.doubleToRawLongBits(((Double) value).doubleValue()));
+    }
+    else {
+      setObject(index, value);
+    }
+  }
+
+  private void setKind(int index, byte kind) {
+    if (kinds[index] != kind) {
+      unshareLayout();
+      kinds[index] = kind;
+    }
+  }
+
+  private void setScalar(int index, byte kind, long value) {
+    freeObject(index);
+    setKind(index, kind);
+    if (highs == null && value != (int) value) {
+      // sign-extend the existing values
+      highs = new int[values.length];
+      for (int i=0; i<count; i++) {
+        highs[i] = values[i] >> 31;
+      }
+    }
+    values[index] = (int) value;
+    if (highs != null) {
+      highs[index] = (int) (value >>> 32);
+    }
+  }
+
+  private void setObject(int index, Object value) {
+    if (kinds[index] == OBJECT && values[index] >= 0) {
+      if (value == null) {
+        freeObject(index);
+      }
+      else {
+        unshareObjects();
+        objects[values[index]] = value;
+      }
+      return;
+    }
+    setKind(index, OBJECT);
+    if (value == null) {
+      values[index] = -1;
+      return;
+    }
+
+    // find a free slot for the new object
+    unshareObjects();
+    int slot = 0;
+    if (objects == null) {
+      objects = new Object[4];
+    }
+    else {
+      while (slot < objects.length && objects[slot] != null) {
+        slot++;
+      }
+      if (slot == objects.length) {
+        objects = Arrays.copyOf(objects, objects.length * 2);
+      }
+    }
+    objects[slot] = value;
+    values[index] = slot;
+  }
+
+  /** Releases the object slot used by the given entry, if any. */
+  private void freeObject(int index) {
+    if (kinds[index] == OBJECT && values[index] >= 0) {
+      unshareObjects();
+      objects[values[index]] = null;
+      values[index] = -1;
+    }
+  }
+
+  private Object putValue(int tag, Object value) {
+    int index = indexOf(tag);
+    Object old = null;
+    if (index >= 0) {
+      old = getValue(index);
+    }
+    else {
+      index = insertAt(-index - 1, tag);
+    }
+    setValue(index, value);
+    return old;
+  }
+
+  private void putScalar(int tag, byte kind, long value) {
+    int index = indexOf(tag);
+    if (index < 0) {
+      index = insertAt(-index - 1, tag);
+    }
+    setScalar(index, kind, value);
+  }
+
+  /** Copies the tags and kinds arrays, if they may be shared. */
+  private void unshareLayout() {
+    if (sharedLayout) {
+      tags = tags.clone();
+      kinds = kinds.clone();
+      sharedLayout = false;
+    }
+  }
+
+  /** Copies the objects array, if it may be shared. */
+  private void unshareObjects() {
+    if (sharedObjects) {
+      objects = objects.clone();
+      sharedObjects = false;
+    }
+  }
+
+  /** Inserts a new tag at the given index, and returns the index. */
+  private int insertAt(int index, int tag) {
+    unshareLayout();
+    if (count == tags.length) {
+      int capacity = Math.max(DEFAULT_CAPACITY, count * 2);
+      tags = Arrays.copyOf(tags, capacity);
+      kinds = kinds == null ?
+        new byte[capacity] : Arrays.copyOf(kinds, capacity);
+      values = values == null ?
+        new int[capacity] : Arrays.copyOf(values, capacity);
+      if (highs != null) {
+        highs = Arrays.copyOf(highs, capacity);
+      }
+    }
+    int move = count - index;
+    if (move > 0) {
+      System.arraycopy(tags, index, tags, index + 1, move);
+      System.arraycopy(kinds, index, kinds, index + 1, move);
+      System.arraycopy(values, index, values, index + 1, move);
+      if (highs != null) {
+        System.arraycopy(highs, index, highs, index + 1, move);
+      }
+    }
+    tags[index] = tag;
+    kinds[index] = OBJECT;
+    values[index] = -1;
+    count++;
+    modCount++;
+    return index;
+  }
+
+  private void removeAt(int index) {
+    freeObject(index);
+    unshareLayout();
+    int move = count - index - 1;
+    if (move > 0) {
+      System.arraycopy(tags, index + 1, tags, index, move);
+      System.arraycopy(kinds, index + 1, kinds, index, move);
+      System.arraycopy(values, index + 1, values, index, move);
+      if (highs != null) {
+        System.arraycopy(highs, index + 1, highs, index, move);
+      }
+    }
+    count--;
+    modCount++;
+  }
+
+  // -- Helper classes --
+
+  /** Iterates over entries in tag order. */
+  private abstract class EntryIterator<T> implements Iterator<T> {
+    private int next = 0;
+    private int last = -1;
+    private int expected = modCount;
+
+    protected abstract T next(int index);
+
+    @Override
+    public boolean hasNext() {
+      return next < count;
+    }
+
+    @Override
+    public T next() {
+      if (modCount != expected) {
+        throw new ConcurrentModificationException();
+      }
+      if (next >= count) {
+        throw new NoSuchElementException();
+      }
+      last = next++;
+      return next(last);
+    }
+
+    @Override
+    public void remove() {
+      if (last < 0) {
+        throw new IllegalStateException();
+      }
+      if (modCount != expected) {
+        throw new ConcurrentModificationException();
+      }
+      removeAt(last);
+      next = last;
+      last = -1;
+      expected = modCount;
+    }
+  }
+
+  /** Entry view of the value stored for a tag. */
+  private class Entry implements Map.Entry<Integer, Object> {
+    private final int tag;
+
+    Entry(int tag) {
+      this.tag = tag;
+    }
+
+    @Override
+    public Integer getKey() {
+      return tag;
+    }
+
+    @Override
+    public Object getValue() {
+      return getIFDValue(tag);
+    }
+
+    @Override
+    public Object setValue(Object value) {
+      int index = indexOf(tag);
+      if (index < 0) {
+        throw new IllegalStateException("Entry was removed");
+      }
+      Object old = CompactIFD.this.getValue(index);
+      CompactIFD.this.setValue(index, value);
+      return old;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Map.Entry)) {
+        return false;
+      }
+      Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+      Object value = getValue();
+      return getKey().equals(e.getKey()) &&
+        (value == null ? e.getValue() == null : value.equals(e.getValue()));
+    }
+
+    @Override
+    public int hashCode() {
+      Object value = getValue();
+      return tag ^ (value == null ? 0 : value.hashCode());
+    }
+
+    @Override
+    public String toString() {
+      return tag + "=" + getValue();
+    }
+  }
+
+}
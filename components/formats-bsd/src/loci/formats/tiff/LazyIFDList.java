@@ -0,0 +1,515 @@
+/*
+ * #%L
+ * BSD implementations of Bio-Formats readers and writers
+ * %%
+ * Copyright (C) 2005 - 2017 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package loci.formats.tiff;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+
+import loci.formats.FormatException;
+
+/**
+ * {@link IFDList} that parses each {@link IFD} on first access.
+ *
+ * Only the IFD offsets are known up front.  IFDs are parsed (and filled in)
+ * by a {@link TiffParser} when they are first retrieved, and a bounded
+ * number of parsed IFDs are cached; IFDs that are evicted from the cache
+ * are parsed again on the next access.
+ *
+ * The first IFD, IFDs stored with {@link #set(int, IFD)}, and cached IFDs
+ * that have been changed since they were parsed are never evicted, so
+ * changes made to a retrieved IFD are kept.  Any other structural change
+ * (adding or removing IFDs) parses every remaining IFD and turns this into
+ * an ordinary list.  Serializing the list with Kryo, as
+ * {@link loci.formats.Memoizer} does, also parses every IFD, and the
+ * deserialized list is an ordinary list.
+ *
+ * If an IFD cannot be read, {@link #get(int)} throws an
+ * {@link UncheckedIOException} wrapping the original exception, and if it
+ * does not match the template set with {@link #setTemplate(IFD)}, an
+ * {@link IllegalStateException} wrapping a {@link FormatException}.
+ * {@link #getIFD(int)} throws the original exceptions instead.
+ */
+public class LazyIFDList extends IFDList {
+
+  // -- Constants --
+
+  /** Default maximum number of parsed IFDs to cache. */
+  public static final int DEFAULT_CACHE_SIZE = 1024;
+
+  // -- Fields --
+
+  /** Parser used to read IFDs that have not been parsed yet. */
+  private transient TiffParser parser;
+
+  /**
+   * Offsets of each IFD, or null if every IFD has been parsed and stored
+   * in the underlying list.
+   */
+  private long[] offsets;
+
+  /** Maximum number of IFDs that are cached but not pinned. */
+  private int cacheSize;
+
+  /** Parsed IFDs that are not pinned, in access order. */
+  private transient LinkedHashMap<Integer, IFD> cache;
+
+  /** Hash code of each cached IFD when it was parsed. */
+  private transient Map<Integer, Integer> parsedHashes;
+
+  /** IFD that each parsed IFD must match, or null. */
+  private transient IFD template;
+
+  /** View used to implement iterators and sub-lists. */
+  private transient List<IFD> view;
+
+  // -- Constructors --
+
+  /** Constructs an empty list, which behaves as an ordinary IFDList. */
+  public LazyIFDList() {
+    super();
+  }
+
+  /**
+   * Constructs a list of the IFDs at the given offsets.
+   *
+   * @param parser the parser used to read and fill in each IFD
+   * @param offsets the offset of each IFD
+   * @param cacheSize the maximum number of parsed IFDs to keep in memory,
+   *                  not counting the first IFD or IFDs stored with
+   *                  {@link #set(int, IFD)}
+   */
+  public LazyIFDList(TiffParser parser, long[] offsets, int cacheSize) {
+    super();
+    ensureCapacity(offsets.length);
+    this.parser = parser;
+    this.offsets = offsets;
+    this.cacheSize = Math.max(cacheSize, 1);
+    for (int i=0; i<offsets.length; i++) {
+      super.add(null);
+    }
+  }
+
+  // -- LazyIFDList API methods --
+
+  /** Sets the parser used to read IFDs that have not been parsed yet. */
+  public void setParser(TiffParser parser) {
+    this.parser = parser;
+  }
+
+  /**
+   * Sets the IFD that every IFD parsed from now on must match in width,
+   * length, pixel type and samples per pixel.  Thumbnail IFDs never match.
+   */
+  public synchronized void setTemplate(IFD template) {
+    this.template = template;
+  }
+
+  /**
+   * Gets the IFD at the given index, parsing it if it is not in memory.
+   *
+   * @throws FormatException if the IFD does not match the template set with
+   *   {@link #setTemplate(IFD)}
+   * @throws IOException if the IFD cannot be read
+   */
+  public synchronized IFD getIFD(int index)
+    throws FormatException, IOException
+  {
+    IFD ifd = super.get(index);
+    if (ifd != null || offsets == null) {
+      return ifd;
+    }
+    if (cache == null) {
+      parsedHashes = new HashMap<Integer, Integer>();
+      cache = new LinkedHashMap<Integer, IFD>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, IFD> e) {
+          if (size() <= cacheSize) {
+            return false;
+          }
+          Integer hash = parsedHashes.remove(e.getKey());
+          if (hash == null || hash.intValue() != e.getValue().hashCode()) {
+            // the IFD was changed after it was parsed, so keep it
+            pin(e.getKey(), e.getValue());
+          }
+          return true;
+        }
+      };
+    }
+    ifd = cache.get(index);
+    if (ifd == null) {
+      ifd = parse(index);
+      if (index == 0) {
+        super.set(index, ifd);
+      }
+      else if (ifd != null) {
+        checkTemplate(index, ifd);
+        parsedHashes.put(index, ifd.hashCode());
+        cache.put(index, ifd);
+      }
+    }
+    return ifd;
+  }
+
+  /** Gets the offset of the IFD at the given index. */
+  public long getOffset(int index) {
+    if (offsets == null) {
+      throw new IllegalStateException("IFD offsets are no longer available");
+    }
+    return offsets[index];
+  }
+
+  /** Returns whether or not the IFD at the given index is in memory. */
+  public synchronized boolean isParsed(int index) {
+    return super.get(index) != null ||
+      (cache != null && cache.containsKey(index));
+  }
+
+  /** Returns the IFDs that are currently in memory, in index order. */
+  public synchronized List<IFD> getParsedIFDs() {
+    List<IFD> parsed = new ArrayList<IFD>();
+    for (int i=0; i<size(); i++) {
+      IFD ifd = super.get(i);
+      if (ifd == null && cache != null) {
+        ifd = cache.get(i);
+      }
+      if (ifd != null) {
+        parsed.add(ifd);
+      }
+    }
+    return parsed;
+  }
+
+  /**
+   * Parses every IFD that is not yet in memory, so that this list
+   * no longer depends upon the parser.
+   */
+  public synchronized void parseAll() {
+    if (offsets == null) {
+      return;
+    }
+    for (int i=0; i<size(); i++) {
+      if (super.get(i) == null) {
+        super.set(i, get(i));
+      }
+    }
+    offsets = null;
+    cache = null;
+    parsedHashes = null;
+  }
+
+  // -- List API methods --
+
+  @Override
+  public synchronized IFD get(int index) {
+    try {
+      return getIFD(index);
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException("Could not parse IFD #" + index, e);
+    }
+    catch (FormatException e) {
+      throw new IllegalStateException(e.getMessage(), e);
+    }
+  }
+
+  /** Stores the given IFD, which will not be evicted from memory. */
+  @Override
+  public synchronized IFD set(int index, IFD ifd) {
+    IFD previous = get(index);
+    if (cache != null) {
+      cache.remove(index);
+      parsedHashes.remove(index);
+    }
+    super.set(index, ifd);
+    return previous;
+  }
+
+  @Override
+  public boolean add(IFD ifd) {
+    parseAll();
+    return super.add(ifd);
+  }
+
+  @Override
+  public void add(int index, IFD ifd) {
+    parseAll();
+    super.add(index, ifd);
+  }
+
+  @Override
+  public boolean addAll(Collection<? extends IFD> c) {
+    parseAll();
+    return super.addAll(c);
+  }
+
+  @Override
+  public boolean addAll(int index, Collection<? extends IFD> c) {
+    parseAll();
+    return super.addAll(index, c);
+  }
+
+  @Override
+  public IFD remove(int index) {
+    parseAll();
+    return super.remove(index);
+  }
+
+  @Override
+  public boolean remove(Object o) {
+    parseAll();
+    return super.remove(o);
+  }
+
+  @Override
+  public boolean removeAll(Collection<?> c) {
+    parseAll();
+    return super.removeAll(c);
+  }
+
+  @Override
+  public boolean retainAll(Collection<?> c) {
+    parseAll();
+    return super.retainAll(c);
+  }
+
+  @Override
+  public boolean removeIf(Predicate<? super IFD> filter) {
+    parseAll();
+    return super.removeIf(filter);
+  }
+
+  @Override
+  public void replaceAll(UnaryOperator<IFD> operator) {
+    parseAll();
+    super.replaceAll(operator);
+  }
+
+  @Override
+  public void sort(Comparator<? super IFD> c) {
+    parseAll();
+    super.sort(c);
+  }
+
+  @Override
+  public synchronized void clear() {
+    offsets = null;
+    cache = null;
+    parsedHashes = null;
+    super.clear();
+  }
+
+  @Override
+  public boolean contains(Object o) {
+    return indexOf(o) >= 0;
+  }
+
+  @Override
+  public int indexOf(Object o) {
+    for (int i=0; i<size(); i++) {
+      IFD ifd = get(i);
+      if (o == null ? ifd == null : o.equals(ifd)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  @Override
+  public int lastIndexOf(Object o) {
+    for (int i=size()-1; i>=0; i--) {
+      IFD ifd = get(i);
+      if (o == null ? ifd == null : o.equals(ifd)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  @Override
+  public Object[] toArray() {
+    Object[] array = new Object[size()];
+    for (int i=0; i<array.length; i++) {
+      array[i] = get(i);
+    }
+    return array;
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public <T> T[] toArray(T[] a) {
+    int size = size();
+    if (a.length < size) {
+      a = (T[]) java.lang.reflect.Array.newInstance(
+        a.getClass().getComponentType(), size);
+    }
+    for (int i=0; i<size; i++) {
+      a[i] = (T) get(i);
+    }
+    if (a.length > size) {
+      a[size] = null;
+    }
+    return a;
+  }
+
+  @Override
+  public void forEach(Consumer<? super IFD> action) {
+    for (int i=0; i<size(); i++) {
+      action.accept(get(i));
+    }
+  }
+
+  @Override
+  public Iterator<IFD> iterator() {
+    return getView().iterator();
+  }
+
+  @Override
+  public ListIterator<IFD> listIterator() {
+    return getView().listIterator();
+  }
+
+  @Override
+  public ListIterator<IFD> listIterator(int index) {
+    return getView().listIterator(index);
+  }
+
+  @Override
+  public List<IFD> subList(int fromIndex, int toIndex) {
+    return getView().subList(fromIndex, toIndex);
+  }
+
+  @Override
+  public Spliterator<IFD> spliterator() {
+    return getView().spliterator();
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    return getView().equals(o);
+  }
+
+  @Override
+  public int hashCode() {
+    return getView().hashCode();
+  }
+
+  @Override
+  public Object clone() {
+    parseAll();
+    return super.clone();
+  }
+
+  // -- Helper methods --
+
+  private IFD parse(int index) throws IOException {
+    if (parser == null) {
+      throw new IllegalStateException("No parser available for IFD #" +
+        index);
+    }
+    IFD ifd = parser.getIFD(offsets[index]);
+    if (ifd != null) {
+      parser.fillInIFD(ifd);
+    }
+    return ifd;
+  }
+
+  /** Throws an exception if the given IFD does not match the template. */
+  private void checkTemplate(int index, IFD ifd) throws FormatException {
+    if (template == null) {
+      return;
+    }
+    if (ifd.getIFDIntValue(IFD.NEW_SUBFILE_TYPE) == 1 ||
+      ifd.getImageWidth() != template.getImageWidth() ||
+      ifd.getImageLength() != template.getImageLength() ||
+      ifd.getPixelType() != template.getPixelType() ||
+      ifd.getSamplesPerPixel() != template.getSamplesPerPixel())
+    {
+      throw new FormatException("IFD #" + index +
+        " does not match the dimensions or pixel type of the first IFD");
+    }
+  }
+
+  /** Stores an IFD that is being evicted from the cache. */
+  private void pin(int index, IFD ifd) {
+    super.set(index, ifd);
+  }
+
+  /** Returns a list view backed by this list's get/set/add/remove. */
+  private List<IFD> getView() {
+    if (view == null) {
+      view = new AbstractList<IFD>() {
+        @Override
+        public IFD get(int index) {
+          return LazyIFDList.this.get(index);
+        }
+
+        @Override
+        public int size() {
+          return LazyIFDList.this.size();
+        }
+
+        @Override
+        public IFD set(int index, IFD ifd) {
+          return LazyIFDList.this.set(index, ifd);
+        }
+
+        @Override
+        public void add(int index, IFD ifd) {
+          LazyIFDList.this.add(index, ifd);
+        }
+
+        @Override
+        public IFD remove(int index) {
+          return LazyIFDList.this.remove(index);
+        }
+      };
+    }
+    return view;
+  }
+
+}
@@ -46,11 +46,32 @@ public class OnDemandLongArray {
   private int size;
   private long start;
 
+  /**
+   * Number of bytes in each stored value; 8 for LONG8 values,
+   * or 4 for (unsigned) LONG values.
+   */
+  private int bytesPerElement = 8;
+
   public OnDemandLongArray(RandomAccessInputStream in) throws IOException {
     stream = in;
     start = stream.getFilePointer();
   }
 
+  /**
+   * Constructs an array of values stored with the given number of bytes
+   * per value.  4 byte values are treated as unsigned.
+   */
+  public OnDemandLongArray(RandomAccessInputStream in, int bytesPerElement)
+    throws IOException
+  {
+    this(in);
+    if (bytesPerElement != 4 && bytesPerElement != 8) {
+      throw new IllegalArgumentException(
+        "Unsupported element size: " + bytesPerElement);
+    }
+    this.bytesPerElement = bytesPerElement;
+  }
+
   public void setSize(int size) {
     this.size = size;
   }
@@ -65,8 +86,9 @@ public class OnDemandLongArray {
 
   public long get(int index) throws IOException {
     long fp = stream.getFilePointer();
-    stream.seek(start + index * 8);
-    long value = stream.readLong();
+    stream.seek(start + (long) index * bytesPerElement);
+    long value = bytesPerElement == 4 ?
+      stream.readUnsignedInt() : stream.readLong();
     stream.seek(fp);
     return value;
   }
@@ -78,9 +100,17 @@ public class OnDemandLongArray {
   public long[] toArray() throws IOException {
     long fp = stream.getFilePointer();
     stream.seek(start);
-    byte[] rawBytes = new byte[size * 8];
+    byte[] rawBytes = new byte[size * bytesPerElement];
     stream.readFully(rawBytes);
     stream.seek(fp);
+    if (bytesPerElement == 4) {
+      long[] values = new long[size];
+      boolean little = stream.isLittleEndian();
+      for (int i=0; i<size; i++) {
+        values[i] = DataTools.bytesToInt(rawBytes, i * 4, little) & 0xffffffffL;
+      }
+      return values;
+    }
     return (long[]) DataTools.makeDataArray(rawBytes, 8, false, stream.isLittleEndian());
   }
 
@@ -38,6 +38,9 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import loci.common.ByteArrayHandle;
 import loci.common.Constants;
@@ -47,7 +50,10 @@ import loci.common.Region;
 import loci.common.enumeration.EnumException;
 import loci.formats.FormatException;
 import loci.formats.ImageTools;
+import loci.formats.codec.ByteArrayPool;
 import loci.formats.codec.CodecOptions;
+import loci.formats.codec.JPEG2000CodecOptions;
+import loci.formats.codec.ParallelDecoder;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -67,6 +73,12 @@ public class TiffParser implements Closeable {
   private static final Logger LOGGER =
     LoggerFactory.getLogger(TiffParser.class);
 
+  /**
+   * Minimum number of (4-byte) strip or tile offsets and byte counts
+   * that will be read on demand when compact IFDs are enabled.
+   */
+  private static final int ON_DEMAND_ARRAY_THRESHOLD = 8192;
+
   // -- Fields --
 
   /** Input source from which to parse TIFF data. */
@@ -87,17 +99,29 @@ public class TiffParser implements Closeable {
 
   private boolean doCaching;
 
+  /** Whether to store parsed IFDs as {@link CompactIFD}s. */
+  private boolean compactIFDs = false;
+
   /** Cached list of IFDs in the current file. */
   private IFDList ifdList;
 
   /** Cached first IFD in the current file. */
   private IFD firstIFD;
 
+  /** Most recently parsed compact IFD, used to share IFD storage. */
+  private transient CompactIFD lastCompactIFD;
+
   /** Codec options to be used when decoding compressed pixel data. */
   private CodecOptions codecOptions = CodecOptions.getDefaultOptions();
 
   private boolean canClose = false;
 
+  /** Executor used to decode tiles in parallel, or null to decode serially. */
+  private ExecutorService executor;
+
+  /** Pool of scratch buffers used when reading tiles, if any. */
+  private ByteArrayPool bufferPool;
+
   // -- Constructors --
 
   /** Constructs a new TIFF parser from the given file name. */
@@ -164,6 +188,25 @@ public class TiffParser implements Closeable {
     this.doCaching = doCaching;
   }
 
+  /**
+   * Sets whether or not parsed IFDs should be stored as {@link CompactIFD}s,
+   * which use much less memory than {@link IFD}s when a file contains many
+   * IFDs.  If enabled, large strip and tile offset and byte count arrays
+   * are read on demand instead of being stored in the IFD, so the IFDs
+   * are only usable while this parser's stream is open, and each call to
+   * {@link IFD#getStripOffsets()} or {@link IFD#getStripByteCounts()}
+   * reads the array again.
+   * Compact IFDs are not used by default.
+   */
+  public void setUseCompactIFDs(boolean compactIFDs) {
+    this.compactIFDs = compactIFDs;
+  }
+
+  /** Returns whether or not parsed IFDs are stored as {@link CompactIFD}s. */
+  public boolean isUsingCompactIFDs() {
+    return compactIFDs;
+  }
+
   /** Sets whether or not 64-bit offsets are used for non-BigTIFF files. */
   public void setUse64BitOffsets(boolean use64Bit) {
     fakeBigTiff = use64Bit;
@@ -174,6 +217,43 @@ public class TiffParser implements Closeable {
     ycbcrCorrection = correctionAllowed;
   }
 
+  /**
+   * Sets the executor used to decode tiles in parallel.  Compressed tiles
+   * are still read one at a time from the stream; only decompression and
+   * unpacking run on the executor, so the pixel data returned by
+   * {@link #getSamples} is the same as when decoding serially.
+   * The executor is not shut down by this parser.
+   *
+   * @param executor the executor to use, or null (the default) to decode
+   *                 tiles serially
+   */
+  public void setExecutor(ExecutorService executor) {
+    this.executor = executor;
+  }
+
+  /** Gets the executor used to decode tiles, or null to decode serially. */
+  public ExecutorService getExecutor() {
+    return executor;
+  }
+
+  /**
+   * Sets the pool from which scratch buffers for compressed and decoded
+   * tiles are drawn and to which they are returned, so that reading many
+   * tiles does not allocate new arrays for each one.  The same pool may be
+   * shared between parsers.
+   *
+   * @param pool the pool to use, or null (the default) to allocate a new
+   *             array for every buffer
+   */
+  public void setBufferPool(ByteArrayPool pool) {
+    bufferPool = pool;
+  }
+
+  /** Gets the pool used for scratch buffers, or null if there is none. */
+  public ByteArrayPool getBufferPool() {
+    return bufferPool;
+  }
+
   /** Gets the stream from which TIFF data is being parsed. */
   public RandomAccessInputStream getStream() {
     return in;
@@ -253,6 +333,25 @@ public class TiffParser implements Closeable {
     return ifds;
   }
 
+  /**
+   * Returns the main list of IFDs in the file, parsing only the first IFD.
+   *
+   * The remaining IFDs are parsed and filled in when first retrieved from
+   * the returned list, and at most <code>cacheSize</code> of them are kept
+   * in memory at once.  Unlike {@link #getMainIFDs()}, IFDs without an
+   * ImageWidth tag are not filtered out, as that would require every IFD
+   * to be read up front.
+   *
+   * @see LazyIFDList
+   */
+  public LazyIFDList getLazyIFDs(int cacheSize) throws IOException {
+    LazyIFDList ifds = new LazyIFDList(this, getIFDOffsets(), cacheSize);
+    if (ifds.size() > 0) {
+      ifds.get(0);
+    }
+    return ifds;
+  }
+
   /** Returns the SUBIFDS belonging to a given IFD. */
   public IFDList getSubIFDs(IFD ifd) throws IOException {
     IFDList list = new IFDList();
@@ -439,18 +538,18 @@ public class TiffParser implements Closeable {
   /** Gets the IFD stored at the given offset.  */
   public IFD getIFD(long offset) throws IOException {
     if (offset < 0 || offset >= in.length()) return null;
-    IFD ifd = new IFD();
+    IFD ifd = compactIFDs ? new CompactIFD() : new IFD();
 
     // save little-endian flag to internal LITTLE_ENDIAN tag
-    ifd.put(new Integer(IFD.LITTLE_ENDIAN), new Boolean(in.isLittleEndian()));
-    ifd.put(new Integer(IFD.BIG_TIFF), new Boolean(bigTiff));
+    ifd.putIFDValue(IFD.LITTLE_ENDIAN, Boolean.valueOf(in.isLittleEndian()));
+    ifd.putIFDValue(IFD.BIG_TIFF, Boolean.valueOf(bigTiff));
 
     // read in directory entries for this IFD
     LOGGER.trace("getIFD: seeking IFD at {}", offset);
     in.seek(offset);
     long numEntries = bigTiff ? in.readLong() : in.readUnsignedShort();
     LOGGER.trace("getIFD: {} directory entries to read", numEntries);
-    if (numEntries == 0 || numEntries == 1) return ifd;
+    if (numEntries == 0 || numEntries == 1) return trimIFD(ifd);
 
     int bytesPerEntry = bigTiff ?
       TiffConstants.BIG_TIFF_BYTES_PER_ENTRY : TiffConstants.BYTES_PER_ENTRY;
@@ -494,8 +593,8 @@ public class TiffParser implements Closeable {
       }
       else value = getIFDValue(entry);
 
-      if (value != null && !ifd.containsKey(new Integer(tag))) {
-        ifd.put(new Integer(tag), value);
+      if (value != null && !ifd.containsKey(tag)) {
+        ifd.putIFDValue(tag, value);
       }
     }
 
@@ -507,7 +606,7 @@ public class TiffParser implements Closeable {
       in.seek(in.length());
     }
 
-    return ifd;
+    return trimIFD(ifd);
   }
 
   /** Fill in IFD entries that are stored at an arbitrary offset. */
@@ -523,7 +622,7 @@ public class TiffParser implements Closeable {
       if ((entry.getValueCount() < 10 * 1024 * 1024 || entry.getTag() < 32768) &&
         entry.getTag() != IFD.COLOR_MAP)
       {
-        ifd.put(new Integer(entry.getTag()), getIFDValue(entry));
+        ifd.putIFDValue(entry.getTag(), getIFDValue(entry));
       }
     }
   }
@@ -601,6 +700,22 @@ public class TiffParser implements Closeable {
     else if (type == IFDType.LONG || type == IFDType.IFD) {
       // 32-bit (4-byte) unsigned integer
       if (count == 1) return new Long(in.readUnsignedInt());
+      boolean byteCounts = entry.getTag() == IFD.STRIP_BYTE_COUNTS ||
+        entry.getTag() == IFD.TILE_BYTE_COUNTS;
+      if (compactIFDs && count >= ON_DEMAND_ARRAY_THRESHOLD && byteCounts &&
+        equalStrips)
+      {
+        // as for 8-byte counts, only the first is needed for equal strips
+        return new long[] {in.readUnsignedInt()};
+      }
+      if (compactIFDs && count >= ON_DEMAND_ARRAY_THRESHOLD && (byteCounts ||
+        entry.getTag() == IFD.STRIP_OFFSETS ||
+        entry.getTag() == IFD.TILE_OFFSETS))
+      {
+        OnDemandLongArray offsets = new OnDemandLongArray(in, 4);
+        offsets.setSize(count);
+        return offsets;
+      }
       long[] longs = new long[count];
       for (int j=0; j<count; j++) {
         if (in.getFilePointer() + 4 <= in.length()) {
@@ -721,140 +836,18 @@ public class TiffParser implements Closeable {
   public byte[] getTile(IFD ifd, byte[] buf, int row, int col)
     throws FormatException, IOException
   {
-    byte[] jpegTable = (byte[]) ifd.getIFDValue(IFD.JPEG_TABLES);
-
     codecOptions.interleaved = true;
     codecOptions.littleEndian = ifd.isLittleEndian();
 
-    long tileWidth = ifd.getTileWidth();
-    long tileLength = ifd.getTileLength();
-    int samplesPerPixel = ifd.getSamplesPerPixel();
-    int planarConfig = ifd.getPlanarConfiguration();
-    TiffCompression compression = ifd.getCompression();
-
-    long numTileCols = ifd.getTilesPerRow();
-
-    int pixel = ifd.getBytesPerSample()[0];
-    int effectiveChannels = planarConfig == 2 ? 1 : samplesPerPixel;
-
-    if (ifd.get(IFD.STRIP_BYTE_COUNTS) instanceof OnDemandLongArray) {
-      OnDemandLongArray counts = (OnDemandLongArray) ifd.get(IFD.STRIP_BYTE_COUNTS);
-      if (counts != null) {
-        counts.setStream(in);
-      }
-    }
-    if (ifd.get(IFD.TILE_BYTE_COUNTS) instanceof OnDemandLongArray) {
-      OnDemandLongArray counts = (OnDemandLongArray) ifd.get(IFD.TILE_BYTE_COUNTS);
-      if (counts != null) {
-        counts.setStream(in);
-      }
-    }
-
-    long[] stripByteCounts = ifd.getStripByteCounts();
-    long[] rowsPerStrip = ifd.getRowsPerStrip();
-
-    int offsetIndex = (int) (row * numTileCols + col);
-    int countIndex = offsetIndex;
-    if (equalStrips) {
-      countIndex = 0;
-    }
-    if (stripByteCounts[countIndex] == (rowsPerStrip[0] * tileWidth) &&
-      pixel > 1)
-    {
-      stripByteCounts[countIndex] *= pixel;
-    }
-    else if (stripByteCounts[countIndex] < 0 && countIndex > 0) {
-      LOGGER.debug("byte count #{} was {}; correcting to {}", countIndex,
-        stripByteCounts[countIndex], stripByteCounts[countIndex - 1]);
-      stripByteCounts[countIndex] = stripByteCounts[countIndex - 1];
-    }
-
-    long stripOffset = 0;
-    long nStrips = 0;
-
-    if (ifd.getOnDemandStripOffsets() != null) {
-      OnDemandLongArray stripOffsets = ifd.getOnDemandStripOffsets();
-      stripOffsets.setStream(in);
-      stripOffset = stripOffsets.get(offsetIndex);
-      nStrips = stripOffsets.size();
-    }
-    else {
-      long[] stripOffsets = ifd.getStripOffsets();
-      stripOffset = stripOffsets[offsetIndex];
-      nStrips = stripOffsets.length;
-    }
-
-    int size = (int) (tileWidth * tileLength * pixel * effectiveChannels);
-
-    if (buf == null) buf = new byte[size];
-    if (stripByteCounts[countIndex] == 0 || stripOffset >= in.length()) {
+    byte[] tile = readTile(ifd, row, col);
+    if (tile == null) {
+      if (buf == null) buf = new byte[getTileSize(ifd)];
       // make sure that the buffer is cleared before returning
       // the caller may be reusing the same buffer for multiple calls to getTile
       Arrays.fill(buf, (byte) 0);
       return buf;
     }
-    int tileSize = (int) stripByteCounts[countIndex];
-    if (jpegTable != null) {
-      tileSize += jpegTable.length - 2;
-    }
-    byte[] tile = new byte[tileSize];
-
-    LOGGER.debug("Reading tile Length {} Offset {}", tile.length, stripOffset);
-
-    if (jpegTable != null) {
-      System.arraycopy(jpegTable, 0, tile, 0, jpegTable.length - 2);
-      in.seek(stripOffset + 2);
-      in.read(tile, jpegTable.length - 2, tile.length - (jpegTable.length - 2));
-    }
-    else {
-      in.seek(stripOffset);
-      in.read(tile);
-    }
-
-    // reverse bits in each byte if FillOrder == 2
-
-    if (ifd.getIFDIntValue(IFD.FILL_ORDER) == 2 &&
-      (compression.getCode() <= TiffCompression.GROUP_4_FAX.getCode() ||
-       compression.getCode() == TiffCompression.DEFLATE.getCode() ||
-       compression.getCode() == TiffCompression.PROPRIETARY_DEFLATE.getCode()))
-    {
-      for (int i=0; i<tile.length; i++) {
-        tile[i] = (byte) (Integer.reverse(tile[i]) >> 24);
-      }
-    }
-
-    codecOptions.maxBytes = (int) Math.max(size, tile.length);
-    codecOptions.ycbcr =
-      ifd.getPhotometricInterpretation() == PhotoInterp.Y_CB_CR &&
-      ifd.getIFDIntValue(IFD.Y_CB_CR_SUB_SAMPLING) == 1 && ycbcrCorrection;
-
-    tile = compression.decompress(tile, codecOptions);
-    TiffCompression.undifference(tile, ifd);
-    unpackBytes(buf, 0, tile, ifd);
-
-    if (planarConfig == 2 && !ifd.isTiled() && ifd.getSamplesPerPixel() > 1) {
-      int channel = (int) (row % nStrips);
-      if (channel < ifd.getBytesPerSample().length) {
-        int realBytes = ifd.getBytesPerSample()[channel];
-        if (realBytes != pixel) {
-          // re-pack pixels to account for differing bits per sample
-
-          boolean littleEndian = ifd.isLittleEndian();
-          int[] samples = new int[buf.length / pixel];
-          for (int i=0; i<samples.length; i++) {
-            samples[i] =
-              DataTools.bytesToInt(buf, i * realBytes, realBytes, littleEndian);
-          }
-
-          for (int i=0; i<samples.length; i++) {
-            DataTools.unpackBytes(
-              samples[i], buf, i * pixel, pixel, littleEndian);
-          }
-        }
-      }
-    }
-
-    return buf;
+    return decodeTile(ifd, buf, row, getStripCount(ifd), tile, codecOptions);
   }
 
   public byte[] getSamples(IFD ifd, byte[] buf)
@@ -1081,10 +1074,14 @@ public class TiffParser implements Closeable {
     int bufferSize = (int) tileWidth * (int) tileLength *
       bufferSizeSamplesPerPixel * bpp;
 
-    cachedTileBuffer = new byte[bufferSize];
+    cachedTileBuffer = allocate(bufferSize);
 
     Region tileBounds = new Region(0, 0, (int) tileWidth, (int) tileLength);
 
+    // find the tiles that intersect the requested region, storing
+    // the row, column and bounds of each tile in reading order
+    List<int[]> tiles = new ArrayList<int[]>();
+
     for (int row=0; row<numTileRows; row++) {
       // make the first row shorter to account for row overlap
       if (row == 0) {
@@ -1106,7 +1103,47 @@ public class TiffParser implements Closeable {
 
         if (!imageBounds.intersects(tileBounds)) continue;
 
-        getTile(ifd, cachedTileBuffer, row, col);
+        tiles.add(new int[] {row, col, tileBounds.x, tileBounds.y,
+          tileBounds.width, tileBounds.height});
+      }
+    }
+
+    ParallelDecoder.Batch batch = null;
+    List<Future<byte[]>> decoded = null;
+    long[][] tileLocations = null;
+    int maxInFlight = 0;
+    if (executor != null && tiles.size() > 1) {
+      batch = new ParallelDecoder.Batch(executor);
+      decoded = new ArrayList<Future<byte[]>>(tiles.size());
+      tileLocations = getTileLocations(ifd, tiles);
+      maxInFlight = ParallelDecoder.getMaxInFlight(executor);
+    }
+
+    try {
+      for (int t=0; t<tiles.size(); t++) {
+        int[] tile = tiles.get(t);
+        int row = tile[0];
+        tileBounds.x = tile[2];
+        tileBounds.y = tile[3];
+        tileBounds.width = tile[4];
+        tileBounds.height = tile[5];
+
+        byte[] tileBuffer = cachedTileBuffer;
+        if (decoded != null) {
+          // keep up to maxInFlight tiles queued ahead of the one being copied
+          int last = Math.min(tiles.size(), t + maxInFlight);
+          while (decoded.size() < last) {
+            int next = decoded.size();
+            decoded.add(submitTile(batch, ifd, tiles.get(next),
+              tileLocations[0][next], tileLocations[1][next],
+              stripOffsets.length));
+          }
+          tileBuffer = ParallelDecoder.get(decoded.get(t));
+          decoded.set(t, null);
+        }
+        else {
+          getTile(ifd, cachedTileBuffer, row, tile[1]);
+        }
 
         // adjust tile bounds, if necessary
 
@@ -1144,22 +1181,329 @@ public class TiffParser implements Closeable {
           if (rowLen == outputRowLen && overlapX == 0 && overlapY == 0 &&
             rowLen == pixel * imageBounds.intersection(tileBounds).width)
           {
-            System.arraycopy(cachedTileBuffer, src, buf, dest, copy * theight);
+            System.arraycopy(tileBuffer, src, buf, dest, copy * theight);
           }
           else {
             for (int tileRow=0; tileRow<theight; tileRow++) {
-              System.arraycopy(cachedTileBuffer, src, buf, dest, copy);
+              System.arraycopy(tileBuffer, src, buf, dest, copy);
               src += rowLen;
               dest += outputRowLen;
             }
           }
         }
+        if (tileBuffer != cachedTileBuffer) {
+          release(tileBuffer);
+        }
+      }
+    }
+    finally {
+      if (batch != null) {
+        // stop any tiles still being decoded before the caller reuses buf
+        // or the buffer pool
+        batch.cancel();
+      }
+      if (bufferPool != null) {
+        release(cachedTileBuffer);
+        cachedTileBuffer = null;
       }
     }
 
     return buf;
   }
 
+  /**
+   * Reads the compressed bytes of the given tile from the stream, including
+   * any JPEG tables stored in the IFD.
+   *
+   * @return the compressed tile, or null if the tile is empty or missing
+   */
+  private byte[] readTile(IFD ifd, int row, int col)
+    throws FormatException, IOException
+  {
+    long[] stripByteCounts = getStripByteCounts(ifd);
+    int offsetIndex = (int) (row * ifd.getTilesPerRow() + col);
+    long byteCount = getTileByteCount(ifd, stripByteCounts, offsetIndex);
+
+    long stripOffset = 0;
+
+    if (ifd.getOnDemandStripOffsets() != null) {
+      OnDemandLongArray stripOffsets = ifd.getOnDemandStripOffsets();
+      stripOffsets.setStream(in);
+      stripOffset = stripOffsets.get(offsetIndex);
+    }
+    else {
+      long[] stripOffsets = ifd.getStripOffsets();
+      stripOffset = stripOffsets[offsetIndex];
+    }
+
+    return readTile(ifd, stripOffset, byteCount);
+  }
+
+  /**
+   * Reads the compressed bytes of a tile with the given offset and byte
+   * count from the stream, including any JPEG tables stored in the IFD.
+   *
+   * @return the compressed tile, or null if the tile is empty or missing
+   */
+  private byte[] readTile(IFD ifd, long stripOffset, long byteCount)
+    throws FormatException, IOException
+  {
+    byte[] jpegTable = (byte[]) ifd.getIFDValue(IFD.JPEG_TABLES);
+
+    if (byteCount == 0 || stripOffset >= in.length()) {
+      return null;
+    }
+    int tileSize = (int) byteCount;
+    if (jpegTable != null) {
+      tileSize += jpegTable.length - 2;
+    }
+    // compressed sizes vary from tile to tile, so these are not pooled
+    byte[] tile = new byte[tileSize];
+
+    LOGGER.debug("Reading tile Length {} Offset {}", tile.length, stripOffset);
+
+    if (jpegTable != null) {
+      System.arraycopy(jpegTable, 0, tile, 0, jpegTable.length - 2);
+      in.seek(stripOffset + 2);
+      in.read(tile, jpegTable.length - 2, tile.length - (jpegTable.length - 2));
+    }
+    else {
+      in.seek(stripOffset);
+      in.read(tile);
+    }
+    return tile;
+  }
+
+  /** Gets the strip or tile byte counts, reading them from this stream. */
+  private long[] getStripByteCounts(IFD ifd) throws FormatException {
+    if (ifd.get(IFD.STRIP_BYTE_COUNTS) instanceof OnDemandLongArray) {
+      OnDemandLongArray counts = (OnDemandLongArray) ifd.get(IFD.STRIP_BYTE_COUNTS);
+      if (counts != null) {
+        counts.setStream(in);
+      }
+    }
+    if (ifd.get(IFD.TILE_BYTE_COUNTS) instanceof OnDemandLongArray) {
+      OnDemandLongArray counts = (OnDemandLongArray) ifd.get(IFD.TILE_BYTE_COUNTS);
+      if (counts != null) {
+        counts.setStream(in);
+      }
+    }
+    return ifd.getStripByteCounts();
+  }
+
+  /**
+   * Gets the compressed size of the tile with the given index, correcting
+   * byte counts that are recorded in pixels or are negative.
+   */
+  private long getTileByteCount(IFD ifd, long[] stripByteCounts,
+    int offsetIndex) throws FormatException
+  {
+    long tileWidth = ifd.getTileWidth();
+    int pixel = ifd.getBytesPerSample()[0];
+    long[] rowsPerStrip = ifd.getRowsPerStrip();
+
+    int countIndex = offsetIndex;
+    if (equalStrips) {
+      countIndex = 0;
+    }
+    if (stripByteCounts[countIndex] == (rowsPerStrip[0] * tileWidth) &&
+      pixel > 1)
+    {
+      stripByteCounts[countIndex] *= pixel;
+    }
+    else if (stripByteCounts[countIndex] < 0 && countIndex > 0) {
+      LOGGER.debug("byte count #{} was {}; correcting to {}", countIndex,
+        stripByteCounts[countIndex], stripByteCounts[countIndex - 1]);
+      stripByteCounts[countIndex] = stripByteCounts[countIndex - 1];
+    }
+    return stripByteCounts[countIndex];
+  }
+
+  /**
+   * Resolves the offset and byte count of each of the given tiles, so that
+   * the IFD's offset and byte count arrays are only read once, on the
+   * calling thread, before any tile is submitted for decoding.
+   *
+   * @return the tile offsets followed by the tile byte counts
+   */
+  private long[][] getTileLocations(IFD ifd, List<int[]> tiles)
+    throws FormatException, IOException
+  {
+    long[] stripByteCounts = getStripByteCounts(ifd);
+    OnDemandLongArray onDemandOffsets = ifd.getOnDemandStripOffsets();
+    long[] stripOffsets = null;
+    if (onDemandOffsets != null) {
+      onDemandOffsets.setStream(in);
+    }
+    else {
+      stripOffsets = ifd.getStripOffsets();
+    }
+    long numTileCols = ifd.getTilesPerRow();
+
+    long[][] locations = new long[2][tiles.size()];
+    for (int t=0; t<tiles.size(); t++) {
+      int[] tile = tiles.get(t);
+      int offsetIndex = (int) (tile[0] * numTileCols + tile[1]);
+      locations[0][t] = onDemandOffsets != null ?
+        onDemandOffsets.get(offsetIndex) : stripOffsets[offsetIndex];
+      locations[1][t] = getTileByteCount(ifd, stripByteCounts, offsetIndex);
+    }
+    return locations;
+  }
+
+  /**
+   * Decompresses and unpacks a tile that was read by
+   * {@link #readTile(IFD, int, int)}.  The stream is not used, so this may
+   * be called from any thread as long as each call has its own options.
+   */
+  private byte[] decodeTile(IFD ifd, byte[] buf, int row, long nStrips,
+    byte[] tile, CodecOptions options) throws FormatException, IOException
+  {
+    int size = getTileSize(ifd);
+    int pixel = ifd.getBytesPerSample()[0];
+    int planarConfig = ifd.getPlanarConfiguration();
+    TiffCompression compression = ifd.getCompression();
+
+    if (buf == null) buf = new byte[size];
+
+    // reverse bits in each byte if FillOrder == 2
+
+    if (ifd.getIFDIntValue(IFD.FILL_ORDER) == 2 &&
+      (compression.getCode() <= TiffCompression.GROUP_4_FAX.getCode() ||
+       compression.getCode() == TiffCompression.DEFLATE.getCode() ||
+       compression.getCode() == TiffCompression.PROPRIETARY_DEFLATE.getCode()))
+    {
+      for (int i=0; i<tile.length; i++) {
+        tile[i] = (byte) (Integer.reverse(tile[i]) >> 24);
+      }
+    }
+
+    options.maxBytes = (int) Math.max(size, tile.length);
+    options.ycbcr =
+      ifd.getPhotometricInterpretation() == PhotoInterp.Y_CB_CR &&
+      ifd.getIFDIntValue(IFD.Y_CB_CR_SUB_SAMPLING) == 1 && ycbcrCorrection;
+
+    byte[] decompressed = compression.decompress(tile, options);
+    TiffCompression.undifference(decompressed, ifd);
+    unpackBytes(buf, 0, decompressed, ifd);
+    if (decompressed.length == size) {
+      release(decompressed);
+    }
+
+    if (planarConfig == 2 && !ifd.isTiled() && ifd.getSamplesPerPixel() > 1) {
+      int channel = (int) (row % nStrips);
+      if (channel < ifd.getBytesPerSample().length) {
+        int realBytes = ifd.getBytesPerSample()[channel];
+        if (realBytes != pixel) {
+          // re-pack pixels to account for differing bits per sample
+
+          boolean littleEndian = ifd.isLittleEndian();
+          int[] samples = new int[buf.length / pixel];
+          for (int i=0; i<samples.length; i++) {
+            samples[i] =
+              DataTools.bytesToInt(buf, i * realBytes, realBytes, littleEndian);
+          }
+
+          for (int i=0; i<samples.length; i++) {
+            DataTools.unpackBytes(
+              samples[i], buf, i * pixel, pixel, littleEndian);
+          }
+        }
+      }
+    }
+
+    return buf;
+  }
+
+  /**
+   * Reads the given tile from the stream and submits it to the executor
+   * to be decoded.
+   */
+  private Future<byte[]> submitTile(ParallelDecoder.Batch batch,
+    final IFD ifd, int[] t, long offset, long byteCount, final long nStrips)
+    throws FormatException, IOException
+  {
+    final int tileSize = getTileSize(ifd);
+    final int row = t[0];
+    final byte[] tile = readTile(ifd, offset, byteCount);
+    final CodecOptions options = copyCodecOptions(codecOptions);
+    return batch.submit(new Callable<byte[]>() {
+      @Override
+      public byte[] call() throws FormatException, IOException {
+        byte[] buf = allocate(tileSize);
+        if (tile == null) return buf;
+        return decodeTile(ifd, buf, row, nStrips, tile, options);
+      }
+    });
+  }
+
+  /**
+   * Copies the given codec options, so that each tile decoded in parallel
+   * can set its own maximum byte count.
+   */
+  private static CodecOptions copyCodecOptions(CodecOptions options) {
+    if (options instanceof JPEG2000CodecOptions) {
+      JPEG2000CodecOptions j2k = new JPEG2000CodecOptions(options);
+      j2k.writeBox = ((JPEG2000CodecOptions) options).writeBox;
+      return j2k;
+    }
+    return new CodecOptions(options);
+  }
+
+  /**
+   * Returns a zero-filled array of the given length, taken from the buffer
+   * pool if there is one.  The array is cleared because it is used for a
+   * decoded tile, which is left empty if the tile is missing and is only
+   * partly written if the compressed data is truncated.
+   */
+  private byte[] allocate(int length) {
+    if (bufferPool == null) {
+      return new byte[length];
+    }
+    byte[] array = bufferPool.get(length);
+    Arrays.fill(array, (byte) 0);
+    return array;
+  }
+
+  /** Returns the given array to the buffer pool, if there is one. */
+  private void release(byte[] array) {
+    if (bufferPool != null) {
+      bufferPool.release(array);
+    }
+  }
+
+  /** Returns the number of bytes in one decoded tile of the given IFD. */
+  private static int getTileSize(IFD ifd) throws FormatException {
+    int samplesPerPixel = ifd.getSamplesPerPixel();
+    int effectiveChannels =
+      ifd.getPlanarConfiguration() == 2 ? 1 : samplesPerPixel;
+    return (int) (ifd.getTileWidth() * ifd.getTileLength() *
+      ifd.getBytesPerSample()[0] * effectiveChannels);
+  }
+
+  /**
+   * Releases unused capacity in the given IFD, if it is compact, and shares
+   * storage with the previously parsed IFD where possible.
+   */
+  private IFD trimIFD(IFD ifd) {
+    if (ifd instanceof CompactIFD) {
+      CompactIFD compact = (CompactIFD) ifd;
+      compact.trimToSize();
+      compact.shareWith(lastCompactIFD);
+      lastCompactIFD = compact;
+    }
+    return ifd;
+  }
+
+  /** Returns the number of strips or tiles in the given IFD. */
+  private static long getStripCount(IFD ifd) throws FormatException {
+    OnDemandLongArray offsets = ifd.getOnDemandStripOffsets();
+    if (offsets != null) {
+      return offsets.size();
+    }
+    return ifd.getStripOffsets().length;
+  }
+
   // -- Utility methods - byte stream decoding --
 
   /**
@@ -89,6 +89,29 @@ public class TiffSaver implements Closeable {
   /** The codec options if set. */
   private CodecOptions options;
 
+  /**
+   * Offsets of the IFDs in the file, in order, when not writing
+   * sequentially.  Read from the file the first time an image is written,
+   * and then kept up to date as images are written.
+   */
+  private List<Long> ifdOffsets;
+
+  /**
+   * IFDs parallel to ifdOffsets, as they were last written.  Only the last
+   * IFD and the IFD that has not been written yet are kept; other entries
+   * are null, and are read from the file if needed.
+   */
+  private List<IFD> ifds;
+
+  /** Next IFD offset stored in the last IFD in ifdOffsets. */
+  private long lastNextOffset;
+
+  /** Index of the IFD with changes that have not been written, or -1. */
+  private int dirtyIFD = -1;
+
+  /** Next IFD offset to write with the dirty IFD. */
+  private long dirtyNextOffset;
+
   // -- Constructors --
   /**
    * Constructs a new TIFF saver from the given filename.
@@ -140,15 +163,66 @@ public class TiffSaver implements Closeable {
   // -- TiffSaver methods --
 
   /**
-   * Closes the output stream if not null.
+   * Writes any unwritten IFD changes and closes the output stream if not
+   * null.
    * @throws IOException Thrown if an error occurred while closing.
    */
   public void close() throws IOException {
     if (out != null) {
+      flush();
       out.close();
     }
   }
 
+  /**
+   * Writes any IFD changes that are only held in memory.
+   * When not writing sequentially, each tile or strip written to an image
+   * that is already in the file only updates the IFD in memory; the IFD is
+   * written when an image with a different index is written, or when this
+   * method or {@link #close()} is called.
+   * @throws IOException Thrown if an error occurred while writing.
+   */
+  public void flush() throws IOException {
+    synchronized (this) {
+      if (dirtyIFD < 0) {
+        return;
+      }
+      int index = dirtyIFD;
+      dirtyIFD = -1;
+      long fp = out.getFilePointer();
+      out.seek(ifdOffsets.get(index));
+      try {
+        writeIFD(ifds.get(index), dirtyNextOffset);
+      }
+      catch (FormatException e) {
+        throw new IOException(e);
+      }
+      out.seek(fp);
+      if (index < ifds.size() - 1) {
+        ifds.set(index, null);
+      }
+    }
+  }
+
+  /**
+   * Returns a copy of the IFD written for the given image index, including
+   * the current strip or tile offsets and byte counts, or null if the file
+   * does not contain that IFD.  This is only supported when not writing
+   * sequentially.
+   */
+  public IFD getWrittenIFD(int no) throws IOException {
+    synchronized (this) {
+      readIFDOffsets();
+      if (no < 0 || no >= ifdOffsets.size()) {
+        return null;
+      }
+      IFD ifd = ifds.get(no);
+      ifd = new IFD(ifd == null ? readIFD(no) : ifd);
+      ifd.remove(IFD.REUSE);
+      return ifd;
+    }
+  }
+
   /**
    * Sets whether or not we know that the planes will be written sequentially.
    * If we are writing planes sequentially and set this flag, then performance
@@ -191,6 +265,10 @@ public class TiffSaver implements Closeable {
 
   /** Writes the TIFF file header. */
   public void writeHeader() throws IOException {
+    ifdOffsets = null;
+    ifds = null;
+    dirtyIFD = -1;
+
     // write endianness indicator
     out.seek(0);
     if (isLittleEndian()) {
@@ -294,112 +372,201 @@ public class TiffSaver implements Closeable {
     }
 
     // These operations are synchronized
-    TiffCompression compression;
-    int tileWidth, tileHeight, nStrips;
-    boolean interleaved;
-    ByteArrayOutputStream[] stripBuf;
+    byte[][] strips;
     synchronized (this) {
-      int bytesPerPixel = FormatTools.getBytesPerPixel(pixelType);
-      int blockSize = w * h * bytesPerPixel;
       if (nChannels == null) {
-        nChannels = buf.length / (w * h * bytesPerPixel);
+        nChannels = getChannelCount(buf, pixelType, w, h);
       }
-      interleaved = ifd.getPlanarConfiguration() == 1;
+      strips = packStrips(buf, ifd, pixelType, w, h, nChannels, copyDirectly);
+    }
 
+    // Compress strips according to given differencing and compression schemes,
+    // this operation is NOT synchronized and is the ONLY portion of the
+    // TiffWriter.saveBytes() --> TiffSaver.writeImage() stack that is NOT
+    // synchronized.
+    compressStrips(strips, ifd, nChannels);
+
+    // This operation is synchronized
+    synchronized (this) {
+      writeImageIFD(ifd, no, strips, nChannels, last, x ,y);
+    }
+  }
+
+  /**
+   * Compresses a rectangle of pixels without writing anything to the file.
+   * This does the same work as
+   * {@link #writeImage(byte[], IFD, int, int, int, int, int, int, boolean)}
+   * up to the point where the tiles or strips are written, so that several
+   * rectangles can be compressed concurrently and then written in order
+   * with {@link #writeCompressedImage}.
+   *
+   * @param buf The block that is to be compressed.
+   * @param ifd The IFD that will be used to write the block; this must not
+   *            be shared with another thread.
+   * @param pixelType The type of pixels.
+   * @param w   The width of the rectangle.
+   * @param h   The height of the rectangle.
+   * @return the compressed strips or tiles
+   * @throws FormatException
+   * @throws IOException
+   */
+  public byte[][] compressImage(byte[] buf, IFD ifd, int pixelType, int w,
+    int h)
+    throws FormatException, IOException
+  {
+    if (buf == null) {
+      throw new FormatException("Image data cannot be null");
+    }
+    if (ifd == null) {
+      throw new FormatException("IFD cannot be null");
+    }
+    int nChannels = getChannelCount(buf, pixelType, w, h);
+    byte[][] strips = packStrips(buf, ifd, pixelType, w, h, nChannels, false);
+    compressStrips(strips, ifd, nChannels);
+    return strips;
+  }
+
+  /**
+   * Writes strips or tiles returned by
+   * {@link #compressImage(byte[], IFD, int, int, int)}.
+   *
+   * @param strips The compressed strips or tiles.
+   * @param ifd The Image File Directories. Mustn't be <code>null</code>.
+   * @param no the plane index within the current series.
+   * @param pixelType The type of pixels.
+   * @param x   The X-coordinate of the top-left corner.
+   * @param y   The Y-coordinate of the top-left corner.
+   * @param last Pass <code>true</code> if it is the last image,
+   *             <code>false</code> otherwise.
+   * @param nChannels The number of channels in the compressed block.
+   * @throws FormatException
+   * @throws IOException
+   */
+  public void writeCompressedImage(byte[][] strips, IFD ifd, int no,
+    int pixelType, int x, int y, boolean last, int nChannels)
+    throws FormatException, IOException
+  {
+    if (strips == null) {
+      throw new FormatException("Image data cannot be null");
+    }
+    if (ifd == null) {
+      throw new FormatException("IFD cannot be null");
+    }
+    synchronized (this) {
       makeValidIFD(ifd, pixelType, nChannels);
+      writeImageIFD(ifd, no, strips, nChannels, last, x, y);
+    }
+  }
 
-      // create pixel output buffers
-
-      compression = ifd.getCompression();
-      tileWidth = (int) ifd.getTileWidth();
-      tileHeight = (int) ifd.getTileLength();
-      int tilesPerRow = (int) ifd.getTilesPerRow();
-      int rowsPerStrip = (int) ifd.getRowsPerStrip()[0];
-      int stripSize = rowsPerStrip * tileWidth * bytesPerPixel;
-      nStrips =
-        ((w + tileWidth - 1) / tileWidth) * ((h + tileHeight - 1) / tileHeight);
-
-      if (interleaved) stripSize *= nChannels;
-      else nStrips *= nChannels;
-
-      stripBuf = new ByteArrayOutputStream[nStrips];
-      DataOutputStream[] stripOut = new DataOutputStream[nStrips];
-      for (int strip=0; strip<nStrips; strip++) {
-        stripBuf[strip] = new ByteArrayOutputStream(stripSize);
-        stripOut[strip] = new DataOutputStream(stripBuf[strip]);
-      }
-      int[] bps = ifd.getBitsPerSample();
-      boolean channelsAllSameSize = true;
-      for (int c = 0; c < nChannels; c++)
-        if (bps[c] != bytesPerPixel * 8)
-          channelsAllSameSize = false;
-
-      // write pixel strips to output buffers
-      // Check for the sane cases
-      if (channelsAllSameSize &&
-        (ifd.getImageWidth() == w && ifd.getTileWidth() == w) ||
-        (tileHeight * tileWidth * nChannels * bytesPerPixel == buf.length))
-      {
-        // If the input, output, and tile widths are all the same,
-        // and the input bytesPerPixel (which is actually bytes per sample)
-        // matches the bits per channel for all channels,
-        // then the input can be directly copied to the output in appropriate size strips.
-        // Any interleaving of channels will be the same for input and output.
-        if (buf.length % stripSize == 0) {
-          for (int strip = 0; strip < nStrips; strip++) {
-            stripOut[strip].write(buf, strip * stripSize, stripSize);
-          }
-        } else {
-          for (int strip = 0; strip < nStrips - 1; strip++) {
-            stripOut[strip].write(buf, strip * stripSize, stripSize);
-          }
-          // Sigh.  Need to pad the last strip.
-          int pos = (nStrips - 1) * stripSize;
-          int len = buf.length - pos;
-          stripOut[nStrips - 1].write(buf, pos, len);
-          for (int n = len; n < stripSize; n++) {
-            stripOut[nStrips - 1].writeByte(0);
-          }
+  /** Returns the number of channels in the given block of pixels. */
+  private int getChannelCount(byte[] buf, int pixelType, int w, int h) {
+    return buf.length / (w * h * FormatTools.getBytesPerPixel(pixelType));
+  }
+
+  /**
+   * Splits the given block into uncompressed strips or tiles, padding
+   * partial tiles as needed.
+   */
+  private byte[][] packStrips(byte[] buf, IFD ifd, int pixelType, int w,
+    int h, int nChannels, boolean copyDirectly)
+    throws FormatException, IOException
+  {
+    int bytesPerPixel = FormatTools.getBytesPerPixel(pixelType);
+    int blockSize = w * h * bytesPerPixel;
+    boolean interleaved = ifd.getPlanarConfiguration() == 1;
+
+    makeValidIFD(ifd, pixelType, nChannels);
+
+    // create pixel output buffers
+
+    int tileWidth = (int) ifd.getTileWidth();
+    int tileHeight = (int) ifd.getTileLength();
+    int tilesPerRow = (int) ifd.getTilesPerRow();
+    int rowsPerStrip = (int) ifd.getRowsPerStrip()[0];
+    int stripSize = rowsPerStrip * tileWidth * bytesPerPixel;
+    int nStrips =
+      ((w + tileWidth - 1) / tileWidth) * ((h + tileHeight - 1) / tileHeight);
+
+    if (interleaved) stripSize *= nChannels;
+    else nStrips *= nChannels;
+
+    ByteArrayOutputStream[] stripBuf = new ByteArrayOutputStream[nStrips];
+    DataOutputStream[] stripOut = new DataOutputStream[nStrips];
+    for (int strip=0; strip<nStrips; strip++) {
+      stripBuf[strip] = new ByteArrayOutputStream(stripSize);
+      stripOut[strip] = new DataOutputStream(stripBuf[strip]);
+    }
+    int[] bps = ifd.getBitsPerSample();
+    boolean channelsAllSameSize = true;
+    for (int c = 0; c < nChannels; c++)
+      if (bps[c] != bytesPerPixel * 8)
+        channelsAllSameSize = false;
+
+    // write pixel strips to output buffers
+    // Check for the sane cases
+    if (channelsAllSameSize &&
+      (ifd.getImageWidth() == w && ifd.getTileWidth() == w) ||
+      (tileHeight * tileWidth * nChannels * bytesPerPixel == buf.length))
+    {
+      // If the input, output, and tile widths are all the same,
+      // and the input bytesPerPixel (which is actually bytes per sample)
+      // matches the bits per channel for all channels,
+      // then the input can be directly copied to the output in appropriate size strips.
+      // Any interleaving of channels will be the same for input and output.
+      if (buf.length % stripSize == 0) {
+        for (int strip = 0; strip < nStrips; strip++) {
+          stripOut[strip].write(buf, strip * stripSize, stripSize);
         }
       } else {
-        int effectiveStrips = !interleaved ? nStrips / nChannels : nStrips;
-        if (effectiveStrips == 1 && copyDirectly) {
-          stripOut[0].write(buf);
+        for (int strip = 0; strip < nStrips - 1; strip++) {
+          stripOut[strip].write(buf, strip * stripSize, stripSize);
         }
-        else {
-          for (int strip = 0; strip < effectiveStrips; strip++) {
-            // This is broken; the tilesPerRow is based on output image size and tile size,
-            // but the xOffset and yOffset are used to compute offsets into the input image buffer.
-            // This is only sane if the input image width and the output image width are the same.
-            int xOffset = (strip % tilesPerRow) * tileWidth;
-            int yOffset = (strip / tilesPerRow) * tileHeight;
-            for (int row=0; row<tileHeight; row++) {
-              for (int col=0; col<tileWidth; col++) {
-                int ndx = ((row+yOffset) * w + col + xOffset) * bytesPerPixel;
-                for (int c=0; c<nChannels; c++) {
-                  for (int n=0; n<bps[c]/8; n++) {
-                    if (interleaved) {
-                      int off = ndx * nChannels + c * bytesPerPixel + n;
-                      if (row >= h || col >= w) {
-                        stripOut[strip].writeByte(0);
-                      } else if (off < buf.length) {
-                        stripOut[strip].writeByte(buf[off]);
-                      }
-                      else {
-                        stripOut[strip].writeByte(0);
-                      }
+        // Sigh.  Need to pad the last strip.
+        int pos = (nStrips - 1) * stripSize;
+        int len = buf.length - pos;
+        stripOut[nStrips - 1].write(buf, pos, len);
+        for (int n = len; n < stripSize; n++) {
+          stripOut[nStrips - 1].writeByte(0);
+        }
+      }
+    } else {
+      int effectiveStrips = !interleaved ? nStrips / nChannels : nStrips;
+      if (effectiveStrips == 1 && copyDirectly) {
+        stripOut[0].write(buf);
+      }
+      else {
+        for (int strip = 0; strip < effectiveStrips; strip++) {
+          // This is broken; the tilesPerRow is based on output image size and tile size,
+          // but the xOffset and yOffset are used to compute offsets into the input image buffer.
+          // This is only sane if the input image width and the output image width are the same.
+          int xOffset = (strip % tilesPerRow) * tileWidth;
+          int yOffset = (strip / tilesPerRow) * tileHeight;
+          for (int row=0; row<tileHeight; row++) {
+            for (int col=0; col<tileWidth; col++) {
+              int ndx = ((row+yOffset) * w + col + xOffset) * bytesPerPixel;
+              for (int c=0; c<nChannels; c++) {
+                for (int n=0; n<bps[c]/8; n++) {
+                  if (interleaved) {
+                    int off = ndx * nChannels + c * bytesPerPixel + n;
+                    if (row >= h || col >= w) {
+                      stripOut[strip].writeByte(0);
+                    } else if (off < buf.length) {
+                      stripOut[strip].writeByte(buf[off]);
                     }
                     else {
-                      int off = c * blockSize + ndx + n;
-                      int realStrip = (c * (nStrips / nChannels)) + strip;
-                      if (row >= h || col >= w) {
-                        stripOut[realStrip].writeByte(0);
-                      } else if (off < buf.length) {
-                        stripOut[realStrip].writeByte(buf[off]);
-                      }
-                      else {
-                        stripOut[realStrip].writeByte(0);
-                      }
+                      stripOut[strip].writeByte(0);
+                    }
+                  }
+                  else {
+                    int off = c * blockSize + ndx + n;
+                    int realStrip = (c * (nStrips / nChannels)) + strip;
+                    if (row >= h || col >= w) {
+                      stripOut[realStrip].writeByte(0);
+                    } else if (off < buf.length) {
+                      stripOut[realStrip].writeByte(buf[off]);
+                    }
+                    else {
+                      stripOut[realStrip].writeByte(0);
                     }
                   }
                 }
@@ -410,13 +577,25 @@ public class TiffSaver implements Closeable {
       }
     }
 
-    // Compress strips according to given differencing and compression schemes,
-    // this operation is NOT synchronized and is the ONLY portion of the
-    // TiffWriter.saveBytes() --> TiffSaver.writeImage() stack that is NOT
-    // synchronized.
     byte[][] strips = new byte[nStrips][];
     for (int strip=0; strip<nStrips; strip++) {
       strips[strip] = stripBuf[strip].toByteArray();
+    }
+    return strips;
+  }
+
+  /**
+   * Compresses each of the given strips in place, according to the
+   * differencing and compression schemes in the IFD.
+   */
+  private void compressStrips(byte[][] strips, IFD ifd, int nChannels)
+    throws FormatException, IOException
+  {
+    TiffCompression compression = ifd.getCompression();
+    int tileWidth = (int) ifd.getTileWidth();
+    int tileHeight = (int) ifd.getTileLength();
+    boolean interleaved = ifd.getPlanarConfiguration() == 1;
+    for (int strip=0; strip<strips.length; strip++) {
       TiffCompression.difference(strips[strip], ifd);
       CodecOptions codecOptions = compression.getCompressionCodecOptions(
           ifd, options);
@@ -427,14 +606,9 @@ public class TiffSaver implements Closeable {
       strips[strip] = compression.compress(strips[strip], codecOptions);
       if (LOGGER.isDebugEnabled()) {
         LOGGER.debug(String.format("Compressed strip %d/%d length %d",
-            strip + 1, nStrips, strips[strip].length));
+            strip + 1, strips.length, strips[strip].length));
       }
     }
-
-    // This operation is synchronized
-    synchronized (this) {
-      writeImageIFD(ifd, no, strips, nChannels, last, x ,y);
-    }
   }
 
   /**
@@ -456,50 +630,122 @@ public class TiffSaver implements Closeable {
     LOGGER.debug("Attempting to write image IFD.");
     boolean isTiled = ifd.isTiled();
     long defaultByteCount = 0L;
+    long ifdOffset = -1;
 
-    RandomAccessInputStream in = null;
-    try {
-      if (!sequentialWrite) {
-        if (filename != null) {
-          in = new RandomAccessInputStream(filename);
-        }
-        else if (bytes != null) {
-          in = new RandomAccessInputStream(bytes);
-        }
-        else {
-          throw new IllegalArgumentException(
-              "Filename and bytes are null, cannot create new input stream!");
-        }
-        TiffParser parser = new TiffParser(in);
-        long[] ifdOffsets = parser.getIFDOffsets();
-        LOGGER.debug("IFD offsets: {}", Arrays.toString(ifdOffsets));
-        if (no < ifdOffsets.length) {
-          out.seek(ifdOffsets[no]);
-          LOGGER.debug("Reading IFD from {} in non-sequential write.",
-              ifdOffsets[no]);
-          ifd = parser.getIFD(ifdOffsets[no]);
-        }
-        else if (no > 0 && no - 1 < ifdOffsets.length) {
-          IFD copy = parser.getIFD(ifdOffsets[no - 1]);
-          for (Integer tag : copy.keySet()) {
-            if (!ifd.containsKey(tag)) {
-              ifd.put(tag, copy.get(tag));
-            }
+    if (!sequentialWrite) {
+      readIFDOffsets();
+      if (dirtyIFD >= 0 && dirtyIFD != no) {
+        flush();
+      }
+      if (no < ifdOffsets.size()) {
+        ifdOffset = ifdOffsets.get(no);
+        LOGGER.debug("Updating IFD at {} in non-sequential write.", ifdOffset);
+        ifd = getDirectoryIFD(no);
+      }
+      else if (no > 0 && no - 1 < ifdOffsets.size()) {
+        IFD copy = getDirectoryIFD(no - 1);
+        for (Integer tag : copy.keySet()) {
+          if (!ifd.containsKey(tag)) {
+            ifd.put(tag, copy.get(tag));
           }
-          long next = parser.getNextOffset(ifdOffsets[no - 1]);
-          out.seek(next);
         }
+        out.seek(out.length());
+      }
+    }
+    else if (isTiled) {
+      defaultByteCount = strips[0].length;
+    }
+    writeIFDStrips(ifd, no, strips, nChannels, last, x, y, defaultByteCount,
+      ifdOffset);
+  }
+
+  /**
+   * Reads the offsets of the IFDs that are already in the file, if that
+   * has not been done since the header was written.
+   */
+  private void readIFDOffsets() throws IOException {
+    if (ifdOffsets != null) {
+      return;
+    }
+    ifdOffsets = new ArrayList<Long>();
+    ifds = new ArrayList<IFD>();
+    lastNextOffset = 0;
+    try (RandomAccessInputStream in = createInputStream()) {
+      TiffParser parser = new TiffParser(in);
+      long[] offsets = parser.getIFDOffsets();
+      LOGGER.debug("IFD offsets: {}", Arrays.toString(offsets));
+      for (long offset : offsets) {
+        ifdOffsets.add(offset);
+        ifds.add(null);
       }
-      else if (isTiled) {
-        defaultByteCount = strips[0].length;
+      if (offsets.length > 0) {
+        long offset = offsets[offsets.length - 1];
+        ifds.set(offsets.length - 1, readIFD(parser, offset));
+        lastNextOffset = parser.getNextOffset(offset);
       }
-      writeIFDStrips(ifd, no, strips, nChannels, last, x, y, defaultByteCount);
     }
-    finally {
-      if (in != null) {
-        in.close();
+  }
+
+  /**
+   * Returns the IFD at the given index in ifdOffsets, reading it from the
+   * file if it is not held in memory.
+   */
+  private IFD getDirectoryIFD(int no) throws IOException {
+    IFD ifd = ifds.get(no);
+    if (ifd == null) {
+      ifd = readIFD(no);
+      ifds.set(no, ifd);
+    }
+    return ifd;
+  }
+
+  /** Reads the IFD at the given index in ifdOffsets from the file. */
+  private IFD readIFD(int no) throws IOException {
+    try (RandomAccessInputStream in = createInputStream()) {
+      TiffParser parser = new TiffParser(in);
+      parser.checkHeader();
+      LOGGER.debug("Reading IFD from {} in non-sequential write.",
+        ifdOffsets.get(no));
+      return readIFD(parser, ifdOffsets.get(no));
+    }
+  }
+
+  /**
+   * Reads the IFD at the given offset, including any values that the
+   * parser would otherwise read from the stream on demand, so that the
+   * IFD can still be used after the stream is closed.
+   */
+  private IFD readIFD(TiffParser parser, long offset) throws IOException {
+    IFD ifd = parser.getIFD(offset);
+    for (Integer tag : new ArrayList<Integer>(ifd.keySet())) {
+      Object value = ifd.get(tag);
+      if (value instanceof OnDemandLongArray) {
+        ifd.put(tag, ((OnDemandLongArray) value).toArray());
       }
     }
+    return ifd;
+  }
+
+  /** Opens a new input stream on the data being written. */
+  private RandomAccessInputStream createInputStream() throws IOException {
+    if (filename != null) {
+      return new RandomAccessInputStream(filename);
+    }
+    else if (bytes != null) {
+      return new RandomAccessInputStream(bytes);
+    }
+    throw new IllegalArgumentException(
+      "Filename and bytes are null, cannot create new input stream!");
+  }
+
+  /**
+   * Writes any unwritten IFD changes, and discards the IFDs held in memory
+   * so that they are read again from the file if needed.
+   */
+  private void resetIFDs() throws IOException {
+    flush();
+    ifdOffsets = null;
+    ifds = null;
   }
 
   public void writeIFD(IFD ifd, long nextOffset)
@@ -698,6 +944,7 @@ public class TiffSaver implements Closeable {
   {
     if (raf == null)
       throw new FormatException("Output cannot be null");
+    resetIFDs();
     TiffParser parser = new TiffParser(raf);
     long[] offsets = parser.getIFDOffsets();
     out.seek(raf.getFilePointer() - (bigTiff ? 8 : 4));
@@ -711,6 +958,7 @@ public class TiffSaver implements Closeable {
     if (raf == null) {
       throw new FormatException("Input stream cannot be null");
     }
+    resetIFDs();
     int bytesPerEntry = bigTiff ?
       TiffConstants.BIG_TIFF_BYTES_PER_ENTRY : TiffConstants.BYTES_PER_ENTRY;
     raf.seek(offset);
@@ -810,6 +1058,7 @@ public class TiffSaver implements Closeable {
     long ifdOffset, int tag, Object value, boolean skipHeaderCheck)
     throws FormatException, IOException
   {
+    resetIFDs();
     if (!skipHeaderCheck) {
       raf.seek(0);
       TiffParser parser = new TiffParser(raf);
@@ -1024,7 +1273,8 @@ public class TiffSaver implements Closeable {
   }
 
   private void writeIFDStrips(IFD ifd, int no, byte[][] strips,
-      int nChannels, boolean last, int x, int y, long defaultByteCount) throws FormatException, IOException {
+      int nChannels, boolean last, int x, int y, long defaultByteCount,
+      long ifdOffset) throws FormatException, IOException {
     int tilesPerRow = (int) ifd.getTilesPerRow();
     int tilesPerColumn = (int) ifd.getTilesPerColumn();
     boolean interleaved = ifd.getPlanarConfiguration() == 1;
@@ -1068,10 +1318,12 @@ public class TiffSaver implements Closeable {
       while (offsets.size() < totalTiles) {
         offsets.add(0L);
       }
-      if (isTiled && tileOrStripOffsetX == 0 && tileOrStripOffsetY == 0) {
+      if (sequentialWrite && isTiled && tileOrStripOffsetX == 0 &&
+        tileOrStripOffsetY == 0)
+      {
         sequentialTileOffsets = offsets;
       }
-      else if (isTiled) {
+      else if (sequentialWrite && isTiled) {
         offsets = sequentialTileOffsets;
       }
     }
@@ -1086,14 +1338,22 @@ public class TiffSaver implements Closeable {
     }
 
     long fp = out.getFilePointer();
-    if (isTiled && tileOrStripOffsetX == 0 && tileOrStripOffsetY == 0) {
-      sequentialTileFilePointer = fp;
+    if (ifdOffset >= 0) {
+      // the IFD is already in the file, and will be updated in place
+      fp = ifdOffset;
     }
-    else if (isTiled) {
-      fp = sequentialTileFilePointer;
-    }
-    if (fp == out.getFilePointer()) { // Create IFD only if at the end of file
-      writeIFD(ifd, 0);
+    else {
+      if (sequentialWrite && isTiled && tileOrStripOffsetX == 0 &&
+        tileOrStripOffsetY == 0)
+      {
+        sequentialTileFilePointer = fp;
+      }
+      else if (sequentialWrite && isTiled) {
+        fp = sequentialTileFilePointer;
+      }
+      if (fp == out.getFilePointer()) { // Create IFD only if at the end of file
+        writeIFD(ifd, 0);
+      }
     }
 
     // strips.length is the total number of strips being written during
@@ -1153,6 +1413,21 @@ public class TiffSaver implements Closeable {
       ifd.putIFDValue(IFD.STRIP_OFFSETS, toPrimitiveArray(offsets));
     }
     long endFP = out.getFilePointer();
+    long nextOffset = last ? 0 : endFP;
+
+    if (ifdOffset >= 0) {
+      // defer writing the IFD until a different image is written
+      if (!last && no < ifdOffsets.size() - 1) {
+        nextOffset = ifdOffsets.get(no + 1);
+      }
+      else if (no == ifdOffsets.size() - 1) {
+        lastNextOffset = nextOffset;
+      }
+      dirtyIFD = no;
+      dirtyNextOffset = nextOffset;
+      return;
+    }
+
     if (LOGGER.isDebugEnabled()) {
       LOGGER.debug("Offset before IFD write: {} Seeking to: {}",
           out.getFilePointer(), fp);
@@ -1165,9 +1440,28 @@ public class TiffSaver implements Closeable {
       LOGGER.debug("Writing tile/strip byte counts: {}",
           Arrays.toString(toPrimitiveArray(byteCounts)));
     }
-    writeIFD(ifd, last ? 0 : endFP);
+    writeIFD(ifd, nextOffset);
     if (LOGGER.isDebugEnabled()) {
       LOGGER.debug("Offset after IFD write: {}", out.getFilePointer());
     }
+
+    if (!sequentialWrite && no == ifdOffsets.size()) {
+      // keep a copy of the new IFD, so that it does not need to be read
+      // back from the file when the next tile or image is written
+      int previous = ifdOffsets.size() - 1;
+      if (previous >= 0 && lastNextOffset != fp) {
+        // data was added to an earlier image after the previous IFD was
+        // written, so the previous IFD does not point to this one yet
+        dirtyIFD = previous;
+        dirtyNextOffset = fp;
+        flush();
+      }
+      if (previous >= 0) {
+        ifds.set(previous, null);
+      }
+      ifdOffsets.add(fp);
+      ifds.add(new IFD(ifd));
+      lastNextOffset = nextOffset;
+    }
   }
 }
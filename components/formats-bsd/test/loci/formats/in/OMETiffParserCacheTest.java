@@ -0,0 +1,124 @@
+/*
+ * #%L
+ * BSD implementations of Bio-Formats readers and writers
+ * %%
+ * Copyright (C) 2006 - 2017 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package loci.formats.in;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import loci.common.RandomAccessInputStream;
+import loci.formats.tiff.TiffParser;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for the parser cache used by {@link OMETiffReader}.
+ */
+public class OMETiffParserCacheTest {
+
+  private static final int MAX_OPEN_FILES = 4;
+
+  private OMETiffReader.ParserCache cache;
+
+  private List<TrackingStream> streams;
+
+  @BeforeMethod
+  public void setUp() {
+    cache = new OMETiffReader.ParserCache(MAX_OPEN_FILES);
+    streams = new ArrayList<TrackingStream>();
+  }
+
+  @Test
+  public void testEvictsLeastRecentlyUsed() throws IOException {
+    for (int i=0; i<MAX_OPEN_FILES; i++) {
+      cache.put(fileName(i), createParser());
+    }
+    // touch the first file so that the second one is evicted next
+    cache.get(fileName(0));
+    cache.put(fileName(MAX_OPEN_FILES), createParser());
+
+    assertEquals(MAX_OPEN_FILES, cache.size());
+    assertTrue(cache.containsKey(fileName(0)));
+    assertFalse(cache.containsKey(fileName(1)));
+    assertTrue(streams.get(1).closed);
+    for (int i=0; i<streams.size(); i++) {
+      if (i != 1) {
+        assertFalse(streams.get(i).closed);
+      }
+    }
+  }
+
+  @Test
+  public void testClearClosesParsers() throws IOException {
+    for (int i=0; i<MAX_OPEN_FILES; i++) {
+      cache.put(fileName(i), createParser());
+    }
+    cache.clear();
+
+    assertEquals(0, cache.size());
+    for (TrackingStream s : streams) {
+      assertTrue(s.closed);
+    }
+  }
+
+  private TiffParser createParser() throws IOException {
+    TrackingStream s = new TrackingStream();
+    streams.add(s);
+    return new TiffParser(s);
+  }
+
+  private static String fileName(int i) {
+    return "pixels_" + i + ".ome.tiff";
+  }
+
+  /** In-memory stream that records whether it has been closed. */
+  private static class TrackingStream extends RandomAccessInputStream {
+    boolean closed;
+
+    TrackingStream() throws IOException {
+      super(new byte[16]);
+    }
+
+    @Override
+    public void close() throws IOException {
+      closed = true;
+      super.close();
+    }
+  }
+
+}
@@ -0,0 +1,210 @@
+/*
+ * #%L
+ * BSD implementations of Bio-Formats readers and writers
+ * %%
+ * Copyright (C) 2016 - 2017 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package loci.formats.utests;
+
+import static org.testng.AssertJUnit.assertEquals;
+
+import java.util.Hashtable;
+import java.util.Random;
+
+import loci.common.DataTools;
+import loci.formats.FormatException;
+import loci.formats.FormatReader;
+import loci.formats.MetadataTable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testng.annotations.Test;
+
+/**
+ * Long-running benchmark for filtered original metadata population.
+ *
+ * A trace of key/value pairs shaped like the metadata recorded from
+ * CZI and ND2 files (hierarchical keys, numeric and string values, with a
+ * small fraction containing markup or control characters) is added with
+ * {@link FormatReader#addGlobalMeta(String, Object)} and with the
+ * previous regex and Hashtable based implementation, which is kept here
+ * as a reference.  Both must produce the same table.
+ */
+public class AddMetaLongRunningTest {
+
+  private static final Logger LOGGER =
+    LoggerFactory.getLogger(AddMetaLongRunningTest.class);
+
+  private static final int TRACE_LENGTH = 500000;
+
+  private static final int ITERATIONS = 5;
+
+  @Test
+  public void testAddMeta() {
+    String[] keys = new String[TRACE_LENGTH];
+    Object[] values = new Object[TRACE_LENGTH];
+    makeTrace(keys, values);
+
+    Hashtable<String, Object> expected = null;
+    Hashtable<String, Object> actual = null;
+    long legacyTime = Long.MAX_VALUE;
+    long currentTime = Long.MAX_VALUE;
+    for (int iteration=0; iteration<ITERATIONS; iteration++) {
+      long start = System.nanoTime();
+      expected = new Hashtable<String, Object>();
+      for (int i=0; i<keys.length; i++) {
+        legacyAddMeta(keys[i], values[i], expected);
+      }
+      legacyTime = Math.min(legacyTime, System.nanoTime() - start);
+
+      start = System.nanoTime();
+      TraceReader reader = new TraceReader();
+      for (int i=0; i<keys.length; i++) {
+        reader.add(keys[i], values[i]);
+      }
+      actual = reader.getMetadata();
+      currentTime = Math.min(currentTime, System.nanoTime() - start);
+    }
+
+    LOGGER.info("{} entries: {} ns per entry before, {} ns per entry after",
+      new Object[] {TRACE_LENGTH, legacyTime / TRACE_LENGTH,
+      currentTime / TRACE_LENGTH});
+    assertEquals(expected, actual);
+  }
+
+  /** Fills the arrays with a reproducible key/value trace. */
+  private static void makeTrace(String[] keys, Object[] values) {
+    Random random = new Random(1234);
+    String[] groups = {"Information|Image|Channel", "Scaling|Items|Distance",
+      "Experiment|AcquisitionBlock|SubDimensionSetups", "Metadata|Objective",
+      "ImageDocument|Metadata|Information|Instrument|Detector"};
+    String[] fields = {"Name", "Wavelength", "ExposureTime", "Value",
+      "DefaultUnitFormat", "AcquisitionMode", "Gain", "Binning"};
+    String[] strings = {"Widefield", "EM-CCD", "1x1", "&lt;none&gt;",
+      "µm", "Camera 1\u0000", "Plan-Apochromat 20x/0.8 M27", " "};
+    for (int i=0; i<keys.length; i++) {
+      StringBuilder key = new StringBuilder();
+      key.append(groups[random.nextInt(groups.length)]);
+      key.append('|');
+      key.append(fields[random.nextInt(fields.length)]);
+      key.append(" #");
+      key.append(random.nextInt(keys.length / 8));
+      int special = random.nextInt(100);
+      if (special == 0) {
+        key.append("\u0001");
+      }
+      else if (special == 1) {
+        key.append("<tag>");
+      }
+      else if (special == 2) {
+        key.setLength(0);
+        key.append(random.nextInt(1000));
+      }
+      keys[i] = key.toString();
+
+      switch (random.nextInt(4)) {
+        case 0:
+          values[i] = random.nextDouble();
+          break;
+        case 1:
+          values[i] = random.nextInt();
+          break;
+        default:
+          values[i] = strings[random.nextInt(strings.length)];
+      }
+    }
+  }
+
+  /** The filtering done by FormatReader.addMeta before it was optimized. */
+  private static void legacyAddMeta(String key, Object value,
+    Hashtable<String, Object> meta)
+  {
+    key = key.trim();
+    boolean string = value instanceof String || value instanceof Character;
+    String val = string ? String.valueOf(value) : null;
+
+    boolean simple = string ||
+      value instanceof Number ||
+      value instanceof Boolean;
+    if (!simple) return;
+
+    int maxLen = 8192;
+    if (key.length() > maxLen) return;
+    if (string && val.length() > maxLen) return;
+
+    key = DataTools.sanitize(key);
+    if (string) val = DataTools.sanitize(val);
+
+    if (!key.matches(".*[a-zA-Z].*")) return;
+
+    String[] invalidSequences = new String[] {
+      "&lt;", "&gt;", "&amp;", "<", ">", "&"
+    };
+    for (int i=0; i<invalidSequences.length; i++) {
+      if (key.indexOf(invalidSequences[i]) >= 0) {
+        key = key.replaceAll(invalidSequences[i], "");
+      }
+      if (string && val.indexOf(invalidSequences[i]) >= 0) {
+        val = val.replaceAll(invalidSequences[i], "");
+      }
+    }
+
+    if (key.length() == 0) return;
+    if (string && val.trim().length() == 0) return;
+
+    meta.put(key, val == null ? value : val);
+  }
+
+  /** Reader that only records filtered global metadata. */
+  private static class TraceReader extends FormatReader {
+
+    public TraceReader() {
+      super("Trace", "trace");
+      metadata = new MetadataTable();
+      setMetadataFiltered(true);
+    }
+
+    public void add(String key, Object value) {
+      addGlobalMeta(key, value);
+    }
+
+    public Hashtable<String, Object> getMetadata() {
+      return metadata;
+    }
+
+    @Override
+    public byte[] openBytes(int no, byte[] buf, int x, int y, int w, int h)
+      throws FormatException
+    {
+      return buf;
+    }
+
+  }
+
+}
@@ -0,0 +1,280 @@
+/*
+ * #%L
+ * BSD implementations of Bio-Formats readers and writers
+ * %%
+ * Copyright (C) 2006 - 2017 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package loci.formats.utests;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import loci.formats.cache.BoundedCache;
+import loci.formats.cache.CacheEvent;
+import loci.formats.cache.CacheException;
+import loci.formats.cache.CacheListener;
+import loci.formats.cache.CrosshairStrategy;
+import loci.formats.cache.ICacheSource;
+import loci.formats.cache.ICacheStrategy;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for {@link BoundedCache}.
+ */
+public class BoundedCacheTest {
+
+  private static final int COUNT = 20;
+
+  private static final int PLANE_SIZE = 100;
+
+  private ICacheStrategy strategy;
+
+  private CountingSource source;
+
+  private BoundedCache cache;
+
+  private List<Integer> loaded;
+
+  private List<Integer> dropped;
+
+  @BeforeMethod
+  public void setUp() {
+    strategy = new CrosshairStrategy(new int[] {COUNT});
+    strategy.setRange(5, 0);
+    source = new CountingSource();
+    loaded = Collections.synchronizedList(new ArrayList<Integer>());
+    dropped = Collections.synchronizedList(new ArrayList<Integer>());
+  }
+
+  @AfterMethod
+  public void tearDown() {
+    if (cache != null) cache.close();
+  }
+
+  @Test
+  public void testBudget() throws CacheException {
+    createCache(350, 1, false);
+    assertEquals(0, cache.getCachedCount());
+    assertNull(cache.getObject(new int[] {0}));
+
+    cache.recache();
+    // the load list is 0, 1, 19, 2, 18, ... and only three planes fit
+    // the fourth plane must be read before it is known not to fit
+    assertEquals(3, cache.getCachedCount());
+    assertEquals(300, cache.getCachedBytes());
+    assertEquals(4, source.loads.get());
+    assertEquals(Arrays.asList(0, 1, 19), sorted(loaded));
+    assertTrue(cache.isInCache(19));
+    assertFalse(cache.isInCache(2));
+    byte[] plane = (byte[]) cache.getObject(new int[] {1});
+    assertEquals(1, plane[0]);
+
+    // nothing more fits, so recaching again should not read anything
+    cache.recache();
+    assertEquals(4, source.loads.get());
+  }
+
+  @Test
+  public void testMove() throws CacheException {
+    createCache(550, 1, false);
+    cache.recache();
+    assertEquals(Arrays.asList(0, 1, 2, 18, 19), sorted(loaded));
+
+    // 2 and 4 are still wanted, so only the planes furthest away are dropped
+    loaded.clear();
+    cache.setCurrentPos(new int[] {3});
+    cache.recache();
+    assertEquals(5, cache.getCachedCount());
+    assertTrue(cache.getCachedBytes() <= 550);
+    for (int i=1; i<=5; i++) {
+      assertTrue(String.valueOf(i), cache.isInCache(i));
+    }
+    assertEquals(Arrays.asList(3, 4, 5), sorted(loaded));
+    assertEquals(Arrays.asList(0, 18, 19), sorted(dropped));
+  }
+
+  @Test
+  public void testUnwantedPlanesKept() throws CacheException {
+    createCache(2000, 1, false);
+    cache.recache();
+    assertEquals(11, cache.getCachedCount());
+
+    // everything still fits, so moving away does not drop anything
+    cache.setCurrentPos(new int[] {10});
+    cache.recache();
+    assertEquals(0, dropped.size());
+    assertEquals(COUNT, cache.getCachedCount());
+
+    // moving back should not need to read the original planes again
+    int loads = source.loads.get();
+    cache.setCurrentPos(new int[] {0});
+    cache.recache();
+    assertEquals(loads, source.loads.get());
+    assertEquals(2000, cache.getCachedBytes());
+  }
+
+  @Test
+  public void testSetMaxBytes() throws CacheException {
+    createCache(1100, 1, false);
+    cache.recache();
+    assertEquals(11, cache.getCachedCount());
+
+    cache.setMaxBytes(250);
+    assertEquals(2, cache.getCachedCount());
+    assertEquals(200, cache.getCachedBytes());
+    assertTrue(cache.isInCache(0));
+    assertTrue(cache.isInCache(1));
+    assertEquals(9, dropped.size());
+  }
+
+  @Test
+  public void testOversizedObject() throws CacheException {
+    createCache(PLANE_SIZE - 1, 1, false);
+    cache.recache();
+    assertEquals(0, cache.getCachedCount());
+    assertEquals(0, loaded.size());
+  }
+
+  @Test
+  public void testPrefetch() throws Exception {
+    createCache(700, 4, true);
+    waitFor(0, 1, 2, 3, 17, 18, 19);
+    assertEquals(700, cache.getCachedBytes());
+
+    cache.setCurrentPos(new int[] {10});
+    waitFor(7, 8, 9, 10, 11, 12, 13);
+    assertEquals(7, cache.getCachedCount());
+    assertEquals(700, cache.getCachedBytes());
+    // planes of lower priority may be loaded and dropped along the way
+    assertTrue(dropped.containsAll(Arrays.asList(0, 1, 2, 3, 17, 18, 19)));
+  }
+
+  @Test
+  public void testRangeChangePrefetches() throws Exception {
+    createCache(PLANE_SIZE * COUNT, 2, true);
+    waitForCount(11);
+    strategy.setRange(8, 0);
+    waitForCount(17);
+  }
+
+  @Test
+  public void testListenersNotCalledWithLockHeld() throws Exception {
+    createCache(700, 2, true);
+    final List<Integer> locked =
+      Collections.synchronizedList(new ArrayList<Integer>());
+    cache.addCacheListener(new CacheListener() {
+      @Override
+      public void cacheUpdated(CacheEvent e) {
+        // a listener holding the cache's lock here could deadlock with
+        // a prefetch thread that is informing listeners
+        if (Thread.holdsLock(cache)) locked.add(e.getType());
+      }
+    });
+    cache.setCurrentPos(new int[] {10});
+    cache.setMaxBytes(300);
+    cache.recache();
+    waitFor(9, 10, 11);
+    assertEquals(Collections.emptyList(), locked);
+  }
+
+  @Test(expectedExceptions = CacheException.class)
+  public void testInvalidBudget() throws CacheException {
+    createCache(0, 1, false);
+  }
+
+  // -- Helper methods --
+
+  private void createCache(long maxBytes, int threads, boolean autoUpdate)
+    throws CacheException
+  {
+    cache = new BoundedCache(strategy, source, autoUpdate, maxBytes, threads);
+    cache.addCacheListener(new CacheListener() {
+      @Override
+      public void cacheUpdated(CacheEvent e) {
+        if (e.getType() == CacheEvent.OBJECT_LOADED) loaded.add(e.getIndex());
+        if (e.getType() == CacheEvent.OBJECT_DROPPED) {
+          dropped.add(e.getIndex());
+        }
+      }
+    });
+  }
+
+  private void waitForCount(int count) throws InterruptedException {
+    long end = System.currentTimeMillis() + 10000;
+    while (System.currentTimeMillis() < end) {
+      if (cache.getCachedCount() == count) return;
+      Thread.sleep(10);
+    }
+    assertEquals(count, cache.getCachedCount());
+  }
+
+  private void waitFor(int... indices) throws Exception {
+    long end = System.currentTimeMillis() + 10000;
+    for (int index : indices) {
+      while (!cache.isInCache(index) && System.currentTimeMillis() < end) {
+        Thread.sleep(10);
+      }
+      assertTrue(String.valueOf(index), cache.isInCache(index));
+    }
+  }
+
+  private static List<Integer> sorted(List<Integer> list) {
+    List<Integer> copy = new ArrayList<Integer>(list);
+    Collections.sort(copy);
+    return copy;
+  }
+
+  /** Returns a filled plane for each index, counting the planes read. */
+  private static class CountingSource implements ICacheSource {
+    final AtomicInteger loads = new AtomicInteger();
+
+    @Override
+    public int getObjectCount() { return COUNT; }
+
+    @Override
+    public Object getObject(int index) {
+      loads.incrementAndGet();
+      byte[] plane = new byte[PLANE_SIZE];
+      Arrays.fill(plane, (byte) index);
+      return plane;
+    }
+  }
+
+}
@@ -0,0 +1,92 @@
+/*
+ * #%L
+ * BSD implementations of Bio-Formats readers and writers
+ * %%
+ * Copyright (C) 2006 - 2017 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package loci.formats.utests;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertSame;
+
+import loci.formats.codec.ByteArrayPool;
+
+import org.testng.annotations.Test;
+
+/**
+ * Tests the reuse and size bound of {@link ByteArrayPool}.
+ */
+public class ByteArrayPoolTest {
+
+  @Test
+  public void testReuse() {
+    ByteArrayPool pool = new ByteArrayPool(100);
+    byte[] array = pool.get(10);
+    pool.release(array);
+    assertEquals(10, pool.getPooledBytes());
+    assertSame(array, pool.get(10));
+    assertEquals(0, pool.getPooledBytes());
+    assertEquals(10, pool.getAllocatedBytes());
+  }
+
+  @Test
+  public void testOtherLengthsEvicted() {
+    ByteArrayPool pool = new ByteArrayPool(100);
+    for (int i=0; i<4; i++) {
+      pool.release(new byte[20]);
+    }
+    pool.release(new byte[10]);
+    assertEquals(90, pool.getPooledBytes());
+
+    // arrays of a new length replace those of other lengths once full
+    byte[] array = new byte[30];
+    pool.release(array);
+    assertEquals(30, pool.getPooledBytes());
+    assertSame(array, pool.get(30));
+    assertEquals(0, pool.getAllocatedBytes());
+  }
+
+  @Test
+  public void testSameLengthNotEvicted() {
+    ByteArrayPool pool = new ByteArrayPool(100);
+    for (int i=0; i<6; i++) {
+      pool.release(new byte[20]);
+    }
+    assertEquals(100, pool.getPooledBytes());
+  }
+
+  @Test
+  public void testTooLarge() {
+    ByteArrayPool pool = new ByteArrayPool(100);
+    pool.release(new byte[10]);
+    pool.release(new byte[101]);
+    assertEquals(10, pool.getPooledBytes());
+  }
+
+}
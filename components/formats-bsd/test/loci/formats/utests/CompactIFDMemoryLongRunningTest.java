@@ -0,0 +1,111 @@
+/*
+ * #%L
+ * BSD implementations of Bio-Formats readers and writers
+ * %%
+ * Copyright (C) 2016 - 2017 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package loci.formats.utests;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertTrue;
+
+import loci.common.ByteArrayHandle;
+import loci.common.RandomAccessInputStream;
+import loci.formats.tiff.IFDList;
+import loci.formats.tiff.TiffParser;
+import loci.formats.utests.tiff.CompactIFDTest;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testng.annotations.Test;
+
+/**
+ * Long-running benchmark comparing the heap used by {@link IFDList}s of
+ * compact and non-compact IFDs, parsed from a synthetic 100,000 IFD TIFF.
+ */
+public class CompactIFDMemoryLongRunningTest {
+
+  private static final Logger LOGGER =
+    LoggerFactory.getLogger(CompactIFDMemoryLongRunningTest.class);
+
+  private static final int IFD_COUNT = 100000;
+
+  @Test
+  public void testCompactIFDMemory() throws Exception {
+    byte[] tiff = CompactIFDTest.makeTiff(IFD_COUNT, 1);
+
+    // parse once in each mode first, so that class loading and
+    // other one-time allocations are not measured
+    parse(tiff, false, 100);
+    parse(tiff, true, 100);
+
+    long plain = measure(tiff, false);
+    long compact = measure(tiff, true);
+    LOGGER.info("{} IFDs: {} bytes per IFD, {} bytes per compact IFD",
+      new Object[] {IFD_COUNT, plain / IFD_COUNT, compact / IFD_COUNT});
+    assertTrue("compact IFDs used " + compact + " bytes; IFDs used " + plain,
+      compact * 5 < plain);
+  }
+
+  /** Returns the heap retained by the parsed IFD list, in bytes. */
+  private long measure(byte[] tiff, boolean compact) throws Exception {
+    long before = usedMemory();
+    IFDList ifds = parse(tiff, compact, IFD_COUNT);
+    long after = usedMemory();
+    assertEquals(IFD_COUNT, ifds.size());
+    return after - before;
+  }
+
+  private IFDList parse(byte[] tiff, boolean compact, int count)
+    throws Exception
+  {
+    TiffParser parser = new TiffParser(
+      new RandomAccessInputStream(new ByteArrayHandle(tiff)));
+    parser.setUseCompactIFDs(compact);
+    IFDList ifds = new IFDList();
+    long[] offsets = parser.getIFDOffsets();
+    for (int i=0; i<count; i++) {
+      ifds.add(parser.getIFD(offsets[i]));
+    }
+    return ifds;
+  }
+
+  private static long usedMemory() throws InterruptedException {
+    Runtime runtime = Runtime.getRuntime();
+    long used = Long.MAX_VALUE;
+    // the used heap can still shrink for a few collections
+    for (int i=0; i<5; i++) {
+      System.gc();
+      Thread.sleep(50);
+      used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+    }
+    return used;
+  }
+
+}
@@ -147,6 +147,15 @@ public class CompressDecompressTest {
     assertCompression( TiffCompression.DEFLATE, false);
   }
 
+  /**
+   * Tests the compression and decompression using <code>Zstandard</code>.
+   * @throws Exception Throw if an error occurred while writing.
+   */
+  @Test
+  public void testCompressDecompressedZstd() throws Exception {
+    assertCompression( TiffCompression.ZSTD, false);
+  }
+
   /**
    * Tests the compression and decompression using <code>Uncompressed</code>.
    * @throws Exception Throw if an error occurred while writing.
@@ -34,6 +34,12 @@ package loci.formats.utests;
 
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.FileSystems;
@@ -292,6 +298,127 @@ public class FilePatternTest {
     );
   }
 
+  @Test
+  public void testFindSeriesPatternFixedWidth() {
+    List<String> names = new ArrayList<String>();
+    for (int s = 1; s <= 2; s++) {
+      for (int t = 1; t <= 500; t++) {
+        names.add(String.format("img_s%d_t%04d.tif", s, t));
+      }
+    }
+    names.add("img_s3.tif");
+    String[] namesA = names.toArray(new String[names.size()]);
+    assertEqualsNoOrder(
+        FilePattern.findSeriesPatterns(namesA[0], null, namesA),
+        new String[] {"img_s1_t0<001-500>.tif", "img_s2_t0<001-500>.tif"}
+    );
+    assertEquals(FilePattern.findPattern(namesA[0], null, namesA),
+                 "img_s<1-2>_t0<001-500>.tif");
+  }
+
+  /**
+   * Checks findSeriesPatterns against the same search done without
+   * an index of the names, on many random name lists.
+   */
+  @Test
+  public void testFindSeriesPatternsRandomNames() throws IOException {
+    // regex patterns are expanded by listing the directory, so use an
+    // empty one
+    File dir = Files.createTempDirectory("filePatternRandomNames").toFile();
+    dir.deleteOnExit();
+    String dirPath = dir.getAbsolutePath();
+    Random r = new Random(42);
+    String alphabet = "0123456789-+a_.s";
+    int checked = 0;
+    for (int iter = 0; iter < 4000; iter++) {
+      Set<String> names = new LinkedHashSet<String>();
+      int count = 2 + r.nextInt(30);
+      boolean structured = r.nextBoolean();
+      for (int i = 0; i < count; i++) {
+        if (structured) {
+          names.add(String.format(
+            r.nextBoolean() ? "x_s%d_t%03d.tif" : "x_s%d_t%d.tif",
+            r.nextInt(3), r.nextInt(12)));
+          if (r.nextInt(10) == 0) {
+            names.add("x_s-" + r.nextInt(3) + "_t00" + r.nextInt(5) + ".tif");
+          }
+        }
+        else {
+          StringBuilder name = new StringBuilder();
+          int length = 1 + r.nextInt(7);
+          for (int k = 0; k < length; k++) {
+            name.append(alphabet.charAt(r.nextInt(alphabet.length())));
+          }
+          names.add(name.toString());
+        }
+      }
+      String[] list = names.toArray(new String[names.size()]);
+      // expanding a pattern does not depend on which name it came from
+      Map<String, List<String>> expanded =
+        new HashMap<String, List<String>>();
+      for (String name : list) {
+        String base = new File(dir, name).getAbsolutePath();
+        String[] expected;
+        try {
+          expected =
+            findSeriesPatternsUnindexed(base, dirPath, list, expanded);
+        }
+        catch (RuntimeException e) {
+          // the unindexed search can fail to expand a pattern it found
+          continue;
+        }
+        assertEquals(FilePattern.findSeriesPatterns(base, dirPath, list),
+          expected, name + " in " + Arrays.toString(list));
+        checked++;
+      }
+    }
+    assertTrue(checked > 60000, "only " + checked + " names checked");
+  }
+
+  /**
+   * The series pattern search as done before names were indexed:
+   * every name's patterns are found by scanning the whole list.
+   */
+  private static String[] findSeriesPatternsUnindexed(String base,
+    String dir, String[] nameList, Map<String, List<String>> expanded)
+  {
+    String baseSuffix = base.substring(base.lastIndexOf(File.separator) + 1);
+    int dot = baseSuffix.indexOf('.');
+    baseSuffix = dot < 0 ? "" : baseSuffix.substring(dot + 1);
+    String absoluteBase = new Location(base).getAbsolutePath();
+
+    List<String> patterns = new ArrayList<String>();
+    int[] exclude = new int[] {AxisGuesser.S_AXIS};
+    for (String name : nameList) {
+      String pattern = FilePattern.findPattern(name, dir, nameList, exclude);
+      if (pattern == null) continue;
+      String patternSuffix =
+        pattern.substring(pattern.lastIndexOf(File.separator) + 1);
+      dot = patternSuffix.indexOf('.');
+      patternSuffix = dot < 0 ? "" : patternSuffix.substring(dot + 1);
+
+      String checkPattern = FilePattern.findPattern(name, dir, nameList);
+      List<String> checkFiles = expanded.get(checkPattern);
+      if (checkFiles == null) {
+        checkFiles = new ArrayList<String>();
+        for (String file : new FilePattern(checkPattern).getFiles()) {
+          checkFiles.add(new Location(file).getAbsolutePath());
+        }
+        expanded.put(checkPattern, checkFiles);
+      }
+
+      if (!patterns.contains(pattern) && (!new Location(pattern).exists() ||
+        absoluteBase.equals(pattern)) && patternSuffix.equals(baseSuffix) &&
+        checkFiles.contains(absoluteBase))
+      {
+        patterns.add(pattern);
+      }
+    }
+    String[] s = patterns.toArray(new String[patterns.size()]);
+    Arrays.sort(s);
+    return s;
+  }
+
   @Test(dataProvider = "badPatterns")
   public void testBadPatterns(String pattern) {
     FilePattern fp = new FilePattern(pattern);
@@ -32,7 +32,9 @@
 
 package loci.formats.utests;
 
+import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -40,14 +42,18 @@ import java.util.Set;
 import java.util.HashSet;
 
 import loci.common.Location;
+import loci.formats.DimensionSwapper;
 import loci.formats.FormatTools;
 import loci.formats.FileStitcher;
 import loci.formats.FormatException;
 import loci.formats.IFormatReader;
+import loci.formats.ImageReader;
 import loci.formats.in.FakeReader;
 import loci.formats.in.MetadataLevel;
 import loci.formats.in.MetadataOptions;
 import loci.formats.in.DynamicMetadataOptions;
+import loci.formats.out.TiffWriter;
+import loci.formats.utests.out.WriterUtilities;
 
 import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
@@ -133,7 +139,13 @@ public class FileStitcherTest {
 
   private static void check(String pattern, String[] filenames, Integer[] dims)
       throws IOException, FormatException {
+    check(pattern, filenames, dims, false);
+  }
+
+  private static void check(String pattern, String[] filenames, Integer[] dims,
+      boolean useTemplate) throws IOException, FormatException {
     FileStitcher fs = new FileStitcher();
+    fs.setUsingTemplate(useTemplate);
     fs.setId(pattern);
     assertEquals(fs.getFilePattern().getPattern(), pattern);
     assertEquals(fs.getImageCount(), SIZE_Z * SIZE_T * SIZE_C);
@@ -203,6 +215,17 @@ public class FileStitcherTest {
 
   @Test(dataProvider = "dimZTC")
   public void testStitch(Integer[] dims) throws IOException, FormatException {
+    stitch(dims, false);
+  }
+
+  @Test(dataProvider = "dimZTC")
+  public void testStitchTemplate(Integer[] dims)
+      throws IOException, FormatException {
+    stitch(dims, true);
+  }
+
+  private void stitch(Integer[] dims, boolean useTemplate)
+      throws IOException, FormatException {
     // dims: ZCT dimensions for each individual file in the pattern
     // dimensions set to 1 must be spread out across a pattern block
     Integer[] patternDims = new Integer[] {1, 1, 1};
@@ -223,7 +246,8 @@ public class FileStitcherTest {
     }
     String pattern = String.format(TEMPLATE, blocks.toString(), ptString,
                                    SIZE_X, SIZE_Y, dims[0], dims[1], dims[2]);
-    check(pattern, filenames.toArray(new String[filenames.size()]), dims);
+    check(pattern, filenames.toArray(new String[filenames.size()]), dims,
+          useTemplate);
   }
 
   @Test
@@ -236,6 +260,87 @@ public class FileStitcherTest {
     fs.close();
   }
 
+  @Test
+  public void testTemplateReaders() throws IOException, FormatException {
+    FileStitcher fs = new FileStitcher();
+    fs.setUsingTemplate(true);
+    assertTrue(fs.isUsingTemplate());
+    fs.setId("test_z<0-2>.fake");
+    IFormatReader[] readers = fs.getUnderlyingReaders();
+    assertEquals(readers.length, 3);
+    for (IFormatReader r : readers) {
+      assertTrue(((DimensionSwapper) r).getReader() instanceof FakeReader);
+    }
+    assertEquals(fs.getImageCount(), 3);
+    assertEquals(fs.getUsedFiles().length, 3);
+    for (int i = 0; i < fs.getImageCount(); i++) {
+      assertEquals(FakeReader.readSpecialPixels(fs.openBytes(i))[1], 0);
+    }
+    fs.close();
+  }
+
+  @Test
+  public void testTemplateTiffSeries() throws Exception {
+    File dir = Files.createTempDirectory("fileStitcherTemplate").toFile();
+    int fileCount = 6;
+    byte[][] planes = new byte[fileCount][160 * 160];
+    try {
+      for (int z = 0; z < fileCount; z++) {
+        // one file has an extra plane, so does not match the template
+        int sizeT = z == 3 ? 2 : 1;
+        for (int i = 0; i < planes[z].length; i++) {
+          planes[z][i] = (byte) (z * 16 + i % 13);
+        }
+        TiffWriter writer = new TiffWriter();
+        writer.setMetadataRetrieve(
+          WriterUtilities.createMetadata("uint8", 1, 1, false, sizeT));
+        writer.setId(new File(dir, "series_z" + z + ".tif").getAbsolutePath());
+        for (int t = 0; t < sizeT; t++) {
+          writer.saveBytes(t, planes[z]);
+        }
+        writer.close();
+      }
+
+      FileStitcher fs = new FileStitcher();
+      fs.setUsingTemplate(true);
+      fs.setId(new File(dir, "series_z<0-5>.tif").getAbsolutePath());
+      assertEquals(fs.getImageCount(), fileCount);
+      assertEquals(fs.getUsedFiles().length, fileCount);
+      int[] order = {0, 1, 0, 2, 5, 3, 4, 1, 3, 0};
+      for (int no : order) {
+        assertEquals(fs.openBytes(no), planes[no]);
+        byte[] tile = fs.openBytes(no, 16, 32, 8, 4);
+        for (int row = 0; row < 4; row++) {
+          assertEquals(Arrays.copyOfRange(tile, row * 8, row * 8 + 8),
+            Arrays.copyOfRange(planes[no], (32 + row) * 160 + 16,
+            (32 + row) * 160 + 24));
+        }
+      }
+
+      // the four most recently used files are still open, and only the
+      // mismatched file is read with a full reader
+      IFormatReader[] readers = fs.getUnderlyingReaders();
+      assertEquals(readers.length, 4);
+      Set<String> open = new HashSet<String>();
+      for (IFormatReader r : readers) {
+        String name = new File(r.getCurrentFile()).getName();
+        open.add(name);
+        IFormatReader core = ((DimensionSwapper) r).getReader();
+        assertEquals(core instanceof ImageReader,
+          name.equals("series_z3.tif"), name);
+      }
+      assertEquals(open, new HashSet<String>(Arrays.asList("series_z0.tif",
+        "series_z1.tif", "series_z3.tif", "series_z4.tif")));
+      fs.close();
+    }
+    finally {
+      for (File f : dir.listFiles()) {
+        f.delete();
+      }
+      dir.delete();
+    }
+  }
+
   @Test
   public void testOptionsExplicit() throws IOException, FormatException {
     DynamicMetadataOptions opt = new DynamicMetadataOptions();
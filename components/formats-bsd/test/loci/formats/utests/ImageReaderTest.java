@@ -32,6 +32,11 @@
 
 package loci.formats.utests;
 
+import java.io.File;
+import java.io.FileOutputStream;
+
+import loci.formats.FormatDetector;
+import loci.formats.IFormatReader;
 import loci.formats.ImageReader;
 import loci.formats.in.MetadataOptions;
 import loci.formats.in.DynamicMetadataOptions;
@@ -59,6 +64,43 @@ public class ImageReaderTest {
     };
   }
 
+  @DataProvider(name = "headers")
+  public Object[][] createHeaders() {
+    return new Object[][] {
+      {".tif", new byte[] {0x49, 0x49, 0x2a, 0, 8, 0, 0, 0, 0, 0}},
+      {".dat", new byte[] {0x49, 0x49, 0x2a, 0, 8, 0, 0, 0, 0, 0}},
+      {".bin", new byte[] {(byte) 0x89, 0x50, 0x4e, 0x47, 0x0d, 0x0a, 0x1a,
+        0x0a, 0, 0, 0, 0}},
+      {".txt", "x,y\n1,2\n".getBytes()},
+      {".ome.tiff", new byte[] {0x4d, 0x4d, 0, 0x2a, 0, 0, 0, 8, 0, 0}},
+      {".xyz.gz", new byte[] {1, 2, 3, 4, 5, 6, 7, 8}},
+      {".xyz", new byte[] {1, 2, 3, 4, 5, 6, 7, 8}}
+    };
+  }
+
+  @Test(dataProvider = "headers")
+  public void testIndexedDetection(String suffix, byte[] header)
+    throws Exception
+  {
+    File file = File.createTempFile("detection", suffix);
+    file.deleteOnExit();
+    try (FileOutputStream out = new FileOutputStream(file)) {
+      out.write(header);
+    }
+    ImageReader reader = new ImageReader();
+    FormatDetector detector = reader.getFormatDetector();
+    String id = file.getAbsolutePath();
+    for (boolean open : new boolean[] {false, true}) {
+      detector.setIndexed(false);
+      FormatDetector.Detection linear = detector.detect(id, open);
+      detector.setIndexed(true);
+      FormatDetector.Detection indexed = detector.detect(id, open);
+      assertEquals(indexed.getReaderIndex(), linear.getReaderIndex());
+      assertTrue(indexed.getCheckCount() <= linear.getCheckCount());
+    }
+    reader.close();
+  }
+
   @Test
   public void testOptionsExplicit() throws Exception {
     DynamicMetadataOptions opt = new DynamicMetadataOptions();
@@ -74,6 +116,25 @@ public class ImageReaderTest {
     reader.close();
   }
 
+  @Test
+  public void testSettingsAppliedToNewReaders() throws Exception {
+    ImageReader reader = new ImageReader();
+    reader.setGroupFiles(false);
+    reader.setNormalized(true);
+    reader.setMetadataFiltered(true);
+    reader.setOriginalMetadataPopulated(true);
+    reader.setFlattenedResolutions(false);
+    reader.setId("test.fake");
+    IFormatReader r = reader.getReader();
+    assertEquals(r.isGroupFiles(), false);
+    assertEquals(r.isNormalized(), true);
+    assertEquals(r.isMetadataFiltered(), true);
+    assertEquals(r.isOriginalMetadataPopulated(), true);
+    assertEquals(r.hasFlattenedResolutions(), false);
+    assertTrue(r.getMetadataOptions() == reader.getMetadataOptions());
+    reader.close();
+  }
+
   @Test(dataProvider = "levels")
   public void testOptionsImplicit(MetadataLevel level) throws Exception {
     ImageReader reader = new ImageReader();
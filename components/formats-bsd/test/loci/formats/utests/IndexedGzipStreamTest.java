@@ -0,0 +1,270 @@
+/*
+ * #%L
+ * BSD implementations of Bio-Formats readers and writers
+ * %%
+ * Copyright (C) 2006 - 2017 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package loci.formats.utests;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipException;
+
+import loci.common.RandomAccessInputStream;
+import loci.formats.codec.GzipIndex;
+import loci.formats.codec.IndexedGzipStream;
+
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+/**
+ * Tests random access into gzip data using {@link IndexedGzipStream}.
+ */
+public class IndexedGzipStreamTest {
+
+  private static final int SIZE = 3 * 1024 * 1024;
+
+  private static final long SPACING = 128 * 1024;
+
+  private byte[] data;
+
+  @BeforeClass
+  public void setUp() {
+    // 16-bit noisy gradient with a block of incompressible bytes
+    Random random = new Random(7);
+    data = new byte[SIZE];
+    for (int i=0; i<SIZE-1; i+=2) {
+      int v = 1000 + (int) (300 * Math.sin(i / 3000.0)) + random.nextInt(20);
+      data[i] = (byte) v;
+      data[i + 1] = (byte) (v >> 8);
+    }
+    byte[] noise = new byte[100000];
+    random.nextBytes(noise);
+    System.arraycopy(noise, 0, data, SIZE / 2, noise.length);
+  }
+
+  @DataProvider(name = "levels")
+  public Object[][] createLevels() {
+    return new Object[][] {{Deflater.NO_COMPRESSION}, {Deflater.BEST_SPEED},
+      {Deflater.DEFAULT_COMPRESSION}, {Deflater.BEST_COMPRESSION}};
+  }
+
+  @Test(dataProvider = "levels")
+  public void testSequentialRead(int level) throws IOException {
+    IndexedGzipStream s = open(gzip(level, 1), new GzipIndex(SPACING));
+    try {
+      byte[] read = readFully(s, SIZE);
+      assertTrue(Arrays.equals(data, read));
+      assertEquals(-1, s.read());
+      GzipIndex index = s.getIndex();
+      assertTrue(index.isComplete());
+      assertEquals(SIZE, index.getLength());
+      assertTrue(index.size() >= SIZE / SPACING / 2);
+    }
+    finally {
+      s.close();
+    }
+  }
+
+  @Test(dataProvider = "levels")
+  public void testRandomAccess(int level) throws IOException {
+    IndexedGzipStream s = open(gzip(level, 3), new GzipIndex(SPACING));
+    try {
+      Random random = new Random(level);
+      for (int i=0; i<50; i++) {
+        int length = random.nextInt(40000) + 1;
+        int pos = random.nextInt(SIZE - length);
+        assertRegion(s, pos, length);
+      }
+      // read backwards through the end of the stream
+      for (int pos=SIZE-1000; pos>0; pos-=SIZE/7) {
+        assertRegion(s, pos, 1000);
+      }
+    }
+    finally {
+      s.close();
+    }
+  }
+
+  @Test
+  public void testSharedIndex() throws IOException {
+    byte[] compressed = gzip(Deflater.DEFAULT_COMPRESSION, 1);
+    GzipIndex index = new GzipIndex(SPACING);
+    IndexedGzipStream first = open(compressed, index);
+    assertEquals(SIZE, first.buildIndex());
+    first.close();
+    int points = index.size();
+    assertTrue(points > 0);
+
+    IndexedGzipStream second = open(compressed, index);
+    try {
+      assertRegion(second, SIZE - 5000, 5000);
+      assertRegion(second, 17, 5000);
+      assertEquals(points, index.size());
+    }
+    finally {
+      second.close();
+    }
+  }
+
+  @Test
+  public void testSkip() throws IOException {
+    IndexedGzipStream s =
+      open(gzip(Deflater.BEST_SPEED, 1), new GzipIndex(SPACING));
+    try {
+      assertEquals(1000, s.skip(1000));
+      assertEquals(data[1000], (byte) s.read());
+      s.buildIndex();
+      s.seek(SIZE - 10);
+      assertEquals(10, s.skip(100));
+      assertEquals(-1, s.read());
+    }
+    finally {
+      s.close();
+    }
+  }
+
+  @Test(expectedExceptions = EOFException.class)
+  public void testSeekPastEnd() throws IOException {
+    IndexedGzipStream s =
+      open(gzip(Deflater.BEST_SPEED, 1), new GzipIndex(SPACING));
+    try {
+      s.seek(SIZE + 1);
+    }
+    finally {
+      s.close();
+    }
+  }
+
+  @Test
+  public void testMultipleMembers() throws IOException {
+    // each member's trailer is checked as it is reached
+    IndexedGzipStream s =
+      open(gzip(Deflater.BEST_SPEED, 3), new GzipIndex(SPACING));
+    try {
+      assertEquals(SIZE, s.buildIndex());
+      assertRegion(s, 0, SIZE);
+    }
+    finally {
+      s.close();
+    }
+  }
+
+  @Test(expectedExceptions = ZipException.class)
+  public void testBadChecksum() throws IOException {
+    byte[] compressed = gzip(Deflater.BEST_SPEED, 2);
+    compressed[compressed.length - 8] ^= 1;
+    IndexedGzipStream s = open(compressed, new GzipIndex(SPACING));
+    try {
+      s.buildIndex();
+    }
+    finally {
+      s.close();
+    }
+  }
+
+  @Test(expectedExceptions = ZipException.class)
+  public void testBadLength() throws IOException {
+    byte[] compressed = gzip(Deflater.DEFAULT_COMPRESSION, 1);
+    compressed[compressed.length - 4] ^= 1;
+    IndexedGzipStream s = open(compressed, new GzipIndex(SPACING));
+    try {
+      readFully(s, SIZE);
+      s.read();
+    }
+    finally {
+      s.close();
+    }
+  }
+
+  @Test(expectedExceptions = ZipException.class)
+  public void testNotGzip() throws IOException {
+    open(new byte[64], null);
+  }
+
+  // -- Helper methods --
+
+  private void assertRegion(IndexedGzipStream s, int pos, int length)
+    throws IOException
+  {
+    s.seek(pos);
+    assertEquals(pos, s.getFilePointer());
+    byte[] read = readFully(s, length);
+    assertTrue("region at " + pos,
+      Arrays.equals(Arrays.copyOfRange(data, pos, pos + length), read));
+  }
+
+  private static byte[] readFully(IndexedGzipStream s, int length)
+    throws IOException
+  {
+    byte[] b = new byte[length];
+    int n = 0;
+    while (n < length) {
+      int read = s.read(b, n, length - n);
+      if (read < 0) throw new EOFException();
+      n += read;
+    }
+    return b;
+  }
+
+  private static IndexedGzipStream open(byte[] compressed, GzipIndex index)
+    throws IOException
+  {
+    return new IndexedGzipStream(
+      new RandomAccessInputStream(compressed), index);
+  }
+
+  /** Compresses the test data as the given number of gzip members. */
+  private byte[] gzip(final int level, int members) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    int start = 0;
+    for (int i=0; i<members; i++) {
+      int end = (int) ((long) SIZE * (i + 1) / members);
+      GZIPOutputStream gz = new GZIPOutputStream(out) {
+        {
+          def.setLevel(level);
+        }
+      };
+      gz.write(data, start, end - start);
+      gz.finish();
+      start = end;
+    }
+    return out.toByteArray();
+  }
+
+}
@@ -0,0 +1,157 @@
+/*
+ * #%L
+ * BSD implementations of Bio-Formats readers and writers
+ * %%
+ * Copyright (C) 2016 - 2017 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package loci.formats.utests;
+
+import static org.testng.AssertJUnit.assertEquals;
+
+import java.util.Arrays;
+
+import loci.formats.FormatTools;
+import loci.formats.IFormatReader;
+import loci.formats.MinMaxCalculator;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+/**
+ * Long-running benchmark for {@link MinMaxCalculator}.
+ *
+ * Large random planes of each pixel type are scanned with the type-specific
+ * loops, single-threaded and with one thread per processor, and with the
+ * previous sample-at-a-time implementation kept in
+ * {@link MinMaxCalculatorTest#expectedMinMax}.  All must agree.
+ */
+public class MinMaxCalculatorLongRunningTest {
+
+  private static final Logger LOGGER =
+    LoggerFactory.getLogger(MinMaxCalculatorLongRunningTest.class);
+
+  private static final int SIZE = 2048;
+
+  private static final int ITERATIONS = 5;
+
+  @DataProvider(name = "pixelTypes")
+  public Object[][] createPixelTypes() {
+    return new Object[][] {
+      {FormatTools.UINT8, true}, {FormatTools.INT8, true},
+      {FormatTools.UINT16, true}, {FormatTools.INT16, true},
+      {FormatTools.UINT32, true}, {FormatTools.INT32, true},
+      {FormatTools.FLOAT, true}, {FormatTools.DOUBLE, true},
+      {FormatTools.UINT16, false}, {FormatTools.FLOAT, false},
+    };
+  }
+
+  @Test(dataProvider = "pixelTypes")
+  public void testMinMax(int pixelType, boolean interleaved) throws Exception {
+    String id = String.format("benchmark&pixelType=%s&sizeX=%d&sizeY=%d&" +
+      "sizeC=3&rgb=3&interleaved=%b.fake",
+      FormatTools.getPixelTypeString(pixelType), SIZE, SIZE, interleaved);
+    int threads = Runtime.getRuntime().availableProcessors();
+
+    BenchmarkCalculator single = new BenchmarkCalculator(
+      new MinMaxCalculatorTest.RandomPixelsReader());
+    BenchmarkCalculator parallel = new BenchmarkCalculator(
+      new MinMaxCalculatorTest.RandomPixelsReader());
+    try {
+      single.setId(id);
+      parallel.setMinMaxThreads(threads);
+      parallel.setId(id);
+      byte[] buf = single.openBytes(0);
+      boolean little = single.isLittleEndian();
+
+      double[] min = new double[3];
+      double[] max = new double[3];
+      double[] expected = null;
+      double[] actual = null;
+      double[] actualParallel = null;
+      long legacyTime = Long.MAX_VALUE;
+      long singleTime = Long.MAX_VALUE;
+      long parallelTime = Long.MAX_VALUE;
+      for (int i=0; i<ITERATIONS; i++) {
+        long start = System.nanoTime();
+        MinMaxCalculatorTest.expectedMinMax(buf, buf.length, pixelType,
+          little, interleaved, 3, min, max);
+        legacyTime = Math.min(legacyTime, System.nanoTime() - start);
+        expected = new double[] {min[0], min[1], min[2],
+          max[0], max[1], max[2]};
+
+        start = System.nanoTime();
+        actual = single.scan(buf);
+        singleTime = Math.min(singleTime, System.nanoTime() - start);
+
+        start = System.nanoTime();
+        actualParallel = parallel.scan(buf);
+        parallelTime = Math.min(parallelTime, System.nanoTime() - start);
+      }
+
+      LOGGER.info("{} ({}): {} MB in {} ms before, {} ms after, " +
+        "{} ms with {} threads", new Object[] {
+        FormatTools.getPixelTypeString(pixelType),
+        interleaved ? "interleaved" : "planar", buf.length / (1024 * 1024),
+        legacyTime / 1000000, singleTime / 1000000, parallelTime / 1000000,
+        threads});
+      assertEquals(Arrays.toString(expected), Arrays.toString(actual));
+      assertEquals(Arrays.toString(expected), Arrays.toString(actualParallel));
+    }
+    finally {
+      single.close();
+      parallel.close();
+    }
+  }
+
+  /** Calculator that recomputes the min/max values of plane 0 on demand. */
+  private static class BenchmarkCalculator extends MinMaxCalculator {
+
+    public BenchmarkCalculator(IFormatReader r) {
+      super(r);
+    }
+
+    public double[] scan(byte[] buf) throws Exception {
+      initMinMax();
+      int series = getCoreIndex();
+      Arrays.fill(chanMin[series], Double.POSITIVE_INFINITY);
+      Arrays.fill(chanMax[series], Double.NEGATIVE_INFINITY);
+      Arrays.fill(planeMin[series], Double.NaN);
+      updateMinMax(0, buf, buf.length);
+      double[] range = new double[6];
+      for (int c=0; c<3; c++) {
+        range[c] = planeMin[series][c];
+        range[c + 3] = planeMax[series][c];
+      }
+      return range;
+    }
+  }
+
+}
@@ -38,7 +38,9 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
 
+import loci.common.DataTools;
 import loci.common.Location;
 import loci.formats.CoreMetadata;
 import loci.formats.FormatException;
@@ -49,6 +51,7 @@ import loci.formats.meta.IMinMaxStore;
 
 import org.testng.annotations.AfterMethod;
 import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
 
 /**
@@ -232,6 +235,113 @@ public class MinMaxCalculatorTest {
     }
   }
 
+  @DataProvider(name = "pixelTypes")
+  public Object[][] createPixelTypes() {
+    List<Object[]> params = new ArrayList<Object[]>();
+    for (int pixelType = 0; pixelType < FormatTools.BIT; pixelType++) {
+      for (boolean interleaved : new boolean[] {true, false}) {
+        for (boolean little : new boolean[] {true, false}) {
+          params.add(new Object[] {pixelType, interleaved, little});
+        }
+      }
+    }
+    return params.toArray(new Object[0][]);
+  }
+
+  @Test(dataProvider = "pixelTypes")
+  public void testPixelTypes(int pixelType, boolean interleaved,
+      boolean little) throws Exception {
+    checkRandomPixels(pixelType, interleaved, little, 64, 48, 1);
+  }
+
+  @Test
+  public void testMinMaxThreads() throws Exception {
+    // large enough to be split across threads
+    checkRandomPixels(FormatTools.UINT16, true, true, 1024, 1024, 3);
+    checkRandomPixels(FormatTools.FLOAT, false, false, 1024, 1024, 4);
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void testInvalidMinMaxThreads() {
+    minMaxCalculator.setMinMaxThreads(0);
+  }
+
+  private void checkRandomPixels(int pixelType, boolean interleaved,
+      boolean little, int sizeX, int sizeY, int threads) throws Exception {
+    String id = String.format("random&pixelType=%s&sizeX=%d&sizeY=%d&" +
+      "sizeC=3&rgb=3&interleaved=%b&little=%b.fake",
+      FormatTools.getPixelTypeString(pixelType), sizeX, sizeY,
+      interleaved, little);
+    MinMaxCalculator calculator =
+      new MinMaxCalculator(new RandomPixelsReader());
+    try {
+      calculator.setMinMaxThreads(threads);
+      calculator.setId(id);
+      byte[] buf = calculator.openBytes(0);
+      double[] min = new double[3];
+      double[] max = new double[3];
+      expectedMinMax(buf, buf.length, pixelType, little, interleaved, 3,
+        min, max);
+      for (int c = 0; c < 3; c++) {
+        assertEquals(min[c], calculator.getPlaneMinimum(0)[c]);
+        assertEquals(max[c], calculator.getPlaneMaximum(0)[c]);
+      }
+    }
+    finally {
+      calculator.close();
+    }
+  }
+
+  /**
+   * Computes per-channel min/max values one sample at a time, as
+   * {@link MinMaxCalculator} did before it used type-specific loops.
+   */
+  public static void expectedMinMax(byte[] buf, int len, int pixelType,
+      boolean little, boolean interleaved, int numRGB,
+      double[] min, double[] max) {
+    Arrays.fill(min, Double.POSITIVE_INFINITY);
+    Arrays.fill(max, Double.NEGATIVE_INFINITY);
+    int bpp = FormatTools.getBytesPerPixel(pixelType);
+    int pixels = len / (bpp * numRGB);
+    boolean signed = FormatTools.isSigned(pixelType);
+    long threshold = (long) Math.pow(2, bpp * 8 - 1);
+    for (int i = 0; i < pixels; i++) {
+      for (int c = 0; c < numRGB; c++) {
+        int idx = bpp * (interleaved ? i * numRGB + c : c * pixels + i);
+        long bits = DataTools.bytesToLong(buf, idx, bpp, little);
+        if (signed) {
+          if (bits >= threshold) bits -= 2 * threshold;
+        }
+        double v = bits;
+        if (pixelType == FormatTools.FLOAT) {
+          v = Float.intBitsToFloat((int) bits);
+        }
+        else if (pixelType == FormatTools.DOUBLE) {
+          v = Double.longBitsToDouble(bits);
+        }
+        if (v > max[c]) max[c] = v;
+        if (v < min[c]) min[c] = v;
+      }
+    }
+  }
+
+  /**
+   * A {@link loci.formats.in.FakeReader} whose planes are filled with
+   * reproducible random bytes, so that every bit pattern of the pixel
+   * type (including NaN for floating point types) can occur.
+   */
+  public static class RandomPixelsReader extends FakeReader {
+
+    @Override
+    public byte[] openBytes(int no, byte[] buf, int x, int y, int w, int h)
+        throws FormatException, IOException {
+      FormatTools.checkPlaneParameters(this, no, buf.length, x, y, w, h);
+      Random random = new Random(no);
+      random.nextBytes(buf);
+      return buf;
+    }
+  }
+
   /**
    * A testing implementation of {@link loci.formats.meta.IMinMaxStore} that
    * we'll use to ensure that the various methods are called with the correct
@@ -0,0 +1,202 @@
+/*
+ * #%L
+ * BSD implementations of Bio-Formats readers and writers
+ * %%
+ * Copyright (C) 2006 - 2017 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package loci.formats.utests;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertTrue;
+import static org.testng.AssertJUnit.fail;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import loci.formats.FormatException;
+import loci.formats.codec.ParallelDecoder;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Tests the executor management and cancellation in
+ * {@link ParallelDecoder}.
+ */
+public class ParallelDecoderTest {
+
+  private ExecutorService executor;
+
+  @BeforeMethod
+  public void setUp() {
+    executor = Executors.newFixedThreadPool(2);
+  }
+
+  @AfterMethod
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void testCancelWaitsForRunningTasks() throws Exception {
+    final CountDownLatch started = new CountDownLatch(1);
+    final AtomicBoolean finished = new AtomicBoolean();
+    final AtomicInteger queuedRuns = new AtomicInteger();
+    ParallelDecoder.Batch batch = new ParallelDecoder.Batch(executor);
+    batch.submit(new Callable<Void>() {
+      @Override
+      public Void call() {
+        started.countDown();
+        // ignore the interrupt for a while, as a codec might
+        long end = System.currentTimeMillis() + 200;
+        while (System.currentTimeMillis() < end) {
+          Thread.yield();
+        }
+        finished.set(true);
+        return null;
+      }
+    });
+    for (int i=0; i<10; i++) {
+      batch.submit(new Callable<Void>() {
+        @Override
+        public Void call() throws InterruptedException {
+          queuedRuns.incrementAndGet();
+          Thread.sleep(10000);
+          return null;
+        }
+      });
+    }
+    assertTrue(started.await(10, TimeUnit.SECONDS));
+    batch.cancel();
+    assertTrue(finished.get());
+    // at most one queued task was picked up by the second thread, and
+    // it was interrupted rather than left sleeping
+    assertTrue(queuedRuns.get() <= 1);
+    executor.shutdown();
+    assertTrue(executor.awaitTermination(1, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testCancelAfterCompletion() throws Exception {
+    ParallelDecoder.Batch batch = new ParallelDecoder.Batch(executor);
+    Future<Integer> f = batch.submit(new Callable<Integer>() {
+      @Override
+      public Integer call() {
+        return 7;
+      }
+    });
+    assertEquals(7, ParallelDecoder.get(f).intValue());
+    batch.cancel();
+    assertEquals(7, ParallelDecoder.get(f).intValue());
+  }
+
+  @Test
+  public void testConsumedResultsAreCollectable() throws Exception {
+    ParallelDecoder.Batch batch = new ParallelDecoder.Batch(executor);
+    Future<byte[]> f = batch.submit(new Callable<byte[]>() {
+      @Override
+      public byte[] call() {
+        return new byte[1024 * 1024];
+      }
+    });
+    byte[] result = ParallelDecoder.get(f);
+    WeakReference<byte[]> ref = new WeakReference<byte[]>(result);
+    result = null;
+    f = null;
+
+    // the batch has not been cancelled, but must not keep the result
+    for (int i=0; i<20 && ref.get() != null; i++) {
+      System.gc();
+      Thread.sleep(10);
+    }
+    assertNull(ref.get());
+    batch.cancel();
+  }
+
+  @Test
+  public void testGetRethrowsCause() throws Exception {
+    ParallelDecoder.Batch batch = new ParallelDecoder.Batch(executor);
+    Future<Void> format = batch.submit(new Callable<Void>() {
+      @Override
+      public Void call() throws FormatException {
+        throw new FormatException("bad tile");
+      }
+    });
+    Future<Void> io = batch.submit(new Callable<Void>() {
+      @Override
+      public Void call() throws IOException {
+        throw new IOException("short read");
+      }
+    });
+    try {
+      ParallelDecoder.get(format);
+      fail("Expected FormatException");
+    }
+    catch (FormatException e) {
+      assertEquals("bad tile", e.getMessage());
+    }
+    try {
+      ParallelDecoder.get(io);
+      fail("Expected IOException");
+    }
+    catch (IOException e) {
+      assertEquals("short read", e.getMessage());
+    }
+    batch.cancel();
+  }
+
+  @Test
+  public void testGetExecutor() {
+    ParallelDecoder decoder = new ParallelDecoder("TestDecoder");
+    assertNull(decoder.getExecutor(1));
+    ExecutorService own = decoder.getExecutor(3);
+    assertEquals(own, decoder.getExecutor(3));
+    assertEquals(6, ParallelDecoder.getMaxInFlight(own));
+
+    // a shared executor replaces and shuts down the decoder's own pool,
+    // but is not shut down when the decoder is closed
+    decoder.setExecutor(executor);
+    assertTrue(own.isShutdown());
+    assertEquals(executor, decoder.getExecutor(3));
+    decoder.close();
+    assertTrue(!executor.isShutdown());
+    assertEquals(executor, decoder.getExecutor(3));
+  }
+
+}
@@ -0,0 +1,271 @@
+/*
+ * #%L
+ * BSD implementations of Bio-Formats readers and writers
+ * %%
+ * Copyright (C) 2006 - 2017 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package loci.formats.utests;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Random;
+
+import loci.common.Constants;
+import loci.formats.FormatException;
+import loci.formats.UnsupportedCompressionException;
+import loci.formats.codec.CodecOptions;
+import loci.formats.codec.ZstdCodec;
+
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+/**
+ * Tests the pure Java Zstandard codec, using frames written by the
+ * reference implementation as well as round trips through the encoder.
+ */
+public class ZstdCodecTest {
+
+  /** 40 repetitions of "Bio-Formats n ", compressed at level 19. */
+  private static final String REFERENCE_FRAME =
+    "28b52ffd603301ad0100d042696f2d466f726d6174732030203438313539323631" +
+    "203337200b288023030f105ec2fbff7f0f951e9c4867e56272314908f795";
+
+  /** A streaming frame with no content size and a content checksum. */
+  private static final String STREAMING_FRAME =
+    "28b52ffd0458dd0000a87a7374642073747265616d696e67206672616d6520" +
+    "0100919e4c415d6b5f";
+
+  /**
+   * Frames written by the reference implementation (zstd 1.5.5) from
+   * {@link #createLargeInput()}, at compression levels 1, 3, 9 and 19.
+   * The last one was written by the streaming API at level 6 with a
+   * content checksum.  Each frame holds several blocks.
+   */
+  private static final String[] REFERENCE_FILES = {
+    "zstd-level1.zst", "zstd-level3.zst", "zstd-level9.zst",
+    "zstd-level19.zst", "zstd-streaming.zst"
+  };
+
+  private ZstdCodec codec = new ZstdCodec();
+
+  @DataProvider(name = "sizes")
+  public Object[][] createSizes() {
+    return new Object[][] {{1}, {31}, {256}, {1024}, {4096}, {65792},
+      {131072}, {300000}};
+  }
+
+  @Test
+  public void testReferenceFrame() throws Exception {
+    StringBuilder expected = new StringBuilder();
+    for (int i=0; i<40; i++) {
+      expected.append("Bio-Formats ").append(i * 37 % 11).append(' ');
+    }
+    byte[] decoded = codec.decompress(parseHex(REFERENCE_FRAME));
+    assertEquals(expected.toString(), new String(decoded, Constants.ENCODING));
+  }
+
+  @DataProvider(name = "referenceFiles")
+  public Object[][] createReferenceFiles() {
+    Object[][] files = new Object[REFERENCE_FILES.length][];
+    for (int i=0; i<files.length; i++) {
+      files[i] = new Object[] {REFERENCE_FILES[i]};
+    }
+    return files;
+  }
+
+  @Test(dataProvider = "referenceFiles")
+  public void testLargeReferenceFrame(String file) throws Exception {
+    URL url = ZstdCodecTest.class.getResource(file);
+    byte[] frame = Files.readAllBytes(Paths.get(url.toURI()));
+    byte[] expected = createLargeInput();
+    assertTrue(frame.length < expected.length / 4);
+    assertTrue(Arrays.equals(expected, codec.decompress(frame)));
+  }
+
+  @Test
+  public void testStreamingFrame() throws Exception {
+    CodecOptions options = new CodecOptions();
+    options.maxBytes = 8;
+    byte[] decoded = codec.decompress(parseHex(STREAMING_FRAME), options);
+    assertEquals("zstd streaming frame zstd streaming frame",
+      new String(decoded, Constants.ENCODING));
+  }
+
+  @Test
+  public void testSkippableFrame() throws Exception {
+    byte[] frame = parseHex(STREAMING_FRAME);
+    byte[] data = new byte[frame.length + 12];
+    data[0] = 0x50;
+    data[1] = 0x2a;
+    data[2] = 0x4d;
+    data[3] = 0x18;
+    data[4] = 4;
+    System.arraycopy(frame, 0, data, 12, frame.length);
+    assertEquals("zstd streaming frame zstd streaming frame",
+      new String(codec.decompress(data), Constants.ENCODING));
+  }
+
+  @Test(dataProvider = "sizes")
+  public void testRandom(int size) throws Exception {
+    byte[] data = new byte[size];
+    new Random(size).nextBytes(data);
+    assertRoundTrip(data);
+  }
+
+  @Test(dataProvider = "sizes")
+  public void testConstant(int size) throws Exception {
+    byte[] data = new byte[size];
+    Arrays.fill(data, (byte) 17);
+    assertTrue(assertRoundTrip(data) < 32);
+  }
+
+  @Test(dataProvider = "sizes")
+  public void testNoisyGradient(int size) throws Exception {
+    // 16-bit pixels, so the literals are Huffman coded with many symbols
+    Random random = new Random(size);
+    byte[] data = new byte[size];
+    for (int i=0; i<size-1; i+=2) {
+      int v = 1000 + (int) (200 * Math.sin(i / 500.0)) + random.nextInt(8);
+      data[i] = (byte) v;
+      data[i + 1] = (byte) (v >> 8);
+    }
+    int compressed = assertRoundTrip(data);
+    if (size >= 1024) {
+      assertTrue(compressed < size);
+    }
+  }
+
+  @Test(dataProvider = "sizes")
+  public void testRepeatedText(int size) throws Exception {
+    byte[] text = REFERENCE_FRAME.getBytes();
+    byte[] data = new byte[size];
+    for (int i=0; i<size; i++) {
+      data[i] = text[(i * 7 / 3) % text.length];
+    }
+    int compressed = assertRoundTrip(data);
+    if (size >= 1024) {
+      assertTrue(compressed < size / 4);
+    }
+  }
+
+  @Test(expectedExceptions = FormatException.class)
+  public void testInvalidMagic() throws Exception {
+    codec.decompress(new byte[64]);
+  }
+
+  @Test(expectedExceptions = FormatException.class)
+  public void testTruncated() throws Exception {
+    byte[] frame = parseHex(REFERENCE_FRAME);
+    codec.decompress(Arrays.copyOf(frame, frame.length - 8));
+  }
+
+  @Test(expectedExceptions = UnsupportedCompressionException.class)
+  public void testDictionary() throws Exception {
+    // single segment frame header with a 1 byte dictionary ID
+    codec.decompress(new byte[] {0x28, (byte) 0xb5, 0x2f, (byte) 0xfd,
+      0x21, 0x01, 0x01, 0x01, 0x00, 0x00, 0x00});
+  }
+
+  // -- Helper methods --
+
+  private int assertRoundTrip(byte[] data) throws FormatException {
+    byte[] compressed = codec.compress(data, null);
+    byte[] decompressed = codec.decompress(compressed);
+    assertTrue(Arrays.equals(data, decompressed));
+    return compressed.length;
+  }
+
+  /**
+   * Create the 1 MB input that was compressed by the reference
+   * implementation to produce the frames in {@link #REFERENCE_FILES}.
+   * It alternates between smooth 16-bit pixels, repeated text, constant
+   * runs and short bursts of noise, so the frames contain compressed,
+   * RLE and raw blocks.
+   */
+  private static byte[] createLargeInput() throws IOException {
+    int size = 1024 * 1024;
+    Random random = new Random(1234);
+    byte[] data = new byte[size];
+    int pos = 0;
+    int section = 0;
+    while (pos < size) {
+      int len = Math.min(size - pos, 16384 + random.nextInt(49152));
+      switch (section++ % 4) {
+        case 0:
+          for (int i=0; i<len-1; i+=2) {
+            int v = 2000 + (int) (300 * Math.sin((pos + i) / 700.0)) +
+              (i % 32 == 0 ? random.nextInt(4) : 0);
+            data[pos + i] = (byte) v;
+            data[pos + i + 1] = (byte) (v >> 8);
+          }
+          break;
+        case 1:
+          byte[] words =
+            "Bio-Formats zstd test vector ".getBytes(Constants.ENCODING);
+          for (int i=0; i<len; i++) {
+            int shift = i % 64 == 0 ? random.nextInt(2) : 0;
+            data[pos + i] = words[(i + shift) % words.length];
+          }
+          break;
+        case 2:
+          byte value = (byte) random.nextInt(256);
+          for (int i=0; i<len; i++) {
+            data[pos + i] = value;
+          }
+          break;
+        default:
+          int noise = Math.min(len, 512);
+          for (int i=0; i<noise; i++) {
+            data[pos + i] = (byte) random.nextInt(256);
+          }
+          for (int i=noise; i<len; i++) {
+            data[pos + i] = data[pos + i - noise + (i % 7)];
+          }
+          break;
+      }
+      pos += len;
+    }
+    return data;
+  }
+
+  private static byte[] parseHex(String hex) {
+    byte[] data = new byte[hex.length() / 2];
+    for (int i=0; i<data.length; i++) {
+      data[i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+    }
+    return data;
+  }
+
+}
@@ -0,0 +1,128 @@
+/*
+ * #%L
+ * BSD implementations of Bio-Formats readers and writers
+ * %%
+ * Copyright (C) 2016 - 2017 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package loci.formats.utests.out;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Random;
+
+import loci.formats.FormatTools;
+import loci.formats.ImageTools;
+import loci.formats.in.OMEXMLReader;
+import loci.formats.out.OMEXMLWriter;
+
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+/**
+ * Tests writing and reading back pixel data with OMEXMLWriter and
+ * OMEXMLReader.
+ */
+public class OMEXMLWriterTest {
+
+  private static final int SIZE_T = 2;
+  private static final int CHANNELS = 3;
+
+  @DataProvider(name = "compressions")
+  public Object[][] createCompressions() {
+    return new Object[][] {
+      {WriterUtilities.COMPRESSION_UNCOMPRESSED, false},
+      {WriterUtilities.COMPRESSION_UNCOMPRESSED, true},
+      {"zlib", false},
+      {"zlib", true},
+    };
+  }
+
+  @Test(dataProvider = "compressions")
+  public void testRoundTrip(String compression, boolean interleaved)
+    throws Exception
+  {
+    File tmp = File.createTempFile("omexmlWriterTest", ".ome");
+    tmp.deleteOnExit();
+
+    int pixelType = FormatTools.UINT16;
+    int bytes = FormatTools.getBytesPerPixel(pixelType);
+    byte[][] planes = new byte[SIZE_T][];
+    Random random = new Random(SIZE_T);
+
+    OMEXMLWriter writer = new OMEXMLWriter();
+    try {
+      writer.setMetadataRetrieve(WriterUtilities.createMetadata(
+        FormatTools.getPixelTypeString(pixelType), CHANNELS, 1, false,
+        SIZE_T));
+      writer.setCompression(compression);
+      writer.setInterleaved(interleaved);
+      writer.setId(tmp.getAbsolutePath());
+      for (int t=0; t<SIZE_T; t++) {
+        planes[t] = new byte[WriterUtilities.PLANE_WIDTH *
+          WriterUtilities.PLANE_HEIGHT * bytes * CHANNELS];
+        random.nextBytes(planes[t]);
+        writer.saveBytes(t, planes[t]);
+      }
+    }
+    finally {
+      writer.close();
+    }
+
+    OMEXMLReader reader = new OMEXMLReader();
+    try {
+      reader.setId(tmp.getAbsolutePath());
+      assertEquals(reader.getImageCount(), SIZE_T * CHANNELS);
+      int rowLength = WriterUtilities.PLANE_WIDTH * bytes;
+      for (int t=0; t<SIZE_T; t++) {
+        for (int c=0; c<CHANNELS; c++) {
+          byte[] expected = ImageTools.splitChannels(planes[t], c, CHANNELS,
+            bytes, false, interleaved);
+          int no = reader.getIndex(0, c, t);
+          assertTrue(Arrays.equals(reader.openBytes(no), expected));
+
+          int x = 7, y = 11, w = 50, h = 30;
+          byte[] region = reader.openBytes(no, x, y, w, h);
+          for (int row=0; row<h; row++) {
+            int offset = (y + row) * rowLength + x * bytes;
+            assertTrue(Arrays.equals(
+              Arrays.copyOfRange(region, row * w * bytes, (row + 1) * w * bytes),
+              Arrays.copyOfRange(expected, offset, offset + w * bytes)));
+          }
+        }
+      }
+    }
+    finally {
+      reader.close();
+    }
+  }
+
+}
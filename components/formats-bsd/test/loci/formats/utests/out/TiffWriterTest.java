@@ -469,4 +469,199 @@ public class TiffWriterTest {
     Location.mapFile(id, null);
   }
 
+  @Test
+  public void testCompressBytes() throws Exception {
+    byte[] expected = writeQuadrants(false, 0);
+    byte[] precompressed = writeQuadrants(true, 0);
+    Assert.assertArrayEquals(expected, precompressed);
+  }
+
+  @Test
+  public void testCompressBytesOtherSeries() throws Exception {
+    // tiles compressed for a series that is not being written are ignored
+    byte[] expected = writeQuadrants(false, 0);
+    byte[] precompressed = writeQuadrants(true, 1);
+    Assert.assertArrayEquals(expected, precompressed);
+  }
+
+  @Test
+  public void testCompressionThreads() throws Exception {
+    byte[] expected = writeTiledPlanes(1, true);
+    Assert.assertArrayEquals(expected, writeTiledPlanes(4, true));
+    expected = writeTiledPlanes(1, false);
+    Assert.assertArrayEquals(expected, writeTiledPlanes(3, false));
+  }
+
+  @Test(timeOut = 60000)
+  public void testCompressionThreadsHoldingMonitor() throws Exception {
+    byte[] expected = writeTiledPlanes(1, true);
+    Assert.assertArrayEquals(expected, writeTiledPlanes(4, true, true));
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void testInvalidCompressionThreads() {
+    new TiffWriter().setCompressionThreads(0);
+  }
+
+  /**
+   * Write the first two planes as whole planes with 128x128 tiles, using
+   * the given number of compression threads.
+   * @return the contents of the written file
+   */
+  private byte[] writeTiledPlanes(int threads, boolean sequential)
+    throws Exception
+  {
+    return writeTiledPlanes(threads, sequential, false);
+  }
+
+  /**
+   * Write the first two planes as whole planes with 128x128 tiles, calling
+   * saveBytes while holding the writer's monitor if requested.
+   * @return the contents of the written file
+   */
+  private byte[] writeTiledPlanes(int threads, boolean sequential,
+    boolean locked)
+    throws Exception
+  {
+    ByteArrayHandle handle = new ByteArrayHandle();
+    String id = Math.random() + "-" + System.currentTimeMillis() + ".tif";
+    Location.mapFile(id, handle);
+    TiffWriter tiffWriter = new TiffWriter();
+    tiffWriter.setMetadataRetrieve(metadata);
+    tiffWriter.setCompression(TiffWriter.COMPRESSION_ZLIB);
+    tiffWriter.setWriteSequentially(sequential);
+    tiffWriter.setCompressionThreads(threads);
+    tiffWriter.setId(id);
+    tiffWriter.setTileSizeX(128);
+    tiffWriter.setTileSizeY(128);
+    assertEquals(tiffWriter.getCompressionThreads(), threads);
+    for (int plane=0; plane<2; plane++) {
+      if (locked) {
+        synchronized (tiffWriter) {
+          tiffWriter.saveBytes(plane, buf);
+        }
+      }
+      else {
+        tiffWriter.saveBytes(plane, buf);
+      }
+    }
+    tiffWriter.close();
+
+    byte[] file = new byte[(int) handle.length()];
+    ByteBuffer bytes = handle.getByteBuffer();
+    bytes.position(0);
+    bytes.get(file);
+    Location.mapFile(id, null);
+    return file;
+  }
+
+  @Test
+  public void testSaveBytesTilesNonSequential() throws Exception {
+    int size = 160;
+    int tileSize = 64;
+    int planeCount = 3;
+    IMetadata meta = WriterUtilities.createMetadata(
+      PixelType.UINT8.getValue(), 1, 1, false, planeCount);
+    byte[][] planes = new byte[planeCount][size * size];
+    for (int p=0; p<planeCount; p++) {
+      for (int i=0; i<planes[p].length; i++) {
+        planes[p][i] = (byte) (p * 31 + i / size + i % size);
+      }
+    }
+
+    File tmp = File.createTempFile("tiffWriterTest_NonSequential", ".tiff");
+    tmp.deleteOnExit();
+    tmp.delete();
+    TiffWriter tiffWriter = new TiffWriter();
+    tiffWriter.setMetadataRetrieve(meta);
+    tiffWriter.setCompression(WriterUtilities.COMPRESSION_LZW);
+    tiffWriter.setId(tmp.getAbsolutePath());
+    tiffWriter.setTileSizeX(tileSize);
+    tiffWriter.setTileSizeY(tileSize);
+
+    // the last tile of the first plane is written after the second plane
+    saveTiles(tiffWriter, 0, planes[0], size, tileSize, 0, 8);
+    saveTiles(tiffWriter, 1, planes[1], size, tileSize, 0, 9);
+    saveTiles(tiffWriter, 0, planes[0], size, tileSize, 8, 9);
+    saveTiles(tiffWriter, 2, planes[2], size, tileSize, 0, 9);
+    tiffWriter.close();
+
+    TiffReader reader = new TiffReader();
+    reader.setId(tmp.getAbsolutePath());
+    assertEquals(reader.getImageCount(), planeCount);
+    assertEquals(reader.getOptimalTileWidth(), tileSize);
+    for (int p=0; p<planeCount; p++) {
+      Assert.assertArrayEquals(planes[p], reader.openBytes(p));
+    }
+    reader.close();
+    tmp.delete();
+  }
+
+  /** Save the tiles with the given range of indexes from one plane. */
+  private void saveTiles(TiffWriter tiffWriter, int no, byte[] plane,
+    int size, int tileSize, int start, int end) throws Exception
+  {
+    int tilesPerRow = (size + tileSize - 1) / tileSize;
+    for (int t=start; t<end; t++) {
+      int x = (t % tilesPerRow) * tileSize;
+      int y = (t / tilesPerRow) * tileSize;
+      int w = Math.min(tileSize, size - x);
+      int h = Math.min(tileSize, size - y);
+      byte[] tile = new byte[w * h];
+      for (int row=0; row<h; row++) {
+        System.arraycopy(plane, (y + row) * size + x, tile, row * w, w);
+      }
+      tiffWriter.saveBytes(no, tile, x, y, w, h);
+    }
+  }
+
+  /**
+   * Write the first two planes as four quadrants each, optionally
+   * compressing every quadrant in reverse order before it is saved.
+   * @param series the series passed to compressBytes
+   * @return the contents of the written file
+   */
+  private byte[] writeQuadrants(boolean precompress, int series)
+    throws Exception
+  {
+    ByteArrayHandle handle = new ByteArrayHandle();
+    String id = Math.random() + "-" + System.currentTimeMillis() + ".tif";
+    Location.mapFile(id, handle);
+    TiffWriter tiffWriter = new TiffWriter();
+    tiffWriter.setMetadataRetrieve(metadata);
+    tiffWriter.setCompression(WriterUtilities.COMPRESSION_LZW);
+    tiffWriter.setWriteSequentially(true);
+    tiffWriter.setId(id);
+    tiffWriter.setTileSizeX(128);
+    tiffWriter.setTileSizeY(128);
+
+    int w = WriterUtilities.SIZE_X / 2;
+    int h = WriterUtilities.SIZE_Y / 2;
+    byte[][] quadrants = new byte[4][w * h];
+    for (int q=0; q<quadrants.length; q++) {
+      System.arraycopy(buf, q * 1024, quadrants[q], 0, w * h);
+    }
+    for (int plane=0; plane<2; plane++) {
+      if (precompress) {
+        for (int q=quadrants.length-1; q>=0; q--) {
+          tiffWriter.compressBytes(series, 0, plane, quadrants[q], new IFD(),
+            (q % 2) * w, (q / 2) * h, w, h);
+        }
+      }
+      IFD planeIFD = new IFD();
+      for (int q=0; q<quadrants.length; q++) {
+        tiffWriter.saveBytes(plane, quadrants[q], planeIFD,
+          (q % 2) * w, (q / 2) * h, w, h);
+      }
+    }
+    tiffWriter.close();
+
+    byte[] file = new byte[(int) handle.length()];
+    ByteBuffer bytes = handle.getByteBuffer();
+    bytes.position(0);
+    bytes.get(file);
+    Location.mapFile(id, null);
+    return file;
+  }
+
 }
@@ -0,0 +1,439 @@
+/*
+ * #%L
+ * BSD implementations of Bio-Formats readers and writers
+ * %%
+ * Copyright (C) 2005 - 2017 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package loci.formats.utests.tiff;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertSame;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+
+import loci.common.ByteArrayHandle;
+import loci.common.Location;
+import loci.common.RandomAccessInputStream;
+import loci.formats.in.DynamicMetadataOptions;
+import loci.formats.in.MinimalTiffReader;
+import loci.formats.tiff.CompactIFD;
+import loci.formats.tiff.IFD;
+import loci.formats.tiff.IFDList;
+import loci.formats.tiff.IFDType;
+import loci.formats.tiff.OnDemandLongArray;
+import loci.formats.tiff.TiffParser;
+import loci.formats.tiff.TiffRational;
+
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for {@link CompactIFD}.
+ */
+public class CompactIFDTest {
+
+  private static final String SOFTWARE = "CompactIFDTest";
+
+  // -- Tests --
+
+  @Test
+  public void testScalarValues() {
+    CompactIFD ifd = new CompactIFD();
+    ifd.put(1, Boolean.TRUE);
+    ifd.put(2, Byte.valueOf((byte) -3));
+    ifd.put(3, Short.valueOf((short) -300));
+    ifd.put(4, Integer.valueOf(-70000));
+    ifd.put(5, Long.valueOf(0x123456789abL));
+    ifd.put(6, Float.valueOf(-1.5f));
+    ifd.put(7, Double.valueOf(Math.PI));
+    ifd.putIFDValue(8, (short) 8);
+    ifd.putIFDValue(9, 9);
+    ifd.putIFDValue(10, 10L);
+
+    assertEquals(Boolean.TRUE, ifd.get(1));
+    assertEquals(Byte.valueOf((byte) -3), ifd.get(2));
+    assertEquals(Short.valueOf((short) -300), ifd.get(3));
+    assertEquals(Integer.valueOf(-70000), ifd.get(4));
+    assertEquals(Long.valueOf(0x123456789abL), ifd.get(5));
+    assertEquals(Float.valueOf(-1.5f), ifd.get(6));
+    assertEquals(Double.valueOf(Math.PI), ifd.get(7));
+    assertEquals(Short.valueOf((short) 8), ifd.get(8));
+    assertEquals(Integer.valueOf(9), ifd.get(9));
+    assertEquals(Long.valueOf(10), ifd.get(10));
+    assertEquals(10, ifd.size());
+  }
+
+  @Test
+  public void testMatchesIFD() {
+    Random random = new Random(42);
+    IFD expected = new IFD();
+    CompactIFD actual = new CompactIFD();
+    Object[] values = {Boolean.FALSE, Integer.valueOf(7), Long.valueOf(-1),
+      "text", new int[] {1, 2}, null, Short.valueOf((short) 3),
+      Double.valueOf(0.25), new TiffRational(1, 3)};
+
+    for (int i=0; i<5000; i++) {
+      Integer tag = random.nextInt(64) + 250;
+      int op = random.nextInt(4);
+      if (op == 0) {
+        assertEquals(expected.remove(tag), actual.remove(tag));
+      }
+      else {
+        Object value = values[random.nextInt(values.length)];
+        assertEquals(expected.put(tag, value), actual.put(tag, value));
+      }
+      assertEquals(expected.size(), actual.size());
+      assertEquals(expected.containsKey(tag), actual.containsKey(tag));
+    }
+    assertEquals(expected, actual);
+    assertEquals(actual, expected);
+    assertEquals(expected.hashCode(), actual.hashCode());
+    assertEquals(expected.keySet(), actual.keySet());
+
+    // keys are iterated in ascending tag order
+    int previous = Integer.MIN_VALUE;
+    for (Integer tag : actual.keySet()) {
+      assertTrue(tag > previous);
+      previous = tag;
+    }
+  }
+
+  @Test
+  public void testIteratorRemove() {
+    CompactIFD ifd = new CompactIFD();
+    for (int i=0; i<20; i++) {
+      ifd.putIFDValue(i, i * 10);
+    }
+    Iterator<Map.Entry<Integer, Object>> iter = ifd.entrySet().iterator();
+    while (iter.hasNext()) {
+      Map.Entry<Integer, Object> entry = iter.next();
+      if (entry.getKey() % 2 == 0) {
+        iter.remove();
+      }
+      else {
+        entry.setValue("odd");
+      }
+    }
+    assertEquals(10, ifd.size());
+    for (int i=0; i<20; i++) {
+      assertEquals(i % 2 == 1, ifd.containsKey(i));
+    }
+    assertEquals("odd", ifd.get(19));
+    ifd.values().clear();
+    assertTrue(ifd.isEmpty());
+  }
+
+  @Test
+  public void testShareWith() {
+    CompactIFD first = new CompactIFD();
+    CompactIFD second = new CompactIFD();
+    for (CompactIFD ifd : new CompactIFD[] {first, second}) {
+      ifd.putIFDValue(IFD.IMAGE_WIDTH, 512);
+      ifd.putIFDValue(IFD.SOFTWARE, new String(SOFTWARE));
+      ifd.putIFDValue(IFD.X_RESOLUTION, new TiffRational(72, 1));
+    }
+    second.shareWith(first);
+    assertSame(first.get(IFD.SOFTWARE), second.get(IFD.SOFTWARE));
+    assertSame(first.get(IFD.X_RESOLUTION), second.get(IFD.X_RESOLUTION));
+
+    // changes to one IFD must not be visible in the other
+    second.putIFDValue(IFD.IMAGE_LENGTH, 256);
+    second.putIFDValue(IFD.IMAGE_WIDTH, "wide");
+    first.remove(IFD.SOFTWARE);
+    assertFalse(first.containsKey(IFD.IMAGE_LENGTH));
+    assertEquals(Integer.valueOf(512), first.get(IFD.IMAGE_WIDTH));
+    assertEquals("wide", second.get(IFD.IMAGE_WIDTH));
+    assertEquals(SOFTWARE, second.get(IFD.SOFTWARE));
+    assertEquals(2, first.size());
+    assertEquals(4, second.size());
+  }
+
+  @Test
+  public void testCloneAndCopy() {
+    CompactIFD ifd = new CompactIFD();
+    ifd.putIFDValue(IFD.IMAGE_WIDTH, 100);
+    ifd.putIFDValue(IFD.BITS_PER_SAMPLE, new int[] {8, 8, 8});
+
+    CompactIFD clone = (CompactIFD) ifd.clone();
+    clone.putIFDValue(IFD.IMAGE_WIDTH, 200);
+    assertEquals(Integer.valueOf(100), ifd.get(IFD.IMAGE_WIDTH));
+    assertSame(ifd.get(IFD.BITS_PER_SAMPLE), clone.get(IFD.BITS_PER_SAMPLE));
+
+    IFD copy = new IFD(ifd);
+    assertEquals(ifd, copy);
+    assertEquals(ifd, new CompactIFD(copy));
+  }
+
+  @Test
+  public void testSerialization() throws Exception {
+    CompactIFD ifd = new CompactIFD();
+    ifd.putIFDValue(IFD.LITTLE_ENDIAN, Boolean.TRUE);
+    ifd.putIFDValue(IFD.IMAGE_WIDTH, 100);
+    ifd.putIFDValue(IFD.SOFTWARE, SOFTWARE);
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ObjectOutputStream out = new ObjectOutputStream(bytes);
+    out.writeObject(ifd);
+    out.close();
+    ObjectInputStream in = new ObjectInputStream(
+      new ByteArrayInputStream(bytes.toByteArray()));
+    IFD copy = (IFD) in.readObject();
+    in.close();
+
+    assertTrue(copy instanceof CompactIFD);
+    assertEquals(ifd, copy);
+    assertTrue(copy.isLittleEndian());
+  }
+
+  @Test
+  public void testParsedIFDsMatch() throws Exception {
+    byte[] tiff = makeTiff(50, 4);
+    IFDList plain = parse(tiff, false);
+    IFDList compact = parse(tiff, true);
+    assertEquals(50, plain.size());
+    assertEquals(plain.size(), compact.size());
+    for (int i=0; i<plain.size(); i++) {
+      assertTrue(compact.get(i) instanceof CompactIFD);
+      assertFalse(plain.get(i) instanceof CompactIFD);
+      assertEquals(plain.get(i).keySet(), compact.get(i).keySet());
+      for (Integer tag : plain.get(i).keySet()) {
+        assertTrue(Arrays.deepEquals(new Object[] {plain.get(i).get(tag)},
+          new Object[] {compact.get(i).get(tag)}));
+      }
+      assertTrue(Arrays.equals(plain.get(i).getStripOffsets(),
+        compact.get(i).getStripOffsets()));
+    }
+  }
+
+  @Test
+  public void testOnDemandStripOffsets() throws Exception {
+    int strips = 10000;
+    byte[] tiff = makeTiff(2, strips);
+    IFD plain = parse(tiff, false).get(1);
+    IFD compact = parse(tiff, true).get(1);
+
+    assertTrue(plain.get(IFD.STRIP_OFFSETS) instanceof long[]);
+    assertTrue(compact.get(IFD.STRIP_OFFSETS) instanceof OnDemandLongArray);
+    assertTrue(
+      compact.get(IFD.STRIP_BYTE_COUNTS) instanceof OnDemandLongArray);
+    assertTrue(Arrays.equals(plain.getStripOffsets(),
+      compact.getStripOffsets()));
+    assertTrue(Arrays.equals(plain.getStripByteCounts(),
+      compact.getStripByteCounts()));
+
+    TiffParser parser = new TiffParser(
+      new RandomAccessInputStream(new ByteArrayHandle(tiff)));
+    byte[] expected = new byte[strips];
+    byte[] actual = new byte[strips];
+    parser.getSamples(plain, expected);
+    parser.getSamples(compact, actual);
+    assertTrue(Arrays.equals(expected, actual));
+    assertEquals((byte) 2, actual[0]);
+    assertEquals((byte) (strips + 1), actual[strips - 1]);
+  }
+
+  @Test
+  public void testOnDemandEqualStrips() throws Exception {
+    int strips = 10000;
+    TiffParser parser = new TiffParser(
+      new RandomAccessInputStream(new ByteArrayHandle(makeTiff(1, strips))));
+    parser.setUseCompactIFDs(true);
+    parser.setAssumeEqualStrips(true);
+    IFD compact = parser.getFirstIFD();
+
+    // only the first byte count is read, as for 8-byte counts
+    assertTrue(compact.get(IFD.STRIP_OFFSETS) instanceof OnDemandLongArray);
+    assertTrue(Arrays.equals(new long[] {1},
+      (long[]) compact.get(IFD.STRIP_BYTE_COUNTS)));
+  }
+
+  @Test
+  public void testCompactIFDsAreOptIn() throws Exception {
+    TiffParser parser = new TiffParser(
+      new RandomAccessInputStream(new ByteArrayHandle(makeTiff(2, 10000))));
+    assertFalse(parser.isUsingCompactIFDs());
+    IFD ifd = parser.getFirstIFD();
+    assertFalse(ifd instanceof CompactIFD);
+    assertTrue(ifd.get(IFD.STRIP_OFFSETS) instanceof long[]);
+  }
+
+  @Test
+  public void testReaderOption() throws Exception {
+    int ifdCount = 4;
+    int strips = 10000;
+    String id = "compact-ifds.tif";
+    Location.mapFile(id, new ByteArrayHandle(makeTiff(ifdCount, strips)));
+    DynamicMetadataOptions options = new DynamicMetadataOptions();
+    options.setBoolean(MinimalTiffReader.COMPACT_IFDS_KEY, true);
+    MinimalTiffReader reader = new MinimalTiffReader();
+    reader.setMetadataOptions(options);
+    try {
+      reader.setId(id);
+      assertEquals(ifdCount, reader.getImageCount());
+      for (int i=0; i<ifdCount; i++) {
+        IFD ifd = reader.getIFDs().get(i);
+        assertTrue(ifd instanceof CompactIFD);
+        assertTrue(ifd.get(IFD.STRIP_OFFSETS) instanceof OnDemandLongArray);
+      }
+      for (int i=0; i<ifdCount; i++) {
+        byte[] plane = reader.openBytes(i);
+        assertEquals((byte) (i + 1), plane[0]);
+        assertEquals((byte) (i + strips), plane[strips - 1]);
+      }
+
+      // the offsets are read through the new parser's stream
+      reader.reopenFile();
+      byte[] plane = reader.openBytes(ifdCount - 1);
+      assertEquals((byte) (ifdCount - 1 + strips), plane[strips - 1]);
+    }
+    finally {
+      reader.close();
+      Location.mapFile(id, null);
+    }
+
+    reader = new MinimalTiffReader();
+    try {
+      Location.mapFile(id, new ByteArrayHandle(makeTiff(ifdCount, strips)));
+      reader.setId(id);
+      assertFalse(reader.getIFDs().get(0) instanceof CompactIFD);
+    }
+    finally {
+      reader.close();
+      Location.mapFile(id, null);
+    }
+  }
+
+  @Test
+  public void testNullValues() {
+    CompactIFD ifd = new CompactIFD();
+    ifd.put(IFD.IMAGE_WIDTH, null);
+    assertTrue(ifd.containsKey(IFD.IMAGE_WIDTH));
+    assertNull(ifd.get(IFD.IMAGE_WIDTH));
+    assertTrue(ifd.containsValue(null));
+    assertEquals("default", ifd.getOrDefault(IFD.IMAGE_LENGTH, "default"));
+  }
+
+  // -- Helper methods --
+
+  private static IFDList parse(byte[] tiff, boolean compact)
+    throws Exception
+  {
+    TiffParser parser = new TiffParser(
+      new RandomAccessInputStream(new ByteArrayHandle(tiff)));
+    parser.setUseCompactIFDs(compact);
+    return parser.getMainIFDs();
+  }
+
+  /**
+   * Creates a little-endian, 8-bit grayscale TIFF with the given number of
+   * IFDs.  Each plane is one pixel wide and has one row per strip; pixel
+   * values are (IFD index + row + 1).
+   */
+  public static byte[] makeTiff(int ifdCount, int strips) {
+    final int entries = 13;
+    byte[] software = (SOFTWARE + "\0").getBytes(StandardCharsets.US_ASCII);
+    int arrayBytes = strips > 1 ? strips * 4 : 0;
+    int blockSize = 2 + entries * 12 + 4 + 2 * arrayBytes + 16 +
+      software.length + strips;
+
+    ByteBuffer buf = ByteBuffer.allocate(8 + blockSize * ifdCount);
+    buf.order(ByteOrder.LITTLE_ENDIAN);
+    buf.put((byte) 'I').put((byte) 'I').putShort((short) 42).putInt(8);
+
+    for (int i=0; i<ifdCount; i++) {
+      int ifd = buf.position();
+      int data = ifd + 2 + entries * 12 + 4;
+      int offsets = data;
+      int counts = offsets + arrayBytes;
+      int resolution = counts + arrayBytes;
+      int text = resolution + 16;
+      int pixels = text + software.length;
+
+      buf.putShort((short) entries);
+      putEntry(buf, IFD.IMAGE_WIDTH, IFDType.SHORT, 1, 1);
+      putEntry(buf, IFD.IMAGE_LENGTH, IFDType.SHORT, 1, strips);
+      putEntry(buf, IFD.BITS_PER_SAMPLE, IFDType.SHORT, 1, 8);
+      putEntry(buf, IFD.COMPRESSION, IFDType.SHORT, 1, 1);
+      putEntry(buf, IFD.PHOTOMETRIC_INTERPRETATION, IFDType.SHORT, 1, 1);
+      putEntry(buf, IFD.STRIP_OFFSETS, IFDType.LONG, strips,
+        strips > 1 ? offsets : pixels);
+      putEntry(buf, IFD.SAMPLES_PER_PIXEL, IFDType.SHORT, 1, 1);
+      putEntry(buf, IFD.ROWS_PER_STRIP, IFDType.SHORT, 1, 1);
+      putEntry(buf, IFD.STRIP_BYTE_COUNTS, IFDType.LONG, strips,
+        strips > 1 ? counts : 1);
+      putEntry(buf, IFD.X_RESOLUTION, IFDType.RATIONAL, 1, resolution);
+      putEntry(buf, IFD.Y_RESOLUTION, IFDType.RATIONAL, 1, resolution + 8);
+      putEntry(buf, IFD.RESOLUTION_UNIT, IFDType.SHORT, 1, 2);
+      putEntry(buf, IFD.SOFTWARE, IFDType.ASCII, software.length, text);
+      buf.putInt(i < ifdCount - 1 ? ifd + blockSize : 0);
+
+      if (strips > 1) {
+        for (int s=0; s<strips; s++) {
+          buf.putInt(pixels + s);
+        }
+        for (int s=0; s<strips; s++) {
+          buf.putInt(1);
+        }
+      }
+      buf.putInt(72).putInt(1).putInt(72).putInt(1);
+      buf.put(software);
+      for (int s=0; s<strips; s++) {
+        buf.put((byte) (i + s + 1));
+      }
+    }
+    return buf.array();
+  }
+
+  private static void putEntry(ByteBuffer buf, int tag, IFDType type,
+    int count, int value)
+  {
+    buf.putShort((short) tag);
+    buf.putShort((short) type.getCode());
+    buf.putInt(count);
+    if (type == IFDType.SHORT && count == 1) {
+      buf.putShort((short) value).putShort((short) 0);
+    }
+    else {
+      buf.putInt(value);
+    }
+  }
+
+}
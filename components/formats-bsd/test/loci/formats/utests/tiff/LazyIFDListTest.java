@@ -0,0 +1,272 @@
+/*
+ * #%L
+ * BSD implementations of Bio-Formats readers and writers
+ * %%
+ * Copyright (C) 2005 - 2017 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package loci.formats.utests.tiff;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertNotSame;
+import static org.testng.AssertJUnit.assertSame;
+import static org.testng.AssertJUnit.assertTrue;
+import static org.testng.AssertJUnit.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+
+import loci.common.ByteArrayHandle;
+import loci.common.Location;
+import loci.common.RandomAccessInputStream;
+import loci.formats.FormatException;
+import loci.formats.in.DynamicMetadataOptions;
+import loci.formats.in.MinimalTiffReader;
+import loci.formats.tiff.IFD;
+import loci.formats.tiff.IFDList;
+import loci.formats.tiff.LazyIFDList;
+import loci.formats.tiff.TiffParser;
+
+import org.objenesis.strategy.StdInstantiatorStrategy;
+import org.testng.annotations.Test;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+/**
+ * Unit tests for {@link LazyIFDList}.
+ */
+public class LazyIFDListTest {
+
+  private static final int IFD_COUNT = 40;
+
+  // -- Tests --
+
+  @Test
+  public void testOnlyFirstIFDParsed() throws Exception {
+    LazyIFDList ifds = parser().getLazyIFDs(4);
+    assertEquals(IFD_COUNT, ifds.size());
+    assertTrue(ifds.isParsed(0));
+    for (int i=1; i<IFD_COUNT; i++) {
+      assertFalse(ifds.isParsed(i));
+    }
+    assertEquals(1, ifds.getParsedIFDs().size());
+  }
+
+  @Test
+  public void testMatchesEagerParsing() throws Exception {
+    TiffParser parser = parser();
+    IFDList eager = parser.getMainIFDs();
+    LazyIFDList lazy = parser().getLazyIFDs(4);
+    assertEquals(eager.size(), lazy.size());
+    for (int i=IFD_COUNT-1; i>=0; i--) {
+      parser.fillInIFD(eager.get(i));
+      assertEquals(eager.get(i).keySet(), lazy.get(i).keySet());
+      assertTrue(Arrays.equals(eager.get(i).getStripOffsets(),
+        lazy.get(i).getStripOffsets()));
+    }
+    int count = 0;
+    for (IFD ifd : lazy) {
+      assertEquals(eager.get(count++).getImageLength(), ifd.getImageLength());
+    }
+    assertEquals(IFD_COUNT, count);
+  }
+
+  @Test
+  public void testBoundedCache() throws Exception {
+    LazyIFDList ifds = parser().getLazyIFDs(4);
+    IFD second = ifds.get(1);
+    assertSame(second, ifds.get(1));
+    for (int i=2; i<IFD_COUNT; i++) {
+      ifds.get(i);
+    }
+    // the first IFD is always kept, plus at most 4 cached IFDs
+    assertEquals(5, ifds.getParsedIFDs().size());
+    assertFalse(ifds.isParsed(1));
+
+    IFD reparsed = ifds.get(1);
+    assertNotSame(second, reparsed);
+    assertEquals(second.keySet(), reparsed.keySet());
+    assertTrue(Arrays.equals(second.getStripOffsets(),
+      reparsed.getStripOffsets()));
+  }
+
+  @Test
+  public void testSetKeepsIFD() throws Exception {
+    LazyIFDList ifds = parser().getLazyIFDs(2);
+    IFD ifd = ifds.get(7);
+    ifd.putIFDValue(IFD.SOFTWARE, "modified");
+    ifds.set(7, ifd);
+    for (int i=0; i<IFD_COUNT; i++) {
+      ifds.get(i);
+    }
+    assertSame(ifd, ifds.get(7));
+    assertEquals("modified", ifds.get(7).getIFDTextValue(IFD.SOFTWARE));
+  }
+
+  @Test
+  public void testStructuralChangeParsesAll() throws Exception {
+    IFDList eager = parser().getMainIFDs();
+    LazyIFDList ifds = parser().getLazyIFDs(2);
+    ifds.remove(3);
+    assertEquals(IFD_COUNT - 1, ifds.size());
+    assertEquals(IFD_COUNT - 1, ifds.getParsedIFDs().size());
+    assertTrue(Arrays.equals(eager.get(4).getStripOffsets(),
+      ifds.get(3).getStripOffsets()));
+  }
+
+  @Test
+  public void testParseFailure() throws Exception {
+    final boolean[] fail = {false};
+    ByteArrayHandle handle =
+      new ByteArrayHandle(CompactIFDTest.makeTiff(IFD_COUNT, 2))
+    {
+      @Override
+      public void seek(long pos) throws IOException {
+        if (fail[0]) {
+          throw new IOException("read failed");
+        }
+        super.seek(pos);
+      }
+    };
+    LazyIFDList ifds = new TiffParser(
+      new RandomAccessInputStream(handle)).getLazyIFDs(2);
+    fail[0] = true;
+    try {
+      ifds.get(1);
+      fail("Expected UncheckedIOException");
+    }
+    catch (UncheckedIOException e) {
+      assertEquals("read failed", e.getCause().getMessage());
+    }
+  }
+
+  @Test
+  public void testModifiedIFDKept() throws Exception {
+    LazyIFDList ifds = parser().getLazyIFDs(2);
+    IFD ifd = ifds.get(7);
+    ifd.putIFDValue(IFD.SOFTWARE, "modified");
+    for (int i=0; i<IFD_COUNT; i++) {
+      ifds.get(i);
+    }
+    assertSame(ifd, ifds.get(7));
+    assertFalse(ifds.isParsed(8));
+    // the first IFD, the modified IFD and 2 cached IFDs
+    assertEquals(4, ifds.getParsedIFDs().size());
+  }
+
+  @Test
+  public void testTemplateMismatch() throws Exception {
+    LazyIFDList ifds = parser().getLazyIFDs(2);
+    IFD template = new IFD(ifds.get(0));
+    ifds.setTemplate(template);
+    assertEquals(ifds.get(0).getImageWidth(),
+      ifds.getIFD(1).getImageWidth());
+
+    template.putIFDValue(IFD.IMAGE_WIDTH, template.getImageWidth() + 1);
+    try {
+      ifds.getIFD(2);
+      fail("Expected FormatException");
+    }
+    catch (FormatException e) {
+      assertFalse(ifds.isParsed(2));
+    }
+    try {
+      ifds.get(2);
+      fail("Expected IllegalStateException");
+    }
+    catch (IllegalStateException e) {
+      assertTrue(e.getCause() instanceof FormatException);
+    }
+  }
+
+  @Test
+  public void testKryoParsesAllIFDs() throws Exception {
+    LazyIFDList ifds = parser().getLazyIFDs(2);
+    IFD ifd = ifds.get(7);
+    ifd.putIFDValue(IFD.SOFTWARE, "modified");
+    ifds.set(7, ifd);
+
+    Kryo kryo = new Kryo();
+    ((Kryo.DefaultInstantiatorStrategy) kryo.getInstantiatorStrategy())
+      .setFallbackInstantiatorStrategy(new StdInstantiatorStrategy());
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    Output output = new Output(bytes);
+    kryo.writeObject(output, ifds);
+    output.close();
+    // the first and modified IFDs, and 2 cached IFDs
+    assertEquals(4, ifds.getParsedIFDs().size());
+
+    LazyIFDList copy = kryo.readObject(
+      new Input(bytes.toByteArray()), LazyIFDList.class);
+    assertEquals(IFD_COUNT, copy.size());
+    assertEquals(IFD_COUNT, copy.getParsedIFDs().size());
+    assertEquals("modified", copy.get(7).getIFDTextValue(IFD.SOFTWARE));
+
+    IFDList eager = parser().getMainIFDs();
+    assertTrue(Arrays.equals(eager.get(5).getStripOffsets(),
+      copy.get(5).getStripOffsets()));
+  }
+
+  @Test
+  public void testReaderOption() throws Exception {
+    String id = "lazy-ifds.tif";
+    Location.mapFile(id,
+      new ByteArrayHandle(CompactIFDTest.makeTiff(IFD_COUNT, 2)));
+    DynamicMetadataOptions options = new DynamicMetadataOptions();
+    options.setBoolean(MinimalTiffReader.LAZY_IFDS_KEY, true);
+    MinimalTiffReader reader = new MinimalTiffReader();
+    reader.setMetadataOptions(options);
+    try {
+      reader.setId(id);
+      assertTrue(reader.getIFDs() instanceof LazyIFDList);
+      assertEquals(IFD_COUNT, reader.getImageCount());
+      for (int i=IFD_COUNT-1; i>=0; i--) {
+        byte[] plane = reader.openBytes(i);
+        assertEquals(i + 1, plane[0]);
+        assertEquals(i + 2, plane[1]);
+      }
+    }
+    finally {
+      reader.close();
+      Location.mapFile(id, null);
+    }
+  }
+
+  // -- Helper methods --
+
+  private static TiffParser parser() throws Exception {
+    return new TiffParser(new RandomAccessInputStream(
+      new ByteArrayHandle(CompactIFDTest.makeTiff(IFD_COUNT, 2))));
+  }
+
+}
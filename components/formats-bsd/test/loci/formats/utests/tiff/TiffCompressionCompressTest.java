@@ -142,6 +142,15 @@ public class TiffCompressionCompressTest {
     assertNotNull(compressed);
   }
 
+  @Test
+  public void testZSTD() throws FormatException, IOException {
+    TiffCompression compression = TiffCompression.ZSTD;
+    CodecOptions options = compression.getCompressionCodecOptions(ifd);
+    byte[] compressed = compression.compress(data, options);
+    assertNotNull(compressed);
+    assertTrue(compressed.length < data.length);
+  }
+
   @Test(expectedExceptions={ FormatException.class })
   public void testTHUNDERSCAN() throws FormatException, IOException {
     TiffCompression compression = TiffCompression.THUNDERSCAN;
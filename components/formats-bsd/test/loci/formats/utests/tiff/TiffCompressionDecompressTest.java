@@ -140,6 +140,12 @@ public class TiffCompressionDecompressTest {
     }
   }
 
+  @Test(expectedExceptions={ FormatException.class })
+  public void testZSTD() throws FormatException, IOException {
+    TiffCompression compression = TiffCompression.ZSTD;
+    assertNotNull(compression.decompress(DATA, OPTIONS));
+  }
+
   @Test(expectedExceptions={ FormatException.class })
   public void testTHUNDERSCAN() throws FormatException, IOException {
     TiffCompression compression = TiffCompression.THUNDERSCAN;
@@ -0,0 +1,293 @@
+/*
+ * #%L
+ * BSD implementations of Bio-Formats readers and writers
+ * %%
+ * Copyright (C) 2019 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package loci.formats.utests.tiff;
+
+import static org.testng.AssertJUnit.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import loci.common.RandomAccessInputStream;
+import loci.formats.FormatException;
+import loci.formats.MetadataTools;
+import loci.formats.codec.ByteArrayPool;
+import loci.formats.codec.ParallelDecoder;
+import loci.formats.meta.IMetadata;
+import loci.formats.out.TiffWriter;
+import loci.formats.tiff.IFD;
+import loci.formats.tiff.TiffParser;
+
+import ome.xml.model.enums.DimensionOrder;
+import ome.xml.model.enums.PixelType;
+import ome.xml.model.primitives.PositiveInteger;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+/**
+ * Checks that decoding tiles on an executor or with pooled buffers gives
+ * the same pixels as decoding them serially.
+ */
+public class TiffParallelDecodeTest {
+
+  private static final int TILE_SIZE = 16;
+  private static final int WIDTH = TILE_SIZE * 5 + 3;
+  private static final int HEIGHT = TILE_SIZE * 3 + 7;
+
+  private File file;
+  private RandomAccessInputStream in;
+  private TiffParser parser;
+  private IFD ifd;
+  private ExecutorService executor;
+
+  @BeforeClass
+  public void setUp() throws Exception {
+    file = File.createTempFile("parallelDecodeTest", ".tiff");
+    writeFile();
+    in = new RandomAccessInputStream(file.getAbsolutePath());
+    parser = new TiffParser(in);
+    ifd = parser.getFirstIFD();
+    executor = Executors.newFixedThreadPool(4);
+  }
+
+  @AfterClass
+  public void tearDown() throws Exception {
+    executor.shutdown();
+    in.close();
+    file.delete();
+  }
+
+  @DataProvider(name = "regions")
+  public Object[][] createRegions() {
+    return new Object[][] {
+      {0, 0, WIDTH, HEIGHT},
+      {0, 0, TILE_SIZE, TILE_SIZE},
+      {TILE_SIZE / 2, TILE_SIZE / 2, TILE_SIZE * 3, TILE_SIZE * 2},
+      {WIDTH - 5, HEIGHT - 9, 5, 9},
+      {1, 2, WIDTH - 1, 3},
+    };
+  }
+
+  @Test(dataProvider = "regions")
+  public void testSameAsSerial(int x, int y, int w, int h)
+    throws FormatException, IOException
+  {
+    byte[] serial = new byte[w * h * 2];
+    parser.setExecutor(null);
+    parser.getSamples(ifd, serial, x, y, w, h);
+
+    byte[] parallel = new byte[serial.length];
+    parser.setExecutor(executor);
+    parser.getSamples(ifd, parallel, x, y, w, h);
+    parser.setExecutor(null);
+
+    assertTrue(Arrays.equals(serial, parallel));
+    for (int row=0; row<h; row++) {
+      for (int col=0; col<w; col++) {
+        int index = 2 * (row * w + col);
+        int value = ((serial[index] & 0xff) << 8) | (serial[index + 1] & 0xff);
+        assertEquals(getValue(x + col, y + row), value);
+      }
+    }
+  }
+
+  @Test(dataProvider = "regions")
+  public void testSameWithSingleThread(int x, int y, int w, int h)
+    throws FormatException, IOException
+  {
+    // one thread only allows two tiles in flight, so most of the
+    // tiles are submitted while earlier tiles are being copied
+    byte[] serial = new byte[w * h * 2];
+    parser.getSamples(ifd, serial, x, y, w, h);
+
+    ExecutorService single = Executors.newFixedThreadPool(1);
+    try {
+      byte[] parallel = new byte[serial.length];
+      parser.setExecutor(single);
+      parser.getSamples(ifd, parallel, x, y, w, h);
+      assertTrue(Arrays.equals(serial, parallel));
+    }
+    finally {
+      parser.setExecutor(null);
+      single.shutdown();
+    }
+  }
+
+  @Test(dataProvider = "regions")
+  public void testSameWithBufferPool(int x, int y, int w, int h)
+    throws FormatException, IOException
+  {
+    byte[] expected = new byte[w * h * 2];
+    parser.getSamples(ifd, expected, x, y, w, h);
+
+    ByteArrayPool pool = new ByteArrayPool();
+    parser.setBufferPool(pool);
+    try {
+      for (int i=0; i<2; i++) {
+        byte[] serial = new byte[expected.length];
+        parser.getSamples(ifd, serial, x, y, w, h);
+        assertTrue(Arrays.equals(expected, serial));
+
+        byte[] parallel = new byte[expected.length];
+        parser.setExecutor(executor);
+        parser.getSamples(ifd, parallel, x, y, w, h);
+        parser.setExecutor(null);
+        assertTrue(Arrays.equals(expected, parallel));
+      }
+      assertTrue(pool.getPooledBytes() > 0);
+    }
+    finally {
+      parser.setBufferPool(null);
+    }
+  }
+
+  @Test
+  public void testRetainedTilesAreBounded() throws Exception {
+    RetentionTrackingExecutor tracking = new RetentionTrackingExecutor(2);
+    try {
+      byte[] expected = new byte[WIDTH * HEIGHT * 2];
+      parser.getSamples(ifd, expected, 0, 0, WIDTH, HEIGHT);
+
+      byte[] parallel = new byte[expected.length];
+      parser.setExecutor(tracking);
+      parser.getSamples(ifd, parallel, 0, 0, WIDTH, HEIGHT);
+      assertTrue(Arrays.equals(expected, parallel));
+
+      // the tiles queued ahead, the tile being copied, and the tile whose
+      // task has just finished may be reachable; tiles that have already
+      // been copied must not be
+      int tiles = tracking.getDecodedCount();
+      int bound = ParallelDecoder.getMaxInFlight(tracking) + 2;
+      assertEquals(6 * 4, tiles);
+      assertTrue("retained " + tracking.getMaxRetained() + " of " + tiles +
+        " tiles", tracking.getMaxRetained() <= bound);
+    }
+    finally {
+      parser.setExecutor(null);
+      tracking.shutdown();
+    }
+  }
+
+  private void writeFile() throws FormatException, IOException {
+    IMetadata meta = MetadataTools.createOMEXMLMetadata();
+    meta.setImageID("Image:0", 0);
+    meta.setPixelsID("Pixels:0", 0);
+    meta.setPixelsDimensionOrder(DimensionOrder.XYZCT, 0);
+    meta.setPixelsSizeX(new PositiveInteger(WIDTH), 0);
+    meta.setPixelsSizeY(new PositiveInteger(HEIGHT), 0);
+    meta.setPixelsSizeZ(new PositiveInteger(1), 0);
+    meta.setPixelsSizeC(new PositiveInteger(1), 0);
+    meta.setPixelsSizeT(new PositiveInteger(1), 0);
+    meta.setPixelsType(PixelType.UINT16, 0);
+    meta.setPixelsBigEndian(true, 0);
+    meta.setChannelID("Channel:0:0", 0, 0);
+    meta.setChannelSamplesPerPixel(new PositiveInteger(1), 0, 0);
+
+    byte[] plane = new byte[WIDTH * HEIGHT * 2];
+    for (int y=0; y<HEIGHT; y++) {
+      for (int x=0; x<WIDTH; x++) {
+        int index = 2 * (y * WIDTH + x);
+        int value = getValue(x, y);
+        plane[index] = (byte) (value >> 8);
+        plane[index + 1] = (byte) value;
+      }
+    }
+
+    TiffWriter writer = new TiffWriter();
+    writer.setMetadataRetrieve(meta);
+    writer.setCompression(TiffWriter.COMPRESSION_LZW);
+    writer.setId(file.getAbsolutePath());
+    IFD tiles = new IFD();
+    tiles.put(IFD.TILE_WIDTH, TILE_SIZE);
+    tiles.put(IFD.TILE_LENGTH, TILE_SIZE);
+    writer.saveBytes(0, plane, tiles);
+    writer.close();
+  }
+
+  private int getValue(int x, int y) {
+    return (y * 251 + x * 7) & 0xffff;
+  }
+
+  /**
+   * Executor that counts how many decoded tiles are still reachable each
+   * time a tile finishes decoding.
+   */
+  private static class RetentionTrackingExecutor extends ThreadPoolExecutor {
+    private final List<WeakReference<Object>> results =
+      new ArrayList<WeakReference<Object>>();
+    private int maxRetained;
+
+    RetentionTrackingExecutor(int threads) {
+      super(threads, threads, 0, TimeUnit.MILLISECONDS,
+        new LinkedBlockingQueue<Runnable>());
+    }
+
+    @Override
+    protected synchronized void afterExecute(Runnable r, Throwable t) {
+      super.afterExecute(r, t);
+      try {
+        results.add(new WeakReference<Object>(((Future<?>) r).get()));
+      }
+      catch (Exception e) {
+        return;
+      }
+      System.gc();
+      int retained = 0;
+      for (WeakReference<Object> result : results) {
+        if (result.get() != null) retained++;
+      }
+      maxRetained = Math.max(maxRetained, retained);
+    }
+
+    synchronized int getDecodedCount() {
+      return results.size();
+    }
+
+    synchronized int getMaxRetained() {
+      return maxRetained;
+    }
+  }
+
+}
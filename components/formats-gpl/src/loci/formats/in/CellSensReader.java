@@ -30,6 +30,10 @@ import java.util.Arrays;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Hashtable;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import loci.common.ByteArrayHandle;
 import loci.common.DataTools;
@@ -48,6 +52,7 @@ import loci.formats.codec.CodecOptions;
 import loci.formats.codec.JPEGCodec;
 import loci.formats.codec.LosslessJPEGCodec;
 import loci.formats.codec.JPEG2000Codec;
+import loci.formats.codec.ParallelDecoder;
 import loci.formats.meta.MetadataStore;
 import loci.formats.tiff.IFD;
 import loci.formats.tiff.IFDList;
@@ -66,6 +71,8 @@ public class CellSensReader extends FormatReader {
 
   public static final String FAIL_ON_MISSING_KEY = "cellsens.fail_on_missing_ets";
   public static final boolean FAIL_ON_MISSING_DEFAULT = false;
+  public static final String DECODE_THREADS_KEY = "cellsens.decode_threads";
+  public static final int DECODE_THREADS_DEFAULT = 1;
 
   // Compression types
   private static final int RAW = 0;
@@ -381,7 +388,7 @@ public class CellSensReader extends FormatReader {
   private TiffParser parser;
   private IFDList ifds;
 
-  private ArrayList<Long[]> tileOffsets = new ArrayList<Long[]>();
+  private ArrayList<long[]> tileOffsets = new ArrayList<long[]>();
   private boolean jpeg = false;
 
   private ArrayList<Integer> rows = new ArrayList<Integer>();
@@ -390,8 +397,7 @@ public class CellSensReader extends FormatReader {
   private ArrayList<Integer> tileX = new ArrayList<Integer>();
   private ArrayList<Integer> tileY = new ArrayList<Integer>();
 
-  private ArrayList<ArrayList<TileCoordinate>> tileMap =
-    new ArrayList<ArrayList<TileCoordinate>>();
+  private ArrayList<TileIndex> tileMap = new ArrayList<TileIndex>();
   private ArrayList<Integer> nDimensions = new ArrayList<Integer>();
   private boolean inDimensionProperties = false;
   private boolean foundChannelTag = false;
@@ -404,6 +410,10 @@ public class CellSensReader extends FormatReader {
 
   private ArrayList<Pyramid> pyramids = new ArrayList<Pyramid>();
 
+  /** Executor used to decode tiles in parallel, if any. */
+  private transient ParallelDecoder decoder =
+    new ParallelDecoder("CellSensDecoder");
+
   private transient boolean expectETS = false;
   private transient int channelCount = 0;
   private transient int zCount = 0;
@@ -431,6 +441,25 @@ public class CellSensReader extends FormatReader {
     return FAIL_ON_MISSING_DEFAULT;
   }
 
+  /** Gets the number of threads to use when decoding tiles. */
+  public int getDecodeThreads() {
+    MetadataOptions options = getMetadataOptions();
+    if (options instanceof DynamicMetadataOptions) {
+      return ((DynamicMetadataOptions) options).getInteger(
+        DECODE_THREADS_KEY, DECODE_THREADS_DEFAULT);
+    }
+    return DECODE_THREADS_DEFAULT;
+  }
+
+  /**
+   * Sets the executor used to decode tiles in parallel,
+   * overriding {@link #DECODE_THREADS_KEY}.  The executor is not shut down
+   * when this reader is closed, so it can be shared between readers.
+   */
+  public void setDecodeExecutor(ExecutorService executor) {
+    decoder.setExecutor(executor);
+  }
+
   // -- IFormatReader API methods --
 
   /* @see loci.formats.IFormatReader#fileGroupOption(String) */
@@ -530,40 +559,90 @@ public class CellSensReader extends FormatReader {
         getRGBChannelCount() * FormatTools.getBytesPerPixel(getPixelType());
       int outputRowLen = w * pixel;
 
-      for (int row=0; row<tileRows; row++) {
-        for (int col=0; col<tileCols; col++) {
-          int width = tileX.get(getCoreIndex());
-          int height = tileY.get(getCoreIndex());
-          Region tile = new Region(col * width, row * height, width, height);
-          if (!tile.intersects(image)) {
-            continue;
+      // only visit the tiles that can intersect the requested region
+      int width = tileX.get(getCoreIndex());
+      int height = tileY.get(getCoreIndex());
+      int firstRow = y / height;
+      int lastRow = Math.min(tileRows - 1, (y + h - 1) / height);
+      int firstCol = x / width;
+      int lastCol = Math.min(tileCols - 1, (x + w - 1) / width);
+
+      int[] coordinate = getTileCoordinate(no);
+      ExecutorService executor = canDecodeInParallel() ?
+        decoder.getExecutor(getDecodeThreads()) : null;
+      ParallelDecoder.Batch batch = null;
+      List<int[]> tiles = null;
+      List<Future<byte[]>> decoded = null;
+      int maxInFlight = 0;
+      if (executor != null) {
+        batch = new ParallelDecoder.Batch(executor);
+        maxInFlight = ParallelDecoder.getMaxInFlight(executor);
+        tiles = new ArrayList<int[]>();
+        decoded = new ArrayList<Future<byte[]>>();
+        for (int row=firstRow; row<=lastRow; row++) {
+          for (int col=firstCol; col<=lastCol; col++) {
+            Region tile = new Region(col * width, row * height, width, height);
+            if (tile.intersects(image)) {
+              tiles.add(new int[] {row, col});
+            }
           }
+        }
+      }
 
-          intersection = tile.intersection(image);
-          int intersectionX = 0;
+      int nextTile = 0;
+      try {
+        for (int row=firstRow; row<=lastRow; row++) {
+          for (int col=firstCol; col<=lastCol; col++) {
+            Region tile = new Region(col * width, row * height, width, height);
+            if (!tile.intersects(image)) {
+              continue;
+            }
 
-          if (tile.x < image.x) {
-            intersectionX = image.x - tile.x;
-          }
+            intersection = tile.intersection(image);
+            int intersectionX = 0;
+
+            if (tile.x < image.x) {
+              intersectionX = image.x - tile.x;
+            }
 
-          tileBuf = decodeTile(no, row, col);
+            if (decoded == null) {
+              tileBuf = decodeTile(coordinate, row, col);
+            }
+            else {
+              // keep up to maxInFlight tiles queued ahead of this one;
+              // the batch does not keep finished tiles, so clearing each
+              // future once copied bounds the decoded tiles held in memory
+              int last = Math.min(tiles.size(), nextTile + maxInFlight);
+              while (decoded.size() < last) {
+                decoded.add(submitTile(batch, coordinate,
+                  tiles.get(decoded.size())));
+              }
+              tileBuf = ParallelDecoder.get(decoded.get(nextTile));
+              decoded.set(nextTile++, null);
+            }
 
-          int rowLen = pixel * (int) Math.min(intersection.width, width);
+            int rowLen = pixel * (int) Math.min(intersection.width, width);
 
-          int outputOffset = outputRow * outputRowLen + outputCol;
-          for (int trow=0; trow<intersection.height; trow++) {
-            int realRow = trow + intersection.y - tile.y;
-            int inputOffset = pixel * (realRow * width + intersectionX);
-            System.arraycopy(tileBuf, inputOffset, buf, outputOffset, rowLen);
-            outputOffset += outputRowLen;
+            int outputOffset = outputRow * outputRowLen + outputCol;
+            for (int trow=0; trow<intersection.height; trow++) {
+              int realRow = trow + intersection.y - tile.y;
+              int inputOffset = pixel * (realRow * width + intersectionX);
+              System.arraycopy(tileBuf, inputOffset, buf, outputOffset, rowLen);
+              outputOffset += outputRowLen;
+            }
+
+            outputCol += rowLen;
           }
 
-          outputCol += rowLen;
+          if (intersection != null) {
+            outputRow += intersection.height;
+            outputCol = 0;
+          }
         }
-
-        if (intersection != null) {
-          outputRow += intersection.height;
-          outputCol = 0;
+      }
+      finally {
+        if (batch != null) {
+          batch.cancel();
         }
       }
 
@@ -611,6 +690,7 @@ public class CellSensReader extends FormatReader {
       pyramids.clear();
       channelCount = 0;
       zCount = 0;
+      decoder.close();
     }
   }
 
@@ -621,6 +701,7 @@ public class CellSensReader extends FormatReader {
   protected ArrayList<String> getAvailableOptions() {
     ArrayList<String> optionsList = super.getAvailableOptions();
     optionsList.add(FAIL_ON_MISSING_KEY);
+    optionsList.add(DECODE_THREADS_KEY);
     return optionsList;
   }
 
@@ -977,17 +1058,14 @@ public class CellSensReader extends FormatReader {
     return bpp * channels * tileX.get(index) * tileY.get(index);
   }
 
-  private byte[] decodeTile(int no, int row, int col)
-    throws FormatException, IOException
-  {
-    if (tileMap.get(getCoreIndex()) == null) {
-      return new byte[getTileSize()];
-    }
-
+  /**
+   * Get the tile coordinate for the given plane in the current resolution.
+   * The column and row (the first two coordinates) are left as 0,
+   * so that the same coordinate can be reused for every tile in the plane.
+   */
+  private int[] getTileCoordinate(int no) {
     int[] zct = getZCTCoords(no);
-    TileCoordinate t = new TileCoordinate(nDimensions.get(getCoreIndex()));
-    t.coordinate[0] = col;
-    t.coordinate[1] = row;
+    int[] coordinate = new int[nDimensions.get(getCoreIndex())];
 
     int resIndex = getResolution();
     int pyramidIndex = getSeries();
@@ -1012,23 +1090,39 @@ public class CellSensReader extends FormatReader {
       int index = pyramid.dimensionOrdering.get(dim) + 2;
 
       if (dim.equals("Z")) {
-        t.coordinate[index] = zct[0];
+        coordinate[index] = zct[0];
       }
       else if (dim.equals("C")) {
-        t.coordinate[index] = zct[1];
+        coordinate[index] = zct[1];
       }
       else if (dim.equals("T")) {
-        t.coordinate[index] = zct[2];
+        coordinate[index] = zct[2];
       }
     }
 
     if (resIndex > 0) {
-      t.coordinate[t.coordinate.length - 1] = resIndex;
+      coordinate[coordinate.length - 1] = resIndex;
+    }
+    return coordinate;
+  }
+
+  /**
+   * Decode the tile at the given row and column.
+   *
+   * @param coordinate the plane's tile coordinate, from getTileCoordinate;
+   *                   this is not modified, so it may be shared between
+   *                   concurrent calls
+   */
+  private byte[] decodeTile(int[] coordinate, int row, int col)
+    throws FormatException, IOException
+  {
+    TileIndex map = tileMap.get(getCoreIndex());
+    if (map == null) {
+      return new byte[getTileSize()];
     }
 
-    ArrayList<TileCoordinate> map = tileMap.get(getCoreIndex());
-    Integer index = map.indexOf(t);
-    if (index == null || index < 0) {
+    int index = map.indexOf(coordinate, col, row);
+    if (index < 0) {
       // fill in the tile with the stored background color
       // usually this is either black or white
       byte[] tile = new byte[getTileSize()];
@@ -1043,7 +1137,7 @@ public class CellSensReader extends FormatReader {
       return tile;
     }
 
-    Long offset = tileOffsets.get(getCoreIndex())[index];
+    long offset = tileOffsets.get(getCoreIndex())[index];
     byte[] buf = null;
     IFormatReader reader = null;
     try (RandomAccessInputStream ets =
@@ -1167,7 +1261,7 @@ public class CellSensReader extends FormatReader {
 
     etsFile.seek(usedChunkOffset);
 
-    tileOffsets.add(new Long[nUsedChunks]);
+    tileOffsets.add(new long[nUsedChunks]);
 
     ArrayList<TileCoordinate> tmpTiles = new ArrayList<TileCoordinate>();
 
@@ -1331,10 +1425,7 @@ public class CellSensReader extends FormatReader {
       cols.add(1);
     }
 
-    ArrayList<TileCoordinate> map = new ArrayList<TileCoordinate>();
-    for (int i=0; i<tmpTiles.size(); i++) {
-      map.add(tmpTiles.get(i));
-    }
+    TileIndex map = new TileIndex(tmpTiles);
     tileMap.add(map);
 
     ms.pixelType = convertPixelType(pixelType);
@@ -2413,6 +2504,31 @@ public class CellSensReader extends FormatReader {
     return type;
   }
 
+  /**
+   * Whether tiles in the current resolution can be decoded concurrently.
+   * PNG and BMP tiles are decoded through a mapped file with a fixed name,
+   * so these are always decoded serially.
+   */
+  private boolean canDecodeInParallel() {
+    int compression = compressionType.get(getCoreIndex());
+    return compression == RAW || compression == JPEG ||
+      compression == JPEG_2000 || compression == JPEG_LOSSLESS;
+  }
+
+  /**
+   * Submits the given tile, as a {row, column} pair, to be decoded.
+   */
+  private Future<byte[]> submitTile(ParallelDecoder.Batch batch,
+    final int[] coordinate, final int[] tile)
+  {
+    return batch.submit(new Callable<byte[]>() {
+      @Override
+      public byte[] call() throws FormatException, IOException {
+        return decodeTile(coordinate, tile[0], tile[1]);
+      }
+    });
+  }
+
   private int getIFDIndex() {
     if (usedFiles.length == 1) {
       return getCoreIndex();
@@ -2460,6 +2576,94 @@ public class CellSensReader extends FormatReader {
     }
   }
 
+  /**
+   * Maps tile coordinates to chunk indexes using an open-addressing hash
+   * table.  All coordinates are stored in a single array, so that pyramids
+   * with millions of tiles do not need one object per tile.
+   */
+  class TileIndex {
+    private int nDimensions;
+
+    /** Coordinates of each chunk, nDimensions values per chunk. */
+    private int[] coordinates;
+
+    /** Hash slots holding chunk index + 1, or 0 if the slot is empty. */
+    private int[] slots;
+
+    public TileIndex(ArrayList<TileCoordinate> tiles) {
+      nDimensions = tiles.size() == 0 ? 0 : tiles.get(0).coordinate.length;
+      coordinates = new int[tiles.size() * nDimensions];
+
+      int capacity = 2;
+      while (capacity < tiles.size() * 2) {
+        capacity <<= 1;
+      }
+      slots = new int[capacity];
+
+      for (int chunk=0; chunk<tiles.size(); chunk++) {
+        int[] c = tiles.get(chunk).coordinate;
+        System.arraycopy(c, 0, coordinates, chunk * nDimensions, nDimensions);
+        int slot = findSlot(c, c[0], c[1]);
+        // keep the first chunk with a given coordinate, if there are
+        // duplicates, to match the previous linear search
+        if (slots[slot] == 0) {
+          slots[slot] = chunk + 1;
+        }
+      }
+    }
+
+    /**
+     * Get the chunk index for the given coordinate, with the first two
+     * coordinates replaced by the tile column and row.
+     * Returns -1 if there is no such chunk.
+     */
+    public int indexOf(int[] coordinate, int col, int row) {
+      if (coordinate.length != nDimensions) {
+        return -1;
+      }
+      return slots[findSlot(coordinate, col, row)] - 1;
+    }
+
+    /**
+     * Find the slot containing the given coordinate,
+     * or the empty slot where it would be inserted.
+     */
+    private int findSlot(int[] coordinate, int col, int row) {
+      int mask = slots.length - 1;
+      int slot = hash(coordinate, col, row) & mask;
+      while (slots[slot] != 0 &&
+        !matches(slots[slot] - 1, coordinate, col, row))
+      {
+        slot = (slot + 1) & mask;
+      }
+      return slot;
+    }
+
+    private boolean matches(int chunk, int[] coordinate, int col, int row) {
+      int offset = chunk * nDimensions;
+      if (coordinates[offset] != col || coordinates[offset + 1] != row) {
+        return false;
+      }
+      for (int i=2; i<nDimensions; i++) {
+        if (coordinates[offset + i] != coordinate[i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private int hash(int[] coordinate, int col, int row) {
+      int h = 31 * col + row;
+      for (int i=2; i<coordinate.length; i++) {
+        h = 31 * h + coordinate[i];
+      }
+      h ^= h >>> 16;
+      h *= 0x85ebca6b;
+      h ^= h >>> 13;
+      return h;
+    }
+  }
+
   class Pyramid {
     public String name;
 
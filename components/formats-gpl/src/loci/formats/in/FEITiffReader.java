@@ -32,6 +32,7 @@ import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Deque;
 import java.util.HashMap;
+import java.util.List;
 
 import loci.common.DateTools;
 import loci.common.IniList;
@@ -160,8 +161,13 @@ public class FEITiffReader extends BaseTiffReader {
       return;//fall back to regular reader
     }
     // store metadata for later conversion to OME-XML
+    boolean deferred = isMetadataDeferred();
     if (tag.startsWith("<")) {
-      XMLTools.parseXML(tag, new FEIHandler());
+      List<String> keysAndValues = deferred ? new ArrayList<String>() : null;
+      XMLTools.parseXML(tag, new FEIHandler(keysAndValues));
+      if (deferred) {
+        deferMeta(keysAndValues);
+      }
     }
     else {
       IniParser parser = new IniParser();
@@ -257,13 +263,31 @@ public class FEITiffReader extends BaseTiffReader {
 
       // store everything else in the metadata hashtable
 
-      if (getMetadataOptions().getMetadataLevel() != MetadataLevel.MINIMUM) {
+      if (deferred) {
+        deferMeta(ini);
+      }
+      else if (getMetadataOptions().getMetadataLevel() != MetadataLevel.MINIMUM) {
         HashMap<String, String> iniMap = ini.flattenIntoHashMap();
         metadata.putAll(iniMap);
       }
     }
   }
 
+  /* @see loci.formats.FormatReader#addDeferredMeta(Object) */
+  @Override
+  @SuppressWarnings("unchecked")
+  protected void addDeferredMeta(Object block) {
+    if (block instanceof IniList) {
+      metadata.putAll(((IniList) block).flattenIntoHashMap());
+    }
+    else {
+      List<String> keysAndValues = (List<String>) block;
+      for (int i=0; i<keysAndValues.size(); i+=2) {
+        addGlobalMeta(keysAndValues.get(i), keysAndValues.get(i + 1));
+      }
+    }
+  }
+
   /* @see BaseTiffReader#initMetadataStore() */
   @Override
   protected void initMetadataStore() throws FormatException {
@@ -347,6 +371,16 @@ public class FEITiffReader extends BaseTiffReader {
     private String key, value;
     private Deque<String> parentNames = new ArrayDeque<String>();
 
+    /**
+     * Alternating keys and values to add to the global metadata later,
+     * or null if they are added as they are read.
+     */
+    private final List<String> keysAndValues;
+
+    public FEIHandler(List<String> keysAndValues) {
+      this.keysAndValues = keysAndValues;
+    }
+
     // -- DefaultHandler API methods --
 
     @Override
@@ -400,7 +434,13 @@ public class FEITiffReader extends BaseTiffReader {
       }
 
       if (key != null && value != null) {
-        addGlobalMeta(key, value);
+        if (keysAndValues == null) {
+          addGlobalMeta(key, value);
+        }
+        else {
+          keysAndValues.add(key);
+          keysAndValues.add(value);
+        }
 
         if (key.equals("Stage X") || key.equals("StagePosition X")) {
           final Double number = Double.valueOf(value);
@@ -38,6 +38,9 @@ import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import org.apache.commons.lang.ArrayUtils;
 
@@ -51,6 +54,7 @@ import loci.formats.FormatReader;
 import loci.formats.FormatTools;
 import loci.formats.MetadataTools;
 import loci.formats.codec.CodecOptions;
+import loci.formats.codec.ParallelDecoder;
 import loci.formats.codec.ZlibCodec;
 import loci.formats.meta.MetadataStore;
 
@@ -83,6 +87,10 @@ public class KLBReader extends FormatReader {
   private static final int COMPRESSION_NONE = 0;
   private static final int COMPRESSION_BZIP2 = 1;
   private static final int COMPRESSION_ZLIB = 2;
+
+  /** Option key for the number of threads used to decompress blocks. */
+  public static final String DECODE_THREADS_KEY = "klb.decode_threads";
+  public static final int DECODE_THREADS_DEFAULT = 1;
   
   // -- Fields --
 
@@ -99,6 +107,10 @@ public class KLBReader extends FormatReader {
   private long offsetFilePointer;
   private int headerVersion;
 
+  /** Executor used to decode blocks in parallel, if any. */
+  private transient ParallelDecoder decoder =
+    new ParallelDecoder("KLBDecoder");
+
   private LinkedHashMap<String, String[][]> filelist = new LinkedHashMap<String, String[][]>();
   private ArrayList<Integer> channels = new ArrayList<Integer>();
   private static final String DEFAULT_SERIES = "Default";
@@ -124,6 +136,27 @@ public class KLBReader extends FormatReader {
     setGroupFiles(true);
   }
 
+  // -- KLBReader API methods --
+
+  /** Gets the number of threads to use when decompressing blocks. */
+  public int getDecodeThreads() {
+    MetadataOptions options = getMetadataOptions();
+    if (options instanceof DynamicMetadataOptions) {
+      return ((DynamicMetadataOptions) options).getInteger(
+        DECODE_THREADS_KEY, DECODE_THREADS_DEFAULT);
+    }
+    return DECODE_THREADS_DEFAULT;
+  }
+
+  /**
+   * Sets the executor used to decompress blocks in parallel,
+   * overriding {@link #DECODE_THREADS_KEY}.  The executor is not shut down
+   * when this reader is closed, so it can be shared between readers.
+   */
+  public void setDecodeExecutor(ExecutorService executor) {
+    decoder.setExecutor(executor);
+  }
+
   // -- IFormatReader API methods --
 
   /**
@@ -173,122 +206,98 @@ public class KLBReader extends FormatReader {
       dimsBlock[ii] = (int) Math.ceil((float)dims_xyzct[ii] / (float)dims_blockSize[ii]);
     }
 
-    long compressedBlockSize = blockOffsets[1] - blockOffsets[0];
-    int outputOffset = 0;
-
-    for (int yy=0; yy < yNumBlocks; yy++) {
-      for (int xx=0; xx < xNumBlocks; xx++) {
+    ExecutorService executor = decoder.getExecutor(getDecodeThreads());
+    ParallelDecoder.Batch batch = null;
+    List<Future<?>> decoded = new ArrayList<Future<?>>();
+    int finished = 0;
+    int maxInFlight = 0;
+    if (executor != null) {
+      batch = new ParallelDecoder.Batch(executor);
+      maxInFlight = ParallelDecoder.getMaxInFlight(executor);
+    }
 
-        //calculate coordinate (in block space)        
-        int blockId = (yBlockStartIndex + yy) * blocksPerImageRow + xBlockStartIndex + xx;
-        for (int ii = 0; ii < KLB_DATA_DIMS; ii++)
-        {
-          //parsing coordinates to image space (not block anymore)
-          if (ii == 1) {
-            coordBlock[1] = blockId / dimsBlock[0];
-          }
-          else {
-            coordBlock[ii] = blockId % dimsBlock[ii];
+    try {
+      for (int yy=0; yy < yNumBlocks; yy++) {
+        for (int xx=0; xx < xNumBlocks; xx++) {
+          //calculate coordinate (in block space)        
+          int blockId = (yBlockStartIndex + yy) * blocksPerImageRow + xBlockStartIndex + xx;
+          for (int ii = 0; ii < KLB_DATA_DIMS; ii++)
+          {
+            //parsing coordinates to image space (not block anymore)
+            if (ii == 1) {
+              coordBlock[1] = blockId / dimsBlock[0];
+            }
+            else {
+              coordBlock[ii] = blockId % dimsBlock[ii];
+            }
+            coordBlock[ii] *= dims_blockSize[ii];
           }
-          coordBlock[ii] *= dims_blockSize[ii];
-        }
 
-        // Calculate block size in case we had border block
-        blockSizeAux[0] = Math.min(dims_blockSize[0], (x + w - coordBlock[0]));
-        blockSizeAux[0] = Math.min(blockSizeAux[0], coordBlock[0] + dims_blockSize[0] - x);
-        blockSizeAux[1] = Math.min(dims_blockSize[1], (y + h - coordBlock[1]));
-        blockSizeAux[1] = Math.min(blockSizeAux[1], coordBlock[1] + dims_blockSize[1] - y);
-        for (int ii = 2; ii < KLB_DATA_DIMS; ii++) {
-          blockSizeAux[ii] = Math.min(dims_blockSize[ii], (dims_xyzct[ii] - coordBlock[ii]));
-        }
-
-        int blockSizeBytes = bytesPerPixel;
-        for (int ii = 0; ii < KLB_DATA_DIMS; ii++)
-        {
-          if (ii == 0 && coordBlock[ii] + blockSizeAux[ii] >= dims_xyzct[ii]) {
-            blockSizeBytes *= blockSizeAux[0];
+          // Calculate block size in case we had border block
+          blockSizeAux[0] = Math.min(dims_blockSize[0], (x + w - coordBlock[0]));
+          blockSizeAux[0] = Math.min(blockSizeAux[0], coordBlock[0] + dims_blockSize[0] - x);
+          blockSizeAux[1] = Math.min(dims_blockSize[1], (y + h - coordBlock[1]));
+          blockSizeAux[1] = Math.min(blockSizeAux[1], coordBlock[1] + dims_blockSize[1] - y);
+          for (int ii = 2; ii < KLB_DATA_DIMS; ii++) {
+            blockSizeAux[ii] = Math.min(dims_blockSize[ii], (dims_xyzct[ii] - coordBlock[ii]));
           }
-          else {
-            blockSizeBytes *= dims_blockSize[ii];
+
+          int blockSizeBytes = bytesPerPixel;
+          for (int ii = 0; ii < KLB_DATA_DIMS; ii++)
+          {
+            if (ii == 0 && coordBlock[ii] + blockSizeAux[ii] >= dims_xyzct[ii]) {
+              blockSizeBytes *= blockSizeAux[0];
+            }
+            else {
+              blockSizeBytes *= dims_blockSize[ii];
+            }
           }
-        }
         
-        compressedBlockSize = blockOffsets[blockId+1] - blockOffsets[blockId];
-        long offset =  blockOffsets[blockId];
-        //Seek to start of block
-        in.seek((long) (headerSize + offset));
-
-        //Read compressed block
-        byte[] block = new byte[(int) compressedBlockSize];
-        in.read(block);
-
-        //Decompress block
-        if (compressionType == COMPRESSION_BZIP2) {
-          // Discard first two bytes of BZIP2 header
-          byte[] tempPixels = block;
-          block = new byte[tempPixels.length - 2];
-          System.arraycopy(tempPixels, 2, block, 0, block.length);
-
-          try {
-            ByteArrayInputStream bais = new ByteArrayInputStream(block);
-            CBZip2InputStream bzip = new CBZip2InputStream(bais);
-            block = new byte[blockSizeBytes];
-            bzip.read(block, 0, block.length);
-            tempPixels = null;
-            bais.close();
-            bzip.close();
-            bais = null;
-            bzip = null;
-          }
-          catch(IOException e) {
-            LOGGER.error("IOException while decompressing block {}", xx);
-            throw e;
+          long compressedBlockSize = blockOffsets[blockId+1] - blockOffsets[blockId];
+          long offset =  blockOffsets[blockId];
+          //Seek to start of block
+          in.seek((long) (headerSize + offset));
+
+          //Read compressed block
+          byte[] block = new byte[(int) compressedBlockSize];
+          in.read(block);
+
+          if (executor == null) {
+            copyBlock(decompressBlock(block, blockSizeBytes, blockId),
+              coordBlock, blockSizeAux, buf, x, y, w, bytesPerPixel);
+            continue;
           }
-        }
-        else if (compressionType == COMPRESSION_ZLIB) {
-          CodecOptions options = new CodecOptions();
-          block = new ZlibCodec().decompress(block, options);
-        }
 
-        try {
-          int imageRowSize = w * bytesPerPixel;
-          int blockRowSize = blockSizeAux[0] * bytesPerPixel;
-          int fullBlockRowSize = dims_blockSize[0] * bytesPerPixel;
-
-          // Location in output buffer to copy block
-          outputOffset = (imageRowSize * (coordBlock[1] - y)) + ((coordBlock[0] - x) * bytesPerPixel);
-          if (coordBlock[0] < x && blockSizeAux[0] != dims_blockSize[0]) outputOffset += (dims_blockSize[0] - blockSizeAux[0]) * bytesPerPixel;
-          if (coordBlock[1] < y && blockSizeAux[1] != dims_blockSize[1]) outputOffset = (coordBlock[0] - x) * bytesPerPixel;
-          if (coordBlock[1] < y && coordBlock[0] < x && blockSizeAux[1] != dims_blockSize[1] && blockSizeAux[0] != dims_blockSize[0]) outputOffset = 0;
-
-          // Location within the block for required XY plane
-          int inputOffset = (coordBlock[2] % dims_blockSize[2]) * blockRowSize * blockSizeAux[1];
-          if (coordBlock[0] < x && coordBlock[1] < y && blockSizeAux[1] != dims_blockSize[1] && blockSizeAux[0] != dims_blockSize[0]) inputOffset += ((dims_blockSize[0] * (dims_blockSize[1] - blockSizeAux[1])) + (x - coordBlock[0])) * bytesPerPixel;
-          // Partial block at the start of x tile
-          else if (coordBlock[0] < x && blockSizeAux[0] != dims_blockSize[0]) inputOffset += (dims_blockSize[0] - blockSizeAux[0]) * bytesPerPixel;
-          // Partial block at the start of y tile
-          else if (coordBlock[1] < y && blockSizeAux[1] != dims_blockSize[1] && coordBlock[0] + blockSizeAux[0] == dims_xyzct[0]) inputOffset += blockSizeAux[0] * (dims_blockSize[1] - blockSizeAux[1]) * bytesPerPixel;
-          else if (coordBlock[1] < y && blockSizeAux[1] != dims_blockSize[1]) inputOffset += dims_blockSize[0] * (dims_blockSize[1] - blockSizeAux[1]) * bytesPerPixel;
-          
-          inputOffset += (coordBlock[3] % dims_blockSize[3]) * blockRowSize * blockSizeAux[1] * blockSizeAux[2];
-          inputOffset += (coordBlock[4] % dims_blockSize[4]) * blockRowSize * blockSizeAux[1] * blockSizeAux[2] * blockSizeAux[3];
-
-          // If its the last block in a row then use the corrected rowSize
-          if (coordBlock[0] + blockSizeAux[0] == dims_xyzct[0]) {
-            fullBlockRowSize = blockRowSize;
+          // Decompress and copy on the decode threads, keeping at most
+          // maxInFlight compressed blocks in memory
+          while (decoded.size() - finished >= maxInFlight) {
+            ParallelDecoder.get(decoded.get(finished));
+            decoded.set(finished++, null);
           }
-          // Copy row at a time from decompressed block to output buffer
-          for (int numRows = 0; numRows < blockSizeAux[1]; numRows++) {
-            int destPos = outputOffset + (numRows * imageRowSize);
-            if (destPos + blockRowSize <= buf.length) {
-              System.arraycopy(block, inputOffset + (numRows * fullBlockRowSize), buf, destPos, blockRowSize);
+          final int[] blockCoords = coordBlock.clone();
+          final int[] blockSizes = blockSizeAux.clone();
+          final int blockBytes = blockSizeBytes;
+          final int id = blockId;
+          decoded.add(batch.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws FormatException, IOException {
+              copyBlock(decompressBlock(block, blockBytes, id),
+                blockCoords, blockSizes, buf, x, y, w, bytesPerPixel);
+              return null;
             }
-          }
-        }
-        catch(Exception e) {
-          throw new FormatException("Exception caught while copying decompressed block data to output buffer : " + e);
+          }));
         }
       }
+
+      while (finished < decoded.size()) {
+        ParallelDecoder.get(decoded.get(finished++));
+      }
+    }
+    finally {
+      if (batch != null) {
+        // stop any blocks still being copied into buf before returning
+        batch.cancel();
+      }
     }
 
     return buf;
@@ -296,6 +305,14 @@ public class KLBReader extends FormatReader {
 
   // -- Internal FormatReader API methods --
 
+  /* @see loci.formats.FormatReader#getAvailableOptions() */
+  @Override
+  protected ArrayList<String> getAvailableOptions() {
+    ArrayList<String> optionsList = super.getAvailableOptions();
+    optionsList.add(DECODE_THREADS_KEY);
+    return optionsList;
+  }
+
   /* @see loci.formats.FormatReader#initFile(String) */
   @Override
   protected void initFile(String id) throws FormatException, IOException {
@@ -528,6 +545,80 @@ public class KLBReader extends FormatReader {
 
   // Helper methods
 
+  /** Decompresses a single block read from the file. */
+  private byte[] decompressBlock(byte[] block, int blockSizeBytes,
+    int blockId) throws FormatException, IOException
+  {
+    if (compressionType == COMPRESSION_BZIP2) {
+      // Discard first two bytes of BZIP2 header
+      try (CBZip2InputStream bzip = new CBZip2InputStream(
+        new ByteArrayInputStream(block, 2, block.length - 2)))
+      {
+        byte[] pixels = new byte[blockSizeBytes];
+        int n = 0;
+        while (n < pixels.length) {
+          int read = bzip.read(pixels, n, pixels.length - n);
+          if (read <= 0) break;
+          n += read;
+        }
+        return pixels;
+      }
+      catch(IOException e) {
+        LOGGER.error("IOException while decompressing block {}", blockId);
+        throw e;
+      }
+    }
+    else if (compressionType == COMPRESSION_ZLIB) {
+      CodecOptions options = new CodecOptions();
+      return new ZlibCodec().decompress(block, options);
+    }
+    return block;
+  }
+
+  /** Copies the requested region of a decompressed block into buf. */
+  private void copyBlock(byte[] block, int[] coordBlock, int[] blockSizeAux,
+    byte[] buf, int x, int y, int w, int bytesPerPixel) throws FormatException
+  {
+    try {
+      int imageRowSize = w * bytesPerPixel;
+      int blockRowSize = blockSizeAux[0] * bytesPerPixel;
+      int fullBlockRowSize = dims_blockSize[0] * bytesPerPixel;
+
+      // Location in output buffer to copy block
+      int outputOffset = (imageRowSize * (coordBlock[1] - y)) + ((coordBlock[0] - x) * bytesPerPixel);
+      if (coordBlock[0] < x && blockSizeAux[0] != dims_blockSize[0]) outputOffset += (dims_blockSize[0] - blockSizeAux[0]) * bytesPerPixel;
+      if (coordBlock[1] < y && blockSizeAux[1] != dims_blockSize[1]) outputOffset = (coordBlock[0] - x) * bytesPerPixel;
+      if (coordBlock[1] < y && coordBlock[0] < x && blockSizeAux[1] != dims_blockSize[1] && blockSizeAux[0] != dims_blockSize[0]) outputOffset = 0;
+
+      // Location within the block for required XY plane
+      int inputOffset = (coordBlock[2] % dims_blockSize[2]) * blockRowSize * blockSizeAux[1];
+      if (coordBlock[0] < x && coordBlock[1] < y && blockSizeAux[1] != dims_blockSize[1] && blockSizeAux[0] != dims_blockSize[0]) inputOffset += ((dims_blockSize[0] * (dims_blockSize[1] - blockSizeAux[1])) + (x - coordBlock[0])) * bytesPerPixel;
+      // Partial block at the start of x tile
+      else if (coordBlock[0] < x && blockSizeAux[0] != dims_blockSize[0]) inputOffset += (dims_blockSize[0] - blockSizeAux[0]) * bytesPerPixel;
+      // Partial block at the start of y tile
+      else if (coordBlock[1] < y && blockSizeAux[1] != dims_blockSize[1] && coordBlock[0] + blockSizeAux[0] == dims_xyzct[0]) inputOffset += blockSizeAux[0] * (dims_blockSize[1] - blockSizeAux[1]) * bytesPerPixel;
+      else if (coordBlock[1] < y && blockSizeAux[1] != dims_blockSize[1]) inputOffset += dims_blockSize[0] * (dims_blockSize[1] - blockSizeAux[1]) * bytesPerPixel;
+      
+      inputOffset += (coordBlock[3] % dims_blockSize[3]) * blockRowSize * blockSizeAux[1] * blockSizeAux[2];
+      inputOffset += (coordBlock[4] % dims_blockSize[4]) * blockRowSize * blockSizeAux[1] * blockSizeAux[2] * blockSizeAux[3];
+
+      // If its the last block in a row then use the corrected rowSize
+      if (coordBlock[0] + blockSizeAux[0] == dims_xyzct[0]) {
+        fullBlockRowSize = blockRowSize;
+      }
+      // Copy row at a time from decompressed block to output buffer
+      for (int numRows = 0; numRows < blockSizeAux[1]; numRows++) {
+        int destPos = outputOffset + (numRows * imageRowSize);
+        if (destPos + blockRowSize <= buf.length) {
+          System.arraycopy(block, inputOffset + (numRows * fullBlockRowSize), buf, destPos, blockRowSize);
+        }
+      }
+    }
+    catch(Exception e) {
+      throw new FormatException("Exception caught while copying decompressed block data to output buffer : " + e);
+    }
+  }
+
   private void convertPixelType(CoreMetadata ms0, int pixelType) throws FormatException {
     switch (pixelType) {
       case UINT8_TYPE:
@@ -603,6 +694,9 @@ public class KLBReader extends FormatReader {
     blocksPerPlane = 0;
     offsetFilePointer = 0;
     headerVersion = 0;    
+    if (!fileOnly) {
+      decoder.close();
+    }
   }
 
 }
@@ -31,6 +31,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import loci.common.RandomAccessInputStream;
+import loci.formats.FormatDetector;
 import loci.formats.FormatTools;
 import loci.formats.tiff.IFD;
 import loci.formats.tiff.TiffIFDEntry;
@@ -70,7 +71,9 @@ public class MikroscanTiffReader extends SVSReader {
   public boolean isThisType(String name, boolean open) {
     boolean isThisType = super.isThisType(name, open);
     if (isThisType && open) {
-      try (RandomAccessInputStream stream = new RandomAccessInputStream(name)) {
+      try (RandomAccessInputStream stream =
+        new RandomAccessInputStream(name, FormatDetector.HEADER_BUFFER_SIZE))
+      {
         TiffParser tiffParser = new TiffParser(stream);
         tiffParser.setDoCaching(false);
         if (!tiffParser.isValidHeader()) {
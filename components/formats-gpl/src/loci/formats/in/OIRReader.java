@@ -30,7 +30,6 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Hashtable;
 import javax.xml.parsers.ParserConfigurationException;
 
@@ -80,6 +79,23 @@ public class OIRReader extends FormatReader {
   private int defaultXMLSkip = 36;
   private int blocksPerPlane = 0;
   private String[] pixelUIDs = null;
+
+  /**
+   * Pixel block locations in sorted UID order, stored as primitive arrays
+   * so that openBytes does not need to look up blocks by UID.
+   * pixelBlocks and pixelUIDs are discarded once these are populated.
+   */
+  private String[] blockFiles = null;
+  private int[] blockFileIndex = null;
+  private long[] blockOffsets = null;
+  private int[] blockLengths = null;
+
+  /**
+   * First and last block index for each (Z, channel, T) combination,
+   * or -1 if there are no blocks for that plane.
+   */
+  private int[] planeFirstBlock = null;
+  private int[] planeLastBlock = null;
   private String baseName;
   private int lastChannel = -1;
 
@@ -116,11 +132,7 @@ public class OIRReader extends FormatReader {
   public String[] getSeriesUsedFiles(boolean noPixels) {
     FormatTools.assertId(currentId, true ,1);
 
-    HashSet<String> files = new HashSet<String>();
-    for (String key : pixelBlocks.keySet()) {
-      files.add(pixelBlocks.get(key).file);
-    }
-    String[] allFiles = files.toArray(new String[files.size()]);
+    String[] allFiles = blockFiles.clone();
     Arrays.sort(allFiles);
     return allFiles;
   }
@@ -176,21 +188,9 @@ public class OIRReader extends FormatReader {
     int[] zct = getZCTCoords(no);
     lastChannel = zct[1];
 
-    int first = 0;
-    int startIndex = -1;
-    int end = 0;
-    while (first < pixelUIDs.length) {
-      if (getZ(pixelUIDs[first]) - minZ == zct[0] &&
-        getT(pixelUIDs[first]) - minT == zct[2] &&
-        pixelUIDs[first].indexOf(channels.get(zct[1] % channels.size()).id) > 0)
-      {
-        if (startIndex < 0) {
-          startIndex = first;
-        }
-        end = first;
-      }
-      first++;
-    }
+    int plane = getPlaneKey(zct[0], zct[1], zct[2]);
+    int startIndex = planeFirstBlock[plane];
+    int end = planeLastBlock[plane];
 
     if (startIndex < 0) {
       LOGGER.warn("No pixel blocks for plane #{}", no);
@@ -208,25 +208,26 @@ public class OIRReader extends FormatReader {
     RandomAccessInputStream s = null;
     String openFile = null;
     try {
-      for (int i=startIndex; i<=end; i++) {
-        PixelBlock block = pixelBlocks.get(pixelUIDs[i]);
+      for (int block=startIndex; block<=end; block++) {
+        int blockLength = blockLengths[block];
 
-        if (bufferPointer + block.length < bufferOffset ||
+        if (bufferPointer + blockLength < bufferOffset ||
           bufferPointer >= bufferEnd)
         {
-          bufferPointer += block.length;
+          bufferPointer += blockLength;
           continue;
         }
 
         byte[] pixels = null;
-        if (s == null || !block.file.equals(openFile)) {
+        String blockFile = blockFiles[blockFileIndex[block]];
+        if (s == null || !blockFile.equals(openFile)) {
           if (s != null) {
             s.close();
           }
-          s = new RandomAccessInputStream(block.file, BUFFER_SIZE);
-          openFile = block.file;
+          s = new RandomAccessInputStream(blockFile, BUFFER_SIZE);
+          openFile = blockFile;
         }
-        pixels = readPixelBlock(s, block.offset);
+        pixels = readPixelBlock(s, blockOffsets[block]);
         if (pixels != null) {
           int blockY = bufferPointer / imageWidth;
           int blockH = pixels.length / imageWidth;
@@ -240,7 +241,7 @@ public class OIRReader extends FormatReader {
             System.arraycopy(pixels, blockOffset, buf, bufOffset, rowLen);
           }
         }
-        bufferPointer += block.length;
+        bufferPointer += blockLength;
       }
     }
     finally {
@@ -269,6 +270,12 @@ public class OIRReader extends FormatReader {
       defaultXMLSkip = 36;
       blocksPerPlane = 0;
       pixelUIDs = null;
+      blockFiles = null;
+      blockFileIndex = null;
+      blockOffsets = null;
+      blockLengths = null;
+      planeFirstBlock = null;
+      planeLastBlock = null;
       baseName = null;
       lastChannel = -1;
       minZ = Integer.MAX_VALUE;
@@ -450,6 +457,8 @@ public class OIRReader extends FormatReader {
       }
     }
 
+    buildPlaneIndex();
+
     // populate original metadata
 
     Hashtable<String, Object> tmpMeta = new Hashtable<String, Object>();
@@ -1405,7 +1414,94 @@ public class OIRReader extends FormatReader {
     return pixels;
   }
 
-  private int getZ(String uid) {
+  /**
+   * Build the plane-to-block index from the sorted list of pixel UIDs.
+   * Each UID is parsed once here, so that openBytes only needs to look up
+   * the range of blocks for the requested plane.  The UID map is not
+   * needed after this, so it is discarded to keep the reader (and any
+   * memo file) small.
+   */
+  private void buildPlaneIndex() {
+    blockFileIndex = new int[pixelUIDs.length];
+    blockOffsets = new long[pixelUIDs.length];
+    blockLengths = new int[pixelUIDs.length];
+
+    ArrayList<String> files = new ArrayList<String>();
+    HashMap<String, Integer> fileIndexes = new HashMap<String, Integer>();
+    for (int i=0; i<pixelUIDs.length; i++) {
+      PixelBlock block = pixelBlocks.get(pixelUIDs[i]);
+      Integer fileIndex = fileIndexes.get(block.file);
+      if (fileIndex == null) {
+        fileIndex = files.size();
+        fileIndexes.put(block.file, fileIndex);
+        files.add(block.file);
+      }
+      blockFileIndex[i] = fileIndex;
+      blockOffsets[i] = block.offset;
+      blockLengths[i] = block.length;
+    }
+    blockFiles = files.toArray(new String[files.size()]);
+
+    String[] channelIDs = new String[channels.size()];
+    for (int c=0; c<channelIDs.length; c++) {
+      channelIDs[c] = channels.get(c).id;
+    }
+    int[][] ranges = findPlaneRanges(pixelUIDs, channelIDs,
+      getSizeZ(), getSizeT(), minZ, minT);
+    planeFirstBlock = ranges[0];
+    planeLastBlock = ranges[1];
+
+    pixelBlocks.clear();
+    pixelUIDs = null;
+  }
+
+  /**
+   * Find the first and last UID in the given sorted list that belongs to
+   * each (Z, channel, T) plane, indexed as by {@link #getPlaneKey}.
+   * Every block between the first and last is read for the plane, as
+   * blocks of a plane are expected to be contiguous in the sorted list.
+   *
+   * @return the first indexes followed by the last indexes, with -1 for
+   *         planes that have no blocks
+   */
+  static int[][] findPlaneRanges(String[] uids, String[] channelIDs,
+    int sizeZ, int sizeT, int minZ, int minT)
+  {
+    int nChannels = channelIDs.length;
+    int[] first = new int[sizeZ * sizeT * nChannels];
+    int[] last = new int[first.length];
+    Arrays.fill(first, -1);
+    Arrays.fill(last, -1);
+    for (int i=0; i<uids.length; i++) {
+      int z = getZ(uids[i]) - minZ;
+      int t = getT(uids[i]) - minT;
+      if (z < 0 || z >= sizeZ || t < 0 || t >= sizeT) {
+        continue;
+      }
+      for (int c=0; c<nChannels; c++) {
+        if (uids[i].indexOf(channelIDs[c]) > 0) {
+          int key = ((t * sizeZ) + z) * nChannels + c;
+          if (first[key] < 0) {
+            first[key] = i;
+          }
+          last[key] = i;
+        }
+      }
+    }
+    return new int[][] {first, last};
+  }
+
+  /**
+   * Get the index into the plane block ranges for the given Z, C, and T
+   * coordinates.  The channel index wraps around the number of OIR
+   * channels, as multiple C indexes may share the same set of pixel blocks.
+   */
+  private int getPlaneKey(int z, int c, int t) {
+    int nChannels = channels.size();
+    return ((t * getSizeZ()) + z) * nChannels + (c % nChannels);
+  }
+
+  static int getZ(String uid) {
     int zIndex = uid.indexOf("z");
     if (zIndex < 0) {
       return 0;
@@ -1414,7 +1510,7 @@ public class OIRReader extends FormatReader {
     return Integer.parseInt(uid.substring(zIndex + 1, zIndex + 4)) - 1;
   }
 
-  private int getT(String uid) {
+  static int getT(String uid) {
     int tIndex = uid.indexOf("t");
     if (tIndex < 0) {
       return 0;
@@ -38,6 +38,7 @@ import loci.common.DataTools;
 import loci.common.DateTools;
 import loci.common.RandomAccessInputStream;
 import loci.formats.CoreMetadata;
+import loci.formats.FormatDetector;
 import loci.formats.FormatException;
 import loci.formats.FormatTools;
 import loci.formats.MetadataTools;
@@ -121,7 +122,9 @@ public class SVSReader extends BaseTiffReader {
   public boolean isThisType(String name, boolean open) {
     boolean isThisType = super.isThisType(name, open);
     if (!isThisType && open) {
-      try (RandomAccessInputStream stream = new RandomAccessInputStream(name)) {
+      try (RandomAccessInputStream stream =
+        new RandomAccessInputStream(name, FormatDetector.HEADER_BUFFER_SIZE))
+      {
         TiffParser tiffParser = new TiffParser(stream);
         tiffParser.setDoCaching(false);
         if (!tiffParser.isValidHeader()) {
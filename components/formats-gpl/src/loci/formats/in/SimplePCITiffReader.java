@@ -209,12 +209,21 @@ public class SimplePCITiffReader extends BaseTiffReader {
       m.bitsPerPixel = ifds.get(0).getIFDIntValue(CUSTOM_BITS);
     }
 
-    if (getMetadataOptions().getMetadataLevel() != MetadataLevel.MINIMUM) {
+    if (isMetadataDeferred()) {
+      deferMeta(ini);
+    }
+    else if (getMetadataOptions().getMetadataLevel() != MetadataLevel.MINIMUM) {
       HashMap<String, String> iniMap = ini.flattenIntoHashMap();
       metadata.putAll(iniMap);
     }
   }
 
+  /* @see loci.formats.FormatReader#addDeferredMeta(Object) */
+  @Override
+  protected void addDeferredMeta(Object block) {
+    metadata.putAll(((IniList) block).flattenIntoHashMap());
+  }
+
   /* @see BaseTiffReader#initMetadataStore() */
   @Override
   protected void initMetadataStore() throws FormatException {
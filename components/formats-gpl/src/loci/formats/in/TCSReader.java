@@ -39,6 +39,7 @@ import loci.common.xml.XMLTools;
 import loci.formats.AxisGuesser;
 import loci.formats.CoreMetadata;
 import loci.formats.FilePattern;
+import loci.formats.FormatDetector;
 import loci.formats.FormatException;
 import loci.formats.FormatReader;
 import loci.formats.FormatTools;
@@ -127,7 +128,9 @@ public class TCSReader extends FormatReader {
       }
     }
     if (lei.exists()) return false;
-    try (RandomAccessInputStream s = new RandomAccessInputStream(name)) {
+    try (RandomAccessInputStream s =
+      new RandomAccessInputStream(name, FormatDetector.HEADER_BUFFER_SIZE))
+    {
       return isThisType(s);
     }
     catch (IOException e) {
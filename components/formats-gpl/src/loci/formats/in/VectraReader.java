@@ -39,6 +39,7 @@ import loci.common.Location;
 import loci.common.RandomAccessInputStream;
 import loci.common.xml.XMLTools;
 import loci.formats.CoreMetadata;
+import loci.formats.FormatDetector;
 import loci.formats.FormatException;
 import loci.formats.FormatTools;
 import loci.formats.MetadataTools;
@@ -107,7 +108,9 @@ public class VectraReader extends BaseTiffReader {
     if (!open) {
       return checkSuffix(name, "qptiff");
     }
-    try (RandomAccessInputStream stream = new RandomAccessInputStream(name)) {
+    try (RandomAccessInputStream stream =
+      new RandomAccessInputStream(name, FormatDetector.HEADER_BUFFER_SIZE))
+    {
       TiffParser tiffParser = new TiffParser(stream);
       tiffParser.setDoCaching(false);
       if (!tiffParser.isValidHeader()) {
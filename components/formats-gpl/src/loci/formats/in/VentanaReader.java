@@ -43,6 +43,7 @@ import loci.common.RandomAccessInputStream;
 import loci.common.Region;
 import loci.common.xml.XMLTools;
 import loci.formats.CoreMetadata;
+import loci.formats.FormatDetector;
 import loci.formats.FormatException;
 import loci.formats.FormatTools;
 import loci.formats.MetadataTools;
@@ -147,7 +148,8 @@ public class VentanaReader extends BaseTiffReader {
     if (!isThisType && open) {
       RandomAccessInputStream stream = null;
       try {
-        stream = new RandomAccessInputStream(name);
+        stream = new RandomAccessInputStream(name,
+          FormatDetector.HEADER_BUFFER_SIZE);
         TiffParser tiffParser = new TiffParser(stream);
         tiffParser.setDoCaching(false);
         if (!tiffParser.isValidHeader()) {
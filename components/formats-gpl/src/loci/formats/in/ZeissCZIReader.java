@@ -54,6 +54,7 @@ import loci.formats.codec.CodecOptions;
 import loci.formats.codec.JPEGCodec;
 import loci.formats.codec.JPEGXRCodec;
 import loci.formats.codec.LZWCodec;
+import loci.formats.codec.ZstdCodec;
 import loci.formats.meta.MetadataStore;
 
 import ome.xml.model.enums.AcquisitionMode;
@@ -101,6 +102,8 @@ public class ZeissCZIReader extends FormatReader {
   private static final int JPEG = 1;
   private static final int LZW = 2;
   private static final int JPEGXR = 4;
+  private static final int ZSTD_0 = 5;
+  private static final int ZSTD_1 = 6;
 
   /** Pixel type constants. */
   private static final int GRAY8 = 0;
@@ -125,6 +128,8 @@ public class ZeissCZIReader extends FormatReader {
   private ArrayList<SubBlock> planes;
   private HashMap<Coordinate, ArrayList<Integer>> indexIntoPlanes =
     new HashMap<Coordinate, ArrayList<Integer>>();
+  private HashMap<Coordinate, TileIndex> tileIndex =
+    new HashMap<Coordinate, TileIndex>();
   private int rotations = 1;
   private int positions = 1;
   private int illuminations = 1;
@@ -350,20 +355,39 @@ public class ZeissCZIReader extends FormatReader {
       while (baseResolution > 0 && core.get(baseResolution - 1).sizeX > core.get(baseResolution).sizeX) {
         baseResolution--;
       }
-      for (SubBlock plane : planes) {
-        if ((plane.planeIndex == no && ((maxResolution == 0 && plane.coreIndex == currentIndex) ||
-          (maxResolution > 0 && plane.coreIndex == baseResolution))) ||
-          (plane.planeIndex == previousChannel && validScanDim))
-        {
-          if (plane.row < minTileY) {
-            minTileY = plane.row;
-          }
-          if (plane.col < minTileX) {
-            minTileX = plane.col;
+
+      // use the spatial index to find the subblocks that overlap the
+      // requested region; scan data is matched by channel, not by plane
+      Iterable<SubBlock> candidates = planes;
+      TileIndex index = validScanDim ? null :
+        tileIndex.get(new Coordinate(currentIndex, no, getImageCount()));
+      if (index != null &&
+        index.stitched == (prestitched != null && prestitched))
+      {
+        ArrayList<SubBlock> subblocks = new ArrayList<SubBlock>();
+        for (int i : index.getPlanes(image)) {
+          subblocks.add(planes.get(i));
+        }
+        candidates = subblocks;
+        minTileX = index.minTileX;
+        minTileY = index.minTileY;
+      }
+      else {
+        for (SubBlock plane : planes) {
+          if ((plane.planeIndex == no && ((maxResolution == 0 && plane.coreIndex == currentIndex) ||
+            (maxResolution > 0 && plane.coreIndex == baseResolution))) ||
+            (plane.planeIndex == previousChannel && validScanDim))
+          {
+            if (plane.row < minTileY) {
+              minTileY = plane.row;
+            }
+            if (plane.col < minTileX) {
+              minTileX = plane.col;
+            }
           }
         }
       }
-      for (SubBlock plane : planes) {
+      for (SubBlock plane : candidates) {
         if ((plane.coreIndex == currentIndex && plane.planeIndex == no) ||
           (plane.planeIndex == previousChannel && validScanDim))
         {
@@ -535,6 +559,7 @@ public class ZeissCZIReader extends FormatReader {
       illuminationLabels = null;
       phaseLabels = null;
       indexIntoPlanes.clear();
+      tileIndex.clear();
       parser = null;
       extraImages.clear();
       maxResolution = 0;
@@ -700,14 +725,18 @@ public class ZeissCZIReader extends FormatReader {
     for (int i=0; i<planes.size(); i++) {
       long planeSize = (long) planes.get(i).x * planes.get(i).y * bpp;
       int compression = planes.get(i).directoryEntry.compression;
-      if (compression == UNCOMPRESSED || compression == JPEGXR) {
+      // the stored size of JPEG-XR and zstd blocks says nothing about
+      // the size of the decoded block
+      boolean variableSize = compression == JPEGXR ||
+        compression == ZSTD_0 || compression == ZSTD_1;
+      if (compression == UNCOMPRESSED || variableSize) {
         long size = planes.get(i).dataSize;
         if (size < planeSize || planeSize >= Integer.MAX_VALUE || size < 0) {
           // check for reduced resolution in the pyramid
           DimensionEntry[] entries = planes.get(i).directoryEntry.dimensionEntries;
           int pyramidType = planes.get(i).directoryEntry.pyramidType;
-          if ((pyramidType == 1 || pyramidType == 2 || compression == JPEGXR) &&
-            (compression == JPEGXR || size == entries[0].storedSize * entries[1].storedSize * bpp))
+          if ((pyramidType == 1 || pyramidType == 2 || variableSize) &&
+            (variableSize || size == entries[0].storedSize * entries[1].storedSize * bpp))
           {
             int scale = planes.get(i).x / entries[0].storedSize;
             if (scale == 1 || (((scale % 2) == 0 || (scale % 3) == 0) && allowAutostitching())) {
@@ -1595,6 +1624,8 @@ public class ZeissCZIReader extends FormatReader {
       }
     }
 
+    buildTileIndex();
+
     // not needed by further calls on the reader
     segments = null;
   }
@@ -1621,6 +1652,89 @@ public class ZeissCZIReader extends FormatReader {
 
   // -- Helper methods --
 
+  /**
+   * Group the subblocks by series/resolution and plane, and record the
+   * bounding box of each subblock so that openBytes only needs to read
+   * the subblocks that overlap the requested region.
+   */
+  private void buildTileIndex() {
+    tileIndex.clear();
+    HashMap<Coordinate, ArrayList<Integer>> groups =
+      new HashMap<Coordinate, ArrayList<Integer>>();
+    for (int i=0; i<planes.size(); i++) {
+      SubBlock p = planes.get(i);
+      if (p.coreIndex < 0 || p.coreIndex >= core.size()) {
+        continue;
+      }
+      Coordinate c = new Coordinate(
+        p.coreIndex, p.planeIndex, core.get(p.coreIndex).imageCount);
+      ArrayList<Integer> indices = groups.get(c);
+      if (indices == null) {
+        indices = new ArrayList<Integer>();
+        groups.put(c, indices);
+      }
+      indices.add(i);
+    }
+
+    boolean stitched = prestitched != null && prestitched;
+    for (Coordinate c : groups.keySet()) {
+      ArrayList<Integer> indices = groups.get(c);
+      int[] planeIndexes = new int[indices.size()];
+      for (int i=0; i<planeIndexes.length; i++) {
+        planeIndexes[i] = indices.get(i);
+      }
+      if (!stitched) {
+        tileIndex.put(c, new TileIndex(planeIndexes, null, 0, 0));
+        continue;
+      }
+
+      // minimum row/col values are taken from the full resolution image
+      int baseResolution = c.series;
+      if (maxResolution > 0) {
+        while (baseResolution > 0 &&
+          core.get(baseResolution - 1).sizeX > core.get(baseResolution).sizeX)
+        {
+          baseResolution--;
+        }
+      }
+      ArrayList<Integer> base = groups.get(new Coordinate(
+        baseResolution, c.plane, core.get(baseResolution).imageCount));
+      int minTileX = Integer.MAX_VALUE, minTileY = Integer.MAX_VALUE;
+      if (base != null) {
+        for (int i : base) {
+          minTileX = Math.min(minTileX, planes.get(i).col);
+          minTileY = Math.min(minTileY, planes.get(i).row);
+        }
+      }
+
+      int sizeX = core.get(c.series).sizeX;
+      int sizeY = core.get(c.series).sizeY;
+      Region[] tiles = new Region[planeIndexes.length];
+      for (int i=0; i<tiles.length; i++) {
+        SubBlock plane = planes.get(planeIndexes[i]);
+        int res = (int) Math.pow(scaleFactor, plane.resolutionIndex);
+        int realX = plane.x / res;
+        int realY = plane.y / res;
+        Region tile = new Region(plane.col, plane.row, realX, realY);
+        if (realX == sizeX && realY == sizeY) {
+          tile.x = 0;
+          tile.y = 0;
+        }
+        else {
+          tile.x -= minTileX;
+          tile.y -= minTileY;
+        }
+        tile.x /= res;
+        tile.y /= res;
+        tiles[i] = tile;
+      }
+      TileIndex index = new TileIndex(planeIndexes, tiles, sizeX, sizeY);
+      index.minTileX = minTileX;
+      index.minTileY = minTileY;
+      tileIndex.put(c, index);
+    }
+  }
+
   private void readSegments(String id) throws IOException {
     if (in != null) {
       in.close();
@@ -3894,6 +4008,15 @@ public class ZeissCZIReader extends FormatReader {
             }
           }
           break;
+        case ZSTD_0:
+        case ZSTD_1:
+          options.width = directoryEntry.dimensionEntries[0].storedSize;
+          options.height = directoryEntry.dimensionEntries[1].storedSize;
+          options.maxBytes = options.width * options.height *
+            getRGBChannelCount() * bytesPerPixel;
+          data = decompressZstd(data, options,
+            directoryEntry.compression == ZSTD_1);
+          break;
         case 104: // camera-specific packed pixels
           data = decode12BitCamera(data, options.maxBytes);
           // reverse column ordering
@@ -3999,6 +4122,38 @@ public class ZeissCZIReader extends FormatReader {
     }
   }
 
+  /**
+   * Decompress a zstd0 or zstd1 block.  zstd1 blocks start with a small
+   * header, which can indicate that the low bytes of all 16-bit pixels
+   * are stored before all of the high bytes.
+   */
+  private byte[] decompressZstd(byte[] data, CodecOptions options,
+    boolean hasHeader) throws FormatException
+  {
+    int headerSize = 0;
+    boolean hiLoPacked = false;
+    if (hasHeader && data.length > 0) {
+      headerSize = data[0] & 0xff;
+      if (headerSize == 3 && data[1] == 1) {
+        hiLoPacked = (data[2] & 1) != 0;
+      }
+    }
+    byte[] compressed = headerSize == 0 ? data :
+      Arrays.copyOfRange(data, headerSize, data.length);
+    byte[] pixels = new ZstdCodec().decompress(compressed, options);
+    if (!hiLoPacked) {
+      return pixels;
+    }
+
+    byte[] unpacked = new byte[pixels.length];
+    int half = pixels.length / 2;
+    for (int i=0; i<half; i++) {
+      unpacked[i * 2] = pixels[i];
+      unpacked[i * 2 + 1] = pixels[half + i];
+    }
+    return unpacked;
+  }
+
   private byte[] decode12BitCamera(byte[] data, int maxBytes) throws IOException {
     byte[] decoded = new byte[maxBytes];
 
@@ -4260,6 +4415,124 @@ public class ZeissCZIReader extends FormatReader {
     public String filterSetRef;
   }
 
+  /**
+   * Spatial index of the subblocks that make up one plane of one series or
+   * resolution.  The plane is divided into a grid of cells that are at least
+   * as large as the largest subblock; each cell stores the indexes into
+   * the subblock list of every subblock that overlaps it.
+   */
+  static class TileIndex {
+    public boolean stitched;
+    public int minTileX = Integer.MAX_VALUE;
+    public int minTileY = Integer.MAX_VALUE;
+
+    private int cellWidth = 1, cellHeight = 1;
+    private int columns = 1, rows = 1;
+    private int[][] cells;
+
+    /**
+     * @param indexes indexes into the subblock list, in ascending order
+     * @param tiles bounding box of each subblock, or null if all of the
+     *              subblocks should be returned for any region
+     */
+    public TileIndex(int[] indexes, Region[] tiles, int sizeX, int sizeY) {
+      stitched = tiles != null;
+      if (tiles == null || indexes.length <= 1) {
+        cells = new int[][] {indexes};
+        return;
+      }
+      for (Region tile : tiles) {
+        cellWidth = Math.max(cellWidth, tile.width);
+        cellHeight = Math.max(cellHeight, tile.height);
+      }
+      columns = Math.max(1, (sizeX + cellWidth - 1) / cellWidth);
+      rows = Math.max(1, (sizeY + cellHeight - 1) / cellHeight);
+
+      int[] counts = new int[columns * rows];
+      for (int pass=0; pass<2; pass++) {
+        if (pass == 1) {
+          cells = new int[counts.length][];
+          for (int i=0; i<cells.length; i++) {
+            cells[i] = new int[counts[i]];
+            counts[i] = 0;
+          }
+        }
+        for (int t=0; t<tiles.length; t++) {
+          Region tile = tiles[t];
+          if (tile.x >= sizeX || tile.y >= sizeY ||
+            tile.x + tile.width <= 0 || tile.y + tile.height <= 0)
+          {
+            continue;
+          }
+          int firstCol = getColumn(tile.x);
+          int lastCol = getColumn(tile.x + tile.width - 1);
+          int firstRow = getRow(tile.y);
+          int lastRow = getRow(tile.y + tile.height - 1);
+          for (int row=firstRow; row<=lastRow; row++) {
+            for (int col=firstCol; col<=lastCol; col++) {
+              int cell = row * columns + col;
+              if (pass == 1) {
+                cells[cell][counts[cell]] = indexes[t];
+              }
+              counts[cell]++;
+            }
+          }
+        }
+      }
+    }
+
+    /**
+     * Returns the indexes of the subblocks that may overlap the given
+     * region, in ascending order.
+     */
+    public int[] getPlanes(Region region) {
+      if (cells.length == 1) {
+        return cells[0];
+      }
+      int firstCol = getColumn(region.x);
+      int lastCol = getColumn(region.x + region.width - 1);
+      int firstRow = getRow(region.y);
+      int lastRow = getRow(region.y + region.height - 1);
+      if (firstCol == lastCol && firstRow == lastRow) {
+        return cells[firstRow * columns + firstCol];
+      }
+
+      int count = 0;
+      for (int row=firstRow; row<=lastRow; row++) {
+        for (int col=firstCol; col<=lastCol; col++) {
+          count += cells[row * columns + col].length;
+        }
+      }
+      int[] indexes = new int[count];
+      count = 0;
+      for (int row=firstRow; row<=lastRow; row++) {
+        for (int col=firstCol; col<=lastCol; col++) {
+          int[] cell = cells[row * columns + col];
+          System.arraycopy(cell, 0, indexes, count, cell.length);
+          count += cell.length;
+        }
+      }
+
+      // subblocks that span several cells are listed more than once
+      Arrays.sort(indexes);
+      int unique = 0;
+      for (int i=0; i<indexes.length; i++) {
+        if (i == 0 || indexes[i] != indexes[i - 1]) {
+          indexes[unique++] = indexes[i];
+        }
+      }
+      return Arrays.copyOf(indexes, unique);
+    }
+
+    private int getColumn(int x) {
+      return Math.max(0, Math.min(columns - 1, x / cellWidth));
+    }
+
+    private int getRow(int y) {
+      return Math.max(0, Math.min(rows - 1, y / cellHeight));
+    }
+  }
+
   static class Coordinate {
     public int series;
     public int plane;
@@ -0,0 +1,112 @@
+/*
+ * #%L
+ * OME Bio-Formats package for reading and converting biological file formats.
+ * %%
+ * Copyright (C) 2005 - 2017 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+package loci.formats.in;
+
+import static org.testng.AssertJUnit.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.testng.annotations.Test;
+
+/**
+ * Compares lookups in {@link CellSensReader.TileIndex} with a linear search
+ * of the same tile coordinates, as done by
+ * {@link ArrayList#indexOf(Object)}.
+ */
+public class CellSensTileIndexTest {
+
+  private static final int DIMENSIONS = 4;
+
+  private CellSensReader reader = new CellSensReader();
+
+  @Test
+  public void testMatchesLinearSearch() {
+    Random random = new Random(7);
+    ArrayList<CellSensReader.TileCoordinate> tiles =
+      new ArrayList<CellSensReader.TileCoordinate>();
+    for (int i=0; i<5000; i++) {
+      tiles.add(createTile(random.nextInt(80), random.nextInt(60),
+        random.nextInt(3), random.nextInt(2)));
+    }
+    // duplicate coordinates map to the first chunk
+    tiles.add(tiles.get(10));
+    tiles.add(3, tiles.get(4000));
+    CellSensReader.TileIndex index = reader.new TileIndex(tiles);
+
+    for (int q=0; q<20000; q++) {
+      CellSensReader.TileCoordinate t = createTile(random.nextInt(90),
+        random.nextInt(70), random.nextInt(4), random.nextInt(3));
+      assertLookup(index, tiles, t);
+    }
+    for (CellSensReader.TileCoordinate t : tiles) {
+      assertLookup(index, tiles, t);
+    }
+  }
+
+  @Test
+  public void testDimensionMismatch() {
+    ArrayList<CellSensReader.TileCoordinate> tiles =
+      new ArrayList<CellSensReader.TileCoordinate>();
+    tiles.add(createTile(0, 0, 0, 0));
+    CellSensReader.TileIndex index = reader.new TileIndex(tiles);
+    assertEquals(0, index.indexOf(new int[DIMENSIONS], 0, 0));
+    assertEquals(-1, index.indexOf(new int[DIMENSIONS + 1], 0, 0));
+  }
+
+  @Test
+  public void testEmpty() {
+    CellSensReader.TileIndex index = reader.new TileIndex(
+      new ArrayList<CellSensReader.TileCoordinate>());
+    assertEquals(-1, index.indexOf(new int[DIMENSIONS], 0, 0));
+  }
+
+  private void assertLookup(CellSensReader.TileIndex index,
+    ArrayList<CellSensReader.TileCoordinate> tiles,
+    CellSensReader.TileCoordinate t)
+  {
+    int col = t.coordinate[0];
+    int row = t.coordinate[1];
+    // the first two values are ignored by the index
+    int[] query = t.coordinate.clone();
+    query[0] = -1;
+    query[1] = -1;
+    assertEquals(t.toString(), tiles.indexOf(t),
+      index.indexOf(query, col, row));
+  }
+
+  private CellSensReader.TileCoordinate createTile(int col, int row,
+    int z, int c)
+  {
+    CellSensReader.TileCoordinate t = reader.new TileCoordinate(DIMENSIONS);
+    t.coordinate[0] = col;
+    t.coordinate[1] = row;
+    t.coordinate[2] = z;
+    t.coordinate[3] = c;
+    return t;
+  }
+
+}
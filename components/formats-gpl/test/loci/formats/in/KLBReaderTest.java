@@ -0,0 +1,189 @@
+/*
+ * #%L
+ * OME Bio-Formats package for reading and converting biological file formats.
+ * %%
+ * Copyright (C) 2005 - 2017 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+package loci.formats.in;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.Deflater;
+
+import loci.formats.FormatException;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+/**
+ * Checks that decompressing KLB blocks on several threads gives the same
+ * pixels as decompressing them serially.
+ */
+public class KLBReaderTest {
+
+  private static final int BLOCK_SIZE = 16;
+  private static final int BLOCKS_X = 6;
+  private static final int BLOCKS_Y = 4;
+  private static final int SIZE_X = BLOCK_SIZE * BLOCKS_X;
+  private static final int SIZE_Y = BLOCK_SIZE * BLOCKS_Y;
+
+  /** uint16 pixels, as written to the file. */
+  private byte[] pixels;
+
+  private File file;
+  private ExecutorService executor;
+
+  @BeforeClass
+  public void setUp() throws IOException {
+    pixels = new byte[SIZE_X * SIZE_Y * 2];
+    new Random(17).nextBytes(pixels);
+    file = File.createTempFile("KLBReaderTest", ".klb");
+    file.deleteOnExit();
+    writeFile();
+    executor = Executors.newFixedThreadPool(2);
+  }
+
+  @AfterClass
+  public void tearDown() {
+    executor.shutdown();
+    file.delete();
+  }
+
+  @DataProvider(name = "regions")
+  public Object[][] createRegions() {
+    return new Object[][] {
+      {0, 0, SIZE_X, SIZE_Y},
+      {BLOCK_SIZE, BLOCK_SIZE, BLOCK_SIZE * 3, BLOCK_SIZE * 2},
+      {0, BLOCK_SIZE * 2, SIZE_X, BLOCK_SIZE * 2},
+    };
+  }
+
+  @Test
+  public void testSerialPixels() throws FormatException, IOException {
+    try (KLBReader reader = new KLBReader()) {
+      reader.setId(file.getAbsolutePath());
+      assertEquals(SIZE_X, reader.getSizeX());
+      assertEquals(SIZE_Y, reader.getSizeY());
+      assertTrue(Arrays.equals(pixels, reader.openBytes(0)));
+    }
+  }
+
+  @Test(dataProvider = "regions")
+  public void testParallelMatchesSerial(int x, int y, int w, int h)
+    throws FormatException, IOException
+  {
+    byte[] serial;
+    try (KLBReader reader = new KLBReader()) {
+      reader.setId(file.getAbsolutePath());
+      serial = reader.openBytes(0, x, y, w, h);
+    }
+    try (KLBReader reader = new KLBReader()) {
+      // fewer threads than blocks, so that blocks are queued and the
+      // number in flight is bounded
+      reader.setDecodeExecutor(executor);
+      reader.setId(file.getAbsolutePath());
+      byte[] parallel = reader.openBytes(0, x, y, w, h);
+      assertTrue(Arrays.equals(serial, parallel));
+      // the same buffer can be reused for a second plane
+      assertTrue(Arrays.equals(serial,
+        reader.openBytes(0, parallel, x, y, w, h)));
+    }
+  }
+
+  /**
+   * Writes a single plane of zlib-compressed blocks, in the layout read
+   * by {@link KLBReader}.
+   */
+  private void writeFile() throws IOException {
+    int blocks = BLOCKS_X * BLOCKS_Y;
+    byte[][] compressed = new byte[blocks][];
+    for (int by=0; by<BLOCKS_Y; by++) {
+      for (int bx=0; bx<BLOCKS_X; bx++) {
+        byte[] block = new byte[BLOCK_SIZE * BLOCK_SIZE * 2];
+        for (int row=0; row<BLOCK_SIZE; row++) {
+          int src = ((by * BLOCK_SIZE + row) * SIZE_X + bx * BLOCK_SIZE) * 2;
+          System.arraycopy(pixels, src, block, row * BLOCK_SIZE * 2,
+            BLOCK_SIZE * 2);
+        }
+        compressed[by * BLOCKS_X + bx] = deflate(block);
+      }
+    }
+
+    int[] dims = {SIZE_X, SIZE_Y, 1, 1, 1};
+    int[] blockSize = {BLOCK_SIZE, BLOCK_SIZE, 1, 1, 1};
+    ByteBuffer header = ByteBuffer.allocate(319 + blocks * 8);
+    header.order(ByteOrder.LITTLE_ENDIAN);
+    header.put((byte) 2);
+    for (int d : dims) {
+      header.putInt(d);
+    }
+    for (int i=0; i<dims.length; i++) {
+      header.putFloat(1f);
+    }
+    header.put((byte) 1); // uint16
+    header.put((byte) 2); // zlib
+    header.put(new byte[256]);
+    for (int b : blockSize) {
+      header.putInt(b);
+    }
+    // offsets of the end of each block, relative to the end of the header
+    long end = 0;
+    for (byte[] block : compressed) {
+      end += block.length;
+      header.putLong(end);
+    }
+
+    try (FileOutputStream out = new FileOutputStream(file)) {
+      out.write(header.array());
+      for (byte[] block : compressed) {
+        out.write(block);
+      }
+    }
+  }
+
+  private static byte[] deflate(byte[] data) {
+    Deflater deflater = new Deflater();
+    deflater.setInput(data);
+    deflater.finish();
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] buf = new byte[4096];
+    while (!deflater.finished()) {
+      out.write(buf, 0, deflater.deflate(buf));
+    }
+    deflater.end();
+    return out.toByteArray();
+  }
+
+}
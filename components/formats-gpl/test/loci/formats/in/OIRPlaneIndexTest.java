@@ -0,0 +1,147 @@
+/*
+ * #%L
+ * OME Bio-Formats package for reading and converting biological file formats.
+ * %%
+ * Copyright (C) 2005 - 2017 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+package loci.formats.in;
+
+import static org.testng.AssertJUnit.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.testng.annotations.Test;
+
+/**
+ * Compares the plane block ranges built by {@link OIRReader} with the
+ * linear scan that openBytes previously did for every plane.
+ */
+public class OIRPlaneIndexTest {
+
+  private static final String[] CHANNELS = {"CH1a", "CH2b", "CH10c"};
+
+  @Test
+  public void testSortedUIDs() {
+    List<String> uids = createUIDs(new Random(3), 4, 3, 5);
+    Collections.sort(uids);
+    assertRanges(uids.toArray(new String[uids.size()]), 4, 3, 1, 1);
+  }
+
+  @Test
+  public void testInterleavedUIDs() {
+    // blocks from different planes mixed together, so that ranges include
+    // blocks from other planes, as the linear scan did
+    List<String> uids = createUIDs(new Random(5), 3, 2, 4);
+    Collections.shuffle(uids, new Random(11));
+    assertRanges(uids.toArray(new String[uids.size()]), 3, 2, 1, 1);
+  }
+
+  @Test
+  public void testOffsetAndMissingPlanes() {
+    // Z and T start at 2, with a few UIDs outside the image
+    // and one channel with no blocks
+    List<String> uids = new ArrayList<String>();
+    for (int t=2; t<=4; t++) {
+      for (int z=2; z<=3; z++) {
+        for (int b=0; b<3; b++) {
+          uids.add(createUID(z, t, CHANNELS[0], b));
+          uids.add(createUID(z, t, CHANNELS[2], b));
+        }
+      }
+    }
+    uids.add(createUID(1, 2, CHANNELS[0], 0));
+    uids.add(createUID(4, 2, CHANNELS[0], 0));
+    uids.add(createUID(2, 5, CHANNELS[2], 0));
+    uids.add(createUID(2, 2, "CH9z", 0));
+    Collections.sort(uids);
+    String[] sorted = uids.toArray(new String[uids.size()]);
+    assertRanges(sorted, 2, 3, 2, 2);
+
+    int[][] ranges =
+      OIRReader.findPlaneRanges(sorted, CHANNELS, 2, 3, 2, 2);
+    for (int plane=1; plane<ranges[0].length; plane+=CHANNELS.length) {
+      assertEquals(-1, ranges[0][plane]);
+      assertEquals(-1, ranges[1][plane]);
+    }
+  }
+
+  /**
+   * Checks every plane against a linear scan for the first and last
+   * matching UID.
+   */
+  private void assertRanges(String[] uids, int sizeZ, int sizeT,
+    int minZ, int minT)
+  {
+    int[][] ranges =
+      OIRReader.findPlaneRanges(uids, CHANNELS, sizeZ, sizeT, minZ, minT);
+    for (int t=0; t<sizeT; t++) {
+      for (int z=0; z<sizeZ; z++) {
+        for (int c=0; c<CHANNELS.length; c++) {
+          int start = -1;
+          int end = -1;
+          for (int i=0; i<uids.length; i++) {
+            if (OIRReader.getZ(uids[i]) - minZ == z &&
+              OIRReader.getT(uids[i]) - minT == t &&
+              uids[i].indexOf(CHANNELS[c]) > 0)
+            {
+              if (start < 0) {
+                start = i;
+              }
+              end = i;
+            }
+          }
+          int key = ((t * sizeZ) + z) * CHANNELS.length + c;
+          String plane = Arrays.toString(new int[] {z, c, t});
+          assertEquals(plane, start, ranges[0][key]);
+          assertEquals(plane, end, ranges[1][key]);
+        }
+      }
+    }
+  }
+
+  private List<String> createUIDs(Random random, int sizeZ, int sizeT,
+    int blocks)
+  {
+    List<String> uids = new ArrayList<String>();
+    for (int t=1; t<=sizeT; t++) {
+      for (int z=1; z<=sizeZ; z++) {
+        for (String channel : CHANNELS) {
+          // not every plane has the same number of blocks
+          int count = random.nextInt(blocks + 1);
+          for (int b=0; b<count; b++) {
+            uids.add(createUID(z, t, channel, b));
+          }
+        }
+      }
+    }
+    return uids;
+  }
+
+  private String createUID(int z, int t, String channel, int block) {
+    return String.format("z%03dt%03d_0_%s_%d", z, t, channel, block);
+  }
+
+}
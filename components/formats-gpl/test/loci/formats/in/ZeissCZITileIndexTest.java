@@ -0,0 +1,144 @@
+/*
+ * #%L
+ * OME Bio-Formats package for reading and converting biological file formats.
+ * %%
+ * Copyright (C) 2005 - 2017 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+package loci.formats.in;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import loci.common.Region;
+
+import org.testng.annotations.Test;
+
+/**
+ * Compares lookups in {@link ZeissCZIReader.TileIndex} with a linear scan
+ * of the same synthetic subblock directory.
+ */
+public class ZeissCZITileIndexTest {
+
+  private static final int SIZE_X = 5000;
+  private static final int SIZE_Y = 3000;
+
+  @Test
+  public void testMatchesLinearScan() {
+    Random random = new Random(42);
+    int count = 400;
+    int[] indexes = createIndexes(random, count);
+    Region[] tiles = new Region[count];
+    for (int i=0; i<count; i++) {
+      // mostly regular tiles, with some that overlap, extend past the
+      // edge of the plane or lie entirely outside it
+      int w = 256 + random.nextInt(3) * 128;
+      int h = 256 + random.nextInt(2) * 64;
+      int x = random.nextInt(SIZE_X + 200) - 100;
+      int y = random.nextInt(SIZE_Y + 200) - 100;
+      tiles[i] = new Region(x, y, w, h);
+    }
+    ZeissCZIReader.TileIndex index =
+      new ZeissCZIReader.TileIndex(indexes, tiles, SIZE_X, SIZE_Y);
+
+    for (int q=0; q<500; q++) {
+      int x = random.nextInt(SIZE_X);
+      int y = random.nextInt(SIZE_Y);
+      int w = 1 + random.nextInt(SIZE_X - x);
+      int h = 1 + random.nextInt(SIZE_Y - y);
+      if (q % 2 == 0) {
+        w = Math.min(w, 512);
+        h = Math.min(h, 512);
+      }
+      Region region = new Region(x, y, w, h);
+      assertLookup(index, indexes, tiles, region);
+    }
+    assertLookup(index, indexes, tiles, new Region(0, 0, SIZE_X, SIZE_Y));
+    assertLookup(index, indexes, tiles, new Region(SIZE_X - 1, SIZE_Y - 1, 1, 1));
+  }
+
+  @Test
+  public void testFullPlaneTile() {
+    // a prestitched plane stored as one subblock at the origin
+    int[] indexes = {3};
+    Region[] tiles = {new Region(0, 0, SIZE_X, SIZE_Y)};
+    ZeissCZIReader.TileIndex index =
+      new ZeissCZIReader.TileIndex(indexes, tiles, SIZE_X, SIZE_Y);
+    assertLookup(index, indexes, tiles, new Region(10, 10, 100, 100));
+    assertLookup(index, indexes, tiles, new Region(0, 0, SIZE_X, SIZE_Y));
+  }
+
+  @Test
+  public void testNotStitched() {
+    int[] indexes = {0, 2, 5, 9};
+    ZeissCZIReader.TileIndex index =
+      new ZeissCZIReader.TileIndex(indexes, null, SIZE_X, SIZE_Y);
+    assertEquals(false, index.stitched);
+    int[] planes = index.getPlanes(new Region(10, 20, 30, 40));
+    assertTrue(Arrays.equals(indexes, planes));
+  }
+
+  /**
+   * Checks that the index returns every subblock that a linear scan finds,
+   * in ascending order and without duplicates.
+   */
+  private void assertLookup(ZeissCZIReader.TileIndex index, int[] indexes,
+    Region[] tiles, Region region)
+  {
+    List<Integer> expected = new ArrayList<Integer>();
+    for (int i=0; i<tiles.length; i++) {
+      if (tiles[i].intersects(region)) {
+        expected.add(indexes[i]);
+      }
+    }
+
+    int[] planes = index.getPlanes(region);
+    for (int i=1; i<planes.length; i++) {
+      assertTrue(planes[i - 1] < planes[i]);
+    }
+    List<Integer> found = new ArrayList<Integer>();
+    for (int plane : planes) {
+      int t = Arrays.binarySearch(indexes, plane);
+      assertTrue(t >= 0);
+      if (tiles[t].intersects(region)) {
+        found.add(plane);
+      }
+    }
+    assertEquals(region.toString(), expected, found);
+  }
+
+  /** Create ascending, non-contiguous indexes into a subblock list. */
+  private int[] createIndexes(Random random, int count) {
+    int[] indexes = new int[count];
+    int next = 0;
+    for (int i=0; i<count; i++) {
+      next += 1 + random.nextInt(3);
+      indexes[i] = next;
+    }
+    return indexes;
+  }
+
+}
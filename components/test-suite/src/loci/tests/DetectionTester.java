@@ -0,0 +1,180 @@
+/*
+ * #%L
+ * OME Bio-Formats manual and automated test suite.
+ * %%
+ * Copyright (C) 2006 - 2017 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+package loci.tests;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import loci.formats.FormatDetector;
+import loci.formats.ImageReader;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A class for comparing the cost of format detection using the indexed
+ * {@link FormatDetector} search against asking every reader in turn.
+ * For each mode, the number of reader checks, the elapsed time and the
+ * number of bytes read by the process are reported.  Bytes read are taken
+ * from /proc/self/io, so they are only reported on Linux.
+ */
+public class DetectionTester {
+
+  private static final Logger LOGGER =
+    LoggerFactory.getLogger(DetectionTester.class);
+
+  private static final File PROC_IO = new File("/proc/self/io");
+
+  // -- Fields --
+
+  private FormatDetector detector;
+
+  private int iterations = 1;
+
+  // -- Constructor --
+
+  public DetectionTester() {
+    detector = new ImageReader().getFormatDetector();
+  }
+
+  // -- DetectionTester API methods --
+
+  public void setIterations(int iterations) {
+    this.iterations = iterations;
+  }
+
+  /** Runs both detection modes on the given file and logs the results. */
+  public boolean testFile(String id) throws IOException {
+    detector.setIndexed(false);
+    long[] linear = detect(id);
+    detector.setIndexed(true);
+    long[] indexed = detect(id);
+
+    String format = getFormat(linear[0]);
+    LOGGER.info("{} ({})", id, format);
+    LOGGER.info("  linear:  {} checks, {} ms, {}",
+      new Object[] {linear[1], linear[2], getBytesRead(linear[3])});
+    LOGGER.info("  indexed: {} checks, {} ms, {}",
+      new Object[] {indexed[1], indexed[2], getBytesRead(indexed[3])});
+    if (linear[0] != indexed[0]) {
+      LOGGER.error("  detection mismatch: {} != {}",
+        format, getFormat(indexed[0]));
+      return false;
+    }
+    return true;
+  }
+
+  // -- Helper methods --
+
+  /**
+   * Detects the given file using the current mode.
+   * @return reader index, check count, elapsed time and bytes read
+   */
+  private long[] detect(String id) throws IOException {
+    int index = -1;
+    long checks = 0;
+    long bytes = readBytesRead();
+    long start = System.currentTimeMillis();
+    for (int i=0; i<iterations; i++) {
+      FormatDetector.Detection detection = detector.detect(id, true);
+      index = detection.getReaderIndex();
+      checks += detection.getCheckCount();
+    }
+    long time = System.currentTimeMillis() - start;
+    bytes = readBytesRead() - bytes;
+    return new long[] {index, checks / iterations, time / iterations,
+      bytes / iterations};
+  }
+
+  private String getFormat(long index) {
+    if (index < 0) return "unknown";
+    return detector.getReaderClass((int) index).getSimpleName();
+  }
+
+  private String getBytesRead(long bytes) {
+    if (!PROC_IO.exists()) return "bytes read unavailable (Linux only)";
+    return bytes + " bytes read";
+  }
+
+  /**
+   * Returns the number of bytes read so far by this process, or 0 if
+   * /proc/self/io does not exist (i.e. on anything other than Linux).
+   */
+  private long readBytesRead() throws IOException {
+    if (!PROC_IO.exists()) return 0;
+    try (BufferedReader in = new BufferedReader(new FileReader(PROC_IO))) {
+      String line;
+      while ((line = in.readLine()) != null) {
+        if (line.startsWith("rchar:")) {
+          return Long.parseLong(line.substring(6).trim());
+        }
+      }
+    }
+    return 0;
+  }
+
+  private static void addFiles(File file, List<String> files) {
+    if (file.isDirectory()) {
+      File[] list = file.listFiles();
+      if (list == null) return;
+      for (File f : list) {
+        addFiles(f, files);
+      }
+    }
+    else files.add(file.getAbsolutePath());
+  }
+
+  // -- Main method --
+
+  public static void main(String[] args) throws IOException {
+    DetectionTester tester = new DetectionTester();
+    List<String> files = new ArrayList<String>();
+    for (int i=0; i<args.length; i++) {
+      if (args[i].equals("-iterations") && i < args.length - 1) {
+        tester.setIterations(Integer.parseInt(args[++i]));
+      }
+      else addFiles(new File(args[i]), files);
+    }
+    if (files.isEmpty()) {
+      LOGGER.info("Usage: DetectionTester [-iterations n] file|dir ...");
+      return;
+    }
+    int mismatches = 0;
+    for (String file : files) {
+      if (!tester.testFile(file)) mismatches++;
+    }
+    if (mismatches > 0) {
+      LOGGER.error("{} of {} files were detected differently",
+        mismatches, files.size());
+      System.exit(1);
+    }
+  }
+
+}
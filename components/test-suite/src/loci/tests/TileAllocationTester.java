@@ -0,0 +1,152 @@
+/*
+ * #%L
+ * OME Bio-Formats manual and automated test suite.
+ * %%
+ * Copyright (C) 2006 - 2017 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+package loci.tests;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+
+import loci.common.DebugTools;
+import loci.common.RandomAccessInputStream;
+import loci.formats.FormatException;
+import loci.formats.codec.ByteArrayPool;
+import loci.formats.tiff.IFD;
+import loci.formats.tiff.TiffParser;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A class for measuring the number of bytes allocated per tile when
+ * {@link TiffParser} reads every tile of a TIFF file one at a time, as a
+ * tile server would, with and without a {@link ByteArrayPool}.
+ */
+public class TileAllocationTester {
+
+  private static final Logger LOGGER =
+    LoggerFactory.getLogger(TileAllocationTester.class);
+
+  // -- Fields --
+
+  private com.sun.management.ThreadMXBean threads;
+
+  private int iterations = 10;
+
+  // -- Constructor --
+
+  public TileAllocationTester() {
+    threads = (com.sun.management.ThreadMXBean)
+      ManagementFactory.getThreadMXBean();
+  }
+
+  // -- TileAllocationTester API methods --
+
+  public void setIterations(int iterations) {
+    this.iterations = iterations;
+  }
+
+  /** Reads the first IFD of the given file and logs allocations per tile. */
+  public void testFile(String id) throws FormatException, IOException {
+    // use the same small stream buffer as MinimalTiffReader, as every
+    // buffer refill allocates a new buffer of that size
+    try (RandomAccessInputStream in = new RandomAccessInputStream(id, 16)) {
+      TiffParser parser = new TiffParser(in);
+      IFD ifd = parser.getFirstIFD();
+      LOGGER.info("{} ({} x {}, {} x {} tiles, {})", new Object[] {id,
+        ifd.getImageWidth(), ifd.getImageLength(), ifd.getTileWidth(),
+        ifd.getTileLength(), ifd.getCompression().getCodecName()});
+
+      long[] unpooled = readTiles(parser, ifd);
+      parser.setBufferPool(new ByteArrayPool());
+      long[] pooled = readTiles(parser, ifd);
+
+      LOGGER.info("  without pool: {} bytes allocated per tile, {} us/tile",
+        unpooled[0], unpooled[1]);
+      LOGGER.info("  with pool:    {} bytes allocated per tile, {} us/tile",
+        pooled[0], pooled[1]);
+    }
+  }
+
+  // -- Helper methods --
+
+  /**
+   * Reads every tile of the given IFD, after one warm-up pass.
+   * @return bytes allocated and microseconds elapsed per tile
+   */
+  private long[] readTiles(TiffParser parser, IFD ifd)
+    throws FormatException, IOException
+  {
+    int tileWidth = (int) ifd.getTileWidth();
+    int tileHeight = (int) ifd.getTileLength();
+    int width = (int) ifd.getImageWidth();
+    int height = (int) ifd.getImageLength();
+    int bytes = ifd.getBytesPerSample()[0] * ifd.getSamplesPerPixel();
+    byte[] buf = new byte[tileWidth * tileHeight * bytes];
+
+    long thread = Thread.currentThread().getId();
+    long allocated = 0;
+    long start = 0;
+    long tiles = 0;
+    for (int i=0; i<=iterations; i++) {
+      if (i == 1) {
+        allocated = threads.getThreadAllocatedBytes(thread);
+        start = System.nanoTime();
+      }
+      for (int y=0; y<height; y+=tileHeight) {
+        for (int x=0; x<width; x+=tileWidth) {
+          int w = Math.min(tileWidth, width - x);
+          int h = Math.min(tileHeight, height - y);
+          parser.getSamples(ifd, buf, x, y, w, h);
+          if (i > 0) tiles++;
+        }
+      }
+    }
+    long time = System.nanoTime() - start;
+    allocated = threads.getThreadAllocatedBytes(thread) - allocated;
+    tiles = Math.max(tiles, 1);
+    return new long[] {allocated / tiles, time / tiles / 1000};
+  }
+
+  // -- Main method --
+
+  public static void main(String[] args) throws FormatException, IOException {
+    DebugTools.enableLogging("INFO");
+    TileAllocationTester tester = new TileAllocationTester();
+    int files = 0;
+    for (int i=0; i<args.length; i++) {
+      if (args[i].equals("-iterations") && i < args.length - 1) {
+        tester.setIterations(Integer.parseInt(args[++i]));
+      }
+      else {
+        tester.testFile(args[i]);
+        files++;
+      }
+    }
+    if (files == 0) {
+      LOGGER.info("Usage: TileAllocationTester [-iterations n] file.tif ...");
+    }
+  }
+
+}